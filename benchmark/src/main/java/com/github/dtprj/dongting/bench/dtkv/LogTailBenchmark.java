@@ -0,0 +1,239 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.dtkv;
+
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.PbParser;
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.common.FutureCallback;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.KvReq;
+import com.github.dtprj.dongting.dtkv.LogTailConsumer;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.LogFetchResp;
+import com.github.dtprj.dongting.raft.LogRecord;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measure LogTailConsumer throughput and the end-to-end latency (from put to the listener), when the consumer
+ * follows the tail of a light producer (sequential puts) and a heavy producer (many concurrent puts), and when
+ * a new consumer catches up the whole backlog from the log files.
+ * <p>
+ * The put value starts with seq and put time, the listener decodes the record body as KvReq to read them.
+ *
+ * @author huangli
+ */
+public class LogTailBenchmark {
+    private static final String DATA_DIR = "target/log-tail-bench";
+    private static final int GROUP_ID = 0;
+
+    private static final int LIGHT_MESSAGES = 5000;
+    private static final int MESSAGES = 200_000;
+    private static final int VALUE_SIZE = 1024;
+    private static final int MAX_PENDING = 2000;
+
+    private static final AtomicInteger received = new AtomicInteger();
+    private static final AtomicLong receivedBytes = new AtomicLong();
+    private static volatile long[] latencies;
+
+    // used in the consumer executor thread only
+    private static final DecodeContext decodeContext = new DecodeContext();
+    private static final PbParser parser = new PbParser();
+
+    public static void main(String[] args) throws Exception {
+        deleteDir(new File(DATA_DIR));
+        RaftServer server = startServer();
+        server.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+        KvClient client = new KvClient();
+        client.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            client.getRaftClient().clientAddNode(Collections.singletonList(
+                    new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+            client.getRaftClient().clientAddOrUpdateGroup(GROUP_ID, new int[]{1});
+
+            CompletableFuture<LogFetchResp> f = new CompletableFuture<>();
+            client.getRaftClient().fetchLog(GROUP_ID, 1, 1, 1024, 0, FutureCallback.fromFuture(f));
+            long tailIndex = f.get(10, TimeUnit.SECONDS).commitIndex + 1;
+
+            tailIndex = runTail(client, executor, tailIndex, false);
+            runTail(client, executor, tailIndex, true);
+            runCatchUp(client, executor);
+        } finally {
+            executor.shutdown();
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), client);
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), server);
+        }
+        System.exit(0);
+    }
+
+    private static void onRecords(List<LogRecord> records) {
+        long now = System.nanoTime();
+        long[] arr = latencies;
+        for (LogRecord r : records) {
+            byte[] body = r.body;
+            if (body == null || body.length < VALUE_SIZE) {
+                continue;
+            }
+            parser.prepareNext(decodeContext, new KvReq.KvReqCallback(), body.length);
+            KvReq req = (KvReq) parser.parse(ByteBuffer.wrap(body));
+            ByteBuffer buf = ByteBuffer.wrap(req.value);
+            int seq = buf.getInt();
+            long putNanos = buf.getLong();
+            if (arr != null && seq >= 0 && seq < arr.length) {
+                arr[seq] = now - putNanos;
+            }
+            receivedBytes.addAndGet(body.length);
+            received.incrementAndGet();
+        }
+    }
+
+    private static byte[] value(int seq) {
+        ByteBuffer buf = ByteBuffer.allocate(VALUE_SIZE);
+        buf.putInt(seq);
+        buf.putLong(System.nanoTime());
+        return buf.array();
+    }
+
+    private static void reset(int messages) {
+        received.set(0);
+        receivedBytes.set(0);
+        latencies = new long[messages];
+    }
+
+    private static long runTail(KvClient client, ExecutorService executor, long tailIndex,
+                                boolean heavy) throws Exception {
+        int messages = heavy ? MESSAGES : LIGHT_MESSAGES;
+        reset(messages);
+        LogTailConsumer c = client.createLogTailConsumer(GROUP_ID, GROUP_ID, null,
+                LogTailBenchmark::onRecords, executor);
+        c.start(tailIndex).get();
+        long start = System.nanoTime();
+        Semaphore s = new Semaphore(heavy ? MAX_PENDING : 1);
+        for (int i = 0; i < messages; i++) {
+            s.acquire();
+            client.put(GROUP_ID, ("k" + (i % 1000)).getBytes(), value(i), (v, ex) -> s.release());
+        }
+        waitReceived(messages);
+        long nanos = System.nanoTime() - start;
+        c.stop();
+        report(heavy ? "heavy tail" : "light tail", nanos, true);
+        return c.getConsumedIndex();
+    }
+
+    private static void runCatchUp(KvClient client, ExecutorService executor) throws Exception {
+        reset(MESSAGES + LIGHT_MESSAGES);
+        LogTailConsumer c = client.createLogTailConsumer(GROUP_ID, GROUP_ID, null,
+                LogTailBenchmark::onRecords, executor);
+        long start = System.nanoTime();
+        c.start(1).get();
+        waitReceived(MESSAGES + LIGHT_MESSAGES);
+        long nanos = System.nanoTime() - start;
+        c.stop();
+        // the latency includes the time in backlog, not meaningful
+        report("catch-up", nanos, false);
+    }
+
+    private static void waitReceived(int messages) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (received.get() < messages && System.nanoTime() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(1);
+        }
+    }
+
+    private static void report(String name, long nanos, boolean printLatency) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s: records=%,d, %,.0f records/s, %.1f MB/s%n", name, received.get(),
+                received.get() / seconds, receivedBytes.get() / seconds / 1024 / 1024);
+        if (!printLatency) {
+            return;
+        }
+        long[] arr = latencies;
+        long[] l = new long[arr.length];
+        int j = 0;
+        for (long v : arr) {
+            if (v != 0) {
+                l[j++] = v;
+            }
+        }
+        if (j == 0) {
+            return;
+        }
+        Arrays.sort(l, 0, j);
+        System.out.printf("%s: latency p50=%,dus, p99=%,dus, max=%,dus%n",
+                name, l[j / 2] / 1000, l[(int) (j * 0.99)] / 1000, l[j - 1] / 1000);
+    }
+
+    private static RaftServer startServer() {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(GROUP_ID, "1", "");
+        gc.dataDir = DATA_DIR;
+        gc.syncForce = false;
+        gc.saveSnapshotWhenClose = false;
+        // so the catch-up consumer reads the log files
+        gc.maxCacheTasks = 10_000;
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                return new DtKV(groupConfig, new KvServerConfig());
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.dtkv;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.WatchEvent;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * N watchers (each has its own connection) watch one key, measure the time from put to the last
+ * watcher received the event. The notify of a single key is encoded once and shared by all channels.
+ * <p>
+ * Usage: WatchFanOutBenchmark [watchers] [valueSize]
+ *
+ * @author huangli
+ */
+public class WatchFanOutBenchmark {
+    private static final String DATA_DIR = "target/watch-fan-out-bench";
+    private static final int GROUP_ID = 0;
+    private static final byte[] KEY = "config".getBytes();
+
+    private static final int PUTS = 1000;
+    private static final int PAUSE_MILLIS = 5;
+
+    private static AtomicIntegerArray receivedCount;
+    private static AtomicLongArray lastReceivedNanos;
+    private static long[] putNanos;
+
+    public static void main(String[] args) throws Exception {
+        int watchers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+        deleteDir(new File(DATA_DIR));
+        RaftServer server = startServer();
+        server.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+        KvClient writer = createClient();
+        KvClient[] clients = new KvClient[watchers];
+        try {
+            writer.put(GROUP_ID, KEY, new byte[1]);
+            receivedCount = new AtomicIntegerArray(PUTS);
+            lastReceivedNanos = new AtomicLongArray(PUTS);
+            putNanos = new long[PUTS];
+            for (int i = 0; i < watchers; i++) {
+                clients[i] = createClient();
+                clients[i].getWatchManager().setListener(WatchFanOutBenchmark::onUpdate, Runnable::run);
+                clients[i].getWatchManager().addWatch(GROUP_ID, KEY);
+            }
+            Thread.sleep(2000);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < PUTS; i++) {
+                putNanos[i] = System.nanoTime();
+                writer.put(GROUP_ID, KEY, value(i, valueSize));
+                Thread.sleep(PAUSE_MILLIS);
+            }
+            Thread.sleep(2000);
+            report(watchers, valueSize, System.nanoTime() - start);
+        } finally {
+            for (KvClient c : clients) {
+                if (c != null) {
+                    DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), c);
+                }
+            }
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), writer);
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), server);
+        }
+        System.exit(0);
+    }
+
+    private static KvClient createClient() {
+        KvClient client = new KvClient();
+        client.start();
+        client.getRaftClient().clientAddNode(Collections.singletonList(
+                new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+        client.getRaftClient().clientAddOrUpdateGroup(GROUP_ID, new int[]{1});
+        return client;
+    }
+
+    private static void onUpdate(WatchEvent e) {
+        if (e.value == null || e.value.length < 4) {
+            return;
+        }
+        int seq = ByteBuffer.wrap(e.value).getInt();
+        if (seq >= 0 && seq < PUTS) {
+            receivedCount.incrementAndGet(seq);
+            lastReceivedNanos.accumulateAndGet(seq, System.nanoTime(), Math::max);
+        }
+    }
+
+    private static byte[] value(int seq, int valueSize) {
+        byte[] v = new byte[Math.max(4, valueSize)];
+        ByteBuffer.wrap(v).putInt(seq);
+        return v;
+    }
+
+    private static void report(int watchers, int valueSize, long totalNanos) {
+        long[] l = new long[PUTS];
+        int j = 0;
+        long events = 0;
+        for (int i = 0; i < PUTS; i++) {
+            int c = receivedCount.get(i);
+            events += c;
+            if (c == watchers) {
+                l[j++] = lastReceivedNanos.get(i) - putNanos[i];
+            }
+        }
+        System.out.printf("watchers=%d, valueSize=%d, puts=%,d, events=%,d (%,d events/s)%n", watchers, valueSize,
+                PUTS, events, events * 1_000_000_000L / totalNanos);
+        if (j == 0) {
+            System.out.println("no put is received by all watchers");
+            return;
+        }
+        Arrays.sort(l, 0, j);
+        System.out.printf("received by all watchers: %,d, fan-out latency p50=%,dus, p99=%,dus, max=%,dus%n",
+                j, l[j / 2] / 1000, l[(int) (j * 0.99)] / 1000, l[j - 1] / 1000);
+    }
+
+    private static RaftServer startServer() {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(GROUP_ID, "1", "");
+        gc.dataDir = DATA_DIR;
+        gc.syncForce = false;
+        gc.saveSnapshotWhenClose = false;
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                return new DtKV(groupConfig, new KvServerConfig());
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
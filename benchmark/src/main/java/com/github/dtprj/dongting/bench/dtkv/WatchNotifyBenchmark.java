@@ -0,0 +1,200 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.dtkv;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.WatchEvent;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the latency from put to the KvListener callback of the watcher, under light churn
+ * (one key, sequential puts with pause) and heavy churn (many keys, many concurrent puts).
+ * Notifies of the same key may be coalesced, the latency of a received event is measured
+ * from the put of the value it carries.
+ *
+ * @author huangli
+ */
+public class WatchNotifyBenchmark {
+    private static final String DATA_DIR = "target/watch-bench";
+    private static final int GROUP_ID = 0;
+    // KvServerConfig.watchDispatchWindowMicros
+    private static final int[] WINDOW_MICROS = new int[]{0, 1000};
+
+    private static final int LIGHT_PUTS = 2000;
+    private static final int LIGHT_PAUSE_MILLIS = 2;
+
+    private static final int HEAVY_KEYS = 200;
+    private static final int HEAVY_PUTS = 200_000;
+    private static final int HEAVY_MAX_PENDING = 2000;
+
+    private static volatile long[] latencies;
+
+    public static void main(String[] args) throws Exception {
+        for (int window : WINDOW_MICROS) {
+            deleteDir(new File(DATA_DIR));
+            RaftServer server = startServer(window);
+            server.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+            KvClient client = new KvClient();
+            client.start();
+            try {
+                client.getRaftClient().clientAddNode(Collections.singletonList(
+                        new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+                client.getRaftClient().clientAddOrUpdateGroup(GROUP_ID, new int[]{1});
+                client.getWatchManager().setListener(WatchNotifyBenchmark::onUpdate, Runnable::run);
+
+                runLight(client, window);
+                runHeavy(client, window);
+            } finally {
+                DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), client);
+                DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), server);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void onUpdate(WatchEvent e) {
+        if (e.value == null || e.value.length < 12) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(e.value);
+        int seq = buf.getInt();
+        long putNanos = buf.getLong();
+        long[] arr = latencies;
+        if (arr != null && seq < arr.length && arr[seq] == 0) {
+            arr[seq] = System.nanoTime() - putNanos;
+        }
+    }
+
+    private static byte[] value(int seq) {
+        ByteBuffer buf = ByteBuffer.allocate(12);
+        buf.putInt(seq);
+        buf.putLong(System.nanoTime());
+        return buf.array();
+    }
+
+    private static void runLight(KvClient client, int window) throws Exception {
+        byte[] key = "light".getBytes();
+        client.put(GROUP_ID, key, new byte[1]);
+        client.getWatchManager().addWatch(GROUP_ID, key);
+        Thread.sleep(1000);
+        start(LIGHT_PUTS);
+        for (int i = 0; i < LIGHT_PUTS; i++) {
+            client.put(GROUP_ID, key, value(i));
+            Thread.sleep(LIGHT_PAUSE_MILLIS);
+        }
+        Thread.sleep(1000);
+        client.getWatchManager().removeWatch(GROUP_ID, key);
+        report("light", window, LIGHT_PUTS);
+    }
+
+    private static void runHeavy(KvClient client, int window) throws Exception {
+        byte[][] keys = new byte[HEAVY_KEYS][];
+        for (int i = 0; i < HEAVY_KEYS; i++) {
+            keys[i] = ("heavy" + i).getBytes();
+            client.put(GROUP_ID, keys[i], new byte[1]);
+        }
+        client.getWatchManager().addWatch(GROUP_ID, keys);
+        Thread.sleep(1000);
+        start(HEAVY_PUTS);
+        Semaphore s = new Semaphore(HEAVY_MAX_PENDING);
+        for (int i = 0; i < HEAVY_PUTS; i++) {
+            s.acquire();
+            client.put(GROUP_ID, keys[i % HEAVY_KEYS], value(i), (v, ex) -> s.release());
+        }
+        s.acquire(HEAVY_MAX_PENDING);
+        Thread.sleep(2000);
+        client.getWatchManager().removeWatch(GROUP_ID, keys);
+        report("heavy", window, HEAVY_PUTS);
+    }
+
+    private static void start(int puts) {
+        latencies = new long[puts];
+    }
+
+    private static void report(String name, int window, int puts) {
+        long[] arr = latencies;
+        latencies = null;
+        long[] l = new long[arr.length];
+        int j = 0;
+        for (long v : arr) {
+            if (v != 0) {
+                l[j++] = v;
+            }
+        }
+        Arrays.sort(l, 0, j);
+        if (j == 0) {
+            System.out.printf("%s churn, window=%dus: no event received%n", name, window);
+            return;
+        }
+        System.out.printf("%s churn, window=%dus: puts=%,d, events=%,d, p50=%,dus, p99=%,dus, max=%,dus%n",
+                name, window, puts, j, l[j / 2] / 1000, l[(int) (j * 0.99)] / 1000, l[j - 1] / 1000);
+    }
+
+    private static RaftServer startServer(int windowMicros) {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(GROUP_ID, "1", "");
+        gc.dataDir = DATA_DIR;
+        gc.syncForce = false;
+        gc.saveSnapshotWhenClose = false;
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                KvServerConfig kvConfig = new KvServerConfig();
+                kvConfig.watchDispatchWindowMicros = windowMicros;
+                return new DtKV(groupConfig, kvConfig);
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.raft;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.fiber.Dispatcher;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.Snapshot;
+import com.github.dtprj.dongting.raft.sm.SnapshotInfo;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the install snapshot time of a new observer over loopback, with different
+ * RaftGroupConfig.replicateSnapshotConcurrency (the window of in-flight chunks). The leader sends a synthetic
+ * snapshot, and the observer delays the ack of each chunk by LATENCY_MILLIS to simulate the network latency.
+ * <p>
+ * Usage: InstallSnapshotBenchmark [snapshotSizeMB]
+ *
+ * @author huangli
+ */
+public class InstallSnapshotBenchmark {
+    private static final String DATA_DIR = "target/install-bench";
+    private static final long DEFAULT_SNAPSHOT_SIZE_MB = 2048;
+    private static final int LATENCY_MILLIS = 2;
+    private static final int[] CONCURRENCY = new int[]{1, 4, 16};
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String SERVERS_1 = "1,127.0.0.1:4001";
+    private static final String SERVERS_2 = "1,127.0.0.1:4001;2,127.0.0.1:4002";
+
+    private static long snapshotSize;
+
+    public static void main(String[] args) throws Exception {
+        long sizeMB = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SNAPSHOT_SIZE_MB;
+        snapshotSize = sizeMB * 1024 * 1024;
+        for (int concurrency : CONCURRENCY) {
+            String dir = DATA_DIR + "-" + concurrency;
+            deleteDir(new File(dir));
+
+            // start the leader alone to write some raft logs
+            RaftServer leader = startServer(dir, 1, SERVERS_1, "", concurrency, null);
+            leader.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), leader);
+
+            // the new observer has no log, so the leader will install snapshot to it
+            InstallResult result = new InstallResult();
+            leader = startServer(dir, 1, SERVERS_2, "2", concurrency, null);
+            RaftServer observer = startServer(dir, 2, SERVERS_2, "2", concurrency, result);
+            if (!result.finishLatch.await(600, TimeUnit.SECONDS)) {
+                System.out.println("install snapshot timeout");
+            }
+            long nanos = result.finishNanos - result.startNanos;
+            System.out.printf("concurrency=%d, latency=%dms, size=%,d MB, install time: %,d ms, %,.1f MB/s%n",
+                    concurrency, LATENCY_MILLIS, sizeMB, nanos / 1_000_000, result.bytes / 1024.0 / 1024 / (nanos / 1e9));
+
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), observer);
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), leader);
+        }
+        System.exit(0);
+    }
+
+    private static RaftServer startServer(String dir, int nodeId, String servers, String observers,
+                                          int concurrency, InstallResult result) {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = servers;
+        serverConfig.nodeId = nodeId;
+        serverConfig.replicatePort = 4000 + nodeId;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(0, "1", observers);
+        gc.dataDir = dir + "/node-" + nodeId;
+        gc.syncForce = false;
+        gc.saveSnapshotSeconds = Integer.MAX_VALUE;
+        gc.saveSnapshotWhenClose = false;
+        gc.replicateSnapshotConcurrency = concurrency;
+        gc.replicateSnapshotBufferSize = CHUNK_SIZE;
+
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                if (result == null) {
+                    return new SyntheticSnapshotKv(groupConfig);
+                } else {
+                    return new DelayAckKv(groupConfig, result);
+                }
+            }
+
+            @Override
+            public Dispatcher createDispatcher(RaftServerConfig serverConfig, RaftGroupConfig groupConfig) {
+                // 2 nodes in same jvm, so use node id as part of dispatcher name
+                return new Dispatcher("node-" + nodeId + "-dispatcher");
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static class InstallResult {
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        volatile long startNanos;
+        volatile long finishNanos;
+        volatile long bytes;
+    }
+
+    /**
+     * the leader, returns a synthetic snapshot of snapshotSize bytes, the content is not initialized.
+     */
+    private static class SyntheticSnapshotKv extends DtKV {
+        SyntheticSnapshotKv(RaftGroupConfigEx groupConfig) {
+            super(groupConfig, new KvServerConfig());
+        }
+
+        @Override
+        public FiberFuture<Snapshot> takeSnapshot(SnapshotInfo si) {
+            FiberGroup g = FiberGroup.currentGroup();
+            Snapshot s = new Snapshot(si) {
+                private long remaining = snapshotSize;
+
+                @Override
+                public FiberFuture<Integer> readNext(ByteBuffer buffer) {
+                    int n = (int) Math.min(remaining, buffer.remaining());
+                    buffer.position(buffer.position() + n);
+                    remaining -= n;
+                    return FiberFuture.completedFuture(g, n);
+                }
+
+                @Override
+                protected void doClose() {
+                }
+            };
+            return FiberFuture.completedFuture(g, s);
+        }
+    }
+
+    /**
+     * the observer, drops the snapshot data and acks each chunk after LATENCY_MILLIS.
+     */
+    private static class DelayAckKv extends DtKV {
+        private final InstallResult result;
+
+        DelayAckKv(RaftGroupConfigEx groupConfig, InstallResult result) {
+            super(groupConfig, new KvServerConfig());
+            this.result = result;
+        }
+
+        @Override
+        public FiberFuture<Void> installSnapshot(long lastIncludeIndex, int lastIncludeTerm, long offset,
+                                                 boolean done, ByteBuffer data) {
+            if (offset == 0) {
+                result.startNanos = System.nanoTime();
+            }
+            if (done) {
+                result.finishNanos = System.nanoTime();
+                result.bytes = offset;
+                result.finishLatch.countDown();
+                // reset to an empty kv
+                return super.installSnapshot(lastIncludeIndex, lastIncludeTerm, 0, true, null);
+            }
+            FiberFuture<Void> f = FiberGroup.currentGroup().newFuture("delayAck");
+            DtUtil.SCHEDULED_SERVICE.schedule(() -> f.fireComplete(null), LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+            return f;
+        }
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
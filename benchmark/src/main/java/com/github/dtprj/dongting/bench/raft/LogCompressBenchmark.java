@@ -0,0 +1,114 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.raft;
+
+import com.github.dtprj.dongting.bench.common.BenchBase;
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
+import com.github.dtprj.dongting.raft.server.LogItem;
+
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmark of raft log body compression: throughput and bytes per op (raw vs compressed).
+ *
+ * @author huangli
+ */
+public class LogCompressBenchmark extends BenchBase {
+    private static final int THREADS = 1;
+    private static final int DATA_LEN = 2048;
+    // JSON like config values, set to false to test random (incompressible) data
+    private static final boolean JSON_DATA = true;
+    // true to test compress + decompress + decode, false to test compress only
+    private static final boolean DECOMPRESS = true;
+
+    private final byte[] data = createData();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private EncodeContext[] encodeContexts;
+    private DecodeContext[] decodeContexts;
+
+    public static void main(String[] args) throws Exception {
+        LogCompressBenchmark b = new LogCompressBenchmark(THREADS, 5000, 1000);
+        b.setLogRt(true);
+        b.start();
+    }
+
+    public LogCompressBenchmark(int threadCount, long testTime, long warmupTime) {
+        super(threadCount, testTime, warmupTime);
+    }
+
+    private static byte[] createData() {
+        byte[] bs = new byte[DATA_LEN];
+        if (JSON_DATA) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < DATA_LEN; i++) {
+                sb.append("{\"name\":\"service-").append(i).append("\",\"host\":\"10.0.0.").append(i % 256)
+                        .append("\",\"port\":").append(8000 + i).append(",\"enabled\":true,\"weight\":")
+                        .append(i % 10).append("},");
+            }
+            System.arraycopy(sb.toString().getBytes(StandardCharsets.UTF_8), 0, bs, 0, DATA_LEN);
+        } else {
+            new Random().nextBytes(bs);
+        }
+        return bs;
+    }
+
+    @Override
+    public void init() {
+        encodeContexts = new EncodeContext[threadCount];
+        decodeContexts = new DecodeContext[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            encodeContexts[i] = new EncodeContext(null);
+            decodeContexts[i] = new DecodeContext();
+        }
+    }
+
+    @Override
+    public void test(int threadIndex, long startTime, int state) {
+        LogItem li = new LogItem();
+        li.type = LogItem.TYPE_NORMAL;
+        li.setBody(new ByteArray(data));
+        LogCompressor.compressIfNecessary(li, LogCompressor.COMPRESS_DEFLATE, 0, encodeContexts[threadIndex]);
+        ByteArray compressed = li.getCompressedBody();
+        if (DECOMPRESS && compressed != null) {
+            byte[] raw = LogCompressor.decompress(compressed);
+            LogCompressor.decodeBody(raw, new ByteArray.Callback(), decodeContexts[threadIndex]);
+        }
+        if (state == STATE_TEST) {
+            rawBytes.add(DATA_LEN);
+            compressedBytes.add(compressed == null ? DATA_LEN : compressed.length);
+        }
+        logRt(startTime, state);
+        success(state);
+    }
+
+    @Override
+    public void shutdown() {
+        long raw = rawBytes.sum();
+        long compressed = compressedBytes.sum();
+        if (raw > 0) {
+            DecimalFormat f = new DecimalFormat("0.00");
+            System.out.println("raw bytes per op: " + DATA_LEN + ", compressed bytes per op: "
+                    + f.format(compressed * 1.0 / (raw / DATA_LEN)) + ", ratio: " + f.format(raw * 1.0 / compressed));
+        }
+    }
+}
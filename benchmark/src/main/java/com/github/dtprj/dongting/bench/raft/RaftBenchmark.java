@@ -35,6 +35,7 @@ import com.github.dtprj.dongting.net.NioClientConfig;
 import com.github.dtprj.dongting.perf.DefaultKvPerf;
 import com.github.dtprj.dongting.raft.RaftClientConfig;
 import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
 import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
@@ -43,7 +44,6 @@ import com.github.dtprj.dongting.raft.server.RaftServerConfig;
 import com.github.dtprj.dongting.raft.sm.StateMachine;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
@@ -56,6 +56,10 @@ public class RaftBenchmark extends BenchBase {
     private static final DtLog log = DtLogs.getLogger(RaftBenchmark.class);
     private static final String DATA_DIR = "target/raftlog";
     private static final int GROUP_ID = 0;
+    // raft groups per server, group id is GROUP_ID to GROUP_ID + GROUP_COUNT - 1, the keys are spread to all groups
+    private static final int GROUP_COUNT = 1;
+    // use one wal (RaftServerConfig.sharedWalDir) to sync logs of all groups in the server
+    private static final boolean SHARED_WAL = false;
 
     private static final int NODE_COUNT = 3; // change this should delete dongting/target dir
     private static final int CLIENT_COUNT = 1; // also it is client thread count and tcp connections count
@@ -68,6 +72,10 @@ public class RaftBenchmark extends BenchBase {
     private static final boolean SYNC_FORCE = true; // not wait for FileChannel.force after write
     // total different keys
     private static final int KEYS = 100_000;
+    // LogCompressor.COMPRESS_NONE or LogCompressor.COMPRESS_DEFLATE, see LogCompressBenchmark for bytes per op
+    private static final int LOG_COMPRESS_TYPE = LogCompressor.COMPRESS_NONE;
+    // use JSON like (compressible) values instead of random bytes
+    private static final boolean JSON_DATA = false;
 
     private static final byte[] DATA = new byte[DATA_LEN];
     private final List<RaftServer> raftServers = new ArrayList<>();
@@ -92,25 +100,36 @@ public class RaftBenchmark extends BenchBase {
         serverConfig.servicePort = servicePort;
         serverConfig.electTimeout = 3000;
         serverConfig.heartbeatInterval = 1000;
+        String dataDir = TestProps.get("dir.RaftBenchmark", DATA_DIR) + "-" + nodeId;
+        if (SHARED_WAL) {
+            serverConfig.sharedWalDir = dataDir + "-wal";
+        }
 
-        RaftGroupConfig groupConfig = RaftGroupConfig.newInstance(GROUP_ID, nodeIdOfMembers, "");
-        groupConfig.dataDir = TestProps.get("dir.RaftBenchmark", DATA_DIR) + "-" + nodeId;
-        groupConfig.syncForce = SYNC_FORCE;
-        groupConfig.saveSnapshotSeconds = Integer.MAX_VALUE;
+        List<RaftGroupConfig> serverGroupConfigs = new ArrayList<>();
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            int groupId = GROUP_ID + i;
+            RaftGroupConfig groupConfig = RaftGroupConfig.newInstance(groupId, nodeIdOfMembers, "");
+            groupConfig.dataDir = GROUP_COUNT == 1 ? dataDir : dataDir + "-g" + groupId;
+            groupConfig.syncForce = SYNC_FORCE;
+            groupConfig.saveSnapshotSeconds = Integer.MAX_VALUE;
+            groupConfig.logCompressType = LOG_COMPRESS_TYPE;
+            groupConfig.logCompressThreshold = Math.min(DATA_LEN, groupConfig.logCompressThreshold);
 
-        if (PERF) {
-            groupConfig.perfCallback = new RaftPerfCallback(true, "node" + nodeId + "_");
+            if (PERF) {
+                groupConfig.perfCallback = new RaftPerfCallback(true, "node" + nodeId + "_g" + groupId + "_");
+            }
+            serverGroupConfigs.add(groupConfig);
         }
 
         DefaultRaftFactory raftFactory = createRaftFactory(nodeId);
 
-        RaftServer raftServer = new RaftServer(serverConfig, Collections.singletonList(groupConfig), raftFactory);
+        RaftServer raftServer = new RaftServer(serverConfig, serverGroupConfigs, raftFactory);
         DefaultKvPerf kvPerf = new DefaultKvPerf();
         kvPerf.start();
         KvServerUtil.initKvServer(raftServer, kvPerf);
         raftServer.start();
 
-        groupConfigs.add(groupConfig);
+        groupConfigs.addAll(serverGroupConfigs);
         raftServers.add(raftServer);
     }
 
@@ -124,7 +143,8 @@ public class RaftBenchmark extends BenchBase {
             @Override
             public Dispatcher createDispatcher(RaftServerConfig serverConfig, RaftGroupConfig groupConfig) {
                 // we start multi nodes in same jvm, so use node id as part of dispatcher name
-                return new Dispatcher("node-" + nodeId + "-dispatcher", new DefaultPoolFactory(),
+                return new Dispatcher("node-" + nodeId + "-g" + groupConfig.groupId + "-dispatcher",
+                        new DefaultPoolFactory(),
                         groupConfig.perfCallback);
             }
         };
@@ -132,7 +152,15 @@ public class RaftBenchmark extends BenchBase {
 
     @Override
     public void init() throws Exception {
-        new Random().nextBytes(DATA);
+        if (JSON_DATA) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < DATA_LEN; i++) {
+                sb.append("{\"id\":").append(i).append(",\"enabled\":true,\"tags\":[\"a\",\"b\"]},");
+            }
+            System.arraycopy(sb.toString().getBytes(), 0, DATA, 0, DATA_LEN);
+        } else {
+            new Random().nextBytes(DATA);
+        }
         StringBuilder serversStr = new StringBuilder();
         StringBuilder memberIds = new StringBuilder();
         List<RaftNode> serverNodes = new ArrayList<>();
@@ -161,14 +189,19 @@ public class RaftBenchmark extends BenchBase {
             c.getRaftClient().getNioClient().getConfig().maxOutRequests = CLIENT_MAX_OUT_REQUESTS / threadCount;
             c.start();
             c.getRaftClient().clientAddNode(serverNodes);
-            c.getRaftClient().clientAddOrUpdateGroup(GROUP_ID, serverNodes.stream().mapToInt(n -> n.nodeId).toArray());
+            int[] nodeIds = serverNodes.stream().mapToInt(n -> n.nodeId).toArray();
+            for (int g = 0; g < GROUP_COUNT; g++) {
+                c.getRaftClient().clientAddOrUpdateGroup(GROUP_ID + g, nodeIds);
+            }
             clients[i] = c;
         }
 
         //noinspection rawtypes
-        CompletableFuture[] futures = new CompletableFuture[threadCount];
+        CompletableFuture[] futures = new CompletableFuture[threadCount * GROUP_COUNT];
         for (int i = 0; i < threadCount; i++) {
-            futures[i] = clients[i].getRaftClient().fetchLeader(GROUP_ID);
+            for (int g = 0; g < GROUP_COUNT; g++) {
+                futures[i * GROUP_COUNT + g] = clients[i].getRaftClient().fetchLeader(GROUP_ID + g);
+            }
         }
         CompletableFuture.allOf(futures).get();
     }
@@ -203,12 +236,13 @@ public class RaftBenchmark extends BenchBase {
         try {
             int k = Integer.reverse((int) startTime);
             k = Math.abs(k % KEYS);
+            int groupId = GROUP_ID + k % GROUP_COUNT;
 
             if (SYNC) {
-                clients[threadIndex].put(GROUP_ID, String.valueOf(k).getBytes(), DATA);
+                clients[threadIndex].put(groupId, String.valueOf(k).getBytes(), DATA);
                 success(state);
             } else {
-                clients[threadIndex].put(GROUP_ID, String.valueOf(k).getBytes(), DATA, (result, ex) -> {
+                clients[threadIndex].put(groupId, String.valueOf(k).getBytes(), DATA, (result, ex) -> {
                     if (ex == null) {
                         logRt(startTime, state);
                         RaftBenchmark.this.success(state);
@@ -0,0 +1,173 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.raft;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.impl.RaftGroupImpl;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+import com.github.dtprj.dongting.raft.store.StatusFile;
+import com.github.dtprj.dongting.raft.store.StatusManager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Measure the log replay (restore) speed of a single group, with and without RaftGroupConfig.restoreReadAhead.
+ * The idx files are deleted and the persisted idx index is removed from the status file before each restart, so
+ * the whole log is checked by the restore.
+ *
+ * @author huangli
+ */
+public class ReplayBenchmark {
+    private static final String DATA_DIR = "target/replay-bench";
+    private static final int LOG_MB = 256;
+    private static final int VALUE_LEN = 4096;
+    private static final int BATCH = 100;
+    // run each mode several times, the first run may be affected by the page cache
+    private static final boolean[] READ_AHEAD_MODES = new boolean[]{false, true, false, true};
+
+    public static void main(String[] args) throws Exception {
+        deleteDir(new File(DATA_DIR));
+        RaftServer server = startServer(true);
+        server.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+        long bytes = writeData();
+        DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+
+        for (boolean readAhead : READ_AHEAD_MODES) {
+            deleteDir(new File(DATA_DIR, "idx"));
+            removeIdxStatus(new File(DATA_DIR, RaftGroupConfig.newInstance(0, "1", "").statusFile));
+
+            long start = System.nanoTime();
+            server = startServer(readAhead);
+            RaftGroupImpl g = (RaftGroupImpl) server.getRaftGroup(0);
+            g.groupComponents.raftStatus.initFuture.get(300, TimeUnit.SECONDS);
+            long nanos = System.nanoTime() - start;
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+
+            System.out.printf("restoreReadAhead=%s, replay %,d MB in %,d ms, %,.1f MB/s%n", readAhead,
+                    bytes / 1024 / 1024, nanos / 1_000_000, bytes * 1e9 / nanos / 1024 / 1024);
+        }
+        System.exit(0);
+    }
+
+    private static RaftServer startServer(boolean readAhead) {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(0, "1", "");
+        gc.dataDir = DATA_DIR;
+        gc.syncForce = false;
+        gc.saveSnapshotSeconds = Integer.MAX_VALUE;
+        gc.saveSnapshotWhenClose = false;
+        gc.restoreReadAhead = readAhead;
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                return new DtKV(groupConfig, new KvServerConfig());
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static long writeData() throws Exception {
+        KvClient client = new KvClient();
+        client.start();
+        try {
+            client.getRaftClient().clientAddNode(Collections.singletonList(
+                    new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+            client.getRaftClient().clientAddOrUpdateGroup(0, new int[]{1});
+            byte[] value = new byte[VALUE_LEN];
+            long bytes = 0;
+            int k = 0;
+            while (bytes < LOG_MB * 1024L * 1024) {
+                List<byte[]> keyList = new ArrayList<>();
+                List<byte[]> valueList = new ArrayList<>();
+                for (int i = 0; i < BATCH; i++, k++) {
+                    keyList.add(("key" + k).getBytes());
+                    valueList.add(value);
+                    bytes += VALUE_LEN;
+                }
+                client.batchPut(0, keyList, valueList);
+            }
+            return bytes;
+        } finally {
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), client);
+        }
+    }
+
+    // the restore starts from the first log, and the init not wait the apply
+    private static void removeIdxStatus(File statusFile) throws Exception {
+        List<String> lines = Files.readAllLines(statusFile.toPath());
+        Map<String, String> props = new HashMap<>();
+        // the first line is crc
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int x = line.indexOf('=');
+            if (x > 0) {
+                props.put(line.substring(0, x), line.substring(x + 1));
+            }
+        }
+        props.remove("persistIdxIndex");
+        props.remove(StatusManager.COMMIT_INDEX);
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        StatusFile.writeToBuffer(props, buf, new CRC32C());
+        try (FileChannel fc = FileChannel.open(statusFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+        }
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
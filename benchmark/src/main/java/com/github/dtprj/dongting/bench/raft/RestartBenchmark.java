@@ -0,0 +1,170 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.raft;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.impl.RaftGroupImpl;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the restart time of a single node raft server with many groups: the time to the first
+ * group ready, the time to half of the groups ready, and the time to all groups ready.
+ *
+ * @author huangli
+ */
+public class RestartBenchmark {
+    private static final String DATA_DIR = "target/restart-bench";
+    private static final int[] GROUP_COUNTS = new int[]{100, 1000};
+    // group i has KEYS_PER_GROUP * (1 + i % 10) keys, so the data size of groups is not uniform
+    private static final int KEYS_PER_GROUP = 100;
+    private static final int VALUE_LEN = 1024;
+    private static final int BATCH = 100;
+    // RaftServerConfig.initGroupConcurrency, 0 means use default
+    private static final int INIT_GROUP_CONCURRENCY = 0;
+
+    public static void main(String[] args) throws Exception {
+        for (int groupCount : GROUP_COUNTS) {
+            String dir = DATA_DIR + "-" + groupCount;
+            deleteDir(new File(dir));
+
+            RaftServer server = startServer(dir, groupCount);
+            server.getAllGroupReadyFuture().get(300, TimeUnit.SECONDS);
+            writeData(groupCount);
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+
+            long start = System.nanoTime();
+            server = startServer(dir, groupCount);
+            long[] readyNanos = waitAllGroupReady(server, groupCount, start);
+            DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+
+            Arrays.sort(readyNanos);
+            System.out.printf("groups=%d, first ready: %,d ms, half ready: %,d ms, all ready: %,d ms%n", groupCount,
+                    readyNanos[0] / 1_000_000, readyNanos[groupCount / 2] / 1_000_000,
+                    readyNanos[groupCount - 1] / 1_000_000);
+        }
+        System.exit(0);
+    }
+
+    private static RaftServer startServer(String dir, int groupCount) {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+        if (INIT_GROUP_CONCURRENCY > 0) {
+            serverConfig.initGroupConcurrency = INIT_GROUP_CONCURRENCY;
+        }
+
+        List<RaftGroupConfig> groupConfigs = new ArrayList<>();
+        for (int i = 0; i < groupCount; i++) {
+            RaftGroupConfig gc = RaftGroupConfig.newInstance(i, "1", "");
+            gc.dataDir = dir + "/group-" + i;
+            gc.syncForce = false;
+            gc.saveSnapshotSeconds = Integer.MAX_VALUE;
+            gc.saveSnapshotWhenClose = false;
+            // small files, or the pre-allocated files of many groups will fill the disk
+            gc.logFileSize = 4 * 1024 * 1024;
+            gc.idxItemsPerFile = 64 * 1024;
+            groupConfigs.add(gc);
+        }
+        RaftServer server = new RaftServer(serverConfig, groupConfigs, new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                return new DtKV(groupConfig, new KvServerConfig());
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static void writeData(int groupCount) throws Exception {
+        KvClient client = new KvClient();
+        client.start();
+        try {
+            client.getRaftClient().clientAddNode(Collections.singletonList(
+                    new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+            for (int g = 0; g < groupCount; g++) {
+                client.getRaftClient().clientAddOrUpdateGroup(g, new int[]{1});
+            }
+            byte[] value = new byte[VALUE_LEN];
+            for (int g = 0; g < groupCount; g++) {
+                int keys = KEYS_PER_GROUP * (1 + g % 10);
+                for (int k = 0; k < keys; k += BATCH) {
+                    List<byte[]> keyList = new ArrayList<>();
+                    List<byte[]> valueList = new ArrayList<>();
+                    for (int i = k; i < Math.min(keys, k + BATCH); i++) {
+                        keyList.add(("key" + i).getBytes());
+                        valueList.add(value);
+                    }
+                    client.batchPut(g, keyList, valueList);
+                }
+            }
+        } finally {
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), client);
+        }
+    }
+
+    private static long[] waitAllGroupReady(RaftServer server, int groupCount, long start) throws Exception {
+        long[] readyNanos = new long[groupCount];
+        int readyCount = 0;
+        while (readyCount < groupCount) {
+            for (int i = 0; i < groupCount; i++) {
+                if (readyNanos[i] == 0) {
+                    RaftGroupImpl g = (RaftGroupImpl) server.getRaftGroup(i);
+                    if (g.groupComponents.raftStatus.getShareStatus().groupReady) {
+                        readyNanos[i] = System.nanoTime() - start;
+                        readyCount++;
+                    }
+                }
+            }
+            //noinspection BusyWait
+            Thread.sleep(1);
+        }
+        return readyNanos;
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.bench.raft;
+
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.dtkv.server.KvServerUtil;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.perf.DefaultKvPerf;
+import com.github.dtprj.dongting.raft.RaftNode;
+import com.github.dtprj.dongting.raft.server.DefaultRaftFactory;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfig;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the snapshot recovery time of a single node DtKV group when restart, with different
+ * RaftGroupConfig.diskSnapshotReadAheadSize. The recovery time is from the first installSnapshot call of
+ * the state machine to the last one. The snapshot file is in the page cache after the first restart,
+ * so the result shows the overhead of the reader and the decode speed, not the disk bandwidth.
+ * <p>
+ * Usage: SnapshotRecoverBenchmark [dataSizeMB]
+ *
+ * @author huangli
+ */
+public class SnapshotRecoverBenchmark {
+    private static final String DATA_DIR = "target/snapshot-recover-bench";
+    private static final int DEFAULT_DATA_SIZE_MB = 256;
+    private static final int[] READ_AHEAD_SIZE = new int[]{0, 2 * 1024 * 1024, 8 * 1024 * 1024};
+    private static final int ROUNDS = 3;
+    private static final int VALUE_LEN = 1024;
+    private static final int BATCH = 100;
+    private static final int GROUP_ID = 1;
+
+    private static volatile long firstInstallNanos;
+    private static volatile long lastInstallNanos;
+
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DATA_SIZE_MB;
+        deleteDir(new File(DATA_DIR));
+
+        RaftServer server = startServer(0);
+        server.getAllGroupReadyFuture().get(60, TimeUnit.SECONDS);
+        writeData(sizeMB * 1024 * 1024L / VALUE_LEN);
+        long idx = server.getRaftGroup(GROUP_ID).fireSaveSnapshot().get(600, TimeUnit.SECONDS);
+        System.out.printf("snapshot saved, lastIncludedIndex=%,d, data size=%,d MB%n", idx, sizeMB);
+        DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+
+        long fileSize = snapshotFileSize();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int readAheadSize : READ_AHEAD_SIZE) {
+                firstInstallNanos = 0;
+                // the data of the last run is garbage now, avoid the gc pause in the recovery
+                System.gc();
+                long start = System.nanoTime();
+                server = startServer(readAheadSize);
+                server.getAllGroupReadyFuture().get(600, TimeUnit.SECONDS);
+                long restartMillis = (System.nanoTime() - start) / 1_000_000;
+                long recoverMillis = (lastInstallNanos - firstInstallNanos) / 1_000_000;
+                DtUtil.stop(new DtTime(60, TimeUnit.SECONDS), server);
+                System.out.printf("round=%d, readAheadSize=%,d KB, recover time: %,d ms, %,.1f MB/s, restart time: %,d ms%n",
+                        round, readAheadSize / 1024, recoverMillis,
+                        fileSize / 1024.0 / 1024 * 1000 / Math.max(1, recoverMillis), restartMillis);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static RaftServer startServer(int readAheadSize) {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.servers = "1,127.0.0.1:4001";
+        serverConfig.nodeId = 1;
+        serverConfig.replicatePort = 4001;
+        serverConfig.servicePort = 5001;
+
+        RaftGroupConfig gc = RaftGroupConfig.newInstance(GROUP_ID, "1", "");
+        gc.dataDir = DATA_DIR;
+        gc.syncForce = false;
+        gc.saveSnapshotSeconds = Integer.MAX_VALUE;
+        gc.saveSnapshotWhenClose = false;
+        gc.diskSnapshotReadAheadSize = readAheadSize;
+        RaftServer server = new RaftServer(serverConfig, Collections.singletonList(gc), new DefaultRaftFactory() {
+            @Override
+            public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
+                return new DtKV(groupConfig, new KvServerConfig()) {
+                    @Override
+                    public FiberFuture<Void> installSnapshot(long lastIncludeIndex, int lastIncludeTerm,
+                                                             long offset, boolean done, ByteBuffer data) {
+                        if (firstInstallNanos == 0) {
+                            firstInstallNanos = System.nanoTime();
+                        }
+                        FiberFuture<Void> f = super.installSnapshot(lastIncludeIndex, lastIncludeTerm,
+                                offset, done, data);
+                        if (done) {
+                            f.registerCallback((v, ex) -> lastInstallNanos = System.nanoTime());
+                        }
+                        return f;
+                    }
+                };
+            }
+        });
+        KvServerUtil.initKvServer(server, new DefaultKvPerf());
+        server.start();
+        return server;
+    }
+
+    private static void writeData(long keys) throws Exception {
+        KvClient client = new KvClient();
+        client.start();
+        try {
+            client.getRaftClient().clientAddNode(Collections.singletonList(
+                    new RaftNode(1, new HostPort("127.0.0.1", 5001))));
+            client.getRaftClient().clientAddOrUpdateGroup(GROUP_ID, new int[]{1});
+            byte[] value = new byte[VALUE_LEN];
+            for (long k = 0; k < keys; k += BATCH) {
+                List<byte[]> keyList = new ArrayList<>();
+                List<byte[]> valueList = new ArrayList<>();
+                for (long i = k; i < Math.min(keys, k + BATCH); i++) {
+                    keyList.add(("key" + i).getBytes());
+                    valueList.add(value);
+                }
+                client.batchPut(GROUP_ID, keyList, valueList);
+            }
+        } finally {
+            DtUtil.stop(new DtTime(10, TimeUnit.SECONDS), client);
+        }
+    }
+
+    private static long snapshotFileSize() {
+        File[] files = new File(DATA_DIR, "snapshot").listFiles(f -> f.getName().endsWith(".data"));
+        long size = 0;
+        if (files != null) {
+            for (File f : files) {
+                size = Math.max(size, f.length());
+            }
+        }
+        return size;
+    }
+
+    private static void deleteDir(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                deleteDir(c);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+}
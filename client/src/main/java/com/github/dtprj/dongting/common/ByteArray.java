@@ -71,6 +71,26 @@ public class ByteArray implements Encodable, Comparable<ByteArray> {
         return new ByteArray(data, startPos + begin, end - begin);
     }
 
+    public byte get(int index) {
+        return data[startPos + index];
+    }
+
+    /**
+     * Return true if the bytes of this array start from offset are equal to the bytes of the other array.
+     */
+    public boolean regionEquals(int offset, ByteArray other) {
+        if (offset < 0 || offset + other.length > length) {
+            return false;
+        }
+        int base = startPos + offset;
+        for (int i = other.length - 1; i >= 0; i--) {
+            if (data[base + i] != other.data[other.startPos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
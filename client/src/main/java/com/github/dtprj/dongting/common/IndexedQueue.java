@@ -105,6 +105,17 @@ public class IndexedQueue<T> {
         return (T) elements[position];
     }
 
+    public T set(int index, T element) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        }
+
+        int position = (readIndex + index) & mask;
+        T old = (T) elements[position];
+        elements[position] = element;
+        return old;
+    }
+
     public int size() {
         return size;
     }
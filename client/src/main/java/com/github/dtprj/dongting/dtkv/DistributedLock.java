@@ -73,6 +73,39 @@ public interface DistributedLock {
      */
     void tryLock(long leaseMillis, long waitLockTimeoutMillis, FutureCallback<Boolean> callback);
 
+    /**
+     * Synchronously to acquire the lock and attach it to a lease granted by KvClient.grantLease of this client,
+     * block caller thread and wait up to waitLockTimeoutMillis if the lock is held by others.
+     *
+     * <p>
+     * The lock expires with the lease, and a KvClient.keepAliveLease call renews all the locks (and temp nodes)
+     * attached to the lease, so updateLease can't be used on it. If the lease is revoked or expires, the lock
+     * is released in the server side, and the expire listener is called.
+     *
+     * @param leaseId               the lease id returned by KvClient.grantLease of this client
+     * @param waitLockTimeoutMillis max wait time to acquire the lock, none-negative, should be less or equal than
+     *                              the ttl of the lease.
+     * @return whether acquire the lock successfully
+     * @throws IllegalStateException if the lock is closed, or is already held by current client, or another
+     *                               tryLock/unlock/updateLease operation is in progress.
+     * @throws KvException           LEASE_NOT_FOUND if the lease is not granted by this client, or expired or
+     *                               revoked; or any other biz exception
+     * @throws NetException          any other exception such as network error, timeout, interrupted, etc.
+     */
+    boolean tryLockWithLease(long leaseId, long waitLockTimeoutMillis)
+            throws IllegalStateException, KvException, NetException;
+
+    /**
+     * Asynchronously to acquire the lock and attach it to a lease granted by KvClient.grantLease of this client.
+     *
+     * @param leaseId               the lease id returned by KvClient.grantLease of this client
+     * @param waitLockTimeoutMillis max wait time to acquire the lock, none-negative, should be less or equal than
+     *                              the ttl of the lease.
+     * @param callback              the async callback, by default it will execute in bizExecutor of NioClient.
+     * @see #tryLockWithLease(long, long)
+     */
+    void tryLockWithLease(long leaseId, long waitLockTimeoutMillis, FutureCallback<Boolean> callback);
+
     /**
      * Synchronously to release the lock, if the client is not the owner of the lock, do nothing and return.
      * If there is another tryLock/unlock/updateLease operation in progress, the old operation will fail.
@@ -111,7 +144,7 @@ public interface DistributedLock {
      *                       method invoked, that is, measured from the client side, not the server side
      * @throws IllegalStateException if the lock is closed, or is not held by current client,
      *                               or another tryLock/unlock/updateLease operation is in progress,
-     *                               or the lease has expired.
+     *                               or the lease has expired, or the lock is attached to a lease.
      * @throws KvException           any biz exception
      * @throws NetException          any other exception such as network error, timeout, interrupted, etc.
      */
@@ -75,6 +75,8 @@ public class DistributedLockImpl implements DistributedLock {
     private long newLeaseEndNanos;
 
     private Op currentOp;
+    // the lease of the last tryLock, null if the lock has its own lease
+    private LockManager.LeaseInfo lease;
 
     private Future<?> expireTask;
 
@@ -165,6 +167,7 @@ public class DistributedLockImpl implements DistributedLock {
         private Throwable opEx;
 
         private final boolean logTryLockTimeout;
+        private LockManager.LeaseInfo lease;
 
         Op(int opType, long leaseMillis, long tryLockTimeoutMillis, FutureCallback<?> callback, boolean logTryLockTimeout) {
             this.tryLockTimeoutMillis = tryLockTimeoutMillis;
@@ -318,7 +321,12 @@ public class DistributedLockImpl implements DistributedLock {
                 markFinishInLock(null, new DtBugException("not tryLock op"));
                 return;
             }
-            newLeaseEndNanos += serverSideWaitNanos;
+            if (lease != null) {
+                // the lock is attached to the lease (in the server side) when it's acquired
+                newLeaseEndNanos = lease.endNanos;
+            } else {
+                newLeaseEndNanos += serverSideWaitNanos;
+            }
             long now = System.nanoTime();
             if (newLeaseEndNanos - now <= 0) {
                 log.warn("tryLock success in server side, but already expires locally." +
@@ -380,8 +388,35 @@ public class DistributedLockImpl implements DistributedLock {
         if (waitLockTimeoutMillis > leaseMillis) {
             throw new IllegalArgumentException("waitLockTimeoutMillis must be less than or equal to leaseMillis");
         }
+        tryLock(leaseMillis, waitLockTimeoutMillis, callback, logTimeout, null);
+    }
+
+    @Override
+    public boolean tryLockWithLease(long leaseId, long waitLockTimeoutMillis) throws KvException, NetException {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        tryLockWithLease(leaseId, waitLockTimeoutMillis, FutureCallback.fromFuture(future));
+        return getFuture(future);
+    }
+
+    @Override
+    public void tryLockWithLease(long leaseId, long waitLockTimeoutMillis, FutureCallback<Boolean> callback) {
+        DtUtil.checkPositive(leaseId, "leaseId");
+        DtUtil.checkNotNegative(waitLockTimeoutMillis, "waitLockTimeoutMillis");
+        LockManager.LeaseInfo li = lockManager.attachLease(this, leaseId);
+        if (li == null) {
+            FutureCallback.callFail(callback, new KvException(KvCodes.LEASE_NOT_FOUND));
+            return;
+        }
+        if (waitLockTimeoutMillis > li.ttlMillis) {
+            throw new IllegalArgumentException("waitLockTimeoutMillis must be less than or equal to the lease ttl");
+        }
+        tryLock(li.ttlMillis, waitLockTimeoutMillis, callback, true, li);
+    }
 
+    private void tryLock(long leaseMillis, long waitLockTimeoutMillis, FutureCallback<Boolean> callback,
+                         boolean logTimeout, LockManager.LeaseInfo li) {
         Op op = new Op(Op.OP_TYPE_TRY_LOCK, leaseMillis, waitLockTimeoutMillis, callback, logTimeout);
+        op.lease = li;
         opLock.lock();
         try {
             tryLock0(leaseMillis, waitLockTimeoutMillis, op);
@@ -407,26 +442,49 @@ public class DistributedLockImpl implements DistributedLock {
 
         op.taskOpId = ++opId;
         state = STATE_UNKNOWN;
+        lease = op.lease;
 
         if (waitLockTimeoutMillis > 0) {
             op.tryLockTimeoutTask = lockManager.scheduleTask(op::makeTryLockTimeout, waitLockTimeoutMillis, TimeUnit.MILLISECONDS);
         }
 
-        // Create request with leaseMillis in value and operationId
-        byte[] value = new byte[16];
+        // Create request with leaseMillis in value and operationId, and the lease id if attached to a lease
+        byte[] value = new byte[lease == null ? 16 : 24];
         ByteBuffer bb = ByteBuffer.wrap(value);
         bb.putLong(leaseMillis); // big endian
         bb.putInt(lockId);
         bb.putInt(op.taskOpId);
+        if (lease != null) {
+            bb.putLong(lease.leaseId);
+        }
 
         KvReq req = new KvReq(groupId, key.getData(), value, waitLockTimeoutMillis);
         EncodableBodyWritePacket packet = new EncodableBodyWritePacket(Commands.DTKV_TRY_LOCK, req);
         packet.acquirePermitNoWait = true;
 
-        newLeaseEndNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        newLeaseEndNanos = lease == null ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis)
+                : lease.endNanos;
         sendRpc(packet, op);
     }
 
+    // the lease is renewed or ended, called by LockManager
+    void leaseUpdated(LockManager.LeaseInfo li) {
+        opLock.lock();
+        try {
+            if (state != STATE_LOCKED || lease != li) {
+                return;
+            }
+            long now = System.nanoTime();
+            leaseEndNanos = li.endNanos;
+            newLeaseEndNanos = leaseEndNanos;
+            cancelExpireTask();
+            // expire immediately if the lease ended
+            scheduleExpireTask(Math.max(0, leaseEndNanos - now));
+        } finally {
+            opLock.unlock();
+        }
+    }
+
     // for unit test mock
     protected void sendRpc(WritePacket packet, RpcCallback<Void> callback) {
         lockManager.kvClient.raftClient.sendRequest(groupId, packet,
@@ -560,6 +618,9 @@ public class DistributedLockImpl implements DistributedLock {
         if (state != STATE_LOCKED) {
             throw new IllegalStateException("not locked by current client");
         }
+        if (lease != null) {
+            throw new IllegalStateException("the lock is attached to a lease, renew it by keepAliveLease");
+        }
         if (currentOp != null) {
             throw new IllegalStateException(currentOp.opTypeStr() + " operation in progress");
         }
@@ -33,6 +33,7 @@ import com.github.dtprj.dongting.raft.RaftClientConfig;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
@@ -114,6 +115,9 @@ public class KvClient extends AbstractLifeCircle {
             case Commands.DTKV_BATCH_GET:
             case Commands.DTKV_BATCH_REMOVE:
             case Commands.DTKV_UPDATE_TTL:
+            case Commands.DTKV_GRANT_LEASE:
+            case Commands.DTKV_KEEP_ALIVE_LEASE:
+            case Commands.DTKV_REVOKE_LEASE:
                 return bizCode == KvCodes.SUCCESS;
             case Commands.DTKV_CAS:
                 return true;
@@ -662,6 +666,219 @@ public class KvClient extends AbstractLifeCircle {
         sendAsync(groupId, Commands.DTKV_UPDATE_TTL, r, callback, v -> null);
     }
 
+    /**
+     * Synchronously grant a lease with a ttl. Temporary nodes, temporary directories and locks (see
+     * DistributedLock.tryLockWithLease) can be attached to the lease, one keepAliveLease call renews all of them,
+     * and all of them are removed atomically when the lease expires or is revoked.
+     * <p>
+     * Only the client who granted the lease can attach nodes to it, keep it alive or revoke it.
+     * A lease with no attached node may not be saved in the snapshot, so keepAliveLease may fail with
+     * LEASE_NOT_FOUND after the server restart, the client should grant a new one.
+     *
+     * @param groupId   the raft group id
+     * @param ttlMillis time to live in milliseconds, must be positive
+     * @return the lease id
+     * @throws KvException  any biz exception
+     * @throws NetException any other exception such as network error, timeout, interrupted, etc.
+     */
+    public long grantLease(int groupId, long ttlMillis) throws KvException, NetException {
+        DtUtil.checkPositive(ttlMillis, "ttlMillis");
+        KvReq r = new KvReq(groupId, null, null, ttlMillis);
+        long startNanos = System.nanoTime();
+        long leaseId = sendSync(groupId, Commands.DTKV_GRANT_LEASE, r).getBody().raftIndex;
+        lockManager.leaseGranted(groupId, leaseId, ttlMillis, startNanos);
+        return leaseId;
+    }
+
+    /**
+     * Asynchronously grant a lease with a ttl, the callback will complete with the lease id.
+     *
+     * @param groupId   the raft group id
+     * @param ttlMillis time to live in milliseconds, must be positive
+     * @param callback  the async callback will be called in bizExecutor (default) of NioClient or NioWorker thread.
+     * @see #grantLease(int, long)
+     */
+    public void grantLease(int groupId, long ttlMillis, FutureCallback<Long> callback) {
+        DtUtil.checkPositive(ttlMillis, "ttlMillis");
+        KvReq r = new KvReq(groupId, null, null, ttlMillis);
+        long startNanos = System.nanoTime();
+        sendAsync(groupId, Commands.DTKV_GRANT_LEASE, r, callback, p -> {
+            long leaseId = p.getBody().raftIndex;
+            lockManager.leaseGranted(groupId, leaseId, ttlMillis, startNanos);
+            return leaseId;
+        });
+    }
+
+    /**
+     * Synchronously renew the lease and all the nodes and locks attached to it, with the ttl specified when granted.
+     *
+     * @param groupId the raft group id
+     * @param leaseId the lease id returned by grantLease
+     * @throws KvException  If the lease is expired or revoked, throws KvException with code LEASE_NOT_FOUND;
+     *                      If the lease is granted by another client, throws KvException with code NOT_OWNER.
+     * @throws NetException any other exception such as network error, timeout, interrupted, etc.
+     */
+    public void keepAliveLease(int groupId, long leaseId) throws KvException, NetException {
+        long startNanos = System.nanoTime();
+        try {
+            sendSync(groupId, Commands.DTKV_KEEP_ALIVE_LEASE, leaseReq(groupId, leaseId));
+        } catch (KvException e) {
+            afterLeaseFail(groupId, leaseId, e);
+            throw e;
+        }
+        lockManager.leaseRenewed(groupId, leaseId, startNanos);
+    }
+
+    /**
+     * Asynchronously renew the lease and all the nodes and locks attached to it, with the ttl specified when granted.
+     *
+     * @param groupId  the raft group id
+     * @param leaseId  the lease id returned by grantLease
+     * @param callback the async callback will be called in bizExecutor (default) of NioClient or NioWorker thread.
+     */
+    public void keepAliveLease(int groupId, long leaseId, FutureCallback<Void> callback) {
+        long startNanos = System.nanoTime();
+        sendAsync(groupId, Commands.DTKV_KEEP_ALIVE_LEASE, leaseReq(groupId, leaseId), (v, ex) -> {
+            if (ex == null) {
+                lockManager.leaseRenewed(groupId, leaseId, startNanos);
+                FutureCallback.callSuccess(callback, null);
+            } else {
+                afterLeaseFail(groupId, leaseId, ex);
+                FutureCallback.callFail(callback, ex);
+            }
+        }, v -> null);
+    }
+
+    // the locks attached to the lease expire if the lease is not found in the server
+    private void afterLeaseFail(int groupId, long leaseId, Throwable ex) {
+        if (ex instanceof KvException) {
+            int code = ((KvException) ex).getCode();
+            if (code == KvCodes.LEASE_NOT_FOUND || code == KvCodes.NOT_OWNER) {
+                lockManager.leaseEnded(groupId, leaseId);
+            }
+        }
+    }
+
+    /**
+     * Synchronously revoke the lease, remove all the nodes attached to it and release the locks held by it atomically.
+     *
+     * @param groupId the raft group id
+     * @param leaseId the lease id returned by grantLease
+     * @throws KvException  If the lease is expired or revoked, throws KvException with code LEASE_NOT_FOUND;
+     *                      If the lease is granted by another client, throws KvException with code NOT_OWNER.
+     * @throws NetException any other exception such as network error, timeout, interrupted, etc.
+     */
+    public void revokeLease(int groupId, long leaseId) throws KvException, NetException {
+        try {
+            sendSync(groupId, Commands.DTKV_REVOKE_LEASE, leaseReq(groupId, leaseId));
+        } catch (KvException e) {
+            afterLeaseFail(groupId, leaseId, e);
+            throw e;
+        }
+        lockManager.leaseEnded(groupId, leaseId);
+    }
+
+    /**
+     * Asynchronously revoke the lease, remove all the nodes attached to it and release the locks held by it atomically.
+     *
+     * @param groupId  the raft group id
+     * @param leaseId  the lease id returned by grantLease
+     * @param callback the async callback will be called in bizExecutor (default) of NioClient or NioWorker thread.
+     */
+    public void revokeLease(int groupId, long leaseId, FutureCallback<Void> callback) {
+        sendAsync(groupId, Commands.DTKV_REVOKE_LEASE, leaseReq(groupId, leaseId), (v, ex) -> {
+            if (ex == null) {
+                lockManager.leaseEnded(groupId, leaseId);
+                FutureCallback.callSuccess(callback, null);
+            } else {
+                afterLeaseFail(groupId, leaseId, ex);
+                FutureCallback.callFail(callback, ex);
+            }
+        }, v -> null);
+    }
+
+    /**
+     * Synchronously put a temporary key-value pair attached to a lease, the node expires with the lease.
+     * If K/V node already exists with a ttl, it will be overwritten and attached to the lease.
+     *
+     * @param groupId the raft group id
+     * @param key     not null or empty, use '.' as path separator
+     * @param value   not null or empty
+     * @param leaseId the lease id returned by grantLease
+     * @throws KvException  If the lease is expired or revoked, throws KvException with code LEASE_NOT_FOUND;
+     *                      other codes are same as putTemp.
+     * @throws NetException any other exception such as network error, timeout, interrupted, etc.
+     */
+    public void putWithLease(int groupId, byte[] key, byte[] value, long leaseId) throws KvException, NetException {
+        checkKey(key, false);
+        notNullOrEmpty(value, "value");
+        KvReq r = leaseReq(groupId, leaseId);
+        r.key = key;
+        r.value = value;
+        sendSync(groupId, Commands.DTKV_PUT_TEMP_NODE, r);
+    }
+
+    /**
+     * Asynchronously put a temporary key-value pair attached to a lease, the node expires with the lease.
+     *
+     * @param groupId  the raft group id
+     * @param key      not null or empty, use '.' as path separator
+     * @param value    not null or empty
+     * @param leaseId  the lease id returned by grantLease
+     * @param callback the async callback will be called in bizExecutor (default) of NioClient or NioWorker thread.
+     * @see #putWithLease(int, byte[], byte[], long)
+     */
+    public void putWithLease(int groupId, byte[] key, byte[] value, long leaseId, FutureCallback<Void> callback) {
+        checkKey(key, false);
+        notNullOrEmpty(value, "value");
+        KvReq r = leaseReq(groupId, leaseId);
+        r.key = key;
+        r.value = value;
+        sendAsync(groupId, Commands.DTKV_PUT_TEMP_NODE, r, callback, v -> null);
+    }
+
+    /**
+     * Synchronously create a temporary directory attached to a lease, the directory and all its sub-nodes are
+     * removed when the lease expires.
+     *
+     * @param groupId the raft group id
+     * @param key     not null or empty, use '.' as path separator
+     * @param leaseId the lease id returned by grantLease
+     * @throws KvException  If the lease is expired or revoked, throws KvException with code LEASE_NOT_FOUND;
+     *                      other codes are same as makeTempDir.
+     * @throws NetException any other exception such as network error, timeout, interrupted, etc.
+     */
+    public void makeTempDirWithLease(int groupId, byte[] key, long leaseId) throws KvException, NetException {
+        checkKey(key, false);
+        KvReq r = leaseReq(groupId, leaseId);
+        r.key = key;
+        sendSync(groupId, Commands.DTKV_MAKE_TEMP_DIR, r);
+    }
+
+    /**
+     * Asynchronously create a temporary directory attached to a lease.
+     *
+     * @param groupId  the raft group id
+     * @param key      not null or empty, use '.' as path separator
+     * @param leaseId  the lease id returned by grantLease
+     * @param callback the async callback will be called in bizExecutor (default) of NioClient or NioWorker thread.
+     * @see #makeTempDirWithLease(int, byte[], long)
+     */
+    public void makeTempDirWithLease(int groupId, byte[] key, long leaseId, FutureCallback<Void> callback) {
+        checkKey(key, false);
+        KvReq r = leaseReq(groupId, leaseId);
+        r.key = key;
+        sendAsync(groupId, Commands.DTKV_MAKE_TEMP_DIR, r, callback, v -> null);
+    }
+
+    private static KvReq leaseReq(int groupId, long leaseId) {
+        DtUtil.checkPositive(leaseId, "leaseId");
+        KvReq r = new KvReq();
+        r.groupId = groupId;
+        r.leaseId = leaseId;
+        return r;
+    }
+
     /**
      * Create a distributed lock with the given key in the specified raft group.
      * Call close() method of the returned object will remove it from the KvClient.
@@ -716,6 +933,28 @@ public class KvClient extends AbstractLifeCircle {
         return lockManager.createAutoRenewLock(groupId, key, leaseMillis, listener);
     }
 
+    /**
+     * Create a consumer which consumes committed raft logs of a raft group like a message queue,
+     * see LogTailConsumer. Call start() method of the returned object to start consume.
+     *
+     * @param logGroupId    the raft group id to consume
+     * @param offsetGroupId the raft group id to save the consume position
+     * @param offsetKey     the key to save the consume position, null means not save, the parent dir
+     *                      should exist, use '.' as path separator
+     * @param listener      the listener to receive records, can not be null
+     * @param userExecutor  the executor to run the listener, can not be null
+     * @return the LogTailConsumer instance
+     */
+    public LogTailConsumer createLogTailConsumer(int logGroupId, int offsetGroupId, byte[] offsetKey,
+                                                 LogTailListener listener, Executor userExecutor) {
+        Objects.requireNonNull(listener);
+        Objects.requireNonNull(userExecutor);
+        if (offsetKey != null) {
+            checkKey(offsetKey, false);
+        }
+        return new LogTailConsumer(this, logGroupId, offsetGroupId, offsetKey, listener, userExecutor);
+    }
+
     @Override
     protected void doStart() {
         raftClient.start();
@@ -28,4 +28,12 @@ public class KvClientConfig {
     public long watchHeartbeatMillis = 60_000; // // should less than KvServerConfig.watchTimeoutMillis
 
     public long[] autoRenewalRetryMillis = {1000, 10_000, 30_000, 60_000};
+
+    // credit of each log fetch of LogTailConsumer
+    public int logFetchMaxItems = 1024;
+    public int logFetchMaxBytes = 1024 * 1024; // should less than NioConfig.maxBodySize of client
+    public int logFetchWaitMillis = 1000; // max time the server holds a fetch when no new committed log
+    // max fetched batches not consumed by listener, the consumer stops fetching when reach this limit
+    public int logFetchPrefetchBatches = 2;
+    public long logOffsetCommitMillis = 1000;
 }
@@ -49,6 +49,8 @@ public interface KvCodes {
     int IS_LOCK_NODE = 26;
     int LOCK_BY_SELF = 27;
     int LOCK_BY_OTHER = 28;
+    int LEASE_NOT_FOUND = 29;
+    int MEMORY_QUOTA_EXCEEDED = 30;
 
 
     static String toStr(int code) {
@@ -111,6 +113,10 @@ public interface KvCodes {
                 return "LOCK_BY_SELF";
             case LOCK_BY_OTHER:
                 return "LOCK_BY_OTHER";
+            case LEASE_NOT_FOUND:
+                return "LEASE_NOT_FOUND";
+            case MEMORY_QUOTA_EXCEEDED:
+                return "MEMORY_QUOTA_EXCEEDED";
             default:
                 return "UNKNOWN_CODE_" + code;
         }
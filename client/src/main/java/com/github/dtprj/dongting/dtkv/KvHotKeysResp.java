@@ -0,0 +1,215 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv;
+
+import com.github.dtprj.dongting.codec.CodecException;
+import com.github.dtprj.dongting.codec.Encodable;
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.codec.EncodeUtil;
+import com.github.dtprj.dongting.codec.PbCallback;
+import com.github.dtprj.dongting.codec.PbUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The hot keys and large keys of a group on one node, see KvServerConfig.hotKeyTopK.
+ *
+ * @author huangli
+ */
+public class KvHotKeysResp extends PbCallback<KvHotKeysResp> implements Encodable {
+    public static final int IDX_WINDOW_MILLIS = 1;
+    public static final int IDX_READ_KEYS = 2;
+    public static final int IDX_WRITE_KEYS = 3;
+    public static final int IDX_WATCH_KEYS = 4;
+    public static final int IDX_LARGE_VALUES = 5;
+    public static final int IDX_LARGE_DIRS = 6;
+
+    // the time span of readKeys, writeKeys and watchKeys, 0 if the tracker is disabled
+    public long windowMillis;
+    // estimated read count in the window
+    public List<HotKey> readKeys = new ArrayList<>();
+    // estimated write count in the window
+    public List<HotKey> writeKeys = new ArrayList<>();
+    // estimated notify count (updates multiply watchers) in the window
+    public List<HotKey> watchKeys = new ArrayList<>();
+    // value size in bytes
+    public List<HotKey> largeValues = new ArrayList<>();
+    // children count
+    public List<HotKey> largeDirs = new ArrayList<>();
+
+    private HotKey.Callback hotKeyCallback;
+
+    public KvHotKeysResp() {
+    }
+
+    @Override
+    protected KvHotKeysResp getResult() {
+        return this;
+    }
+
+    @Override
+    public boolean readVarNumber(int index, long value) {
+        if (index == IDX_WINDOW_MILLIS) {
+            this.windowMillis = value;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean readBytes(int index, ByteBuffer buf, int fieldLen, int currentPos) {
+        List<HotKey> list;
+        switch (index) {
+            case IDX_READ_KEYS:
+                list = readKeys;
+                break;
+            case IDX_WRITE_KEYS:
+                list = writeKeys;
+                break;
+            case IDX_WATCH_KEYS:
+                list = watchKeys;
+                break;
+            case IDX_LARGE_VALUES:
+                list = largeValues;
+                break;
+            case IDX_LARGE_DIRS:
+                list = largeDirs;
+                break;
+            default:
+                return true;
+        }
+        if (hotKeyCallback == null) {
+            hotKeyCallback = new HotKey.Callback();
+        }
+        HotKey k = parseNested(buf, fieldLen, currentPos, hotKeyCallback);
+        if (k != null) {
+            list.add(k);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean encode(EncodeContext context, ByteBuffer destBuffer) {
+        switch (context.stage) {
+            case EncodeContext.STAGE_BEGIN:
+                if (!EncodeUtil.encodeInt64(context, destBuffer, IDX_WINDOW_MILLIS, windowMillis)) {
+                    return false;
+                }
+                // fall through
+            case IDX_WINDOW_MILLIS:
+                if (!EncodeUtil.encodeList(context, destBuffer, IDX_READ_KEYS, readKeys)) {
+                    return false;
+                }
+                // fall through
+            case IDX_READ_KEYS:
+                if (!EncodeUtil.encodeList(context, destBuffer, IDX_WRITE_KEYS, writeKeys)) {
+                    return false;
+                }
+                // fall through
+            case IDX_WRITE_KEYS:
+                if (!EncodeUtil.encodeList(context, destBuffer, IDX_WATCH_KEYS, watchKeys)) {
+                    return false;
+                }
+                // fall through
+            case IDX_WATCH_KEYS:
+                if (!EncodeUtil.encodeList(context, destBuffer, IDX_LARGE_VALUES, largeValues)) {
+                    return false;
+                }
+                // fall through
+            case IDX_LARGE_VALUES:
+                return EncodeUtil.encodeList(context, destBuffer, IDX_LARGE_DIRS, largeDirs);
+            default:
+                throw new CodecException(context);
+        }
+    }
+
+    @Override
+    public int actualSize() {
+        return PbUtil.sizeOfInt64Field(IDX_WINDOW_MILLIS, windowMillis)
+                + EncodeUtil.sizeOfList(IDX_READ_KEYS, readKeys)
+                + EncodeUtil.sizeOfList(IDX_WRITE_KEYS, writeKeys)
+                + EncodeUtil.sizeOfList(IDX_WATCH_KEYS, watchKeys)
+                + EncodeUtil.sizeOfList(IDX_LARGE_VALUES, largeValues)
+                + EncodeUtil.sizeOfList(IDX_LARGE_DIRS, largeDirs);
+    }
+
+    public static class HotKey implements Encodable {
+        private static final int IDX_KEY = 1;
+        private static final int IDX_VALUE = 2;
+
+        public final byte[] key;
+        public final long value;
+
+        public HotKey(byte[] key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public int actualSize() {
+            return EncodeUtil.sizeOf(IDX_KEY, key) + PbUtil.sizeOfInt64Field(IDX_VALUE, value);
+        }
+
+        @Override
+        public boolean encode(EncodeContext context, ByteBuffer destBuffer) {
+            switch (context.stage) {
+                case EncodeContext.STAGE_BEGIN:
+                    if (key != null && !EncodeUtil.encode(context, destBuffer, IDX_KEY, key)) {
+                        return false;
+                    }
+                    // fall through
+                case IDX_KEY:
+                    return EncodeUtil.encodeInt64(context, destBuffer, IDX_VALUE, value);
+                default:
+                    throw new CodecException(context);
+            }
+        }
+
+        // re-used
+        static class Callback extends PbCallback<HotKey> {
+            private byte[] key;
+            private long value;
+
+            @Override
+            protected void end(boolean success) {
+                key = null;
+                value = 0;
+            }
+
+            @Override
+            public boolean readVarNumber(int index, long value) {
+                if (index == IDX_VALUE) {
+                    this.value = value;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean readBytes(int index, ByteBuffer buf, int fieldLen, int currentPos) {
+                if (index == IDX_KEY) {
+                    key = parseBytes(buf, fieldLen, currentPos);
+                }
+                return true;
+            }
+
+            @Override
+            protected HotKey getResult() {
+                return new HotKey(key, value);
+            }
+        }
+    }
+}
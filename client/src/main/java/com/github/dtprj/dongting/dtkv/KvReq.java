@@ -41,6 +41,7 @@ public class KvReq extends RaftRpcData implements Encodable {
     public static final int IDX_KEYS_SIZE = 8;
     public static final int IDX_KEYS = 9;
     public static final int IDX_VALUES = 10;
+    public static final int IDX_LEASE_ID = 11;
 
     public byte[] key;
     public byte[] value;
@@ -48,8 +49,10 @@ public class KvReq extends RaftRpcData implements Encodable {
     public List<byte[]> values;
     public byte[] expectValue;
     public UUID ownerUuid;
-    // BIZ_TYPE_EXPIRE use it as expectRaftIndex, DTKV_LOCK_PUSH use it as serverSideWaitNanos
+    // BIZ_TYPE_EXPIRE and BIZ_TYPE_EXPIRE_LEASE use it as expectRaftIndex, DTKV_LOCK_PUSH use it as serverSideWaitNanos
     public long ttlMillis;
+    // the lease that the temp node or temp dir attached to, 0 means no lease
+    public long leaseId;
 
     private int encodeSize;
 
@@ -106,7 +109,8 @@ public class KvReq extends RaftRpcData implements Encodable {
                     + PbUtil.sizeOfInt64Field(IDX_TTL_MILLIS, ttlMillis)
                     + PbUtil.sizeOfInt32Field(IDX_KEYS_SIZE, keys == null ? 0 : keys.size())
                     + EncodeUtil.sizeOfBytesList(IDX_KEYS, keys)
-                    + EncodeUtil.sizeOfBytesList(IDX_VALUES, values);
+                    + EncodeUtil.sizeOfBytesList(IDX_VALUES, values)
+                    + PbUtil.sizeOfInt64Field(IDX_LEASE_ID, leaseId);
         }
         return encodeSize;
     }
@@ -161,7 +165,12 @@ public class KvReq extends RaftRpcData implements Encodable {
                 }
                 // fall through
             case IDX_KEYS:
-                return values == null || EncodeUtil.encodeBytesList(context, destBuffer, IDX_VALUES, values);
+                if (values != null && !EncodeUtil.encodeBytesList(context, destBuffer, IDX_VALUES, values)) {
+                    return false;
+                }
+                // fall through
+            case IDX_VALUES:
+                return EncodeUtil.encodeInt64(context, destBuffer, IDX_LEASE_ID, leaseId);
             default:
                 throw new CodecException(context);
         }
@@ -203,6 +212,9 @@ public class KvReq extends RaftRpcData implements Encodable {
                 case IDX_KEYS_SIZE:
                     keysSize = (int) value;
                     break;
+                case IDX_LEASE_ID:
+                    req.leaseId = value;
+                    break;
             }
             return true;
         }
@@ -31,9 +31,14 @@ import java.nio.ByteBuffer;
 public class KvStatusResp extends PbCallback<KvStatusResp> implements Encodable {
     public static final int IDX_RAFT_SERVER_STATUS = 1;
     public static final int IDX_WATCH_COUNT = 2;
+    public static final int IDX_USED_MEMORY = 3;
+    public static final int IDX_MEMORY_QUOTA = 4;
 
     public QueryStatusResp raftServerStatus;
     public int watchCount;
+    // estimated memory used by the group, see KvServerConfig.memoryQuotaBytes
+    public long usedMemory;
+    public long memoryQuota;
 
     public KvStatusResp() {
     }
@@ -45,8 +50,16 @@ public class KvStatusResp extends PbCallback<KvStatusResp> implements Encodable
 
     @Override
     public boolean readVarNumber(int index, long value) {
-        if (index == IDX_WATCH_COUNT) {
-            this.watchCount = (int) value;
+        switch (index) {
+            case IDX_WATCH_COUNT:
+                this.watchCount = (int) value;
+                break;
+            case IDX_USED_MEMORY:
+                this.usedMemory = value;
+                break;
+            case IDX_MEMORY_QUOTA:
+                this.memoryQuota = value;
+                break;
         }
         return true;
     }
@@ -70,7 +83,17 @@ public class KvStatusResp extends PbCallback<KvStatusResp> implements Encodable
                 }
                 // fall through
             case IDX_RAFT_SERVER_STATUS:
-                return EncodeUtil.encodeInt32(context, destBuffer, IDX_WATCH_COUNT, watchCount);
+                if (!EncodeUtil.encodeInt32(context, destBuffer, IDX_WATCH_COUNT, watchCount)) {
+                    return false;
+                }
+                // fall through
+            case IDX_WATCH_COUNT:
+                if (!EncodeUtil.encodeInt64(context, destBuffer, IDX_USED_MEMORY, usedMemory)) {
+                    return false;
+                }
+                // fall through
+            case IDX_USED_MEMORY:
+                return EncodeUtil.encodeInt64(context, destBuffer, IDX_MEMORY_QUOTA, memoryQuota);
             default:
                 throw new CodecException(context);
         }
@@ -79,6 +102,8 @@ public class KvStatusResp extends PbCallback<KvStatusResp> implements Encodable
     @Override
     public int actualSize() {
         return EncodeUtil.sizeOf(IDX_RAFT_SERVER_STATUS, raftServerStatus)
-                + PbUtil.sizeOfInt32Field(IDX_WATCH_COUNT, watchCount);
+                + PbUtil.sizeOfInt32Field(IDX_WATCH_COUNT, watchCount)
+                + PbUtil.sizeOfInt64Field(IDX_USED_MEMORY, usedMemory)
+                + PbUtil.sizeOfInt64Field(IDX_MEMORY_QUOTA, memoryQuota);
     }
 }
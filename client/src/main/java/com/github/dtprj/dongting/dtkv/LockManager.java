@@ -22,6 +22,7 @@ import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.raft.RaftClient;
 import com.github.dtprj.dongting.raft.RaftException;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -36,6 +37,8 @@ public class LockManager {
     private static final DtLog log = DtLogs.getLogger(LockManager.class);
 
     private final HashMap<Integer, HashMap<ByteArray, LockHolder>> lockMap = new HashMap<>();
+    // the leases granted by this client, groupId -> leaseId -> lease
+    private final HashMap<Integer, HashMap<Long, LeaseInfo>> leaseMap = new HashMap<>();
     final ReentrantLock managerOpLock = new ReentrantLock();
 
     final KvClient kvClient;
@@ -63,6 +66,98 @@ public class LockManager {
         }
     }
 
+    /**
+     * The lease granted by this client, the locks attached to it are renewed by KvClient.keepAliveLease.
+     * The end time is measured from the client side, when the grant or keep alive request is sent.
+     */
+    static final class LeaseInfo {
+        final int groupId;
+        final long leaseId;
+        final long ttlMillis;
+        volatile long endNanos;
+        // the locks which tried to lock with this lease, guarded by managerOpLock
+        final ArrayList<DistributedLockImpl> locks = new ArrayList<>();
+
+        LeaseInfo(int groupId, long leaseId, long ttlMillis, long endNanos) {
+            this.groupId = groupId;
+            this.leaseId = leaseId;
+            this.ttlMillis = ttlMillis;
+            this.endNanos = endNanos;
+        }
+    }
+
+    void leaseGranted(int groupId, long leaseId, long ttlMillis, long startNanos) {
+        LeaseInfo li = new LeaseInfo(groupId, leaseId, ttlMillis, startNanos + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+        managerOpLock.lock();
+        try {
+            leaseMap.computeIfAbsent(groupId, k -> new HashMap<>()).put(leaseId, li);
+        } finally {
+            managerOpLock.unlock();
+        }
+    }
+
+    void leaseRenewed(int groupId, long leaseId, long startNanos) {
+        ArrayList<DistributedLockImpl> locks;
+        LeaseInfo li;
+        managerOpLock.lock();
+        try {
+            HashMap<Long, LeaseInfo> m = leaseMap.get(groupId);
+            li = m == null ? null : m.get(leaseId);
+            if (li == null) {
+                return;
+            }
+            long newEndNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(li.ttlMillis);
+            if (newEndNanos - li.endNanos <= 0) {
+                // the response of an earlier keep alive arrives late
+                return;
+            }
+            li.endNanos = newEndNanos;
+            locks = new ArrayList<>(li.locks);
+        } finally {
+            managerOpLock.unlock();
+        }
+        for (DistributedLockImpl lock : locks) {
+            lock.leaseUpdated(li);
+        }
+    }
+
+    // the lease is revoked, or the server tells it's not found, the locks attached to it expire
+    void leaseEnded(int groupId, long leaseId) {
+        LeaseInfo li;
+        managerOpLock.lock();
+        try {
+            HashMap<Long, LeaseInfo> m = leaseMap.get(groupId);
+            li = m == null ? null : m.remove(leaseId);
+            if (li == null) {
+                return;
+            }
+            if (m.isEmpty()) {
+                leaseMap.remove(groupId);
+            }
+            li.endNanos = System.nanoTime();
+        } finally {
+            managerOpLock.unlock();
+        }
+        for (DistributedLockImpl lock : li.locks) {
+            lock.leaseUpdated(li);
+        }
+    }
+
+    // return null if the lease is not granted by this client or already ended
+    LeaseInfo attachLease(DistributedLockImpl lock, long leaseId) {
+        managerOpLock.lock();
+        try {
+            HashMap<Long, LeaseInfo> m = leaseMap.get(lock.groupId);
+            LeaseInfo li = m == null ? null : m.get(leaseId);
+            if (li != null && !li.locks.contains(lock)) {
+                li.locks.add(lock);
+            }
+            return li;
+        } finally {
+            managerOpLock.unlock();
+        }
+    }
+
     DistributedLock createLock(int groupId, byte[] key, Runnable expireListener) {
         if (raftClient.getGroup(groupId) == null) {
             throw new RaftException("group not found: " + groupId);
@@ -150,6 +245,12 @@ public class LockManager {
             if (m.isEmpty()) {
                 lockMap.remove(lock.groupId);
             }
+            HashMap<Long, LeaseInfo> leases = leaseMap.get(lock.groupId);
+            if (leases != null) {
+                for (LeaseInfo li : leases.values()) {
+                    li.locks.remove(lock);
+                }
+            }
         } finally {
             managerOpLock.unlock();
         }
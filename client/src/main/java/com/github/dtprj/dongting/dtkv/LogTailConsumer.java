@@ -0,0 +1,279 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv;
+
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.log.DtLog;
+import com.github.dtprj.dongting.log.DtLogs;
+import com.github.dtprj.dongting.raft.LogFetchResp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Consume committed raft logs of a group like a message queue. The consumer fetches logs by
+ * RaftClient.fetchLog() and delivers them to the listener in order, fetch of the next batches is overlapped
+ * with the listener, at most KvClientConfig.logFetchPrefetchBatches batches are buffered.
+ * <p>
+ * The consume position (the next index to consume) is saved in DtKV periodically, a new consumer with the same
+ * offset key continues from it. The delivery is at least once, after restart the listener may receive some
+ * records again. If the listener throws, the same batch is delivered again after 1 second, and the position
+ * is not moved until the listener returns normally.
+ *
+ * @author huangli
+ */
+public class LogTailConsumer {
+    private static final DtLog log = DtLogs.getLogger(LogTailConsumer.class);
+
+    private final KvClient kvClient;
+    private final KvClientConfig config;
+    private final int logGroupId;
+    private final int offsetGroupId;
+    private final byte[] offsetKey;
+    private final LogTailListener listener;
+    private final Executor userExecutor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedList<LogFetchResp> fetched = new LinkedList<>();
+
+    private boolean running;
+    private boolean fetching;
+    private boolean delivering;
+    private boolean committing;
+    private long fetchIndex;
+    private volatile long consumedIndex;
+    private long committedIndex;
+    private long lastCommitNanos;
+
+    LogTailConsumer(KvClient kvClient, int logGroupId, int offsetGroupId, byte[] offsetKey,
+                    LogTailListener listener, Executor userExecutor) {
+        this.kvClient = kvClient;
+        this.config = kvClient.config;
+        this.logGroupId = logGroupId;
+        this.offsetGroupId = offsetGroupId;
+        this.offsetKey = offsetKey;
+        this.listener = listener;
+        this.userExecutor = userExecutor;
+    }
+
+    /**
+     * Start consume. If the offset key exists, continue from the saved position, else start from defaultIndex.
+     *
+     * @param defaultIndex the raft index to start when there is no saved position, must be positive
+     * @return the future complete with the raft index to start
+     */
+    public CompletableFuture<Long> start(long defaultIndex) {
+        DtUtil.checkPositive(defaultIndex, "defaultIndex");
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        if (offsetKey == null) {
+            doStart(defaultIndex);
+            f.complete(defaultIndex);
+            return f;
+        }
+        kvClient.get(offsetGroupId, offsetKey, (node, ex) -> {
+            if (ex != null) {
+                f.completeExceptionally(ex);
+                return;
+            }
+            try {
+                long index = defaultIndex;
+                if (node != null && node.data != null) {
+                    index = Long.parseLong(new String(node.data, StandardCharsets.UTF_8));
+                }
+                doStart(index);
+                f.complete(index);
+            } catch (Exception e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    private void doStart(long index) {
+        lock.lock();
+        try {
+            if (running) {
+                throw new IllegalStateException("already started");
+            }
+            running = true;
+            fetchIndex = index;
+            consumedIndex = index;
+            committedIndex = index;
+            lastCommitNanos = System.nanoTime();
+            fetch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop consume and save the consume position synchronously. The listener may still be running
+     * when this method returns, the position it is consuming will not be saved.
+     */
+    public void stop() {
+        long index;
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+            fetched.clear();
+            index = consumedIndex;
+            if (offsetKey == null || index == committedIndex) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        kvClient.put(offsetGroupId, offsetKey, String.valueOf(index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the next raft index to consume
+     */
+    public long getConsumedIndex() {
+        return consumedIndex;
+    }
+
+    // call under lock
+    private void fetch() {
+        if (!running || fetching || fetched.size() >= config.logFetchPrefetchBatches) {
+            return;
+        }
+        fetching = true;
+        kvClient.raftClient.fetchLog(logGroupId, fetchIndex, config.logFetchMaxItems, config.logFetchMaxBytes,
+                config.logFetchWaitMillis, this::afterFetch);
+    }
+
+    private void retryFetch() {
+        lock.lock();
+        try {
+            fetch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void afterFetch(LogFetchResp resp, Throwable ex) {
+        lock.lock();
+        try {
+            fetching = false;
+            if (!running) {
+                return;
+            }
+            if (ex != null) {
+                log.warn("fetch log failed, groupId={}, fromIndex={}: {}", logGroupId, fetchIndex, ex.toString());
+                DtUtil.SCHEDULED_SERVICE.schedule(this::retryFetch, 1, TimeUnit.SECONDS);
+                return;
+            }
+            if (resp.nextIndex > fetchIndex) {
+                fetchIndex = resp.nextIndex;
+                fetched.addLast(resp);
+                if (!delivering) {
+                    delivering = true;
+                    userExecutor.execute(this::deliver);
+                }
+            }
+            fetch();
+            // save position of idle consumer
+            tryCommitOffset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver() {
+        while (true) {
+            LogFetchResp resp;
+            lock.lock();
+            try {
+                resp = fetched.pollFirst();
+                if (resp == null || !running) {
+                    delivering = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!resp.records.isEmpty()) {
+                try {
+                    listener.onRecords(resp.records);
+                } catch (Throwable e) {
+                    log.error("log tail listener error, retry later. groupId={}, fromIndex={}",
+                            logGroupId, resp.records.get(0).index, e);
+                    retryDeliver(resp);
+                    return;
+                }
+            }
+            lock.lock();
+            try {
+                consumedIndex = resp.nextIndex;
+                // the batch is consumed, give the credit back
+                fetch();
+                tryCommitOffset();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void retryDeliver(LogFetchResp resp) {
+        lock.lock();
+        try {
+            if (!running) {
+                delivering = false;
+                return;
+            }
+            // the batch is not consumed, keep it at the head, and keep delivering flag until retry
+            fetched.addFirst(resp);
+            DtUtil.SCHEDULED_SERVICE.schedule(() -> userExecutor.execute(this::deliver), 1, TimeUnit.SECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // call under lock
+    private void tryCommitOffset() {
+        long index = consumedIndex;
+        if (offsetKey == null || committing || index == committedIndex) {
+            return;
+        }
+        if (System.nanoTime() - lastCommitNanos < TimeUnit.MILLISECONDS.toNanos(config.logOffsetCommitMillis)) {
+            return;
+        }
+        committing = true;
+        lastCommitNanos = System.nanoTime();
+        kvClient.put(offsetGroupId, offsetKey, String.valueOf(index).getBytes(StandardCharsets.UTF_8), (v, ex) -> {
+            lock.lock();
+            try {
+                committing = false;
+                if (ex == null) {
+                    committedIndex = Math.max(committedIndex, index);
+                } else {
+                    log.warn("save consume position failed, key={}: {}",
+                            new String(offsetKey, StandardCharsets.UTF_8), ex.toString());
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+}
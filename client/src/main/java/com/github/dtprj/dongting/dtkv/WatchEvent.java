@@ -15,6 +15,8 @@
  */
 package com.github.dtprj.dongting.dtkv;
 
+import java.util.List;
+
 /**
  * @author huangli
  */
@@ -30,11 +32,24 @@ public class WatchEvent {
     public final byte[] key;
     public final byte[] value;
 
+    /**
+     * Only for STATE_DIRECTORY_EXISTS event, the changes of the directory and its descendants since the
+     * last event of this watch, ordered by raft index, the value of each change is not included.
+     * Null if the server can't provide them (for example, the first event of the watch, or the server
+     * history has rolled over), in this case the caller should list the directory to get the full state.
+     */
+    public final List<WatchEvent> changes;
+
     WatchEvent(int groupId, long raftIndex, int state, byte[] key, byte[] value) {
+        this(groupId, raftIndex, state, key, value, null);
+    }
+
+    WatchEvent(int groupId, long raftIndex, int state, byte[] key, byte[] value, List<WatchEvent> changes) {
         this.groupId = groupId;
         this.raftIndex = raftIndex;
         this.state = state;
         this.key = key;
         this.value = value;
+        this.changes = changes;
     }
 }
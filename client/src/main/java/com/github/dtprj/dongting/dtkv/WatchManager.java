@@ -553,7 +553,8 @@ public class WatchManager {
                 } else {
                     if (w.raftIndex < n.raftIndex) {
                         w.raftIndex = n.raftIndex;
-                        WatchEvent e = new WatchEvent(watch.groupId, n.raftIndex, n.state, n.key, n.value);
+                        WatchEvent e = new WatchEvent(watch.groupId, n.raftIndex, n.state, n.key, n.value,
+                                toChangeEvents(watch.groupId, n.changes));
                         addOrUpdateToNotifyQueue(w, e);
                     }
                     results[i] = KvCodes.SUCCESS;
@@ -616,8 +617,29 @@ public class WatchManager {
         }
     }
 
+    private static List<WatchEvent> toChangeEvents(int groupId, List<WatchNotify> changes) {
+        if (changes == null) {
+            return null;
+        }
+        ArrayList<WatchEvent> list = new ArrayList<>(changes.size());
+        for (WatchNotify c : changes) {
+            list.add(new WatchEvent(groupId, c.raftIndex, c.state, c.key, null));
+        }
+        return list;
+    }
+
     private void addOrUpdateToNotifyQueue(KeyWatch w, WatchEvent e) {
-        if (w.event != null) {
+        WatchEvent old = w.event;
+        if (old != null) {
+            if (old.changes != null && e.changes != null) {
+                // the listener has not seen the old event, so it needs changes of both events
+                ArrayList<WatchEvent> changes = new ArrayList<>(old.changes.size() + e.changes.size());
+                changes.addAll(old.changes);
+                changes.addAll(e.changes);
+                e = new WatchEvent(e.groupId, e.raftIndex, e.state, e.key, e.value, changes);
+            } else if (e.changes != null) {
+                e = new WatchEvent(e.groupId, e.raftIndex, e.state, e.key, e.value);
+            }
             w.event = e;
             return;
         }
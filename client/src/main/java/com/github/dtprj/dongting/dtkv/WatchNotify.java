@@ -23,6 +23,8 @@ import com.github.dtprj.dongting.codec.PbCallback;
 import com.github.dtprj.dongting.codec.PbUtil;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author huangli
@@ -32,25 +34,39 @@ public class WatchNotify implements Encodable {
     private static final int IDX_STATE = 2;
     private static final int IDX_KEY = 3;
     private static final int IDX_VALUE = 4;
+    private static final int IDX_CHANGES = 5;
 
     public final long raftIndex;
     public final int state;
     public final byte[] key;
     public final byte[] value;
+    // changed descendants (and the directory itself) of a directory watch, value is not included
+    public final List<WatchNotify> changes;
+
+    private int encodeSize;
 
     public WatchNotify(long raftIndex, int state, byte[] key, byte[] value) {
+        this(raftIndex, state, key, value, null);
+    }
+
+    public WatchNotify(long raftIndex, int state, byte[] key, byte[] value, List<WatchNotify> changes) {
         this.raftIndex = raftIndex;
         this.state = state;
         this.key = key;
         this.value = value;
+        this.changes = changes;
     }
 
     @Override
     public int actualSize() {
-        return PbUtil.sizeOfFix64Field(IDX_RAFT_INDEX, raftIndex)
-                + PbUtil.sizeOfInt32Field(IDX_STATE, state)
-                + EncodeUtil.sizeOf(IDX_KEY, key)
-                + EncodeUtil.sizeOf(IDX_VALUE, value);
+        if (encodeSize == 0) {
+            encodeSize = PbUtil.sizeOfFix64Field(IDX_RAFT_INDEX, raftIndex)
+                    + PbUtil.sizeOfInt32Field(IDX_STATE, state)
+                    + EncodeUtil.sizeOf(IDX_KEY, key)
+                    + EncodeUtil.sizeOf(IDX_VALUE, value)
+                    + EncodeUtil.sizeOfList(IDX_CHANGES, changes);
+        }
+        return encodeSize;
     }
 
     @Override
@@ -72,7 +88,12 @@ public class WatchNotify implements Encodable {
                 }
                 // fall through
             case IDX_KEY:
-                return value == null || EncodeUtil.encode(context, destBuffer, IDX_VALUE, value);
+                if (value != null && !EncodeUtil.encode(context, destBuffer, IDX_VALUE, value)) {
+                    return false;
+                }
+                // fall through
+            case IDX_VALUE:
+                return EncodeUtil.encodeList(context, destBuffer, IDX_CHANGES, changes);
             default:
                 throw new CodecException(context);
         }
@@ -84,6 +105,8 @@ public class WatchNotify implements Encodable {
         private int state;
         private byte[] key;
         private byte[] value;
+        private ArrayList<WatchNotify> changes;
+        private Callback changeCallback;
 
         @Override
         protected void end(boolean success) {
@@ -91,6 +114,7 @@ public class WatchNotify implements Encodable {
             state = 0;
             key = null;
             value = null;
+            changes = null;
         }
 
         @Override
@@ -115,13 +139,24 @@ public class WatchNotify implements Encodable {
                 key = parseBytes(buf, fieldLen, currentPos);
             } else if (index == IDX_VALUE) {
                 value = parseBytes(buf, fieldLen, currentPos);
+            } else if (index == IDX_CHANGES) {
+                if (changeCallback == null) {
+                    changeCallback = new Callback();
+                }
+                WatchNotify wn = parseNested(buf, fieldLen, currentPos, changeCallback);
+                if (wn != null) {
+                    if (changes == null) {
+                        changes = new ArrayList<>();
+                    }
+                    changes.add(wn);
+                }
             }
             return true;
         }
 
         @Override
         protected WatchNotify getResult() {
-            return new WatchNotify(raftIndex, state, key, value);
+            return new WatchNotify(raftIndex, state, key, value, changes);
         }
     }
 }
@@ -47,6 +47,8 @@ public interface Commands {
     int RAFT_ADMIN_LIST_NODES = 54;
     int RAFT_ADMIN_LIST_GROUPS = 55;
     int RAFT_ADMIN_SYNC_CONFIG = 56;
+    int RAFT_LOG_FETCH = 57;
+    int RAFT_DELEGATE_INSTALL = 58;
 
     // 70 ~ 99 for dt kv
     int DTKV_REMOVE = 70;
@@ -66,4 +68,8 @@ public interface Commands {
     int DTKV_UNLOCK = 84;
     int DTKV_LOCK_PUSH = 85;
     int DTKV_UPDATE_LOCK_LEASE = 86;
+    int DTKV_GRANT_LEASE = 87;
+    int DTKV_KEEP_ALIVE_LEASE = 88;
+    int DTKV_REVOKE_LEASE = 89;
+    int DTKV_QUERY_HOT_KEYS = 90;
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft;
+
+import com.github.dtprj.dongting.codec.CodecException;
+import com.github.dtprj.dongting.codec.Encodable;
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.codec.EncodeUtil;
+import com.github.dtprj.dongting.codec.PbCallback;
+import com.github.dtprj.dongting.codec.PbUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fetch committed raft logs of a group, start from fromIndex. If there is no committed log at fromIndex,
+ * the server holds the request at most waitMillis until new logs are committed.
+ *
+ * @author huangli
+ */
+public class LogFetchReq implements Encodable {
+//    int32 group_id = 1;
+//    fixed64 from_index = 2;
+//    int32 max_items = 3;
+//    int32 max_bytes = 4;
+//    int32 wait_millis = 5;
+
+    private static final int IDX_GROUP_ID = 1;
+    private static final int IDX_FROM_INDEX = 2;
+    private static final int IDX_MAX_ITEMS = 3;
+    private static final int IDX_MAX_BYTES = 4;
+    private static final int IDX_WAIT_MILLIS = 5;
+
+    public int groupId;
+    public long fromIndex;
+    public int maxItems;
+    public int maxBytes;
+    public int waitMillis;
+
+    private int size;
+
+    @Override
+    public int actualSize() {
+        if (size == 0) {
+            size = PbUtil.sizeOfInt32Field(IDX_GROUP_ID, groupId)
+                    + PbUtil.sizeOfFix64Field(IDX_FROM_INDEX, fromIndex)
+                    + PbUtil.sizeOfInt32Field(IDX_MAX_ITEMS, maxItems)
+                    + PbUtil.sizeOfInt32Field(IDX_MAX_BYTES, maxBytes)
+                    + PbUtil.sizeOfInt32Field(IDX_WAIT_MILLIS, waitMillis);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean encode(EncodeContext context, ByteBuffer destBuffer) {
+        switch (context.stage) {
+            case EncodeContext.STAGE_BEGIN:
+                if (!EncodeUtil.encodeInt32(context, destBuffer, IDX_GROUP_ID, groupId)) {
+                    return false;
+                }
+                // fall through
+            case IDX_GROUP_ID:
+                if (!EncodeUtil.encodeFix64(context, destBuffer, IDX_FROM_INDEX, fromIndex)) {
+                    return false;
+                }
+                // fall through
+            case IDX_FROM_INDEX:
+                if (!EncodeUtil.encodeInt32(context, destBuffer, IDX_MAX_ITEMS, maxItems)) {
+                    return false;
+                }
+                // fall through
+            case IDX_MAX_ITEMS:
+                if (!EncodeUtil.encodeInt32(context, destBuffer, IDX_MAX_BYTES, maxBytes)) {
+                    return false;
+                }
+                // fall through
+            case IDX_MAX_BYTES:
+                return EncodeUtil.encodeInt32(context, destBuffer, IDX_WAIT_MILLIS, waitMillis);
+            default:
+                throw new CodecException(context);
+        }
+    }
+
+    public static final class Callback extends PbCallback<LogFetchReq> {
+        private final LogFetchReq req = new LogFetchReq();
+
+        @Override
+        public boolean readVarNumber(int index, long value) {
+            switch (index) {
+                case IDX_GROUP_ID:
+                    req.groupId = (int) value;
+                    break;
+                case IDX_MAX_ITEMS:
+                    req.maxItems = (int) value;
+                    break;
+                case IDX_MAX_BYTES:
+                    req.maxBytes = (int) value;
+                    break;
+                case IDX_WAIT_MILLIS:
+                    req.waitMillis = (int) value;
+                    break;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readFix64(int index, long value) {
+            if (index == IDX_FROM_INDEX) {
+                req.fromIndex = value;
+            }
+            return true;
+        }
+
+        @Override
+        public LogFetchReq getResult() {
+            return req;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft;
+
+import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
+import com.github.dtprj.dongting.codec.PbCallback;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author huangli
+ */
+public class LogFetchResp {
+//    int32 group_id = 1;
+//    fixed64 next_index = 2;
+//    fixed64 commit_index = 3;
+//    int32 records_size = 4;
+//    repeated LogRecord records = 5;
+
+    public static final int IDX_GROUP_ID = 1;
+    public static final int IDX_NEXT_INDEX = 2;
+    public static final int IDX_COMMIT_INDEX = 3;
+    public static final int IDX_RECORDS_SIZE = 4;
+    public static final int IDX_RECORDS = 5;
+
+    public final int groupId;
+    // the index to start next fetch, may be greater than the index of last record + 1,
+    // since internal logs such as heartbeat and config change are skipped.
+    public final long nextIndex;
+    public final long commitIndex;
+    public final List<LogRecord> records;
+
+    public static final DecoderCallbackCreator<LogFetchResp> DECODER = ctx -> ctx.toDecoderCallback(
+            new Callback());
+
+    public LogFetchResp(int groupId, long nextIndex, long commitIndex, List<LogRecord> records) {
+        this.groupId = groupId;
+        this.nextIndex = nextIndex;
+        this.commitIndex = commitIndex;
+        this.records = records;
+    }
+
+    public static final class Callback extends PbCallback<LogFetchResp> {
+        private int groupId;
+        private long nextIndex;
+        private long commitIndex;
+        private ArrayList<LogRecord> records;
+        private final LogRecord.Callback recordCallback = new LogRecord.Callback();
+
+        @Override
+        public boolean readVarNumber(int index, long value) {
+            if (index == IDX_GROUP_ID) {
+                groupId = (int) value;
+            } else if (index == IDX_RECORDS_SIZE) {
+                records = createArrayList((int) value);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readFix64(int index, long value) {
+            if (index == IDX_NEXT_INDEX) {
+                nextIndex = value;
+            } else if (index == IDX_COMMIT_INDEX) {
+                commitIndex = value;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readBytes(int index, ByteBuffer buf, int fieldLen, int currentPos) {
+            if (index == IDX_RECORDS) {
+                LogRecord r = parseNested(buf, fieldLen, currentPos, recordCallback);
+                if (r != null) {
+                    if (records == null) {
+                        records = new ArrayList<>();
+                    }
+                    records.add(r);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected LogFetchResp getResult() {
+            return new LogFetchResp(groupId, nextIndex, commitIndex,
+                    records == null ? Collections.emptyList() : records);
+        }
+    }
+}
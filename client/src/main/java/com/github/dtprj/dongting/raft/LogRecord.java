@@ -0,0 +1,112 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft;
+
+import com.github.dtprj.dongting.codec.PbCallback;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A committed raft log item returned by log fetch, the field numbers are same as LogItem in raft replication.
+ *
+ * @author huangli
+ */
+public class LogRecord {
+//    int32 biz_type = 2;
+//    int32 term = 3;
+//    fixed64 index = 4;
+//    fixed64 timestamp = 6;
+//    bytes header = 7;
+//    bytes body = 8;
+
+    public static final int IDX_BIZ_TYPE = 2;
+    public static final int IDX_TERM = 3;
+    public static final int IDX_INDEX = 4;
+    public static final int IDX_TIMESTAMP = 6;
+    public static final int IDX_HEADER = 7;
+    public static final int IDX_BODY = 8;
+
+    public final int bizType;
+    public final int term;
+    public final long index;
+    public final long timestamp; // wall clock millis of the leader when the log is created
+    public final byte[] header;
+    public final byte[] body;
+
+    public LogRecord(int bizType, int term, long index, long timestamp, byte[] header, byte[] body) {
+        this.bizType = bizType;
+        this.term = term;
+        this.index = index;
+        this.timestamp = timestamp;
+        this.header = header;
+        this.body = body;
+    }
+
+    // re-used
+    public static class Callback extends PbCallback<LogRecord> {
+        private int bizType;
+        private int term;
+        private long index;
+        private long timestamp;
+        private byte[] header;
+        private byte[] body;
+
+        @Override
+        protected void end(boolean success) {
+            bizType = 0;
+            term = 0;
+            index = 0;
+            timestamp = 0;
+            header = null;
+            body = null;
+        }
+
+        @Override
+        public boolean readVarNumber(int index, long value) {
+            if (index == IDX_BIZ_TYPE) {
+                bizType = (int) value;
+            } else if (index == IDX_TERM) {
+                term = (int) value;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readFix64(int index, long value) {
+            if (index == IDX_INDEX) {
+                this.index = value;
+            } else if (index == IDX_TIMESTAMP) {
+                timestamp = value;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean readBytes(int index, ByteBuffer buf, int fieldLen, int currentPos) {
+            if (index == IDX_HEADER) {
+                header = parseBytes(buf, fieldLen, currentPos);
+            } else if (index == IDX_BODY) {
+                body = parseBytes(buf, fieldLen, currentPos);
+            }
+            return true;
+        }
+
+        @Override
+        protected LogRecord getResult() {
+            return new LogRecord(bizType, term, index, timestamp, header, body);
+        }
+    }
+}
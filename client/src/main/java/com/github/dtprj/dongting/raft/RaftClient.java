@@ -19,10 +19,12 @@ import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
 import com.github.dtprj.dongting.common.AbstractLifeCircle;
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.common.FutureCallback;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.net.CmdCodes;
 import com.github.dtprj.dongting.net.Commands;
+import com.github.dtprj.dongting.net.EncodableBodyWritePacket;
 import com.github.dtprj.dongting.net.HostPort;
 import com.github.dtprj.dongting.net.NetCodeException;
 import com.github.dtprj.dongting.net.NetException;
@@ -623,6 +625,30 @@ public class RaftClient extends AbstractLifeCircle {
         }
     }
 
+    /**
+     * Fetch committed raft logs of the group from the leader, start from fromIndex. If there is no new committed
+     * log, the server holds the request at most waitMillis, so the rpc timeout is rpcTimeoutMillis plus waitMillis.
+     * The maxItems and maxBytes is the credit of this fetch, server returns at least one record if any.
+     */
+    public void fetchLog(int groupId, long fromIndex, int maxItems, int maxBytes, int waitMillis,
+                         FutureCallback<LogFetchResp> callback) {
+        LogFetchReq req = new LogFetchReq();
+        req.groupId = groupId;
+        req.fromIndex = fromIndex;
+        req.maxItems = maxItems;
+        req.maxBytes = maxBytes;
+        req.waitMillis = waitMillis;
+        EncodableBodyWritePacket wf = new EncodableBodyWritePacket(Commands.RAFT_LOG_FETCH, req);
+        DtTime timeout = new DtTime(config.rpcTimeoutMillis + waitMillis, TimeUnit.MILLISECONDS);
+        sendRequest(groupId, wf, LogFetchResp.DECODER, timeout, (result, ex) -> {
+            if (ex != null) {
+                FutureCallback.callFail(callback, ex);
+            } else {
+                FutureCallback.callSuccess(callback, result.getBody());
+            }
+        });
+    }
+
     public CompletableFuture<RaftNode> fetchLeader(int groupId) {
         checkStatus();
         return updateLeaderInfo(groupId, true).thenApply(gi -> gi.leader);
@@ -20,6 +20,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * @author huangli
@@ -99,6 +100,21 @@ public class IndexedQueueTest {
         assertEquals(Integer.valueOf(3), deque.get(2));
     }
 
+    @Test
+    public void testSet() {
+        for (int i = 0; i < 10; i++) {
+            deque.addLast(i);
+        }
+        deque.removeFirst();
+        deque.addLast(10);
+
+        assertEquals(Integer.valueOf(1), deque.set(0, 100));
+        assertEquals(Integer.valueOf(100), deque.get(0));
+        assertEquals(Integer.valueOf(10), deque.set(9, 110));
+        assertEquals(Integer.valueOf(110), deque.get(9));
+        assertThrows(IndexOutOfBoundsException.class, () -> deque.set(10, 0));
+    }
+
     @Test
     public void testResize() {
         for (int i = 0; i < 20; i++) {
@@ -15,8 +15,11 @@
  */
 package com.github.dtprj.dongting.dist;
 
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
 import com.github.dtprj.dongting.net.Commands;
 import com.github.dtprj.dongting.net.EmptyBodyReqPacket;
+import com.github.dtprj.dongting.net.PbIntWritePacket;
 import com.github.dtprj.dongting.raft.admin.AdminRaftClient;
 
 import java.util.concurrent.CompletableFuture;
@@ -36,4 +39,14 @@ public class DistClient extends AdminRaftClient {
         EmptyBodyReqPacket p = new EmptyBodyReqPacket(Commands.RAFT_ADMIN_SYNC_CONFIG);
         return sendByNodeId(nodeId, createDefaultTimeout(), p);
     }
+
+    /**
+     * Query the hot keys (by reads, writes and watch fan-out), the largest values and the largest directories
+     * of a DtKV group on the specified node. The reads are served by the node which receives them, so query
+     * each node to find hot read keys.
+     */
+    public CompletableFuture<KvHotKeysResp> queryKvHotKeys(int nodeId, int groupId, DtTime timeout) {
+        PbIntWritePacket p = new PbIntWritePacket(Commands.DTKV_QUERY_HOT_KEYS, groupId);
+        return sendByNodeId(nodeId, timeout, p, ctx -> ctx.toDecoderCallback(new KvHotKeysResp()));
+    }
 }
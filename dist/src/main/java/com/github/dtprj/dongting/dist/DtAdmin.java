@@ -16,11 +16,13 @@
 package com.github.dtprj.dongting.dist;
 
 import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
 import com.github.dtprj.dongting.raft.QueryStatusResp;
 import com.github.dtprj.dongting.raft.RaftNode;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -238,6 +240,9 @@ public class DtAdmin {
                 case "query-status":
                     executeQueryStatus(client);
                     break;
+                case "kv-hot-keys":
+                    executeKvHotKeys(client);
+                    break;
                 case "add-group":
                     executeServerAddGroup(client);
                     break;
@@ -285,11 +290,22 @@ public class DtAdmin {
         Set<Integer> oldObservers = getOptionalIntSetParam("old-observers");
         Set<Integer> newMembers = getRequiredIntSetParam("new-members");
         Set<Integer> newObservers = getOptionalIntSetParam("new-observers");
+        String source = getOptionalParam("snapshot-source", "0");
+        int snapshotSourceId;
+        if ("auto".equals(source)) {
+            snapshotSourceId = -1;
+        } else {
+            try {
+                snapshotSourceId = Integer.parseInt(source);
+            } catch (NumberFormatException e) {
+                throw new UsageEx("Invalid value for --snapshot-source: " + source);
+            }
+        }
         DtTime timeout = getTimeoutParam(30);
 
         System.out.println("Executing prepare-change with timeout " + timeout.getTimeout(TimeUnit.SECONDS) + " seconds...");
         long prepareIndex = client.prepareChange(groupId, oldMembers, oldObservers,
-                newMembers, newObservers, timeout).get();
+                newMembers, newObservers, snapshotSourceId, timeout).get();
         System.out.println("SUCCESS. Prepare index: " + prepareIndex);
     }
 
@@ -355,6 +371,9 @@ public class DtAdmin {
         }
         System.out.println("  Members: " + resp.members);
         System.out.println("  Observers: " + resp.observers);
+        if (!resp.witnesses.isEmpty()) {
+            System.out.println("  Witnesses: " + resp.witnesses);
+        }
         if (!resp.preparedMembers.isEmpty() || !resp.preparedObservers.isEmpty()) {
             System.out.println("  Prepared Members: " + resp.preparedMembers);
             System.out.println("  Prepared Observers: " + resp.preparedObservers);
@@ -365,15 +384,48 @@ public class DtAdmin {
         }
     }
 
+    private void executeKvHotKeys(DistClient client) throws Exception {
+        int nodeId = getRequiredIntParam("node-id");
+        int groupId = getRequiredIntParam("group-id");
+        DtTime timeout = getTimeoutParamOrDefault(client);
+
+        System.out.println("Executing kv-hot-keys with timeout " + timeout.getTimeout(TimeUnit.SECONDS) + " seconds...");
+        KvHotKeysResp resp = client.queryKvHotKeys(nodeId, groupId, timeout).get();
+        if (resp.windowMillis == 0) {
+            System.out.println("Hot key tracker is disabled on node " + nodeId + ", see KvServerConfig.hotKeyTopK");
+            return;
+        }
+        System.out.println("DtKV hot keys for group " + groupId + " on node " + nodeId
+                + " (estimated, in last " + resp.windowMillis + " ms):");
+        printHotKeys("Reads (ops/s)", resp.readKeys, resp.windowMillis);
+        printHotKeys("Writes (ops/s)", resp.writeKeys, resp.windowMillis);
+        printHotKeys("Watch Notifies (notifies/s)", resp.watchKeys, resp.windowMillis);
+        printHotKeys("Largest Values (bytes)", resp.largeValues, 0);
+        printHotKeys("Largest Directories (children)", resp.largeDirs, 0);
+    }
+
+    private static void printHotKeys(String title, List<KvHotKeysResp.HotKey> list, long windowMillis) {
+        System.out.println("  " + title + ":");
+        if (list.isEmpty()) {
+            System.out.println("    (none)");
+        }
+        for (KvHotKeysResp.HotKey k : list) {
+            String key = k.key == null || k.key.length == 0 ? "(root)" : new String(k.key, StandardCharsets.UTF_8);
+            long v = windowMillis > 0 ? k.value * 1000 / windowMillis : k.value;
+            System.out.println("    " + key + ": " + v);
+        }
+    }
+
     private void executeServerAddGroup(DistClient client) throws Exception {
         int nodeId = getRequiredIntParam("node-id");
         int groupId = getRequiredIntParam("group-id");
         String members = getRequiredParam("members");
         String observers = getOptionalParam("observers", "");
+        String witnesses = getOptionalParam("witnesses", "");
         DtTime timeout = getTimeoutParamOrDefault(client);
 
         System.out.println("Executing server-add-group with timeout " + timeout.getTimeout(TimeUnit.SECONDS) + " seconds...");
-        client.serverAddGroup(nodeId, groupId, members, observers, timeout).get();
+        client.serverAddGroup(nodeId, groupId, members, observers, witnesses, timeout).get();
         System.out.println("Add group completed successfully");
         checkLocalConfigFileUpdated();
     }
@@ -551,6 +603,7 @@ public class DtAdmin {
         System.out.println("  list-nodes         List all node definitions on specified node");
         System.out.println("  list-groups        List all raft group IDs on specified node");
         System.out.println("  query-status       Query raft server status for specified group");
+        System.out.println("  kv-hot-keys        Query hot keys and large keys of a DtKV group on specified node");
         System.out.println("  transfer-leader    Transfer raft group leader");
         System.out.println("  prepare-change     Prepare configuration change for a raft group");
         System.out.println("  commit-change      Commit prepared configuration change");
@@ -612,6 +665,26 @@ public class DtAdmin {
                 System.out.println("Examples:");
                 System.out.println("  dongting-admin.sh query-status --node-id 1 --group-id 0 --timeout 60");
                 break;
+            case "kv-hot-keys":
+                System.out.println("Usage: dongting-admin.sh kv-hot-keys [options]");
+                System.out.println();
+                System.out.println("Query the hot keys by reads, writes and watch notifies, the largest values and");
+                System.out.println("the largest directories of a DtKV group on specified node. The counts are sampled");
+                System.out.println("and estimated. Reads are served by the node received them, so query each node.");
+                System.out.println();
+                System.out.println("Required Options:");
+                System.out.println("  --node-id <id>          Target node ID");
+                System.out.println("  --group-id <id>         Raft group ID");
+                System.out.println();
+                System.out.println("Optional Options:");
+                System.out.println("  --timeout <seconds>     Timeout in seconds");
+                System.out.println();
+                System.out.println("Global Options:");
+                System.out.println("  -s <file>               Path to servers.properties file (optional, use conf/server.properties by default)");
+                System.out.println();
+                System.out.println("Examples:");
+                System.out.println("  dongting-admin.sh kv-hot-keys --node-id 1 --group-id 0");
+                break;
             case "transfer-leader":
                 System.out.println("Usage: dongting-admin.sh transfer-leader [options]");
                 System.out.println();
@@ -644,6 +717,8 @@ public class DtAdmin {
                 System.out.println("Optional Options:");
                 System.out.println("  --old-observers <ids>   Current observer node IDs, comma-separated");
                 System.out.println("  --new-observers <ids>   New observer node IDs, comma-separated");
+                System.out.println("  --snapshot-source <id>  Member which installs snapshot to new nodes, or 'auto' to choose");
+                System.out.println("                          a healthy follower (default: the leader)");
                 System.out.println("  --timeout <seconds>     Timeout in seconds (default: 30)");
                 System.out.println();
                 System.out.println("Global Options:");
@@ -651,6 +726,7 @@ public class DtAdmin {
                 System.out.println();
                 System.out.println("Examples:");
                 System.out.println("  dongting-admin.sh prepare-change --group-id 0 --old-members 1,2,3 --new-members 2,3,4");
+                System.out.println("  dongting-admin.sh prepare-change --group-id 0 --old-members 1,2,3 --new-members 1,2,3,4 --snapshot-source auto");
                 System.out.println("  dongting-admin.sh prepare-change --group-id 0 --old-members 1,2,3 --old-observers 4 --new-members 2,3,4 --new-observers 5");
                 break;
             case "commit-change":
@@ -700,6 +776,7 @@ public class DtAdmin {
                 System.out.println();
                 System.out.println("Optional Options:");
                 System.out.println("  --observers <ids>       Observer node IDs, comma-separated");
+                System.out.println("  --witnesses <ids>       Witness node IDs (subset of members), comma-separated");
                 System.out.println("  --timeout <seconds>     Timeout in seconds");
                 System.out.println();
                 System.out.println("Global Options:");
@@ -708,6 +785,7 @@ public class DtAdmin {
                 System.out.println("Examples:");
                 System.out.println("  dongting-admin.sh add-group --node-id 1 --group-id 0 --members 1,2,3");
                 System.out.println("  dongting-admin.sh add-group --node-id 1 --group-id 0 --members 1,2,3 --observers 4,5");
+                System.out.println("  dongting-admin.sh add-group --node-id 1 --group-id 0 --members 1,2,3 --witnesses 3");
                 break;
             case "remove-group":
                 System.out.println("Usage: dongting-admin.sh remove-group [options]");
@@ -17,6 +17,7 @@ package com.github.dtprj.dongting.dist;
 
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.dtkv.DistributedLock;
 import com.github.dtprj.dongting.dtkv.KvClient;
 import com.github.dtprj.dongting.raft.RaftNode;
 
@@ -45,6 +46,9 @@ public class DtBenchmark {
     private static final int DEFAULT_CLIENT_COUNT = 1;
     private static final int DEFAULT_KEY_COUNT = 10000;
     private static final int DEFAULT_MAX_PENDING = 2000;
+    private static final int DEFAULT_CONTENDERS = 10;
+    private static final long LOCK_LEASE_MILLIS = 30_000;
+    private static final long LOCK_WAIT_MILLIS = 10_000;
     private static final int WARMUP_SECONDS = 3;
 
     private String serversFile;
@@ -53,6 +57,8 @@ public class DtBenchmark {
     private boolean sync = DEFAULT_SYNC;
     private int threadCount = DEFAULT_THREAD_COUNT;
     private boolean isPut = true;
+    private boolean isLock = false;
+    private int contenders = DEFAULT_CONTENDERS;
     private int duration = DEFAULT_DURATION;
     private int clientCount = DEFAULT_CLIENT_COUNT;
     private int keyCount = DEFAULT_KEY_COUNT;
@@ -75,6 +81,9 @@ public class DtBenchmark {
     private final LongAdder lastSecondTotalNanos = new LongAdder();
     private final AtomicLong lastSecondMaxNanos = new AtomicLong();
 
+    // the time when the last lock owner begin to unlock, used to measure the handoff latency
+    private final AtomicLong lastUnlockTime = new AtomicLong();
+
     private volatile boolean running = true;
     private final CountDownLatch startLatch = new CountDownLatch(1);
 
@@ -220,8 +229,11 @@ public class DtBenchmark {
                     String opType = args[i + 1].toLowerCase();
                     if (opType.equals("get")) {
                         isPut = false;
+                    } else if (opType.equals("lock")) {
+                        isPut = false;
+                        isLock = true;
                     } else if (!opType.equals("put")) {
-                        throw new UsageEx("--op must be 'put' or 'get'");
+                        throw new UsageEx("--op must be 'put', 'get' or 'lock'");
                     }
                     i++;
                 } else {
@@ -255,6 +267,13 @@ public class DtBenchmark {
                 } else {
                     throw new UsageEx("--max-pending option requires a value");
                 }
+            } else if ("--contenders".equals(args[i])) {
+                if (i + 1 < args.length) {
+                    contenders = parseInt(args[i + 1], "--contenders");
+                    i++;
+                } else {
+                    throw new UsageEx("--contenders option requires a value");
+                }
             } else if ("--use-nanos".equals(args[i])) {
                 useNanos = true;
             } else if ("--use-virtual-threads".equals(args[i])) {
@@ -271,6 +290,16 @@ public class DtBenchmark {
         if (!groupIdSpecified) {
             throw new UsageEx("-g option is required");
         }
+
+        if (isLock) {
+            if (contenders <= 0) {
+                throw new UsageEx("--contenders must be positive");
+            }
+            // the lock is identified by client, so each contender use its own client and thread
+            sync = true;
+            clientCount = contenders;
+            threadCount = contenders;
+        }
     }
 
     private int parseInt(String value, String name) {
@@ -351,6 +380,10 @@ public class DtBenchmark {
     }
 
     private void runTestThread(KvClient client) {
+        if (isLock) {
+            runLockThread(client);
+            return;
+        }
         try {
             startLatch.await();
 
@@ -375,6 +408,43 @@ public class DtBenchmark {
         }
     }
 
+    private void runLockThread(KvClient client) {
+        DistributedLock lock = client.createLock(groupId, "benchmark.lock".getBytes());
+        try {
+            startLatch.await();
+            while (running) {
+                long startTime = currentTime();
+                boolean success;
+                try {
+                    success = lock.tryLock(LOCK_LEASE_MILLIS, LOCK_WAIT_MILLIS);
+                } catch (Exception e) {
+                    System.err.println("Error in tryLock: " + e);
+                    success = false;
+                }
+                if (!success) {
+                    updateStats(false, currentTime() - startTime);
+                    continue;
+                }
+                // the handoff latency, from the previous owner begin to unlock to this contender get the lock.
+                // for single contender, it's the time of unlock and tryLock.
+                long unlockTime = lastUnlockTime.get();
+                long now = currentTime();
+                updateStats(true, unlockTime == 0 ? now - startTime : now - unlockTime);
+                lastUnlockTime.set(currentTime());
+                try {
+                    lock.unlock();
+                } catch (Exception e) {
+                    System.err.println("Error in unlock: " + e);
+                }
+            }
+        } catch (Exception e) {
+            //noinspection CallToPrintStackTrace
+            e.printStackTrace();
+        } finally {
+            lock.close();
+        }
+    }
+
     private boolean doSyncOp(KvClient client, byte[] key) {
         try {
             if (isPut) {
@@ -466,6 +536,13 @@ public class DtBenchmark {
 
     private void printBenchmarkConfig() {
         System.out.println("Benchmark config:");
+        if (isLock) {
+            System.out.println("  Java " + DtUtil.JAVA_VER + ", lock handoff, " + contenders
+                    + " contenders (one client per contender), TPS is lock acquisitions per second,"
+                    + " RT is handoff latency");
+            System.out.println();
+            return;
+        }
         String threadInfo = sync ? threadCount + (finallyUseVirtualThreads ? " virtual" : " platform")
                 + " threads total" : "one thread per client";
         System.out.println("  Java " + DtUtil.JAVA_VER + ", " + (sync ? "sync" : "async") + " "
@@ -516,7 +593,8 @@ public class DtBenchmark {
         System.out.println("  --sync                   Use synchronous operations (default: async)");
         System.out.println("  --async                  Use asynchronous operations (default)");
         System.out.println("  --thread-count <count>   Total thread count for sync mode (default: 128)");
-        System.out.println("  --op <operation>         Operation: put or get (default: put)");
+        System.out.println("  --op <operation>         Operation: put, get or lock (default: put)");
+        System.out.println("  --contenders <count>     Number of lock contenders for lock operation (default: 10)");
         System.out.println("  --duration <seconds>     Test duration in seconds (default: 10)");
         System.out.println("  --client-count <count>   Number of KvClient instances (default: 1)");
         System.out.println("  --key-count <count>      Number of keys to cycle through (default: 10000)");
@@ -531,6 +609,7 @@ public class DtBenchmark {
         System.out.println("  ./benchmark.sh -g 0 --op get --duration 30");
         System.out.println("  ./benchmark.sh -g 0 --sync --thread-count 4000 (Java 21+)");
         System.out.println("  ./benchmark.sh -g 0 --value-size 1024 --client-count 2");
+        System.out.println("  ./benchmark.sh -g 0 --op lock --contenders 500 --use-nanos");
     }
 
     private static class UsageEx extends RuntimeException {
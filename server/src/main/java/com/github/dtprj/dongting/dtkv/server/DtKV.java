@@ -33,10 +33,12 @@ import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FiberGroup;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
+import com.github.dtprj.dongting.net.ByteBufferWritePacket;
 import com.github.dtprj.dongting.net.Commands;
 import com.github.dtprj.dongting.net.EncodableBodyWritePacket;
 import com.github.dtprj.dongting.net.NioServer;
 import com.github.dtprj.dongting.net.RpcCallback;
+import com.github.dtprj.dongting.net.WritePacket;
 import com.github.dtprj.dongting.raft.RaftException;
 import com.github.dtprj.dongting.raft.impl.DecodeContextEx;
 import com.github.dtprj.dongting.raft.impl.RaftGroupImpl;
@@ -52,8 +54,10 @@ import com.github.dtprj.dongting.raft.sm.StateMachine;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 /**
@@ -84,6 +88,10 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
     public static final int BIZ_TYPE_TRY_LOCK = 15;
     public static final int BIZ_TYPE_UNLOCK = 16;
     public static final int BIZ_TYPE_UPDATE_LOCK_LEASE = 17;
+    public static final int BIZ_TYPE_GRANT_LEASE = 18;
+    public static final int BIZ_TYPE_KEEP_ALIVE_LEASE = 19;
+    public static final int BIZ_TYPE_REVOKE_LEASE = 20;
+    public static final int BIZ_TYPE_EXPIRE_LEASE = 21; // launched by raft leader, like BIZ_TYPE_EXPIRE
 
     public final Timestamp ts;
     final DtKVExecutor dtkvExecutor;
@@ -95,12 +103,21 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
 
     volatile KvStatus kvStatus;
     private EncodeStatus encodeStatus;
+    // the leases in the installing checkpoint
+    private HashSet<Long> checkpointLeaseIds;
 
     final ServerWatchManager watchManager;
+    private DtKVExecutor.DtKVExecutorTask watchDispatchTask;
     final TtlManager ttlManager;
 
     private RaftGroupImpl raftGroup;
 
+    // write requests forwarded to leader and waiting for response, see KvProcessor
+    final AtomicInteger pendingForwardCount = new AtomicInteger();
+
+    // lease read requests waiting to be served in batch by dtkv executor, see KvProcessor
+    final ReadBatcher<KvProcessor.PendingRead> readBatcher;
+
     public DtKV(RaftGroupConfigEx config, KvServerConfig kvConfig) {
         this.mainFiberGroup = config.fiberGroup;
         this.config = config;
@@ -112,11 +129,19 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
             this.ts = config.ts;
         }
         this.dtkvExecutor = new DtKVExecutor(config.groupId, ts, useSeparateExecutor ? null : mainFiberGroup);
+        this.readBatcher = new ReadBatcher<>(dtkvExecutor, KvProcessor.MAX_READ_BATCH);
         watchManager = new ServerWatchManager(config.groupId, ts, kvConfig) {
             @Override
-            protected void sendRequest(ChannelInfo ci, WatchNotifyReq req, ArrayList<ChannelWatch> watchList,
-                                       int requestEpoch, boolean fireNext) {
-                EncodableBodyWritePacket p = new EncodableBodyWritePacket(Commands.DTKV_WATCH_NOTIFY_PUSH, req);
+            protected void sendRequest(ChannelInfo ci, WatchNotifyReq req, ByteBuffer encodedReq,
+                                       ArrayList<ChannelWatch> watchList, int requestEpoch, boolean fireNext) {
+                WritePacket p;
+                if (encodedReq != null) {
+                    // the shared heap buffer is only read by the packet, no need to copy
+                    p = new ByteBufferWritePacket(encodedReq);
+                    p.command = Commands.DTKV_WATCH_NOTIFY_PUSH;
+                } else {
+                    p = new EncodableBodyWritePacket(Commands.DTKV_WATCH_NOTIFY_PUSH, req);
+                }
                 DtTime timeout = new DtTime(5, TimeUnit.SECONDS);
                 DecoderCallbackCreator<WatchNotifyRespCallback> decoder =
                         ctx -> ctx.toDecoderCallback(new WatchNotifyRespCallback(req.notifyList.size()));
@@ -128,9 +153,20 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
                 };
                 ((NioServer) ci.channel.getOwner()).sendRequest(ci.channel, p, decoder, timeout, c);
             }
+
+            @Override
+            protected void signalDispatch() {
+                DtKVExecutor.DtKVExecutorTask t = watchDispatchTask;
+                if (t != null) {
+                    t.signal();
+                }
+            }
         };
         this.ttlManager = new TtlManager(ts, this::expire);
         KvImpl kvImpl = new KvImpl(watchManager, ttlManager, ts, config.groupId, kvConfig);
+        if (config.saveCheckpointSeconds > 0) {
+            kvImpl.enableCheckpoint(0);
+        }
         updateStatus(false, kvImpl);
     }
 
@@ -182,6 +218,7 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         KvImpl kv = kvStatus.kvImpl;
         int bizType = input.bizType;
         kv.opContext.init(bizType, req.ownerUuid, req.ttlMillis, leaderCreateTimeMillis, localCreateNanos);
+        kv.opContext.leaseId = req.leaseId;
         ByteArray key = req.key == null ? null : new ByteArray(req.key);
         switch (bizType) {
             case BIZ_TYPE_PUT:
@@ -211,6 +248,14 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
                 return kv.tryLock(index, key, req.value);
             case BIZ_TYPE_UNLOCK:
                 return kv.unlock(index, key);
+            case BIZ_TYPE_GRANT_LEASE:
+                return kv.grantLease(index);
+            case BIZ_TYPE_KEEP_ALIVE_LEASE:
+                return kv.keepAliveLease(index, req.leaseId);
+            case BIZ_TYPE_REVOKE_LEASE:
+                return kv.revokeLease(index, req.leaseId);
+            case BIZ_TYPE_EXPIRE_LEASE:
+                return kv.expireLease(index, req.leaseId, req.ttlMillis);
             default:
                 throw new IllegalArgumentException("unknown bizType " + input.bizType);
         }
@@ -264,13 +309,20 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         return kvStatus.kvImpl.list(key);
     }
 
+    /**
+     * Estimated memory used by the data and the watches of this group, may be called in any thread.
+     */
+    long usedMemory() {
+        return kvStatus.kvImpl.usedMemory + watchManager.usedMemory();
+    }
+
     @Override
     public FiberFuture<Void> installSnapshot(long lastIncludeIndex, int lastIncludeTerm, long offset,
                                              boolean done, ByteBuffer data) {
         FiberFuture<Void> f = mainFiberGroup.newFuture("dtkv-install-snapshot");
         dtkvExecutor.submitTaskInFiberThread(f, () -> {
             try {
-                install0(offset, done, data);
+                install0(lastIncludeIndex, offset, done, data);
                 f.fireComplete(null);
             } catch (Exception ex) {
                 f.fireCompleteExceptionally(ex);
@@ -279,9 +331,10 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         return f;
     }
 
-    private void install0(long offset, boolean done, ByteBuffer data) {
+    private void install0(long lastIncludeIndex, long offset, boolean done, ByteBuffer data) {
         if (offset == 0) {
             watchManager.reset();
+            ttlManager.reset();
             KvImpl kvImpl = new KvImpl(watchManager, ttlManager, ts, config.groupId, kvConfig);
             updateStatus(true, kvImpl);
             encodeStatus = new EncodeStatus();
@@ -292,7 +345,11 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         if (data != null && data.hasRemaining()) {
             while (data.hasRemaining()) {
                 if (encodeStatus.readFromBuffer(data)) {
-                    kvImpl.installSnapshotPut(encodeStatus);
+                    if ((encodeStatus.flag & KvSnapshot.FLAG_LEASE_RECORD) != 0) {
+                        kvImpl.installLease(encodeStatus);
+                    } else {
+                        kvImpl.installSnapshotPut(encodeStatus);
+                    }
                     encodeStatus.reset();
                 } else {
                     break;
@@ -300,11 +357,63 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
             }
         }
         if (done) {
+            if (config.saveCheckpointSeconds > 0) {
+                kvImpl.enableCheckpoint(lastIncludeIndex);
+            }
             updateStatus(false, kvImpl);
             encodeStatus = null;
         }
     }
 
+    @Override
+    public FiberFuture<Void> installCheckpoint(long lastIncludeIndex, int lastIncludeTerm, long offset,
+                                               boolean done, ByteBuffer data) {
+        FiberFuture<Void> f = mainFiberGroup.newFuture("dtkv-install-checkpoint");
+        dtkvExecutor.submitTaskInFiberThread(f, () -> {
+            try {
+                installCheckpoint0(offset, done, data);
+                f.fireComplete(null);
+            } catch (Exception ex) {
+                f.fireCompleteExceptionally(ex);
+            }
+        });
+        return f;
+    }
+
+    private void installCheckpoint0(long offset, boolean done, ByteBuffer data) {
+        if (kvStatus.installSnapshot) {
+            throw new DtBugException("current status is install snapshot");
+        }
+        if (offset == 0) {
+            encodeStatus = new EncodeStatus();
+            checkpointLeaseIds = new HashSet<>();
+        }
+        KvImpl kvImpl = kvStatus.kvImpl;
+        if (data != null && data.hasRemaining()) {
+            while (data.hasRemaining()) {
+                if (encodeStatus.readFromBuffer(data)) {
+                    if ((encodeStatus.flag & KvSnapshot.FLAG_LEASE_RECORD) != 0) {
+                        kvImpl.installLease(encodeStatus);
+                        checkpointLeaseIds.add(encodeStatus.leaseId);
+                    } else if ((encodeStatus.flag & KvSnapshot.FLAG_CHECKPOINT_REMOVED) != 0) {
+                        kvImpl.installCheckpointRemove(encodeStatus);
+                    } else {
+                        kvImpl.installCheckpointPut(encodeStatus);
+                    }
+                    encodeStatus.reset();
+                } else {
+                    break;
+                }
+            }
+        }
+        if (done) {
+            // the checkpoint contains all the leases
+            kvImpl.retainLeases(checkpointLeaseIds);
+            encodeStatus = null;
+            checkpointLeaseIds = null;
+        }
+    }
+
     @Override
     public FiberFuture<Snapshot> takeSnapshot(SnapshotInfo si) {
         if (kvStatus.installSnapshot) {
@@ -326,15 +435,49 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         return f;
     }
 
+    @Override
+    public FiberFuture<Snapshot> takeCheckpoint(SnapshotInfo si, long baseIndex) {
+        if (kvStatus.installSnapshot) {
+            throw new RaftException("dtkv is install snapshot");
+        }
+        KvStatus currentKvStatus = kvStatus;
+        int currentEpoch = currentKvStatus.epoch;
+        Supplier<Boolean> cancel = () -> kvStatus.epoch != currentEpoch;
+        FiberFuture<Snapshot> f = mainFiberGroup.newFuture("take-checkpoint-" + config.groupId);
+        dtkvExecutor.submitTaskInFiberThread(f, () -> {
+            try {
+                List<Pair<ByteArray, Long>> removedKeys = currentKvStatus.kvImpl.removedKeysAfter(baseIndex);
+                if (removedKeys == null) {
+                    // checkpoint disabled, or the snapshot installed after baseIndex
+                    f.fireComplete(null);
+                    return;
+                }
+                List<KvNodeHolder> changedHolders = currentKvStatus.kvImpl.changedHoldersAfter(baseIndex);
+                log.info("take checkpoint. baseIndex={}, lastIncludedIndex={}, changedKeys={}, removedKeys={}",
+                        baseIndex, si.lastIncludedIndex, changedHolders.size(), removedKeys.size());
+                KvSnapshot s = new KvSnapshot(config.groupId, si, currentKvStatus.kvImpl, cancel, dtkvExecutor,
+                        baseIndex, changedHolders, removedKeys);
+                f.fireComplete(s);
+            } catch (Exception ex) {
+                f.fireCompleteExceptionally(ex);
+            }
+        });
+        return f;
+    }
+
     @Override
     protected void doStart() {
         dtkvExecutor.start();
         // ignore submit failure (stopped)
-        dtkvExecutor.startDaemonTask("watch-dispatch", new DtKVExecutor.DtKVExecutorTask() {
+        watchDispatchTask = new DtKVExecutor.DtKVExecutorTask() {
             final long defaultDelayNanos = kvConfig.watchDispatchIntervalMillis * 1_000_000L;
 
             @Override
             protected long execute() {
+                long waitNanos = watchManager.dispatchWaitNanos();
+                if (waitNanos > 0) {
+                    return waitNanos;
+                }
                 return dispatchWatchTask() ? defaultDelayNanos : 0;
             }
 
@@ -345,15 +488,16 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
 
             @Override
             protected boolean shouldStop() {
-                return config.raftServer.getStatus() > AbstractLifeCircle.STATUS_RUNNING ||
-                        DtKV.this.status > AbstractLifeCircle.STATUS_RUNNING;
+                return (config.raftServer != null && config.raftServer.getStatus() > AbstractLifeCircle.STATUS_RUNNING)
+                        || DtKV.this.status > AbstractLifeCircle.STATUS_RUNNING;
             }
 
             @Override
             protected long defaultDelayNanos() {
                 return defaultDelayNanos;
             }
-        });
+        };
+        dtkvExecutor.startDaemonTask("watch-dispatch", watchDispatchTask);
 
         // ignore submit failure (stopped)
         dtkvExecutor.startDaemonTask("expireTask" + config.groupId, ttlManager.task);
@@ -392,16 +536,22 @@ public class DtKV extends AbstractLifeCircle implements StateMachine {
         // expire operation should execute in state machine after write quorum is reached,
         // this is, submit as a raft task.
         KvReq req = new KvReq();
-        req.key = ttlInfo.key.getData();
         req.ttlMillis = ttlInfo.raftIndex;
-        RaftInput ri = new RaftInput(DtKV.BIZ_TYPE_EXPIRE, null, req, null, false);
+        int bizType;
+        if (ttlInfo.key == null) {
+            // all the nodes attached to the lease are removed in one raft log entry
+            req.leaseId = ttlInfo.lease.leaseId;
+            bizType = DtKV.BIZ_TYPE_EXPIRE_LEASE;
+        } else {
+            req.key = ttlInfo.key.getData();
+            bizType = DtKV.BIZ_TYPE_EXPIRE;
+        }
+        RaftInput ri = new RaftInput(bizType, null, req, null, false);
         RaftCallback callback = new RaftCallback() {
             @Override
             public void success(long raftIndex, Object result) {
-                // notify new lock owner if any
-                if (result instanceof KvImpl.KvResultWithNewOwnerInfo) {
-                    KvServerUtil.notifyNewLockOwner(raftGroup, (KvImpl.KvResultWithNewOwnerInfo) result);
-                }
+                // notify new lock owners if any
+                KvServerUtil.notifyNewLockOwners(raftGroup, result);
 
                 // to remove from pendingQueue:
                 // if KvCodes.SUCCESS, removed in KvImpl.doRemoveInLock
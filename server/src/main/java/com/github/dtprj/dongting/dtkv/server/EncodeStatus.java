@@ -36,6 +36,8 @@ class EncodeStatus {
     long ttlRaftIndex;
     long leaderTtlStartTime;
     long ttlMillis;
+    // not 0 if the node is attached to a lease, the ttl fields above are the ttl of the lease
+    long leaseId;
 
     private int offset;
 
@@ -44,10 +46,15 @@ class EncodeStatus {
     private static final int HEADER_SIZE = 84;
     private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
 
+    // the leaseId(8) follows the header if this bit of flag is set, so the old format is still readable
+    static final int FLAG_LEASE = 0x20000000;
+    private final byte[] leaseBytes = new byte[8];
+
     private int state;
     private static final int STATE_HEADER = 0;
     private static final int STATE_KEY = 1;
     private static final int STATE_VALUE = 2;
+    private static final int STATE_LEASE = 3;
 
     public void reset() {
         keyBytes = null;
@@ -64,6 +71,7 @@ class EncodeStatus {
         ttlRaftIndex = 0;
         leaderTtlStartTime = 0;
         ttlMillis = 0;
+        leaseId = 0;
 
         state = STATE_HEADER;
     }
@@ -91,7 +99,16 @@ class EncodeStatus {
                     } else {
                         writeHeader(dest);
                     }
-                    state = EncodeStatus.STATE_KEY;
+                    state = leaseId == 0 ? EncodeStatus.STATE_KEY : EncodeStatus.STATE_LEASE;
+                }
+                // NOTICE: there is no break here
+            case EncodeStatus.STATE_LEASE:
+                if (state == EncodeStatus.STATE_LEASE) {
+                    if (encode(dest, leaseBytes)) {
+                        state = EncodeStatus.STATE_KEY;
+                    } else {
+                        return false;
+                    }
                 }
                 // NOTICE: there is no break here
             case EncodeStatus.STATE_KEY:
@@ -113,7 +130,14 @@ class EncodeStatus {
         buf.putLong(createTime);
         buf.putLong(updateIndex);
         buf.putLong(updateTime);
-        buf.putInt(flag);
+        if (leaseId != 0) {
+            buf.putInt(flag | FLAG_LEASE);
+            for (int i = 0; i < 8; i++) {
+                leaseBytes[i] = (byte) (leaseId >>> (56 - i * 8));
+            }
+        } else {
+            buf.putInt(flag);
+        }
         buf.putLong(uuid1);
         buf.putLong(uuid2);
         buf.putLong(ttlRaftIndex);
@@ -167,7 +191,20 @@ class EncodeStatus {
                     } else {
                         readHeader(buffer);
                     }
-                    state = EncodeStatus.STATE_KEY;
+                    state = (flag & FLAG_LEASE) == 0 ? EncodeStatus.STATE_KEY : EncodeStatus.STATE_LEASE;
+                    flag &= ~FLAG_LEASE;
+                }
+                // NOTICE: there is no break here
+            case EncodeStatus.STATE_LEASE:
+                if (state == EncodeStatus.STATE_LEASE) {
+                    if (decode(buffer, leaseBytes)) {
+                        for (int i = 0; i < 8; i++) {
+                            leaseId = (leaseId << 8) | (leaseBytes[i] & 0xFF);
+                        }
+                        state = EncodeStatus.STATE_KEY;
+                    } else {
+                        return false;
+                    }
                 }
                 // NOTICE: there is no break here
             case EncodeStatus.STATE_KEY:
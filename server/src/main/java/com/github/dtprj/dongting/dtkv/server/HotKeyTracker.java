@@ -0,0 +1,417 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Track the hot keys by reads, writes and watch fan-out, and the largest values and directories of a group.
+ * <p>
+ * Reads, writes and watch notifies are sampled, a sampled op is added to a count-min sketch, and the key
+ * is offered to a small candidate table if its estimated count is greater than the one it replaces. The
+ * query estimates the candidates and returns the top K. The counters are reset every window, the query
+ * returns the last finished window, or the current window if no window finished yet.
+ * <p>
+ * The largest values and directories are not sampled, they are updated in the dtkv executor by every write,
+ * and in most cases only compared with the heap top. They are tracked by KvNodeHolder (identity), and the
+ * keys are rebuilt only when queried.
+ * <p>
+ * The reads may be recorded in other threads (readInDtKvExecutor=false), so the record methods update the
+ * sketch and the candidates by CAS, without lock and allocation. The counts are approximate under races,
+ * it's enough for hot keys. Watches are recorded by KvNodeHolder (identity). Other methods are called in
+ * the dtkv executor.
+ *
+ * @author huangli
+ */
+final class HotKeyTracker {
+    private static final int SKETCH_DEPTH = 4;
+
+    private final int topK;
+    private final int sampleRate;
+    private final long windowNanos;
+
+    // current, last, and the spare one which is cleared when it becomes the current
+    private final Window[] windows = new Window[3];
+    private volatile int currentWindow;
+    private final AtomicBoolean rotating = new AtomicBoolean();
+
+    final TopK<KvNodeHolder> largeValues;
+    final TopK<KvNodeHolder> largeDirs;
+
+    HotKeyTracker(int topK, int sampleRate, long windowMillis) {
+        this.topK = topK;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        // at most 16 bits for each row of the sketch
+        int width = Math.min(1 << 16, Integer.highestOneBit(Math.max(topK, 1) * 64 - 1) << 1);
+        int candidates = Integer.highestOneBit(Math.max(topK, 1) * 8 - 1) << 1;
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window(width, candidates);
+        }
+        this.largeValues = new TopK<>(topK);
+        this.largeDirs = new TopK<>(topK);
+        windows[0].startNanos = System.nanoTime();
+    }
+
+    private boolean sample() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    void recordRead(ByteArray key) {
+        if (sample()) {
+            currentWindow().reads.add(key, key.hashCode(), 1);
+        }
+    }
+
+    void recordWrite(ByteArray key) {
+        if (sample()) {
+            currentWindow().writes.add(key, key.hashCode(), 1);
+        }
+    }
+
+    void recordWatch(KvNodeHolder h, int fanOut) {
+        if (fanOut > 0 && sample()) {
+            currentWindow().watches.add(h, System.identityHashCode(h), fanOut);
+        }
+    }
+
+    private Window currentWindow() {
+        Window w = windows[currentWindow];
+        long now = System.nanoTime();
+        if (now - w.startNanos >= windowNanos && rotating.compareAndSet(false, true)) {
+            try {
+                int idx = currentWindow;
+                w = windows[idx];
+                long span = now - w.startNanos;
+                if (span >= windowNanos) {
+                    w.spanNanos = span;
+                    idx = (idx + 1) % windows.length;
+                    Window next = windows[idx];
+                    next.clear();
+                    next.startNanos = now;
+                    currentWindow = idx;
+                    w = next;
+                }
+            } finally {
+                rotating.set(false);
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Update the value size of a put node and the children count of its parent.
+     */
+    void updateSize(KvNodeHolder h) {
+        KvNodeEx n = h.latest;
+        if (n.data != null && n.data.length > 0) {
+            largeValues.update(h, n.data.length);
+        }
+        updateDirSize(h.parent);
+    }
+
+    void updateDirSize(KvNodeHolder dir) {
+        if (dir != null) {
+            largeDirs.update(dir, dir.latest.childCount());
+        }
+    }
+
+    /**
+     * Remove a removed node, and update the children count of its parent.
+     */
+    void remove(KvNodeHolder h) {
+        largeValues.remove(h);
+        largeDirs.remove(h);
+        updateDirSize(h.parent);
+    }
+
+    void fillResp(KvHotKeysResp resp) {
+        Window current = currentWindow();
+        Window last = windows[(currentWindow + windows.length - 1) % windows.length];
+        Window w = last.spanNanos > 0 ? last : current;
+        long span = w == last ? last.spanNanos : System.nanoTime() - current.startNanos;
+        resp.windowMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(span));
+        w.reads.fill(resp.readKeys, topK, sampleRate);
+        w.writes.fill(resp.writeKeys, topK, sampleRate);
+        w.watches.fill(resp.watchKeys, topK, sampleRate);
+        largeValues.fill(resp.largeValues, 1);
+        largeDirs.fill(resp.largeDirs, 1);
+    }
+
+    private static final class Window {
+        final Counter reads;
+        final Counter writes;
+        final Counter watches;
+        long startNanos;
+        // the time span after the window finished, 0 if it's the current one or not used yet
+        long spanNanos;
+
+        Window(int width, int candidates) {
+            this.reads = new Counter(width, candidates, false);
+            this.writes = new Counter(width, candidates, false);
+            this.watches = new Counter(width, candidates, true);
+        }
+
+        void clear() {
+            reads.clear();
+            writes.clear();
+            watches.clear();
+            spanNanos = 0;
+        }
+    }
+
+    private static final class Counter {
+        private final AtomicIntegerArray sketch;
+        private final int mask;
+        private final AtomicReferenceArray<Object> candidates;
+        private final int candidateMask;
+        // the keys are KvNodeHolder compared by identity, or ByteArray compared by equals
+        private final boolean identity;
+
+        Counter(int width, int candidates, boolean identity) {
+            this.sketch = new AtomicIntegerArray(SKETCH_DEPTH * width);
+            this.mask = width - 1;
+            this.candidates = new AtomicReferenceArray<>(candidates);
+            this.candidateMask = candidates - 1;
+            this.identity = identity;
+        }
+
+        void add(Object key, int hash, int weight) {
+            long h = mix(hash);
+            int min = Integer.MAX_VALUE;
+            for (int i = 0, base = 0; i < SKETCH_DEPTH; i++, base += mask + 1) {
+                int v = sketch.addAndGet(base + row(h, i), weight);
+                if (v < 0) {
+                    // overflow, the counter is too large to be accurate
+                    v = Integer.MAX_VALUE;
+                }
+                min = Math.min(min, v);
+            }
+            offer(key, h, min);
+        }
+
+        // each key has 2 candidate slots, replace the one with smaller estimated count
+        private void offer(Object key, long h, int count) {
+            int i1 = (int) (h >>> 8) & candidateMask;
+            int i2 = (int) (h >>> 40) & candidateMask;
+            Object c1 = candidates.get(i1);
+            Object c2 = candidates.get(i2);
+            if (same(c1, key) || same(c2, key)) {
+                return;
+            }
+            if (c1 == null) {
+                candidates.compareAndSet(i1, null, key);
+                return;
+            }
+            if (c2 == null) {
+                candidates.compareAndSet(i2, null, key);
+                return;
+            }
+            long e1 = estimate(c1);
+            long e2 = estimate(c2);
+            if (e1 <= e2) {
+                if (count > e1) {
+                    candidates.compareAndSet(i1, c1, key);
+                }
+            } else if (count > e2) {
+                candidates.compareAndSet(i2, c2, key);
+            }
+        }
+
+        private boolean same(Object c, Object key) {
+            return c == key || (!identity && c != null && c.equals(key));
+        }
+
+        private int hash(Object key) {
+            return identity ? System.identityHashCode(key) : key.hashCode();
+        }
+
+        private long estimate(Object key) {
+            long h = mix(hash(key));
+            int min = Integer.MAX_VALUE;
+            for (int i = 0, base = 0; i < SKETCH_DEPTH; i++, base += mask + 1) {
+                int v = sketch.get(base + row(h, i));
+                min = Math.min(min, v < 0 ? Integer.MAX_VALUE : v);
+            }
+            return min;
+        }
+
+        // spread the 32 bits hash to 64 bits, each row uses different 16 bits of it, so 2 keys rarely
+        // collide in all rows
+        private static long mix(int hash) {
+            long z = (hash & 0xFFFFFFFFL) + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        private int row(long h, int i) {
+            return (int) (h >>> (i << 4)) & mask;
+        }
+
+        void fill(List<KvHotKeysResp.HotKey> list, int topK, int multiple) {
+            TopK<Object> t = new TopK<>(topK);
+            for (int i = 0, len = candidates.length(); i < len; i++) {
+                Object c = candidates.get(i);
+                if (c != null) {
+                    t.update(c, estimate(c));
+                }
+            }
+            t.fill(list, multiple);
+        }
+
+        void clear() {
+            for (int i = 0, len = sketch.length(); i < len; i++) {
+                sketch.set(i, 0);
+            }
+            for (int i = 0, len = candidates.length(); i < len; i++) {
+                candidates.set(i, null);
+            }
+        }
+    }
+
+
+    /**
+     * Keep the keys (ByteArray or KvNodeHolder) with top K values, a min heap with linear search by key,
+     * K is small.
+     */
+    static final class TopK<K> {
+        private final Object[] keys;
+        private final long[] values;
+        private int size;
+
+        TopK(int k) {
+            this.keys = new Object[k];
+            this.values = new long[k];
+        }
+
+        /**
+         * Set the value of the key, the key is added if it's not tracked and the value is greater
+         * than the smallest one when the heap is full.
+         */
+        void update(K key, long value) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                long old = values[i];
+                values[i] = value;
+                if (value > old) {
+                    siftDown(i);
+                } else {
+                    siftUp(i);
+                }
+            } else if (size < keys.length) {
+                keys[size] = key;
+                values[size] = value;
+                siftUp(size++);
+            } else if (size > 0 && value > values[0]) {
+                keys[0] = key;
+                values[0] = value;
+                siftDown(0);
+            }
+        }
+
+        void remove(K key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return;
+            }
+            size--;
+            if (i != size) {
+                long old = values[i];
+                keys[i] = keys[size];
+                values[i] = values[size];
+                if (values[i] > old) {
+                    siftDown(i);
+                } else {
+                    siftUp(i);
+                }
+            }
+            keys[size] = null;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0, size, null);
+            size = 0;
+        }
+
+        private int indexOf(K key) {
+            for (int i = 0; i < size; i++) {
+                Object k = keys[i];
+                if (k == key || k.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (values[p] <= values[i]) {
+                    return;
+                }
+                swap(i, p);
+                i = p;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= size) {
+                    return;
+                }
+                if (c + 1 < size && values[c + 1] < values[c]) {
+                    c++;
+                }
+                if (values[i] <= values[c]) {
+                    return;
+                }
+                swap(i, c);
+                i = c;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Object k = keys[i];
+            keys[i] = keys[j];
+            keys[j] = k;
+            long v = values[i];
+            values[i] = values[j];
+            values[j] = v;
+        }
+
+        // the result is sorted by value desc
+        void fill(List<KvHotKeysResp.HotKey> list, int multiple) {
+            int start = list.size();
+            for (int i = 0; i < size; i++) {
+                Object k = keys[i];
+                ByteArray key = k instanceof KvNodeHolder ? ((KvNodeHolder) k).key() : (ByteArray) k;
+                list.add(new KvHotKeysResp.HotKey(key.getData(), values[i] * multiple));
+            }
+            list.subList(start, list.size()).sort((a, b) -> Long.compare(b.value, a.value));
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.github.dtprj.dongting.dtkv.KvClientConfig;
 import com.github.dtprj.dongting.dtkv.KvCodes;
 import com.github.dtprj.dongting.dtkv.KvNode;
 import com.github.dtprj.dongting.dtkv.KvResult;
+import com.github.dtprj.dongting.dtkv.WatchEvent;
 import com.github.dtprj.dongting.log.BugLog;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
@@ -32,10 +33,13 @@ import com.github.dtprj.dongting.raft.sm.Snapshot;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.Supplier;
 
 /**
@@ -63,7 +67,9 @@ class KvImpl {
     // for fast access root dir
     final KvNodeHolder root;
 
-    private final ReentrantReadWriteLock readWriteLock;
+    // null if reads run in the dtkv executor, since all the writes run in it too
+    private final StampedLock stampedLock;
+    private final boolean optimisticRead;
 
     private final Timestamp ts;
 
@@ -76,6 +82,25 @@ class KvImpl {
 
     private final TtlManager ttlManager;
 
+    // null if disabled
+    final HotKeyTracker hotKeys;
+
+    // estimated heap cost of the objects, the exact value depends on jvm (compressed oops, alignment, etc.)
+    static final int HOLDER_OVERHEAD = 136;
+    static final int NODE_OVERHEAD = 96;
+
+    // estimated memory used by the holders and the nodes (include the old versions retained for snapshots),
+    // only updated in dtkv executor, may be read in other threads.
+    volatile long usedMemory;
+
+    // keys removed after the last snapshot, used by checkpoint, null if checkpoint is disabled
+    private LinkedHashMap<ByteArray, Long> removedKeys;
+    // keys changed (value, ttl or children) after the last snapshot and not removed, ordered by the change index,
+    // so the checkpoint not need to scan the whole map. null if checkpoint is disabled
+    private LinkedHashMap<ByteArray, Long> changedKeys;
+    // the removedKeys and changedKeys are complete only for the keys changed after this index
+    private long removedKeysStartIndex;
+
     public KvImpl(ServerWatchManager watchManager, TtlManager ttlManager, Timestamp ts, int groupId,
                   KvServerConfig kvServerConfig) {
         this.watchManager = watchManager;
@@ -86,8 +111,39 @@ class KvImpl {
                 KvNode.FLAG_DIR_MASK, null);
         this.root = new KvNodeHolder(ByteArray.EMPTY, ByteArray.EMPTY, n, null);
         this.map.put(ByteArray.EMPTY, root);
+        this.usedMemory = HOLDER_OVERHEAD + NODE_OVERHEAD;
         this.ttlManager = ttlManager;
-        this.readWriteLock = kvServerConfig.readInDtKvExecutor ? null : new ReentrantReadWriteLock();
+        this.stampedLock = kvServerConfig.readInDtKvExecutor ? null : new StampedLock();
+        this.optimisticRead = kvServerConfig.optimisticRead;
+        this.hotKeys = kvServerConfig.hotKeyTopK > 0 ? new HotKeyTracker(kvServerConfig.hotKeyTopK,
+                kvServerConfig.hotKeySampleRate, kvServerConfig.hotKeyWindowMillis) : null;
+    }
+
+    private static long sizeOf(KvNodeEx n) {
+        return n.data == null ? NODE_OVERHEAD : NODE_OVERHEAD + n.data.length;
+    }
+
+    private void addNode(KvNodeEx n) {
+        usedMemory += sizeOf(n);
+    }
+
+    private void addHolder(KvNodeHolder h) {
+        usedMemory += HOLDER_OVERHEAD + h.keyInDir.length + sizeOf(h.latest);
+    }
+
+    // release n and all the older versions linked by it
+    private void releaseChain(KvNodeEx n) {
+        long m = usedMemory;
+        while (n != null) {
+            m -= sizeOf(n);
+            n = n.previous;
+        }
+        usedMemory = m;
+    }
+
+    private void releaseHolder(KvNodeHolder h) {
+        usedMemory -= HOLDER_OVERHEAD + h.keyInDir.length;
+        releaseChain(h.latest);
     }
 
     static KvResult checkExistNode(KvNodeHolder h, KvImpl.OpContext ctx) {
@@ -195,6 +251,7 @@ class KvImpl {
 
     private void addToUpdateQueue(long updateIndex, KvNodeHolder h) {
         h.updateIndex = updateIndex;
+        markChanged(updateIndex, h.key());
         if (h.watchHolder == null || h.watchHolder.watches.isEmpty()) {
             return;
         }
@@ -214,6 +271,9 @@ class KvImpl {
             for (int s = q.size(), i = 0; i < s; i++) {
                 KvNodeHolder h = q.removeFirst();
                 h.inUpdateQueue = false;
+                if (hotKeys != null && h.watchHolder != null) {
+                    hotKeys.recordWatch(h, h.watchHolder.watches.size());
+                }
                 watchManager.afterUpdate(h);
             }
         } catch (Exception e) {
@@ -241,16 +301,32 @@ class KvImpl {
         if (ck != KvCodes.SUCCESS) {
             return new KvResult(ck);
         }
-        ReentrantReadWriteLock readWriteLock = this.readWriteLock;
-        if (readWriteLock != null) {
-            readWriteLock.readLock().lock();
+        if (hotKeys != null && key != null) {
+            hotKeys.recordRead(key);
+        }
+        StampedLock stampedLock = this.stampedLock;
+        if (stampedLock == null) {
+            return get0(key);
         }
+        if (optimisticRead) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    KvResult r = get0(key);
+                    if (stampedLock.validate(stamp)) {
+                        return r;
+                    }
+                } catch (RuntimeException e) {
+                    // the map is modified concurrently and in inconsistent state (for example
+                    // ConcurrentModificationException thrown by KvMap), retry with read lock.
+                }
+            }
+        }
+        long stamp = stampedLock.readLock();
         try {
             return get0(key);
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.readLock().unlock();
-            }
+            stampedLock.unlockRead(stamp);
         }
     }
 
@@ -281,30 +357,58 @@ class KvImpl {
         if (keys == null || keys.isEmpty()) {
             return new Pair<>(KvCodes.INVALID_KEY, null);
         }
-        int s = keys.size();
-        ArrayList<KvResult> list = new ArrayList<>(s);
-        if (readWriteLock != null) {
-            readWriteLock.readLock().lock();
-        }
-        try {
-            for (int i = 0; i < s; i++) {
-                byte[] bs = keys.get(i);
-                ByteArray key = bs == null ? null : new ByteArray(bs);
-                int ck = checkKey(key, false, false);
-                if (ck != KvCodes.SUCCESS) {
-                    list.add(new KvResult(ck));
-                } else {
-                    list.add(get0(key));
+        StampedLock stampedLock = this.stampedLock;
+        if (stampedLock == null) {
+            return new Pair<>(KvCodes.SUCCESS, batchGet0(keys, 0));
+        }
+        if (optimisticRead) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    ArrayList<KvResult> list = batchGet0(keys, stamp);
+                    if (list != null && stampedLock.validate(stamp)) {
+                        return new Pair<>(KvCodes.SUCCESS, list);
+                    }
+                } catch (RuntimeException e) {
+                    // the map is modified concurrently and in inconsistent state (for example
+                    // ConcurrentModificationException thrown by KvMap), retry with read lock.
                 }
             }
+        }
+        ArrayList<KvResult> list;
+        long stamp = stampedLock.readLock();
+        try {
+            list = batchGet0(keys, 0);
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.readLock().unlock();
-            }
+            stampedLock.unlockRead(stamp);
         }
         return new Pair<>(KvCodes.SUCCESS, list);
     }
 
+    // return null if the optimistic stamp is invalidated, so the rest keys are not read in vain
+    private ArrayList<KvResult> batchGet0(List<byte[]> keys, long optimisticStamp) {
+        int s = keys.size();
+        ArrayList<KvResult> list = new ArrayList<>(s);
+        for (int i = 0; i < s; i++) {
+            if (optimisticStamp != 0 && !stampedLock.validate(optimisticStamp)) {
+                return null;
+            }
+            byte[] bs = keys.get(i);
+            ByteArray key = bs == null ? null : new ByteArray(bs);
+            int ck = checkKey(key, false, false);
+            if (ck != KvCodes.SUCCESS) {
+                list.add(new KvResult(ck));
+            } else {
+                if (hotKeys != null) {
+                    // may count twice if the optimistic read fails, it's ok for estimation
+                    hotKeys.recordRead(key);
+                }
+                list.add(get0(key));
+            }
+        }
+        return list;
+    }
+
     /**
      * This method may be called in other threads.
      * <p>
@@ -316,9 +420,12 @@ class KvImpl {
         if (ck != KvCodes.SUCCESS) {
             return new Pair<>(ck, null);
         }
-        if (readWriteLock != null) {
-            readWriteLock.readLock().lock();
+        if (hotKeys != null && key != null) {
+            hotKeys.recordRead(key);
         }
+        // walks the whole children list, an optimistic read is likely to be invalidated by writes, so always lock
+        StampedLock stampedLock = this.stampedLock;
+        long stamp = stampedLock == null ? 0 : stampedLock.readLock();
         try {
             KvNodeHolder h;
             if (key == null || key.getData().length == 0) {
@@ -339,8 +446,8 @@ class KvImpl {
             ArrayList<KvResult> list = kvNode.list();
             return new Pair<>(KvCodes.SUCCESS, list);
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.readLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockRead(stamp);
             }
         }
     }
@@ -351,6 +458,7 @@ class KvImpl {
         long leaderCreateTimeMillis;
         long localCreateNanos;
         int bizType;
+        long leaseId;
 
         OpContext() {
         }
@@ -361,6 +469,7 @@ class KvImpl {
             this.leaderCreateTimeMillis = leaderCreateTimeMillis;
             this.localCreateNanos = localCreateNanos;
             this.bizType = bizType;
+            this.leaseId = 0;
         }
     }
 
@@ -375,6 +484,16 @@ class KvImpl {
         }
     }
 
+    // the result of removing a lease, which may release several locks
+    static final class KvResultWithNewOwners extends KvResult {
+        final List<KvResultWithNewOwnerInfo> newOwners;
+
+        KvResultWithNewOwners(List<KvResultWithNewOwnerInfo> newOwners) {
+            super(KvCodes.SUCCESS);
+            this.newOwners = newOwners;
+        }
+    }
+
     public final OpContext opContext = new OpContext();
 
     public KvResult put(long index, ByteArray key, byte[] data) {
@@ -384,9 +503,33 @@ class KvImpl {
         if (data.length > maxValueSize) {
             return new KvResult(KvCodes.VALUE_TOO_LONG);
         }
+        KvResult r = checkLease();
+        if (r != null) {
+            return r;
+        }
         return checkAndPut(index, key, data, true);
     }
 
+    // if the temp node or temp dir is attached to a lease, use the ttl of the lease
+    private KvResult checkLease() {
+        if (opContext.leaseId == 0) {
+            return null;
+        }
+        if (opContext.bizType != DtKV.BIZ_TYPE_PUT_TEMP_NODE && opContext.bizType != DtKV.BIZ_MK_TEMP_DIR) {
+            opContext.leaseId = 0;
+            return null;
+        }
+        Lease lease = ttlManager.getLease(opContext.leaseId);
+        if (lease == null) {
+            return new KvResult(KvCodes.LEASE_NOT_FOUND);
+        }
+        if (!lease.owner.equals(opContext.operator)) {
+            return new KvResult(KvCodes.NOT_OWNER);
+        }
+        opContext.ttlMillis = lease.ttlInfo.ttlMillis;
+        return null;
+    }
+
     private KvResult checkAndPut(long index, ByteArray key, byte[] data, boolean lockAndFireUpdate) {
         int ck = checkKey(key, false, false);
         if (ck != KvCodes.SUCCESS) {
@@ -409,16 +552,14 @@ class KvImpl {
         if (r != null) {
             return r;
         }
-        if (lockAndFireUpdate && readWriteLock != null) {
-            this.readWriteLock.writeLock().lock();
-        }
+        long stamp = lockAndFireUpdate && stampedLock != null ? stampedLock.writeLock() : 0;
         try {
             return doPutInLock(index, key, data, h, parent, lastIndexOfSep);
         } finally {
+            if (stamp != 0) {
+                stampedLock.unlockWrite(stamp);
+            }
             if (lockAndFireUpdate) {
-                if (readWriteLock != null) {
-                    this.readWriteLock.writeLock().unlock();
-                }
                 afterUpdate();
             }
         }
@@ -442,26 +583,37 @@ class KvImpl {
             if (current == null) {
                 current = new KvNodeHolder(key, key.sub(lastIndexOfSep + 1), newKvNode, parent);
                 map.put(key, current);
+                addHolder(current);
                 parent.childHolderCount++;
             } else {
+                addNode(newKvNode);
                 updateHolderAndGc(current, newKvNode, current.latest);
             }
+            if (removedKeys != null) {
+                removedKeys.remove(key);
+            }
             parent.latest.addChild(current);
             KvResult r = KvResult.SUCCESS;
             if (opContext.bizType == DtKV.BIZ_TYPE_TRY_LOCK && (flag & KvNode.FLAG_DIR_MASK) == 0) {
                 if (parent.latest.peekNextOwner() == current) {
                     // get the lock
-                    opContext.ttlMillis = readHoldTtlMillis(data);
+                    initLockOwnerTtl(data);
                 } else {
                     r = new KvResult(KvCodes.LOCK_BY_OTHER);
                 }
             }
-            ttlManager.initTtl(index, current.key, newKvNode, opContext);
+            ttlManager.initTtl(index, key, newKvNode, opContext);
             if (watchManager != null) {
                 watchManager.mountWatchToChild(current);
+                watchManager.recordEvent(index, key, (flag & KvNode.FLAG_DIR_MASK) != 0 ?
+                        WatchEvent.STATE_DIRECTORY_EXISTS : WatchEvent.STATE_VALUE_EXISTS);
             }
             addToUpdateQueue(index, current);
             updateParent(index, opContext.leaderCreateTimeMillis, parent);
+            if (hotKeys != null) {
+                hotKeys.recordWrite(key);
+                hotKeys.updateSize(current);
+            }
             lastPutNodeHolder = current;
             return r;
         } else {
@@ -475,7 +627,8 @@ class KvImpl {
                 } else {
                     // dir has already existed, do nothing
                     if (opContext.bizType == DtKV.BIZ_MK_TEMP_DIR) {
-                        ttlManager.updateTtl(index, current.key, oldNode, opContext);
+                        ttlManager.updateTtl(index, key, oldNode, opContext);
+                        markChanged(index, key);
                     }
                     lastPutNodeHolder = current;
                     return new KvResult(KvCodes.DIR_EXISTS);
@@ -488,22 +641,30 @@ class KvImpl {
                 } else {
                     // update value
                     KvNodeEx newKvNode = new KvNodeEx(oldNode, index, opContext.leaderCreateTimeMillis, data);
+                    addNode(newKvNode);
                     updateHolderAndGc(current, newKvNode, oldNode);
                     KvResult r = KvResult.SUCCESS_OVERWRITE;
                     if (opContext.bizType == DtKV.BIZ_TYPE_PUT_TEMP_NODE || opContext.bizType == DtKV.BIZ_TYPE_TRY_LOCK) {
                         if (opContext.bizType == DtKV.BIZ_TYPE_TRY_LOCK) {
                             if (parent.latest.peekNextOwner() == current) {
                                 // get the lock (already hold before)
-                                opContext.ttlMillis = readHoldTtlMillis(data);
+                                initLockOwnerTtl(data);
                                 r = new KvResult(KvCodes.LOCK_BY_SELF);
                             } else {
                                 r = new KvResult(KvCodes.LOCK_BY_OTHER);
                             }
                         }
-                        ttlManager.updateTtl(index, current.key, newKvNode, opContext);
+                        ttlManager.updateTtl(index, key, newKvNode, opContext);
+                    }
+                    if (watchManager != null) {
+                        watchManager.recordEvent(index, key, WatchEvent.STATE_VALUE_EXISTS);
                     }
                     addToUpdateQueue(index, current);
                     updateParent(index, opContext.leaderCreateTimeMillis, parent);
+                    if (hotKeys != null) {
+                        hotKeys.recordWrite(key);
+                        hotKeys.updateSize(current);
+                    }
                     lastPutNodeHolder = current;
                     return r;
                 }
@@ -518,6 +679,7 @@ class KvImpl {
             gc(current);
         } else {
             current.latest = newKvNode;
+            releaseChain(oldNode);
         }
     }
 
@@ -530,17 +692,15 @@ class KvImpl {
         if (values == null || values.size() != size) {
             return new Pair<>(KvCodes.INVALID_VALUE, null);
         }
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             for (int i = 0; i < size; i++) {
                 byte[] k = keys.get(i);
                 list.add(checkAndPut(index, k == null ? null : new ByteArray(k), values.get(i), false));
             }
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
@@ -552,9 +712,12 @@ class KvImpl {
             addToUpdateQueue(index, parent);
             KvNodeEx oldDirNode = parent.latest;
             parent.latest = new KvNodeEx(oldDirNode, index, timestamp, oldDirNode.data);
+            addNode(parent.latest);
             if (maxOpenSnapshotIndex > 0) {
                 parent.latest.previous = oldDirNode;
                 gc(parent);
+            } else {
+                releaseChain(oldDirNode);
             }
             parent = parent.parent;
         }
@@ -568,9 +731,11 @@ class KvImpl {
                 if (next != null && n.updateIndex > maxOpenSnapshotIndex) {
                     // no snapshot can see n, and n is not the latest node ('next' exists), so drop n
                     next.previous = n.previous;
+                    usedMemory -= sizeOf(n);
                 } else if (next != null && next.updateIndex <= minOpenSnapshotIndex) {
                     // the min snapshot see 'next', so drop all nodes before 'next'
                     next.previous = null;
+                    releaseChain(n);
                     return;
                 } else if (n.removed) {
                     KvNodeEx p;
@@ -580,6 +745,7 @@ class KvImpl {
                         // 1. no snapshot can't see p, and p is not the latest node (n exists)
                         // 2. the min snapshot see n, the p is shadowed by n
                         n.previous = p.previous;
+                        usedMemory -= sizeOf(p);
                     }
                     if (p == null) {
                         if (next == null) {
@@ -588,6 +754,7 @@ class KvImpl {
                         } else {
                             // n is removed, so it is useless even any snapshot can see it
                             next.previous = null;
+                            releaseChain(n);
                         }
                         return;
                     } else {
@@ -602,6 +769,7 @@ class KvImpl {
             if (n.removed) {
                 tryRemoveFromMap(h);
             } else {
+                releaseChain(n.previous);
                 n.previous = null;
             }
         }
@@ -609,7 +777,8 @@ class KvImpl {
 
     private void tryRemoveFromMap(KvNodeHolder h) {
         if (h.childHolderCount == 0) {
-            map.remove(h.key);
+            map.remove(h);
+            releaseHolder(h);
             int c = --h.parent.childHolderCount;
             if (c < 0) {
                 BugLog.logAndThrow("childHolderCount < 0");
@@ -624,7 +793,9 @@ class KvImpl {
         KvNodeEx n = new KvNodeEx(encodeStatus.createIndex, encodeStatus.createTime, encodeStatus.updateIndex,
                 encodeStatus.updateTime, encodeStatus.flag, encodeStatus.valueBytes);
         if (encodeStatus.keyBytes == null || encodeStatus.keyBytes.length == 0) {
+            releaseChain(root.latest);
             root.latest = n;
+            addNode(n);
         } else {
             KvNodeHolder parent;
             ByteArray key = new ByteArray(encodeStatus.keyBytes);
@@ -640,19 +811,193 @@ class KvImpl {
             }
             KvNodeHolder h = new KvNodeHolder(key, keyInDir, n, parent);
             map.put(key, h);
+            addHolder(h);
             parent.childHolderCount++;
             parent.latest.addChild(h);
-            if (encodeStatus.ttlMillis > 0) {
-                // nanos can't persist, use wallClockMillis, so has week dependence on system clock.
-                long costTimeMillis = ts.wallClockMillis - encodeStatus.leaderTtlStartTime;
-                if (costTimeMillis < 0) {
-                    costTimeMillis = 0;
+            installTtl(encodeStatus, key, n);
+            if (hotKeys != null) {
+                hotKeys.updateSize(h);
+            }
+        }
+    }
+
+    private void installTtl(EncodeStatus encodeStatus, ByteArray key, KvNodeEx n) {
+        if (encodeStatus.ttlMillis > 0) {
+            initInstallTtlContext(encodeStatus);
+            if (encodeStatus.leaseId != 0) {
+                if (ttlManager.getLease(encodeStatus.leaseId) == null) {
+                    // the snapshot of old version has no lease record, the ttl fields are the ttl of the lease
+                    ttlManager.installLease(encodeStatus.ttlRaftIndex, encodeStatus.leaseId, opContext);
                 }
-                long localCreateNanos = ts.nanoTime - costTimeMillis * 1_000_000L;
-                opContext.init(DtKV.BIZ_TYPE_PUT, new UUID(encodeStatus.uuid1, encodeStatus.uuid2),
-                        encodeStatus.ttlMillis, encodeStatus.leaderTtlStartTime, localCreateNanos);
-                ttlManager.initTtl(encodeStatus.ttlRaftIndex, key, n, opContext);
+                opContext.leaseId = encodeStatus.leaseId;
             }
+            ttlManager.initTtl(encodeStatus.ttlRaftIndex, key, n, opContext);
+        }
+    }
+
+    private void initInstallTtlContext(EncodeStatus encodeStatus) {
+        // nanos can't persist, use wallClockMillis, so has week dependence on system clock.
+        long costTimeMillis = ts.wallClockMillis - encodeStatus.leaderTtlStartTime;
+        if (costTimeMillis < 0) {
+            costTimeMillis = 0;
+        }
+        long localCreateNanos = ts.nanoTime - costTimeMillis * 1_000_000L;
+        opContext.init(DtKV.BIZ_TYPE_PUT, new UUID(encodeStatus.uuid1, encodeStatus.uuid2),
+                encodeStatus.ttlMillis, encodeStatus.leaderTtlStartTime, localCreateNanos);
+    }
+
+    // install the lease record of snapshot or checkpoint, called before the nodes attached to it
+    void installLease(EncodeStatus encodeStatus) {
+        initInstallTtlContext(encodeStatus);
+        ttlManager.installLease(encodeStatus.ttlRaftIndex, encodeStatus.leaseId, opContext);
+    }
+
+    void retainLeases(Set<Long> leaseIds) {
+        ttlManager.retainLeases(leaseIds);
+    }
+
+    // the current ttl of all leases, called by snapshot in dtkv executor
+    List<TtlInfo> leaseTtls() {
+        ArrayList<TtlInfo> list = new ArrayList<>(ttlManager.leases.size());
+        for (Lease lease : ttlManager.leases.values()) {
+            list.add(lease.ttlInfo);
+        }
+        return list;
+    }
+
+    void enableCheckpoint(long startIndex) {
+        removedKeys = new LinkedHashMap<>();
+        changedKeys = new LinkedHashMap<>();
+        removedKeysStartIndex = startIndex;
+    }
+
+    private void markChanged(long index, ByteArray key) {
+        if (changedKeys != null) {
+            // re-insert, so the entries are in the order of the last change index
+            changedKeys.remove(key);
+            changedKeys.put(key, index);
+        }
+    }
+
+    /**
+     * return the keys removed after baseIndex, or null if they are not tracked.
+     */
+    List<Pair<ByteArray, Long>> removedKeysAfter(long baseIndex) {
+        if (removedKeys == null || baseIndex < removedKeysStartIndex) {
+            return null;
+        }
+        trimBefore(removedKeys, baseIndex);
+        trimBefore(changedKeys, baseIndex);
+        removedKeysStartIndex = baseIndex;
+        ArrayList<Pair<ByteArray, Long>> list = new ArrayList<>(removedKeys.size());
+        for (Map.Entry<ByteArray, Long> e : removedKeys.entrySet()) {
+            list.add(new Pair<>(e.getKey(), e.getValue()));
+        }
+        return list;
+    }
+
+    /**
+     * return the holders of the keys changed after baseIndex, should be called after removedKeysAfter.
+     */
+    List<KvNodeHolder> changedHoldersAfter(long baseIndex) {
+        ArrayList<KvNodeHolder> list = new ArrayList<>(changedKeys.size());
+        for (Map.Entry<ByteArray, Long> e : changedKeys.entrySet()) {
+            if (e.getValue() <= baseIndex) {
+                // installed from checkpoint, may be out of order
+                continue;
+            }
+            KvNodeHolder h = map.get(e.getKey());
+            if (h != null) {
+                list.add(h);
+            }
+        }
+        return list;
+    }
+
+    // the keys are in change order, and the base index never goes back, so drop the older ones
+    private static void trimBefore(LinkedHashMap<ByteArray, Long> m, long baseIndex) {
+        Iterator<Map.Entry<ByteArray, Long>> it = m.entrySet().iterator();
+        while (it.hasNext() && it.next().getValue() <= baseIndex) {
+            it.remove();
+        }
+    }
+
+    void installCheckpointPut(EncodeStatus encodeStatus) {
+        // do not need lock, no other requests during recover
+        if (encodeStatus.keyBytes == null || encodeStatus.keyBytes.length == 0) {
+            KvNodeEx old = root.latest;
+            root.latest = new KvNodeEx(old, encodeStatus.updateIndex, encodeStatus.updateTime, null);
+            releaseChain(old);
+            addNode(root.latest);
+            return;
+        }
+        ByteArray key = new ByteArray(encodeStatus.keyBytes);
+        KvNodeHolder h = map.get(key);
+        if (h == null) {
+            installSnapshotPut(encodeStatus);
+            return;
+        }
+        KvNodeEx old = h.latest;
+        ttlManager.remove(old);
+        releaseChain(old);
+        KvNodeEx n;
+        if (old.createIndex == encodeStatus.createIndex && old.flag == encodeStatus.flag) {
+            n = new KvNodeEx(old, encodeStatus.updateIndex, encodeStatus.updateTime, encodeStatus.valueBytes);
+            n.ttlInfo = null;
+            h.latest = n;
+        } else {
+            // the node is removed and created again after the base snapshot
+            n = new KvNodeEx(encodeStatus.createIndex, encodeStatus.createTime, encodeStatus.updateIndex,
+                    encodeStatus.updateTime, encodeStatus.flag, encodeStatus.valueBytes);
+            KvNodeEx parentNode = h.parent.latest;
+            parentNode.removeChild(h);
+            if (old.childCount() > 0) {
+                if (n.children == null) {
+                    BugLog.logAndThrow("node has children: " + key);
+                }
+                // the children which not removed in checkpoint must be re-created, and will be updated later
+                ArrayList<KvNodeHolder> children = new ArrayList<>(old.childCount());
+                KvNodeHolder sentinel = old.children;
+                for (KvNodeHolder c = sentinel.childNext; c != sentinel; c = c.childNext) {
+                    children.add(c);
+                }
+                for (KvNodeHolder c : children) {
+                    old.removeChild(c);
+                    n.addChild(c);
+                }
+            }
+            h.latest = n;
+            parentNode.addChild(h);
+        }
+        addNode(n);
+        installTtl(encodeStatus, key, n);
+        markChanged(Math.max(encodeStatus.updateIndex, encodeStatus.ttlRaftIndex), key);
+        if (hotKeys != null) {
+            hotKeys.updateSize(h);
+        }
+    }
+
+    void installCheckpointRemove(EncodeStatus encodeStatus) {
+        ByteArray key = new ByteArray(encodeStatus.keyBytes);
+        if (removedKeys != null) {
+            removedKeys.put(key, encodeStatus.updateIndex);
+            changedKeys.remove(key);
+        }
+        KvNodeHolder h = map.get(key);
+        if (h == null) {
+            // the node is created and removed after the base snapshot
+            return;
+        }
+        if (h.childHolderCount > 0) {
+            BugLog.logAndThrow("removed node has children: " + key);
+        }
+        h.parent.latest.removeChild(h);
+        ttlManager.remove(h.latest);
+        map.remove(h);
+        releaseHolder(h);
+        h.parent.childHolderCount--;
+        if (hotKeys != null) {
+            hotKeys.remove(h);
         }
     }
 
@@ -661,9 +1006,7 @@ class KvImpl {
         long t = System.currentTimeMillis();
         log.info("group {} start gc task", groupId);
         return () -> {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().lock();
-            }
+            long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
             try {
                 for (int i = 0; i < gcItems; i++) {
                     if (!it.hasNext()) {
@@ -675,8 +1018,8 @@ class KvImpl {
                 }
                 return Boolean.TRUE;
             } finally {
-                if (readWriteLock != null) {
-                    readWriteLock.writeLock().unlock();
+                if (stampedLock != null) {
+                    stampedLock.unlockWrite(stamp);
                 }
             }
         };
@@ -700,16 +1043,14 @@ class KvImpl {
         if (n.childCount() > 0) {
             return new KvResult(KvCodes.HAS_CHILDREN);
         }
-        if (lockAndFireUpdate && readWriteLock != null) {
-            this.readWriteLock.writeLock().lock();
-        }
+        long stamp = lockAndFireUpdate && stampedLock != null ? stampedLock.writeLock() : 0;
         try {
             return doRemoveInLock(index, h);
         } finally {
+            if (stamp != 0) {
+                stampedLock.unlockWrite(stamp);
+            }
             if (lockAndFireUpdate) {
-                if (readWriteLock != null) {
-                    this.readWriteLock.writeLock().unlock();
-                }
                 afterUpdate();
             }
         }
@@ -723,7 +1064,12 @@ class KvImpl {
             BugLog.logAndThrow("parent removed");
         }
         long logTime = opContext.leaderCreateTimeMillis;
+        ByteArray key = h.key();
         addToUpdateQueue(index, h);
+        if (removedKeys != null) {
+            removedKeys.put(key, index);
+            changedKeys.remove(key);
+        }
 
         // The children list only used in list and remove check, and always read the latest data.
         // So we can remove it from children list safely even if there is a snapshot being reading.
@@ -736,24 +1082,33 @@ class KvImpl {
             KvNodeEx newKvNode = new KvNodeEx(n.createIndex, n.createTime, index, logTime);
             h.latest = newKvNode;
             newKvNode.previous = n;
+            addNode(newKvNode);
             gc(h);
         } else {
             if (h.childHolderCount == 0) {
-                map.remove(h.key);
+                map.remove(h);
+                releaseHolder(h);
                 if (--h.parent.childHolderCount < 0) {
                     BugLog.logAndThrow("childHolderCount < 0");
                 }
             } else {
+                releaseChain(h.latest);
                 h.latest = new KvNodeEx(index, logTime, index, logTime);
+                addNode(h.latest);
                 // no previous
             }
         }
 
         if (watchManager != null) {
             watchManager.mountWatchToParent(h);
+            watchManager.recordEvent(index, key, WatchEvent.STATE_NOT_EXISTS);
         }
 
         updateParent(index, logTime, h.parent);
+        if (hotKeys != null) {
+            hotKeys.recordWrite(key);
+            hotKeys.remove(h);
+        }
         return KvResult.SUCCESS;
     }
 
@@ -763,17 +1118,15 @@ class KvImpl {
         }
         int size = keys.size();
         ArrayList<KvResult> list = new ArrayList<>(size);
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             for (int i = 0; i < size; i++) {
                 byte[] k = keys.get(i);
                 list.add(checkAndRemove(index, k == null ? null : new ByteArray(k), false));
             }
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
@@ -808,9 +1161,7 @@ class KvImpl {
         if (r != null) {
             return r;
         }
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             if (expectedValue == null || expectedValue.length == 0) {
                 if (h == null || h.latest.removed) {
@@ -843,14 +1194,18 @@ class KvImpl {
                 }
             }
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
     }
 
     public KvResult mkdir(long index, ByteArray key) {
+        KvResult r = checkLease();
+        if (r != null) {
+            return r;
+        }
         return checkAndPut(index, key, null, true);
     }
 
@@ -905,6 +1260,7 @@ class KvImpl {
         }
         // no need to lock, because readers not check ttl
         ttlManager.updateTtl(index, key, h.latest, opContext);
+        markChanged(index, key);
         return KvResult.SUCCESS;
     }
 
@@ -935,6 +1291,7 @@ class KvImpl {
 
         // no need to lock, because readers not check ttl
         ttlManager.updateTtl(index, subKey, sh.latest, opContext);
+        markChanged(index, subKey);
         return KvResult.SUCCESS;
     }
 
@@ -957,14 +1314,91 @@ class KvImpl {
             }
             return new KvResult(KvCodes.TTL_INDEX_MISMATCH);
         }
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             return expireInLock(index, h);
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
+            }
+            afterUpdate();
+        }
+    }
+
+    // not fire watch event, the lease id is the raft index
+    public KvResult grantLease(long index) {
+        if (opContext.ttlMillis <= 0) {
+            return new KvResult(KvCodes.INVALID_TTL);
+        }
+        ttlManager.grantLease(index, opContext);
+        return KvResult.SUCCESS;
+    }
+
+    // renew all the nodes attached to the lease, not update updateTime field and not fire watch event
+    public KvResult keepAliveLease(long index, long leaseId) {
+        Lease lease = ttlManager.getLease(leaseId);
+        if (lease == null) {
+            return new KvResult(KvCodes.LEASE_NOT_FOUND);
+        }
+        if (!lease.owner.equals(opContext.operator)) {
+            return new KvResult(KvCodes.NOT_OWNER);
+        }
+        ttlManager.keepAliveLease(index, lease, opContext);
+        return KvResult.SUCCESS;
+    }
+
+    public KvResult revokeLease(long index, long leaseId) {
+        Lease lease = ttlManager.getLease(leaseId);
+        if (lease == null) {
+            return new KvResult(KvCodes.LEASE_NOT_FOUND);
+        }
+        if (!lease.owner.equals(opContext.operator)) {
+            return new KvResult(KvCodes.NOT_OWNER);
+        }
+        return removeLease(index, lease);
+    }
+
+    public KvResult expireLease(long index, long leaseId, long expectRaftIndex) {
+        Lease lease = ttlManager.getLease(leaseId);
+        if (lease == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("lease {} is already removed", leaseId);
+            }
+            return new KvResult(KvCodes.LEASE_NOT_FOUND);
+        }
+        if (lease.ttlInfo.raftIndex != expectRaftIndex) {
+            // keep alive after the expire operation submitted
+            return new KvResult(KvCodes.TTL_INDEX_MISMATCH);
+        }
+        return removeLease(index, lease);
+    }
+
+    // remove all the nodes attached to the lease in one raft log entry, the locks held by the lease are released
+    private KvResult removeLease(long index, Lease lease) {
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
+        try {
+            // doRemoveInLock detach the key from the lease, so copy it
+            ArrayList<ByteArray> keys = new ArrayList<>(lease.keys);
+            ArrayList<KvResultWithNewOwnerInfo> newOwners = null;
+            for (ByteArray key : keys) {
+                KvNodeHolder h = map.get(key);
+                if (h == null || h.latest.removed) {
+                    BugLog.log("node attached to lease is removed: " + key);
+                    continue;
+                }
+                KvResult r = expireInLock(index, h);
+                if (r instanceof KvResultWithNewOwnerInfo) {
+                    if (newOwners == null) {
+                        newOwners = new ArrayList<>();
+                    }
+                    newOwners.add((KvResultWithNewOwnerInfo) r);
+                }
+            }
+            ttlManager.removeLease(lease);
+            return newOwners == null ? KvResult.SUCCESS : new KvResultWithNewOwners(newOwners);
+        } finally {
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
@@ -972,17 +1406,35 @@ class KvImpl {
 
     // helper to read first 8 bytes of data as big-endian long; returns 0 if data too short or null
     private static long readHoldTtlMillis(byte[] data) {
-        if (data == null || data.length < 8) {
+        return readLong(data, 0);
+    }
+
+    // the lock data is holdTtl(8), lockId(4), opId(4), and an optional leaseId(8) if the lock is attached to a lease
+    static long readLockLeaseId(byte[] data) {
+        return readLong(data, 16);
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        if (data == null || data.length < pos + 8) {
             return 0L;
         }
-        return ((long) (data[0] & 0xFF) << 56) |
-                ((long) (data[1] & 0xFF) << 48) |
-                ((long) (data[2] & 0xFF) << 40) |
-                ((long) (data[3] & 0xFF) << 32) |
-                ((long) (data[4] & 0xFF) << 24) |
-                ((long) (data[5] & 0xFF) << 16) |
-                ((long) (data[6] & 0xFF) << 8) |
-                ((long) (data[7] & 0xFF));
+        return ((long) (data[pos] & 0xFF) << 56) |
+                ((long) (data[pos + 1] & 0xFF) << 48) |
+                ((long) (data[pos + 2] & 0xFF) << 40) |
+                ((long) (data[pos + 3] & 0xFF) << 32) |
+                ((long) (data[pos + 4] & 0xFF) << 24) |
+                ((long) (data[pos + 5] & 0xFF) << 16) |
+                ((long) (data[pos + 6] & 0xFF) << 8) |
+                ((long) (data[pos + 7] & 0xFF));
+    }
+
+    // the lock owner is attached to the lease if specified, so one keepAliveLease renews all the locks held by it.
+    // if the lease is gone when a waiter becomes the owner, the lock expires by the hold ttl.
+    private void initLockOwnerTtl(byte[] data) {
+        opContext.ttlMillis = readHoldTtlMillis(data);
+        long leaseId = readLockLeaseId(data);
+        Lease lease = leaseId == 0 ? null : ttlManager.getLease(leaseId);
+        opContext.leaseId = lease != null && lease.owner.equals(opContext.operator) ? leaseId : 0;
     }
 
 
@@ -1083,18 +1535,30 @@ class KvImpl {
             // re-init opContext so owner/ttlMillis are set appropriately.
             opContext.init(DtKV.BIZ_TYPE_EXPIRE, n.ttlInfo.owner, newHoldTtlMillis,
                     opContext.leaderCreateTimeMillis, opContext.localCreateNanos);
-            ttlManager.updateTtl(index, nextLockOwner.key, n, opContext);
+            initLockOwnerTtl(n.data);
+            ttlManager.updateTtl(index, nextLockOwner.key(), n, opContext);
+            markChanged(index, nextLockOwner.key());
             return new KvResultWithNewOwnerInfo(KvCodes.SUCCESS, n, serverSideWaitNanos);
         }
         return KvResult.SUCCESS;
     }
 
     public KvResult tryLock(long index, ByteArray key, byte[] data) {
+        long leaseId = readLockLeaseId(data);
+        if (leaseId != 0) {
+            Lease lease = ttlManager.getLease(leaseId);
+            if (lease == null) {
+                return new KvResult(KvCodes.LEASE_NOT_FOUND);
+            }
+            if (!lease.owner.equals(opContext.operator)) {
+                return new KvResult(KvCodes.NOT_OWNER);
+            }
+        }
+        // the waiter is not attached to the lease, it expires by the wait timeout
+        opContext.leaseId = 0;
         long ttlMillis = opContext.ttlMillis;
         opContext.ttlMillis = 0; // the lock dir has no ttl
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             KvResult r = checkAndPut(index, key, null, false);
             if (r.getBizCode() != KvCodes.SUCCESS && r.getBizCode() != KvCodes.DIR_EXISTS) {
@@ -1102,7 +1566,7 @@ class KvImpl {
             }
             opContext.ttlMillis = ttlMillis; // restore ttl
             KvNodeHolder parent = lastPutNodeHolder;
-            ByteArray fullKey = KvServerUtil.buildLockKey(parent.key,
+            ByteArray fullKey = KvServerUtil.buildLockKey(key,
                     opContext.operator.getMostSignificantBits(), opContext.operator.getLeastSignificantBits());
             KvNodeHolder sub = map.get(fullKey);
             KvNodeHolder oldOwner = parent.latest.peekNextOwner();
@@ -1110,10 +1574,10 @@ class KvImpl {
                 // tryLock and has lock owner
                 return new KvResult(KvCodes.LOCK_BY_OTHER);
             }
-            return doPutInLock(index, fullKey, data, sub, parent, parent.key.length);
+            return doPutInLock(index, fullKey, data, sub, parent, key.length);
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
@@ -1129,7 +1593,7 @@ class KvImpl {
         if (r != null) {
             return r;
         }
-        ByteArray fullKey = KvServerUtil.buildLockKey(parent.key,
+        ByteArray fullKey = KvServerUtil.buildLockKey(key,
                 opContext.operator.getMostSignificantBits(), opContext.operator.getLeastSignificantBits());
         KvNodeHolder sub = map.get(fullKey);
         if (sub == null || sub.latest.removed) {
@@ -1139,9 +1603,7 @@ class KvImpl {
             BugLog.logAndThrow("sub.parent != parent");
         }
         boolean holdLock = sub == parent.latest.peekNextOwner();
-        if (readWriteLock != null) {
-            readWriteLock.writeLock().lock();
-        }
+        long stamp = stampedLock == null ? 0 : stampedLock.writeLock();
         try {
             doRemoveInLock(index, sub);
             boolean removeParent = parent.latest.childCount() == 0;
@@ -1159,8 +1621,8 @@ class KvImpl {
                 return new KvResult(KvCodes.LOCK_BY_OTHER);
             }
         } finally {
-            if (readWriteLock != null) {
-                readWriteLock.writeLock().unlock();
+            if (stampedLock != null) {
+                stampedLock.unlockWrite(stamp);
             }
             afterUpdate();
         }
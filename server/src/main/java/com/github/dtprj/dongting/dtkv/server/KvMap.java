@@ -17,54 +17,139 @@ package com.github.dtprj.dongting.dtkv.server;
 
 import com.github.dtprj.dongting.common.ByteArray;
 
-import java.util.HashMap;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
- * HashMap + doubly-linked list implementation for better performance.
- * Thread safety is provided by StampedLock in KvImpl, so no concurrent data structures needed.
+ * Hash table chained by KvNodeHolder.hashNext + doubly-linked list implementation for better performance.
+ * The holder is the entry of the table, and it does not store the full key (see KvNodeHolder), so a lookup
+ * compares the key with the segments of the parent chain.
+ * <p>
+ * Thread safety is provided by StampedLock in KvImpl, so no concurrent data structures needed. The optimistic
+ * readers of KvImpl may run concurrently with a writer, and the plain writes of the writer may be seen in any
+ * order, so they may get a wrong result (validated later), or even a cycle in the hash chain. The chain walk
+ * is capped at size steps, which is never exceeded under the lock, and get() throws
+ * ConcurrentModificationException if exceeded, then the reader retries with the read lock.
  *
  * @author huangli
  */
 class KvMap {
-    private final HashMap<ByteArray, KvNodeHolder> map;
+    private KvNodeHolder[] table;
+    private final float loadFactor;
+    private int threshold;
+    private int size;
 
     // Sentinel node, next point to the first node, prev point to the last node
     private final KvNodeHolder sentinel;
 
     public KvMap(int initCapacity, float loadFactor) {
-        this.map = new HashMap<>(initCapacity, loadFactor);
+        int cap = Integer.highestOneBit(Math.max(initCapacity, 2) - 1) << 1;
+        this.table = new KvNodeHolder[cap];
+        this.loadFactor = loadFactor;
+        this.threshold = (int) (cap * loadFactor);
         this.sentinel = new KvNodeHolder(null, null, null, null);
         this.sentinel.prev = this.sentinel;
         this.sentinel.next = this.sentinel;
     }
 
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
     public KvNodeHolder get(ByteArray key) {
-        return map.get(key);
+        int hash = key.hashCode();
+        KvNodeHolder[] tab = table;
+        KvNodeHolder h = tab[spread(hash) & (tab.length - 1)];
+        int steps = size;
+        while (h != null) {
+            if (h.keyHash == hash && h.keyEquals(key)) {
+                return h;
+            }
+            if (--steps < 0) {
+                // only occurs in optimistic read, see class comment
+                throw new ConcurrentModificationException();
+            }
+            h = h.hashNext;
+        }
+        return null;
     }
 
+    /**
+     * Put the holder, the key should be equal to the full key of the holder.
+     */
     public KvNodeHolder put(ByteArray key, KvNodeHolder value) {
-        KvNodeHolder old = map.put(key, value);
-        if (old != null) {
-            removeFromList(old);
-        }
+        KvNodeHolder old = remove(key);
+        KvNodeHolder[] tab = table;
+        int idx = spread(value.keyHash) & (tab.length - 1);
+        value.hashNext = tab[idx];
+        tab[idx] = value;
         addToList(value);
+        if (++size > threshold) {
+            resize();
+        }
         return old;
     }
 
     public KvNodeHolder remove(ByteArray key) {
-        KvNodeHolder old = map.remove(key);
-        if (old != null) {
-            removeFromList(old);
+        KvNodeHolder h = get(key);
+        if (h != null) {
+            remove(h);
         }
-        return old;
+        return h;
     }
 
-    public int size() {
-        return map.size();
+    /**
+     * Remove the holder (compared by identity), return false if it's not in the map.
+     */
+    public boolean remove(KvNodeHolder value) {
+        KvNodeHolder[] tab = table;
+        int idx = spread(value.keyHash) & (tab.length - 1);
+        KvNodeHolder h = tab[idx];
+        KvNodeHolder prev = null;
+        while (h != null) {
+            if (h == value) {
+                if (prev == null) {
+                    tab[idx] = h.hashNext;
+                } else {
+                    prev.hashNext = h.hashNext;
+                }
+                h.hashNext = null;
+                removeFromList(h);
+                size--;
+                return true;
+            }
+            prev = h;
+            h = h.hashNext;
+        }
+        return false;
     }
 
+    private void resize() {
+        KvNodeHolder[] oldTab = table;
+        int newCap = oldTab.length << 1;
+        if (newCap <= 0) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        KvNodeHolder[] newTab = new KvNodeHolder[newCap];
+        int mask = newCap - 1;
+        for (KvNodeHolder h : oldTab) {
+            while (h != null) {
+                KvNodeHolder next = h.hashNext;
+                int idx = spread(h.keyHash) & mask;
+                h.hashNext = newTab[idx];
+                newTab[idx] = h;
+                h = next;
+            }
+        }
+        table = newTab;
+        threshold = (int) (newCap * loadFactor);
+    }
+
+    public int size() {
+        return size;
+    }
     public Iterator<KvNodeHolder> iterator() {
         return new KvMapIterator();
     }
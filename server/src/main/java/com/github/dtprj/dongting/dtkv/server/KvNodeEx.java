@@ -21,9 +21,7 @@ import com.github.dtprj.dongting.dtkv.KvResult;
 import com.github.dtprj.dongting.log.BugLog;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.TreeSet;
 
 /**
  * @author huangli
@@ -32,11 +30,11 @@ final class KvNodeEx extends KvNode {
 
     // Sentinel head node for children doubly-linked list. next points to first child, prev points to last child.
     // The sentinel itself is not a real child node.
+    // For lock dir, the children list is ordered by createIndex, and is used as the FIFO lock wait queue.
     final KvNodeHolder children;
     // Child count for O(1) access (avoid traversing the list)
     private int childCount;
 
-    private final TreeSet<KvNodeHolder> lockOrderQueue;
     final boolean removed;
 
     KvNodeEx previous;
@@ -51,14 +49,8 @@ final class KvNodeEx extends KvNode {
             this.children = new KvNodeHolder(null, null, null, null);
             this.children.childPrev = this.children;
             this.children.childNext = this.children;
-            if ((flag & KvNode.FLAG_LOCK_MASK) != 0) {
-                lockOrderQueue = new TreeSet<>(Comparator.comparingLong(a -> a.latest.createIndex));
-            } else {
-                lockOrderQueue = null;
-            }
         } else {
             children = null;
-            lockOrderQueue = null;
         }
     }
 
@@ -67,13 +59,11 @@ final class KvNodeEx extends KvNode {
         super(createIndex, createTime, updateIndex, updateTime, 0, null);
         this.removed = true;
         this.children = null;
-        this.lockOrderQueue = null;
     }
 
     public KvNodeEx(KvNodeEx old, long updateIndex, long updateTime, byte[] newData) {
         super(old.createIndex, old.createTime, updateIndex, updateTime, old.flag, newData);
         this.children = old.children;
-        this.lockOrderQueue = old.lockOrderQueue;
         this.removed = false;
         this.ttlInfo = old.ttlInfo;
         this.childCount = old.childCount;
@@ -92,13 +82,9 @@ final class KvNodeEx extends KvNode {
         if (c.childNext != null || c.childPrev != null) {
             BugLog.logAndThrow("already added");
         }
-        // Insert at the end of the doubly-linked list (before sentinel)
+        // Insert at the end of the doubly-linked list (before sentinel), lock dir keeps createIndex order
         KvNodeHolder sentinel = children;
-        c.childPrev = sentinel.childPrev;
-        c.childNext = sentinel;
-        sentinel.childPrev.childNext = c;
-        sentinel.childPrev = c;
-        childCount++;
+        KvNodeHolder prev = sentinel.childPrev;
         if ((flag & KvNode.FLAG_LOCK_MASK) != 0) {
             int childFlag = c.latest.flag;
             if ((childFlag & KvNode.FLAG_LOCK_MASK) == 0) {
@@ -107,8 +93,18 @@ final class KvNodeEx extends KvNode {
             if ((childFlag & KvNode.FLAG_DIR_MASK) != 0) {
                 BugLog.logAndThrow("child is dir");
             }
-            lockOrderQueue.add(c);
+            // the waiters are added in raft index order when apply, so this loop is O(1) except when
+            // install snapshot, in which the children may be added in other order
+            long createIndex = c.latest.createIndex;
+            while (prev != sentinel && prev.latest.createIndex > createIndex) {
+                prev = prev.childPrev;
+            }
         }
+        c.childPrev = prev;
+        c.childNext = prev.childNext;
+        prev.childNext.childPrev = c;
+        prev.childNext = c;
+        childCount++;
     }
 
     int childCount() {
@@ -130,19 +126,19 @@ final class KvNodeEx extends KvNode {
             if ((childFlag & KvNode.FLAG_DIR_MASK) != 0) {
                 BugLog.logAndThrow("child is dir");
             }
-            if (!lockOrderQueue.remove(h)) {
-                BugLog.logAndThrow("lockOrderQueue remove fail");
-            }
         }
     }
 
+    /**
+     * Return the head of the lock wait queue (the current owner), O(1). A waiter cancels by removing
+     * its node (unlock or expire), which is O(1) too.
+     */
     KvNodeHolder peekNextOwner() {
-        TreeSet<KvNodeHolder> q = lockOrderQueue;
-        if (q == null) {
-            BugLog.logAndThrow("lockOrderQueue is null");
+        if ((flag & KvNode.FLAG_LOCK_MASK) == 0 || children == null) {
+            BugLog.logAndThrow("not lock dir");
         }
-        //noinspection DataFlowIssue
-        return q.isEmpty() ? null : q.first();
+        KvNodeHolder first = children.childNext;
+        return first == children ? null : first;
     }
 
     Iterable<KvNodeHolder> childrenValues() {
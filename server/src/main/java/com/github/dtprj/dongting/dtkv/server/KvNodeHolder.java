@@ -16,14 +16,20 @@
 package com.github.dtprj.dongting.dtkv.server;
 
 import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.dtkv.KvClientConfig;
 
 /**
+ * The holder only keeps the last segment of the key (keyInDir), the full key is rebuilt from the parent chain
+ * on demand, so the common prefix of deep paths is not repeated in each node. The hash and the length of
+ * the full key are cached for KvMap.
+ *
  * @author huangli
  */
 final class KvNodeHolder {
-    final ByteArray key;
     final ByteArray keyInDir;
     final KvNodeHolder parent;
+    final int keyHash;
+    final int keyLength;
 
     KvNodeEx latest;
 
@@ -34,6 +40,9 @@ final class KvNodeHolder {
 
     int childHolderCount;
 
+    // next holder in the same bucket of KvMap
+    KvNodeHolder hashNext;
+
     // Doubly-linked list pointers for O(1) removal from KvMap
     KvNodeHolder prev;
     KvNodeHolder next;
@@ -42,10 +51,68 @@ final class KvNodeHolder {
     KvNodeHolder childPrev;
     KvNodeHolder childNext;
 
+    /**
+     * The key is only used to compute the hash and the length, the holder does not reference it.
+     * The keyInDir is copied if it's a part of a larger array.
+     */
     public KvNodeHolder(ByteArray key, ByteArray keyInDir, KvNodeEx n, KvNodeHolder parent) {
-        this.key = key;
-        this.keyInDir = keyInDir;
+        // getData() copies the bytes only if keyInDir is a part of a larger array
+        this.keyInDir = keyInDir == null || keyInDir.length == 0 ? keyInDir : new ByteArray(keyInDir.getData());
+        this.keyHash = key == null ? 0 : key.hashCode();
+        this.keyLength = key == null ? 0 : key.length;
         this.latest = n;
         this.parent = parent;
     }
+
+    private boolean hasPrefix() {
+        return parent != null && parent.keyLength > 0;
+    }
+
+    /**
+     * Rebuild the full key, allocates a new array except the holder is in the root dir.
+     */
+    ByteArray key() {
+        if (!hasPrefix()) {
+            return keyLength == 0 ? ByteArray.EMPTY : keyInDir;
+        }
+        byte[] bs = new byte[keyLength];
+        KvNodeHolder h = this;
+        int pos = keyLength;
+        while (true) {
+            byte[] seg = h.keyInDir.getData();
+            pos -= seg.length;
+            System.arraycopy(seg, 0, bs, pos, seg.length);
+            if (!h.hasPrefix()) {
+                break;
+            }
+            bs[--pos] = KvClientConfig.SEPARATOR;
+            h = h.parent;
+        }
+        return new ByteArray(bs);
+    }
+
+    /**
+     * Check whether the full key of this holder equals to the key, without rebuilding the full key.
+     */
+    boolean keyEquals(ByteArray key) {
+        if (key.length != keyLength) {
+            return false;
+        }
+        KvNodeHolder h = this;
+        int pos = keyLength;
+        while (true) {
+            ByteArray seg = h.keyInDir;
+            pos -= seg.length;
+            if (!key.regionEquals(pos, seg)) {
+                return false;
+            }
+            if (!h.hasPrefix()) {
+                return pos == 0;
+            }
+            if (--pos < 0 || key.get(pos) != KvClientConfig.SEPARATOR) {
+                return false;
+            }
+            h = h.parent;
+        }
+    }
 }
@@ -17,8 +17,10 @@ package com.github.dtprj.dongting.dtkv.server;
 
 import com.github.dtprj.dongting.codec.DecodeContext;
 import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
 import com.github.dtprj.dongting.codec.Encodable;
 import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.DtUtil;
 import com.github.dtprj.dongting.common.Pair;
 import com.github.dtprj.dongting.common.PerfCallback;
 import com.github.dtprj.dongting.common.PerfConsts;
@@ -27,21 +29,31 @@ import com.github.dtprj.dongting.dtkv.KvCodes;
 import com.github.dtprj.dongting.dtkv.KvReq;
 import com.github.dtprj.dongting.dtkv.KvResp;
 import com.github.dtprj.dongting.dtkv.KvResult;
+import com.github.dtprj.dongting.log.DtLog;
+import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.net.CmdCodes;
 import com.github.dtprj.dongting.net.Commands;
 import com.github.dtprj.dongting.net.EmptyBodyRespPacket;
 import com.github.dtprj.dongting.net.EncodableBodyWritePacket;
+import com.github.dtprj.dongting.net.NetCodeException;
+import com.github.dtprj.dongting.net.PeerStatus;
 import com.github.dtprj.dongting.net.ReadPacket;
+import com.github.dtprj.dongting.net.RpcCallback;
 import com.github.dtprj.dongting.net.WorkerThread;
 import com.github.dtprj.dongting.net.WritePacket;
 import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.RaftNode;
 import com.github.dtprj.dongting.raft.impl.DecodeContextEx;
 import com.github.dtprj.dongting.raft.impl.RaftGroupImpl;
+import com.github.dtprj.dongting.raft.impl.RaftRole;
+import com.github.dtprj.dongting.raft.impl.RaftShareStatus;
+import com.github.dtprj.dongting.raft.server.NotLeaderException;
 import com.github.dtprj.dongting.raft.server.RaftCallback;
 import com.github.dtprj.dongting.raft.server.RaftInput;
 import com.github.dtprj.dongting.raft.server.RaftProcessor;
 import com.github.dtprj.dongting.raft.server.RaftServer;
 import com.github.dtprj.dongting.raft.server.ReqInfo;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -53,10 +65,44 @@ import java.util.concurrent.CompletableFuture;
  * @author huangli
  */
 final class KvProcessor extends RaftProcessor<KvReq> {
+    private static final DtLog log = DtLogs.getLogger(KvProcessor.class);
+    private static final DecoderCallbackCreator<KvResp> FORWARD_DECODER =
+            ctx -> ctx.toDecoderCallback(new KvResp.Callback());
+    // max reads served in one dtkv executor task, the rest are served in next task
+    static final int MAX_READ_BATCH = 256;
+
     private final PerfCallback perfCallback;
 
+    // run in dtkv executor, use dtKV.ts, the ts bound to dtkv executor
+    private final ReadBatcher.Reader<PendingRead> readBatchReader = new ReadBatcher.Reader<>() {
+        @Override
+        public boolean read(PendingRead r, boolean leaseValid) {
+            if (leaseValid && !r.reqInfo.reqContext.getTimeout().isTimeout(r.dtKV.ts)) {
+                // the lease is checked by the previous read in this batch
+                WritePacket p;
+                try {
+                    p = doLeaseRead(r.dtKV, r.reqInfo, r.req);
+                } catch (Exception e) {
+                    fail(r, e);
+                    return true;
+                }
+                perfCallback.fireTime(PerfConsts.DTKV_LEASE_READ, r.startTime);
+                r.reqInfo.reqContext.writeRespInBizThreads(p);
+                return true;
+            }
+            return leaseRead0(r.dtKV, r.reqInfo, r.req, r.startTime, r.dtKV.ts);
+        }
+
+        @Override
+        public void fail(PendingRead r, Throwable ex) {
+            perfCallback.fireTime(PerfConsts.DTKV_LEASE_READ, r.startTime);
+            writeErrorResp(r.reqInfo, ex);
+        }
+    };
+
     public KvProcessor(RaftServer raftServer, PerfCallback perfCallback) {
-        super(raftServer, true, false);
+        // the replicate port accepts write commands forwarded by followers, see forwardToLeader()
+        super(raftServer, true, true);
         Objects.requireNonNull(perfCallback);
         this.perfCallback = perfCallback;
     }
@@ -80,8 +126,17 @@ final class KvProcessor extends RaftProcessor<KvReq> {
         ReadPacket<KvReq> frame = reqInfo.reqFrame;
         KvReq req = frame.getBody();
 
-        // use uuid initialized in handshake
-        req.ownerUuid = reqInfo.reqContext.getDtChannel().getRemoteUuid();
+        if (RaftProcessor.requestServicePort(reqInfo.reqContext, raftServer.getServerConfig())) {
+            // use uuid initialized in handshake
+            req.ownerUuid = reqInfo.reqContext.getDtChannel().getRemoteUuid();
+        } else if (!isForwardable(frame.command)) {
+            // only the write commands forwarded by followers are accepted in replicate port
+            return RaftProcessor.createWrongPortRest(frame, reqInfo.reqContext);
+        } else if (!raftServer.getNodeManager().isNodeClient(reqInfo.reqContext.getDtChannel().getRemoteUuid())) {
+            // the owner uuid in body is trusted only if the request is forwarded by another raft node
+            return RaftProcessor.createWrongPortRest(frame, reqInfo.reqContext);
+        }
+        // else the request is forwarded by follower, keep the owner uuid of the origin client
 
         try {
             switch (frame.command) {
@@ -126,6 +181,15 @@ final class KvProcessor extends RaftProcessor<KvReq> {
                 case Commands.DTKV_UPDATE_LOCK_LEASE:
                     checkTtlAndSubmit(reqInfo, DtKV.BIZ_TYPE_UPDATE_LOCK_LEASE, req);
                     break;
+                case Commands.DTKV_GRANT_LEASE:
+                    checkTtlAndSubmit(reqInfo, DtKV.BIZ_TYPE_GRANT_LEASE, req);
+                    break;
+                case Commands.DTKV_KEEP_ALIVE_LEASE:
+                    submitWriteTask(reqInfo, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, req);
+                    break;
+                case Commands.DTKV_REVOKE_LEASE:
+                    submitWriteTask(reqInfo, DtKV.BIZ_TYPE_REVOKE_LEASE, req);
+                    break;
                 default:
                     throw new RaftException("unknown command: " + frame.command);
             }
@@ -136,6 +200,11 @@ final class KvProcessor extends RaftProcessor<KvReq> {
     }
 
     private void checkTtlAndSubmit(ReqInfo<KvReq> reqInfo, int bizType, KvReq req) {
+        if (req.leaseId != 0 && (bizType == DtKV.BIZ_TYPE_PUT_TEMP_NODE || bizType == DtKV.BIZ_MK_TEMP_DIR)) {
+            // use the ttl of the lease
+            submitWriteTask(reqInfo, bizType, req);
+            return;
+        }
         String errorMsg = KvImpl.checkTtl(req.ttlMillis, req.value, bizType == DtKV.BIZ_TYPE_TRY_LOCK);
         if (errorMsg != null) {
             EmptyBodyRespPacket p = new EmptyBodyRespPacket(CmdCodes.SUCCESS);
@@ -182,15 +251,11 @@ final class KvProcessor extends RaftProcessor<KvReq> {
     }
 
     private void submitToDtKvExecutor(ReqInfo<KvReq> reqInfo, KvReq req, DtKV dtKV, long startTime) {
-        // use dtKV.ts, the ts bound to dtkv executor
-        boolean b = dtKV.dtkvExecutor.submitTaskInAnyThread(() -> leaseRead0(dtKV, reqInfo, req, startTime, dtKV.ts));
-        if (!b) {
-            perfCallback.fireTime(PerfConsts.DTKV_LEASE_READ, startTime);
-            writeErrorResp(reqInfo, new RaftException("dtkv executor is stopping"));
-        }
+        dtKV.readBatcher.add(new PendingRead(dtKV, reqInfo, req, startTime), readBatchReader);
     }
 
-    private void leaseRead0(DtKV dtKV, ReqInfo<KvReq> reqInfo, KvReq req, long startTime, Timestamp ts) {
+    // return true if the lease is valid and the read is served
+    private boolean leaseRead0(DtKV dtKV, ReqInfo<KvReq> reqInfo, KvReq req, long startTime, Timestamp ts) {
         WritePacket p;
         try {
             boolean b = reqInfo.raftGroup.isLeaseReadValid(ts, reqInfo.reqContext.getTimeout());
@@ -201,14 +266,29 @@ final class KvProcessor extends RaftProcessor<KvReq> {
                 CompletableFuture<Void> f = reqInfo.raftGroup.addGroupReadyListener(reqInfo.reqContext.getTimeout());
                 // the future completed in raft thread
                 f.whenComplete((v, ex) -> groupReadyCallback(dtKV, reqInfo, req, startTime, ex));
-                return;
+                return false;
             }
         } catch (Exception e) {
             perfCallback.fireTime(PerfConsts.DTKV_LEASE_READ, startTime);
             writeErrorResp(reqInfo, e);
-            return;
+            return false;
         }
         reqInfo.reqContext.writeRespInBizThreads(p);
+        return true;
+    }
+
+    static final class PendingRead {
+        final DtKV dtKV;
+        final ReqInfo<KvReq> reqInfo;
+        final KvReq req;
+        final long startTime;
+
+        PendingRead(DtKV dtKV, ReqInfo<KvReq> reqInfo, KvReq req, long startTime) {
+            this.dtKV = dtKV;
+            this.reqInfo = reqInfo;
+            this.req = req;
+            this.startTime = startTime;
+        }
     }
 
     // run in raft thread
@@ -246,10 +326,139 @@ final class KvProcessor extends RaftProcessor<KvReq> {
     }
 
     private void submitWriteTask(ReqInfo<KvReq> reqInfo, int bizType, Encodable body) {
+        RaftShareStatus ss = ((RaftGroupImpl) reqInfo.raftGroup).groupComponents.raftStatus.getShareStatus();
+        if (ss.role != RaftRole.leader && ss.currentLeader != null && forwardToLeader(reqInfo, ss.currentLeader.node)) {
+            return;
+        }
+        if (exceedMemoryQuota(reqInfo, bizType, body)) {
+            return;
+        }
         RC ri = new RC(bizType, body, reqInfo);
         reqInfo.raftGroup.submitLinearTask(ri, ri);
     }
 
+    /**
+     * The quota is checked before the write is proposed, instead of in the apply, since the usage depends
+     * on the snapshots and watches of this node, which are different in each member of the raft group.
+     */
+    private boolean exceedMemoryQuota(ReqInfo<KvReq> reqInfo, int bizType, Encodable body) {
+        StateMachine sm = reqInfo.raftGroup.getStateMachine();
+        if (!(sm instanceof DtKV) || ((DtKV) sm).kvConfig.memoryQuotaBytes <= 0
+                || !mayIncreaseMemory(bizType, (KvReq) body)) {
+            return false;
+        }
+        DtKV dtKV = (DtKV) sm;
+        long used = dtKV.usedMemory();
+        if (used < dtKV.kvConfig.memoryQuotaBytes) {
+            return false;
+        }
+        EmptyBodyRespPacket p = new EmptyBodyRespPacket(CmdCodes.SUCCESS);
+        p.bizCode = KvCodes.MEMORY_QUOTA_EXCEEDED;
+        p.msg = "memory used " + used + ", quota " + dtKV.kvConfig.memoryQuotaBytes;
+        reqInfo.reqContext.writeRespInBizThreads(p);
+        return true;
+    }
+
+    private static boolean mayIncreaseMemory(int bizType, KvReq req) {
+        switch (bizType) {
+            case DtKV.BIZ_TYPE_PUT:
+            case DtKV.BIZ_TYPE_MKDIR:
+            case DtKV.BIZ_TYPE_BATCH_PUT:
+            case DtKV.BIZ_TYPE_PUT_TEMP_NODE:
+            case DtKV.BIZ_MK_TEMP_DIR:
+            case DtKV.BIZ_TYPE_TRY_LOCK:
+                return true;
+            case DtKV.BIZ_TYPE_CAS:
+                // cas with empty new value is a remove
+                return req.value != null && req.value.length > 0;
+            default:
+                // removes, ttl and lease updates, unlock are always allowed, so the users can free memory
+                return false;
+        }
+    }
+
+    private static boolean isForwardable(int command) {
+        switch (command) {
+            case Commands.DTKV_PUT:
+            case Commands.DTKV_REMOVE:
+            case Commands.DTKV_MKDIR:
+            case Commands.DTKV_BATCH_PUT:
+            case Commands.DTKV_BATCH_REMOVE:
+            case Commands.DTKV_CAS:
+            case Commands.DTKV_PUT_TEMP_NODE:
+            case Commands.DTKV_MAKE_TEMP_DIR:
+            case Commands.DTKV_UPDATE_TTL:
+            case Commands.DTKV_GRANT_LEASE:
+            case Commands.DTKV_KEEP_ALIVE_LEASE:
+            case Commands.DTKV_REVOKE_LEASE:
+                return true;
+            default:
+                // the lock commands are not forwardable, since the leader push the lock ownership to the
+                // client through the connection between the client and the leader.
+                return false;
+        }
+    }
+
+    /**
+     * Forward the write request to the leader through the replicate connection, and relay the response
+     * to the client. Return false if the request can't be forwarded, and the caller should process it as usual.
+     * The forwarded request will not be forwarded again, so there is no forwarding loop.
+     */
+    private boolean forwardToLeader(ReqInfo<KvReq> reqInfo, RaftNode leader) {
+        ReadPacket<KvReq> frame = reqInfo.reqFrame;
+        if (!isForwardable(frame.command) || leader.nodeId == raftServer.getServerConfig().nodeId
+                || leader.peer == null || leader.peer.status != PeerStatus.connected
+                || !RaftProcessor.requestServicePort(reqInfo.reqContext, raftServer.getServerConfig())) {
+            return false;
+        }
+        StateMachine sm = reqInfo.raftGroup.getStateMachine();
+        if (!(sm instanceof DtKV) || !((DtKV) sm).kvConfig.forwardWriteToLeader) {
+            return false;
+        }
+        DtKV dtKV = (DtKV) sm;
+        if (dtKV.pendingForwardCount.incrementAndGet() > dtKV.kvConfig.maxPendingForwardRequests) {
+            dtKV.pendingForwardCount.decrementAndGet();
+            // the caller responds NOT_RAFT_LEADER, the client will redirect to the leader
+            return false;
+        }
+        try {
+            EncodableBodyWritePacket p = new EncodableBodyWritePacket(frame.command, frame.getBody());
+            RpcCallback<KvResp> c = (result, ex) -> {
+                dtKV.pendingForwardCount.decrementAndGet();
+                relayForwardResult(reqInfo, result, ex);
+            };
+            raftServer.getReplicateNioClient().sendRequest(leader.peer, p, FORWARD_DECODER,
+                    reqInfo.reqContext.getTimeout(), c);
+            return true;
+        } catch (Exception e) {
+            dtKV.pendingForwardCount.decrementAndGet();
+            log.warn("forward request to leader {} failed: {}", leader.nodeId, e.toString());
+            return false;
+        }
+    }
+
+    // run in io thread of replicate client
+    private void relayForwardResult(ReqInfo<KvReq> reqInfo, ReadPacket<KvResp> result, Throwable ex) {
+        WritePacket resp;
+        if (ex == null) {
+            KvResp body = result.getBody();
+            resp = body == null ? new EmptyBodyRespPacket(CmdCodes.SUCCESS) : new EncodableBodyWritePacket(body);
+            resp.respCode = CmdCodes.SUCCESS;
+            resp.bizCode = result.bizCode;
+            resp.msg = result.msg;
+        } else if (ex instanceof NetCodeException) {
+            // such as NOT_RAFT_LEADER with new leader info in extra, let the client process it
+            NetCodeException ncEx = (NetCodeException) ex;
+            resp = new EmptyBodyRespPacket(ncEx.getCode());
+            resp.msg = ncEx.getMessage();
+            resp.extra = ncEx.getExtra();
+        } else {
+            writeErrorResp(reqInfo, ex);
+            return;
+        }
+        reqInfo.reqContext.writeRespInBizThreads(resp);
+    }
+
     private class RC extends RaftInput implements RaftCallback {
 
         private ReqInfo<KvReq> reqInfo;
@@ -274,6 +483,8 @@ final class KvProcessor extends RaftProcessor<KvReq> {
                     case Commands.DTKV_MAKE_TEMP_DIR:
                     case Commands.DTKV_UPDATE_TTL:
                     case Commands.DTKV_UPDATE_LOCK_LEASE:
+                    case Commands.DTKV_GRANT_LEASE:
+                    case Commands.DTKV_KEEP_ALIVE_LEASE:
                     case Commands.DTKV_TRY_LOCK: {
                         KvResult r = (KvResult) result;
                         resp = new EncodableBodyWritePacket(new KvResp(raftIndex, Collections.singletonList(r)));
@@ -292,7 +503,8 @@ final class KvProcessor extends RaftProcessor<KvReq> {
                         resp.bizCode = p.getLeft();
                         break;
                     }
-                    case Commands.DTKV_UNLOCK: {
+                    case Commands.DTKV_UNLOCK:
+                    case Commands.DTKV_REVOKE_LEASE: {
                         KvResult ri = (KvResult) result;
 
                         // send response first
@@ -301,10 +513,8 @@ final class KvProcessor extends RaftProcessor<KvReq> {
                         resp.bizCode = ri.getBizCode();
                         reqInfo.reqContext.writeRespInBizThreads(resp);
 
-                        // notify the new lock owner if any
-                        if (ri instanceof KvImpl.KvResultWithNewOwnerInfo) {
-                            KvServerUtil.notifyNewLockOwner(reqInfo.raftGroup, (KvImpl.KvResultWithNewOwnerInfo) ri);
-                        }
+                        // notify the new lock owners if any, revoke a lease may release several locks
+                        KvServerUtil.notifyNewLockOwners(reqInfo.raftGroup, ri);
 
                         return; // the response is sent, so here use return
                     }
@@ -322,6 +532,13 @@ final class KvProcessor extends RaftProcessor<KvReq> {
         @Override
         public void fail(Throwable ex) {
             try {
+                Throwable root = DtUtil.rootCause(ex);
+                if (root instanceof NotLeaderException) {
+                    RaftNode leader = ((NotLeaderException) root).getCurrentLeader();
+                    if (leader != null && forwardToLeader(reqInfo, leader)) {
+                        return;
+                    }
+                }
                 writeErrorResp(reqInfo, ex);
             } finally {
                 perfCallback.fireTime(PerfConsts.DTKV_LINEARIZABLE_OP, startTime);
@@ -32,10 +32,51 @@ public class KvServerConfig {
      * if false, the read operation run in any thread, generally in the io thread.
      */
     public boolean readInDtKvExecutor = true;
+    /**
+     * only used when readInDtKvExecutor is false. if true, get and batchGet read without lock first,
+     * and validate the version stamp of the lock after read, fall back to the read lock only if a write
+     * happened in the meantime. if false, always read with the read lock.
+     */
+    public boolean optimisticRead = true;
     public int initMapCapacity = 16 * 1024;
     public float loadFactor = 0.75f;
+    // the dispatch task is signaled when watched keys are updated, this interval is used for retry and timeout check
     public int watchDispatchIntervalMillis = 500;
+    // after signaled, wait this time (or until watchMaxBatchSize keys updated) to coalesce updates, 0 means no wait
+    public int watchDispatchWindowMicros = 1000;
     public int watchMaxReqBytes = 80 * 1024; // may exceed
     public int watchMaxBatchSize = 100;
     public long watchTimeoutMillis = 120_000; // should greater than KvClientConfig.watchHeartbeatMillis
+    // recent change events kept per group, a directory watch notify carries the changed descendants
+    // since the index the watcher has seen if they are still in the history, 0 means disable
+    public int watchHistorySize = 4096;
+
+    /**
+     * the number of hot keys (by reads, writes and watch fan-out), largest values and largest directories
+     * tracked per group, see Commands.DTKV_QUERY_HOT_KEYS. 0 means disable.
+     */
+    public int hotKeyTopK = 0;
+    // 1 out of hotKeySampleRate reads/writes/watch notifies is counted by the hot key tracker
+    public int hotKeySampleRate = 16;
+    // the hot key counters are reset every window
+    public long hotKeyWindowMillis = 60_000;
+
+    /**
+     * per group limit of the estimated memory used by keys, values, old versions retained for open snapshots
+     * and watches. Writes that may increase the memory are rejected with KvCodes.MEMORY_QUOTA_EXCEEDED when
+     * the usage reaches the limit, removes are always allowed. It is a soft limit checked before the write
+     * is proposed, so the usage may exceed it by the size of the writes in flight. 0 means no limit.
+     */
+    public long memoryQuotaBytes = 0;
+
+    /**
+     * if true, a follower proxies write commands (except lock commands) to the current leader through the
+     * replicate connection, instead of responding NOT_RAFT_LEADER to the client.
+     */
+    public boolean forwardWriteToLeader = false;
+    /**
+     * max forwarding requests in flight of a group, if exceeded, the follower responds NOT_RAFT_LEADER
+     * and let the client redirect to leader by itself.
+     */
+    public int maxPendingForwardRequests = 2000;
 }
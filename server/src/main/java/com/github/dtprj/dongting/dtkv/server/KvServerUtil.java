@@ -65,11 +65,16 @@ public class KvServerUtil {
         nioServer.register(Commands.DTKV_UPDATE_LOCK_LEASE, p, null);
 
         nioServer.register(Commands.DTKV_SYNC_WATCH, new WatchProcessor(server), null);
-        nioServer.register(Commands.DTKV_QUERY_STATUS, new KvStatusProcessor(server), null);
+        KvStatusProcessor statusProcessor = new KvStatusProcessor(server);
+        nioServer.register(Commands.DTKV_QUERY_STATUS, statusProcessor, null);
+        nioServer.register(Commands.DTKV_QUERY_HOT_KEYS, statusProcessor, null);
 
         nioServer.register(Commands.DTKV_PUT_TEMP_NODE, p, null);
         nioServer.register(Commands.DTKV_MAKE_TEMP_DIR, p, null);
         nioServer.register(Commands.DTKV_UPDATE_TTL, p, null);
+        nioServer.register(Commands.DTKV_GRANT_LEASE, p, null);
+        nioServer.register(Commands.DTKV_KEEP_ALIVE_LEASE, p, null);
+        nioServer.register(Commands.DTKV_REVOKE_LEASE, p, null);
 
         nioServer.register(Commands.DTKV_TRY_LOCK, p, null);
         nioServer.register(Commands.DTKV_UNLOCK, p, null);
@@ -159,6 +164,16 @@ public class KvServerUtil {
         return -1; // Invalid hex character
     }
 
+    static void notifyNewLockOwners(RaftGroup g, Object result) {
+        if (result instanceof KvImpl.KvResultWithNewOwnerInfo) {
+            notifyNewLockOwner(g, (KvImpl.KvResultWithNewOwnerInfo) result);
+        } else if (result instanceof KvImpl.KvResultWithNewOwners) {
+            for (KvImpl.KvResultWithNewOwnerInfo ri : ((KvImpl.KvResultWithNewOwners) result).newOwners) {
+                notifyNewLockOwner(g, ri);
+            }
+        }
+    }
+
     static void notifyNewLockOwner(RaftGroup g, KvImpl.KvResultWithNewOwnerInfo ri) {
         if (ri.getBizCode() != KvCodes.SUCCESS || ri.newOwner == null || ri.newOwner.data == null) {
             return;
@@ -17,6 +17,7 @@ package com.github.dtprj.dongting.dtkv.server;
 
 import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.IndexedQueue;
+import com.github.dtprj.dongting.common.Pair;
 import com.github.dtprj.dongting.dtkv.KvNode;
 import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FiberGroup;
@@ -28,6 +29,7 @@ import com.github.dtprj.dongting.raft.sm.SnapshotInfo;
 import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Supplier;
 
@@ -35,6 +37,12 @@ import java.util.function.Supplier;
  * @author huangli
  */
 class KvSnapshot extends Snapshot {
+    // mark a removed key in checkpoint, not conflict with KvNode flags
+    static final int FLAG_CHECKPOINT_REMOVED = 0x40000000;
+    // mark a lease record, not conflict with KvNode flags
+    static final int FLAG_LEASE_RECORD = 0x10000000;
+    private static final byte[] EMPTY_KEY = new byte[0];
+
     final Supplier<Boolean> cancel;
     private final int groupId;
     private final KvImpl kv;
@@ -42,20 +50,44 @@ class KvSnapshot extends Snapshot {
     private final long lastIncludeRaftIndex;
 
     private final Iterator<KvNodeHolder> iterator;
+    // the ttl of all leases, captured at the snapshot index, keep alive replaces the ttl instead of modify it
+    private final Iterator<TtlInfo> leases;
     private final IndexedQueue<KvNodeHolder> stack = new IndexedQueue<>(16);
-    private final HashSet<ByteArray> processedDirs = new HashSet<>();
-    private KvNode currentKvNode;
+    // dir holders (compared by identity) already encoded
+    private final HashSet<KvNodeHolder> processedDirs = new HashSet<>();
+    private boolean hasCurrent;
+
+    // for checkpoint, only the nodes changed after baseIndex and the keys removed after baseIndex are included,
+    // the iterator only contains the holders of changed keys
+    private final boolean checkpoint;
+    private final long baseIndex;
+    private final Iterator<Pair<ByteArray, Long>> removedKeys;
 
     private final EncodeStatus encodeStatus = new EncodeStatus();
 
     public KvSnapshot(int groupId, SnapshotInfo si, KvImpl kv,
                       Supplier<Boolean> cancel, DtKVExecutor dtkvExecutor) {
+        this(groupId, si, kv, cancel, dtkvExecutor, false, 0, kv.map.iterator(), null);
+    }
+
+    public KvSnapshot(int groupId, SnapshotInfo si, KvImpl kv, Supplier<Boolean> cancel, DtKVExecutor dtkvExecutor,
+                      long baseIndex, List<KvNodeHolder> changedHolders, List<Pair<ByteArray, Long>> removedKeys) {
+        this(groupId, si, kv, cancel, dtkvExecutor, true, baseIndex, changedHolders.iterator(), removedKeys);
+    }
+
+    private KvSnapshot(int groupId, SnapshotInfo si, KvImpl kv, Supplier<Boolean> cancel, DtKVExecutor dtkvExecutor,
+                       boolean checkpoint, long baseIndex, Iterator<KvNodeHolder> iterator,
+                       List<Pair<ByteArray, Long>> removedKeys) {
         super(si);
+        this.checkpoint = checkpoint;
+        this.baseIndex = baseIndex;
+        this.removedKeys = removedKeys == null ? null : removedKeys.iterator();
         this.groupId = groupId;
         this.kv = kv;
         this.cancel = cancel;
         this.lastIncludeRaftIndex = si.lastIncludedIndex;
-        this.iterator = kv.map.iterator();
+        this.iterator = iterator;
+        this.leases = kv.leaseTtls().iterator();
         this.dtkvExecutor = dtkvExecutor;
         kv.openSnapshot(this);
     }
@@ -85,17 +117,17 @@ class KvSnapshot extends Snapshot {
     int readNext0(ByteBuffer buffer) {
         int startPos = buffer.position();
         while (true) {
-            if (currentKvNode == null) {
+            if (!hasCurrent) {
                 loadNextNode();
             }
-            if (currentKvNode == null) {
+            if (!hasCurrent) {
                 // no more data
                 return buffer.position() - startPos;
             }
 
             if (encodeStatus.writeToBuffer(buffer)) {
                 encodeStatus.reset();
-                currentKvNode = null;
+                hasCurrent = false;
             } else {
                 // buffer is full
                 return buffer.position() - startPos;
@@ -104,6 +136,29 @@ class KvSnapshot extends Snapshot {
     }
 
     private void loadNextNode() {
+        if (leases.hasNext()) {
+            // leases first, so the nodes can be attached to them when install, include the leases without keys
+            TtlInfo ttlInfo = leases.next();
+            encodeStatus.keyBytes = EMPTY_KEY;
+            encodeStatus.flag = FLAG_LEASE_RECORD;
+            encodeStatus.leaseId = ttlInfo.lease.leaseId;
+            encodeStatus.uuid1 = ttlInfo.owner.getMostSignificantBits();
+            encodeStatus.uuid2 = ttlInfo.owner.getLeastSignificantBits();
+            encodeStatus.ttlRaftIndex = ttlInfo.raftIndex;
+            encodeStatus.leaderTtlStartTime = ttlInfo.leaderTtlStartMillis;
+            encodeStatus.ttlMillis = ttlInfo.ttlMillis;
+            hasCurrent = true;
+            return;
+        }
+        if (removedKeys != null && removedKeys.hasNext()) {
+            // removed keys first, in removal order, so the children are removed before the parent dir
+            Pair<ByteArray, Long> p = removedKeys.next();
+            encodeStatus.keyBytes = p.getLeft().getData();
+            encodeStatus.updateIndex = p.getRight();
+            encodeStatus.flag = FLAG_CHECKPOINT_REMOVED;
+            hasCurrent = true;
+            return;
+        }
         while (stack.size() > 0 || iterator.hasNext()) {
             KvNodeHolder h;
             KvNodeEx n;
@@ -118,11 +173,15 @@ class KvSnapshot extends Snapshot {
                 if (n == null) {
                     continue;
                 }
-                if ((n.flag & KvNode.FLAG_DIR_MASK) != 0 && processedDirs.contains(h.key)) {
+                if (checkpoint && n.updateIndex <= baseIndex && (n.ttlInfo == null || n.ttlInfo.raftIndex <= baseIndex)) {
+                    // not changed after base snapshot, the parent dir of changed node is also changed
                     continue;
                 }
-                if (h.parent != null && !processedDirs.contains(h.parent.key)) {
-                    while (h.parent != null && !processedDirs.contains(h.parent.key)) {
+                if ((n.flag & KvNode.FLAG_DIR_MASK) != 0 && processedDirs.contains(h)) {
+                    continue;
+                }
+                if (h.parent != null && !processedDirs.contains(h.parent)) {
+                    while (h.parent != null && !processedDirs.contains(h.parent)) {
                         // push parent node to stack
                         stack.addLast(h);
                         h = h.parent;
@@ -132,9 +191,9 @@ class KvSnapshot extends Snapshot {
                 }
             }
             if ((Objects.requireNonNull(n).flag & KvNode.FLAG_DIR_MASK) != 0) {
-                processedDirs.add(h.key);
+                processedDirs.add(h);
             }
-            encodeStatus.keyBytes = h.key.getData();
+            encodeStatus.keyBytes = h.key().getData();
             encodeStatus.valueBytes = n.data;
             encodeStatus.createIndex = n.createIndex;
             encodeStatus.createTime = n.createTime;
@@ -142,13 +201,18 @@ class KvSnapshot extends Snapshot {
             encodeStatus.updateTime = n.updateTime;
             encodeStatus.flag = n.flag;
             if (n.ttlInfo != null) {
-                encodeStatus.uuid1 = n.ttlInfo.owner.getMostSignificantBits();
-                encodeStatus.uuid2 = n.ttlInfo.owner.getLeastSignificantBits();
-                encodeStatus.ttlRaftIndex = n.ttlInfo.raftIndex;
-                encodeStatus.leaderTtlStartTime = n.ttlInfo.leaderTtlStartMillis;
-                encodeStatus.ttlMillis = n.ttlInfo.ttlMillis;
+                TtlInfo ttlInfo = n.ttlInfo;
+                if (ttlInfo.lease != null) {
+                    // the node expires with the lease, the ttl of lease is saved in the lease record
+                    encodeStatus.leaseId = ttlInfo.lease.leaseId;
+                }
+                encodeStatus.uuid1 = ttlInfo.owner.getMostSignificantBits();
+                encodeStatus.uuid2 = ttlInfo.owner.getLeastSignificantBits();
+                encodeStatus.ttlRaftIndex = ttlInfo.raftIndex;
+                encodeStatus.leaderTtlStartTime = ttlInfo.leaderTtlStartMillis;
+                encodeStatus.ttlMillis = ttlInfo.ttlMillis;
             }
-            currentKvNode = n;
+            hasCurrent = true;
             return;
         }
     }
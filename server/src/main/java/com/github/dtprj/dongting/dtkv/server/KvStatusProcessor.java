@@ -17,8 +17,10 @@ package com.github.dtprj.dongting.dtkv.server;
 
 import com.github.dtprj.dongting.codec.DecodeContext;
 import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
 import com.github.dtprj.dongting.dtkv.KvStatusResp;
 import com.github.dtprj.dongting.net.CmdCodes;
+import com.github.dtprj.dongting.net.Commands;
 import com.github.dtprj.dongting.net.EncodableBodyWritePacket;
 import com.github.dtprj.dongting.net.ReadPacket;
 import com.github.dtprj.dongting.net.WritePacket;
@@ -30,6 +32,8 @@ import com.github.dtprj.dongting.raft.server.RaftServer;
 import com.github.dtprj.dongting.raft.server.ReqInfo;
 
 /**
+ * Process DTKV_QUERY_STATUS and DTKV_QUERY_HOT_KEYS.
+ *
  * @author huangli
  */
 class KvStatusProcessor extends RaftProcessor<Integer> {
@@ -55,6 +59,12 @@ class KvStatusProcessor extends RaftProcessor<Integer> {
             return null;
         }
         ReqInfoEx<Integer> reqInfoEx = (ReqInfoEx<Integer>) reqInfo;
+        if (reqInfo.reqFrame.command == Commands.DTKV_QUERY_HOT_KEYS) {
+            if (!kv.dtkvExecutor.submitTaskInAnyThread(() -> writeHotKeysResp(kv, reqInfoEx))) {
+                reqInfo.reqContext.writeRespInBizThreads(createStoppedResp(reqInfoEx.raftGroup.getGroupId()));
+            }
+            return null;
+        }
         reqInfoEx.raftGroup.fiberGroup.getExecutor().execute(() -> process(reqInfoEx, kv));
         return null;
     }
@@ -75,6 +85,20 @@ class KvStatusProcessor extends RaftProcessor<Integer> {
 
     private void finishAndWriteResp(DtKV kv, KvStatusResp resp, ReqInfo<?> reqInfo) {
         resp.watchCount = kv.watchManager.updateWatchStatus(reqInfo.reqContext.getDtChannel());
+        resp.usedMemory = kv.usedMemory();
+        resp.memoryQuota = kv.kvConfig.memoryQuotaBytes;
+        EncodableBodyWritePacket wf = new EncodableBodyWritePacket(resp);
+        wf.respCode = CmdCodes.SUCCESS;
+        reqInfo.reqContext.writeRespInBizThreads(wf);
+    }
+
+    // in dtkv executor
+    private void writeHotKeysResp(DtKV kv, ReqInfo<?> reqInfo) {
+        KvHotKeysResp resp = new KvHotKeysResp();
+        HotKeyTracker t = kv.kvStatus.kvImpl.hotKeys;
+        if (t != null) {
+            t.fillResp(resp);
+        }
         EncodableBodyWritePacket wf = new EncodableBodyWritePacket(resp);
         wf.respCode = CmdCodes.SUCCESS;
         reqInfo.reqContext.writeRespInBizThreads(wf);
@@ -0,0 +1,113 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.log.BugLog;
+import com.github.dtprj.dongting.queue.MpscLinkedQueue;
+import com.github.dtprj.dongting.raft.RaftException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue the lease reads of a group, and serve them in batch in dtkv executor. There is only one executor
+ * submission for the reads arriving together, and the lease checked by a read is reused by the following
+ * reads in the same batch.
+ *
+ * @author huangli
+ */
+final class ReadBatcher<T> {
+
+    interface Reader<T> {
+        /**
+         * serve the read in dtkv executor, and write the response or error.
+         *
+         * @param leaseValid the lease is checked valid by the previous read in this batch
+         * @return true if the lease is valid after this read, so the next read need not check it again
+         */
+        boolean read(T r, boolean leaseValid);
+
+        /**
+         * write the error response of the read, called if the read throws or the executor is stopping.
+         */
+        void fail(T r, Throwable ex);
+    }
+
+    private final DtKVExecutor executor;
+    private final int maxBatch;
+    private final MpscLinkedQueue<T> queue = MpscLinkedQueue.newInstance();
+    // the count is increased after offer, so it may be negative temporarily, the producer will find it
+    private final AtomicInteger count = new AtomicInteger();
+
+    ReadBatcher(DtKVExecutor executor, int maxBatch) {
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+    }
+
+    // run in any thread, only the thread moves the count from zero submits the batch task
+    void add(T r, Reader<T> reader) {
+        queue.offer(r);
+        if (count.getAndIncrement() == 0) {
+            submitBatch(reader);
+        }
+    }
+
+    private void submitBatch(Reader<T> reader) {
+        if (executor.submitTaskInAnyThread(() -> readBatch(reader))) {
+            return;
+        }
+        // the executor is stopping, no consumer any more
+        RaftException ex = new RaftException("dtkv executor is stopping");
+        while (true) {
+            int n = 0;
+            T r;
+            while ((r = queue.relaxedPoll()) != null) {
+                n++;
+                fail(reader, r, ex);
+            }
+            if (count.addAndGet(-n) <= 0) {
+                return;
+            }
+        }
+    }
+
+    // run in dtkv executor
+    private void readBatch(Reader<T> reader) {
+        int n = 0;
+        boolean leaseValid = false;
+        T r;
+        while (n < maxBatch && (r = queue.relaxedPoll()) != null) {
+            n++;
+            try {
+                leaseValid = reader.read(r, leaseValid);
+            } catch (Throwable e) {
+                BugLog.log(e);
+                leaseValid = false;
+                fail(reader, r, e);
+            }
+        }
+        if (count.addAndGet(-n) > 0) {
+            submitBatch(reader);
+        }
+    }
+
+    private static <T> void fail(Reader<T> reader, T r, Throwable ex) {
+        try {
+            reader.fail(r, ex);
+        } catch (Throwable e) {
+            BugLog.log(e);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.github.dtprj.dongting.dtkv.server;
 
+import com.github.dtprj.dongting.codec.EncodeContext;
 import com.github.dtprj.dongting.codec.PbCallback;
 import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.Pair;
@@ -33,7 +34,9 @@ import com.github.dtprj.dongting.net.NetCodeException;
 import com.github.dtprj.dongting.net.ReadPacket;
 import com.github.dtprj.dongting.raft.RaftException;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -64,10 +67,18 @@ abstract class ServerWatchManager {
     private final Timestamp ts;
     private final KvServerConfig config;
     private final long[] retryIntervalNanos;
+    private final WatchEventHistory history;
     private int epoch;
 
+    // estimated heap cost of a watch: ChannelWatch, entries in the channel and the holder, amortized WatchHolder
+    static final int WATCH_OVERHEAD = 256;
+    // only updated in dtkv executor, may be read in other threads
+    private volatile int watchCount;
+    private long dispatchSignalNanos;
+
     private final ArrayList<Pair<ChannelWatch, WatchNotify>> pushNotifyTempList = new ArrayList<>(64);
     private final ArrayList<ChannelInfo> dispatchTempList;
+    private final EncodeContext encodeContext = new EncodeContext(null);
 
     ServerWatchManager(int groupId, Timestamp ts, KvServerConfig config) {
         this(groupId, ts, config, new long[]{1000, 10_000, 30_000, 60_000});
@@ -82,6 +93,7 @@ abstract class ServerWatchManager {
             this.retryIntervalNanos[i] = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis[i]);
         }
         dispatchTempList = new ArrayList<>(config.watchMaxBatchSize);
+        history = new WatchEventHistory(config.watchHistorySize);
     }
 
     public void reset() {
@@ -92,6 +104,22 @@ abstract class ServerWatchManager {
         needDispatch.clear();
         activeQueueHead = null;
         activeQueueTail = null;
+        history.reset();
+        watchCount = 0;
+    }
+
+    /**
+     * Estimated memory used by the watches, may be called in any thread.
+     */
+    public long usedMemory() {
+        return (long) watchCount * WATCH_OVERHEAD;
+    }
+
+    /**
+     * Called by KvImpl for each put/remove of a key (not include the parent dirs), whether it is watched or not.
+     */
+    public void recordEvent(long raftIndex, ByteArray key, int state) {
+        history.record(raftIndex, key, state);
     }
 
     void addOrUpdateActiveQueue(ChannelInfo ci) {
@@ -149,7 +177,52 @@ abstract class ServerWatchManager {
             return;
         }
         wh.waitingDispatch = true;
+        wh.clearSharedNotify();
+        boolean idle = isIdle();
         needDispatch.add(wh);
+        if (idle) {
+            startDispatchWindow();
+        } else if (needDispatch.size() == config.watchMaxBatchSize) {
+            // batch is full, no need to wait the window
+            signalDispatch();
+        }
+    }
+
+    private void addNeedNotifyChannel(ChannelInfo ci) {
+        boolean idle = isIdle();
+        needNotifyChannels.add(ci);
+        if (idle) {
+            startDispatchWindow();
+        }
+    }
+
+    private boolean isIdle() {
+        return needDispatch.isEmpty() && needNotifyChannels.isEmpty();
+    }
+
+    private void startDispatchWindow() {
+        dispatchSignalNanos = ts.nanoTime;
+        signalDispatch();
+    }
+
+    /**
+     * Called when some watches need dispatch, the implementation should wake up the dispatch task.
+     */
+    protected void signalDispatch() {
+    }
+
+    /**
+     * Return the nanos the dispatch task should wait to coalesce more updates, 0 means dispatch now.
+     */
+    public long dispatchWaitNanos() {
+        if (isIdle()) {
+            return 0;
+        }
+        if (needDispatch.size() >= config.watchMaxBatchSize) {
+            return 0;
+        }
+        long windowNanos = config.watchDispatchWindowMicros * 1000L;
+        return Math.max(0, dispatchSignalNanos + windowNanos - ts.nanoTime);
     }
 
     public void mountWatchToParent(KvNodeHolder h) {
@@ -158,9 +231,9 @@ abstract class ServerWatchManager {
             wh.lastRemoveIndex = h.updateIndex;
             KvNodeHolder parent = h.parent;
             if (parent.watchHolder == null) {
-                parent.watchHolder = new WatchHolder(parent.key, parent, null);
+                parent.watchHolder = new WatchHolder(parent.key(), parent, null);
             }
-            parent.watchHolder.addChild(h.key, wh);
+            parent.watchHolder.addChild(wh.key, wh);
             wh.parentWatchHolder = parent.watchHolder;
             wh.nodeHolder = null;
         }
@@ -171,10 +244,9 @@ abstract class ServerWatchManager {
         if (parentWh != null) {
             HashMap<ByteArray, WatchHolder> children = parentWh.children;
             if (children != null) {
-                WatchHolder wh = children.remove(h.key);
+                WatchHolder wh = children.remove(h.key());
                 if (wh != null) {
                     h.watchHolder = wh;
-                    wh.key = h.key;
                     wh.nodeHolder = h;
                     wh.parentWatchHolder = null;
                 }
@@ -187,6 +259,7 @@ abstract class ServerWatchManager {
             return;
         }
         w.removed = true;
+        watchCount--;
         WatchHolder h = w.watchHolder;
         h.watches.remove(w);
         while (h.isNoUse()) {
@@ -334,7 +407,12 @@ abstract class ServerWatchManager {
                     notifyList.add(p.getRight());
                 }
                 WatchNotifyReq req = new WatchNotifyReq(groupId, notifyList);
-                sendRequest(ci, req, watchList, epoch, it.hasNext());
+                ByteBuffer encodedReq = null;
+                if (list.size() == 1) {
+                    // the most common case that many channels watch the same key, share the encoded request
+                    encodedReq = getSharedBody(list.get(0).getLeft().watchHolder, list.get(0).getRight());
+                }
+                sendRequest(ci, req, encodedReq, watchList, epoch, it.hasNext());
             }
         } catch (Error | RuntimeException e) {
             log.error("", e);
@@ -347,36 +425,90 @@ abstract class ServerWatchManager {
         }
     }
 
-    protected abstract void sendRequest(ChannelInfo ci, WatchNotifyReq req, ArrayList<ChannelWatch> watchList,
-                                        int requestEpoch, boolean fireNext);
+    /**
+     * Send the notify request to the channel.
+     *
+     * @param encodedReq the encoded body of req shared by many channels, may be null. It's a heap buffer
+     *                   which is never modified after encode, the implementation should not change its position
+     *                   or limit, and need not release it.
+     */
+    protected abstract void sendRequest(ChannelInfo ci, WatchNotifyReq req, ByteBuffer encodedReq,
+                                        ArrayList<ChannelWatch> watchList, int requestEpoch, boolean fireNext);
 
     private WatchNotify createNotify(ChannelWatch w) {
-        KvNodeHolder node = w.watchHolder.nodeHolder;
+        WatchHolder wh = w.watchHolder;
+        KvNodeHolder node = wh.nodeHolder;
         if (node != null) {
             long updateIndex = node.latest.updateIndex;
             if (w.notifiedIndex >= updateIndex) {
                 return null;
             }
-            byte[] key = node.key.getData();
             w.notifiedIndexPending = updateIndex;
             // assert note.latest.removed == false
             if ((node.latest.flag & KvNode.FLAG_DIR_MASK) != 0) {
-                return new WatchNotify(updateIndex, WatchEvent.STATE_DIRECTORY_EXISTS, key, null);
+                // the changes depend on the index the watcher has seen
+                if (wh.sharedNotify != null && wh.sharedNotify.raftIndex == updateIndex
+                        && wh.sharedNotifySinceIndex == w.notifiedIndex) {
+                    return wh.sharedNotify;
+                }
+                // if the watcher has seen some index (maybe from another member before reconnect), and
+                // the history is not rolled over, send the changes so it need not re-list the directory
+                ArrayList<WatchNotify> changes = history.changesSince(wh.key, w.notifiedIndex,
+                        config.watchMaxReqBytes);
+                WatchNotify wn = new WatchNotify(updateIndex, WatchEvent.STATE_DIRECTORY_EXISTS,
+                        wh.key.getData(), null, changes);
+                wh.setSharedNotify(wn, w.notifiedIndex);
+                return wn;
             } else {
-                return new WatchNotify(updateIndex, WatchEvent.STATE_VALUE_EXISTS, key, node.latest.data);
+                if (wh.sharedNotify != null && wh.sharedNotify.raftIndex == updateIndex) {
+                    return wh.sharedNotify;
+                }
+                WatchNotify wn = new WatchNotify(updateIndex, WatchEvent.STATE_VALUE_EXISTS,
+                        wh.key.getData(), node.latest.data);
+                wh.setSharedNotify(wn, -1);
+                return wn;
             }
         } else {
-            long lastRemoveIndex = w.watchHolder.lastRemoveIndex;
+            long lastRemoveIndex = wh.lastRemoveIndex;
             if (w.notifiedIndex >= lastRemoveIndex) {
                 // TODO the first STATE_NOT_EXISTS notify will not be sent if watch added when kv map is empty (except for root node).
                 // lastRemoveIndex == 0 in this case
                 return null;
             } else {
                 w.notifiedIndexPending = lastRemoveIndex;
-                return new WatchNotify(lastRemoveIndex, WatchEvent.STATE_NOT_EXISTS,
-                        w.watchHolder.key.getData(), null);
+                if (wh.sharedNotify != null && wh.sharedNotify.raftIndex == lastRemoveIndex) {
+                    return wh.sharedNotify;
+                }
+                WatchNotify wn = new WatchNotify(lastRemoveIndex, WatchEvent.STATE_NOT_EXISTS,
+                        wh.key.getData(), null);
+                wh.setSharedNotify(wn, -1);
+                return wn;
+            }
+        }
+    }
+
+    private ByteBuffer getSharedBody(WatchHolder wh, WatchNotify wn) {
+        if (wh.sharedNotify != wn) {
+            return null;
+        }
+        if (wh.sharedBody == null) {
+            WatchNotifyReq req = new WatchNotifyReq(groupId, Collections.singletonList(wn));
+            ByteBuffer buf = ByteBuffer.allocate(req.actualSize());
+            EncodeContext c = encodeContext;
+            try {
+                if (!req.encode(c, buf)) {
+                    BugLog.log("encode watch notify failed");
+                    return null;
+                }
+            } finally {
+                c.reset();
             }
+            buf.flip();
+            // a plain heap buffer, not pooled, since it's shared by io threads and reclaimed by gc.
+            // it is immutable after encode, and can be read by multiple io threads
+            wh.sharedBody = buf;
         }
+        return wh.sharedBody;
     }
 
     public void processNotifyResult(ChannelInfo ci, ArrayList<ChannelWatch> watches,
@@ -440,7 +572,7 @@ abstract class ServerWatchManager {
                 } else if (fireNext) {
                     pushNotify(ci);
                 } else if (ci.needNotify != null && !ci.needNotify.isEmpty()) {
-                    needNotifyChannels.add(ci);
+                    addNeedNotifyChannel(ci);
                 }
             } else if (result.bizCode == KvCodes.REMOVE_ALL_WATCH) {
                 removeByChannel(ci.channel);
@@ -512,7 +644,7 @@ abstract class ServerWatchManager {
                 }
                 ci.addNeedNotify(w);
                 if (ci.failCount == 0 && !ci.pending) {
-                    needNotifyChannels.add(ci);
+                    addNeedNotifyChannel(ci);
                 }
             } else {
                 ChannelWatch w = ci.watches.remove(key);
@@ -543,6 +675,7 @@ abstract class ServerWatchManager {
         WatchHolder wh = ensureWatchHolder(kv, key, nodeHolder);
         ChannelWatch w = new ChannelWatch(wh, ci, notifiedIndex);
         wh.watches.add(w);
+        watchCount++;
         return w;
     }
 
@@ -551,7 +684,7 @@ abstract class ServerWatchManager {
         if (nodeHolder != null) {
             if (!nodeHolder.latest.removed) {
                 if (nodeHolder.watchHolder == null) {
-                    nodeHolder.watchHolder = new WatchHolder(nodeHolder.key, nodeHolder, null);
+                    nodeHolder.watchHolder = new WatchHolder(key, nodeHolder, null);
                 }
                 // mount to node with same key
                 return nodeHolder.watchHolder;
@@ -564,7 +697,7 @@ abstract class ServerWatchManager {
             parentKey = KvImpl.parentKey(key);
             parent = kv.map.get(parentKey);
         } else {
-            parentKey = parent.key;
+            parentKey = parent.key();
         }
         WatchHolder parentWatchHolder = ensureWatchHolder(kv, parentKey, parent);
         WatchHolder watchHolder = parentWatchHolder.getChild(key);
@@ -661,6 +794,11 @@ final class WatchHolder {
 
     boolean waitingDispatch;
 
+    // the notify (and its encoded request body) of last dispatch, shared by all watches of this key
+    WatchNotify sharedNotify;
+    long sharedNotifySinceIndex;
+    ByteBuffer sharedBody;
+
     WatchHolder(ByteArray key, KvNodeHolder nodeHolder, WatchHolder parentWatchHolder) {
         this.key = key;
         this.nodeHolder = nodeHolder;
@@ -675,6 +813,17 @@ final class WatchHolder {
         }
     }
 
+    void setSharedNotify(WatchNotify wn, long sinceIndex) {
+        this.sharedNotify = wn;
+        this.sharedNotifySinceIndex = sinceIndex;
+        this.sharedBody = null;
+    }
+
+    void clearSharedNotify() {
+        this.sharedNotify = null;
+        this.sharedBody = null;
+    }
+
     public boolean isNoUse() {
         return watches.isEmpty() && (children == null || children.isEmpty());
     }
@@ -22,7 +22,11 @@ import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.raft.impl.RaftRole;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -37,6 +41,8 @@ class TtlManager {
 
     final TreeSet<TtlInfo> ttlQueue = new TreeSet<>();
     final TreeSet<TtlInfo> pendingQueue = new TreeSet<>();
+    // lease id -> lease, the lease id is the raft index of the grant operation
+    final HashMap<Long, Lease> leases = new HashMap<>();
     final TtlTask task;
     boolean stop;
     private RaftRole role;
@@ -138,7 +144,9 @@ class TtlManager {
         if (ctx.ttlMillis <= 0) {
             return;
         }
-        if (addNodeTtlAndAddToQueue(raftIndex, key, n, ctx)) {
+        if (ctx.leaseId != 0) {
+            attachToLease(raftIndex, key, n, ctx);
+        } else if (addNodeTtlAndAddToQueue(raftIndex, key, n, ctx)) {
             task.signal();
         }
     }
@@ -158,7 +166,9 @@ class TtlManager {
             return;
         }
         doRemove(ttlInfo);
-        if (addNodeTtlAndAddToQueue(raftIndex, key, newNode, ctx)) {
+        if (ctx.leaseId != 0) {
+            attachToLease(raftIndex, key, newNode, ctx);
+        } else if (addNodeTtlAndAddToQueue(raftIndex, key, newNode, ctx)) {
             task.signal();
         }
     }
@@ -171,6 +181,20 @@ class TtlManager {
         return ttlQueue.first() == ttlInfo;
     }
 
+    // the node attached to a lease is not in the queue, it expires with the lease
+    private void attachToLease(long raftIndex, ByteArray key, KvNodeEx n, KvImpl.OpContext ctx) {
+        Lease lease = leases.get(ctx.leaseId);
+        if (lease == null) {
+            // checked by KvImpl before put
+            BugLog.logAndThrow("lease not found: " + ctx.leaseId);
+            return;
+        }
+        TtlInfo lt = lease.ttlInfo;
+        n.ttlInfo = new TtlInfo(key, raftIndex, lease.owner, lt.leaderTtlStartMillis, lt.ttlMillis,
+                lt.expireNanos, ttlInfoIndex++, lease);
+        lease.keys.add(key);
+    }
+
     public void remove(KvNodeEx n) {
         doRemove(n.ttlInfo);
     }
@@ -179,11 +203,93 @@ class TtlManager {
         if (ti == null) {
             return;
         }
+        if (ti.lease != null && ti.key != null) {
+            ti.lease.keys.remove(ti.key);
+            return;
+        }
         if (!ttlQueue.remove(ti)) {
             pendingQueue.remove(ti);
         }
     }
 
+    public Lease getLease(long leaseId) {
+        return leases.get(leaseId);
+    }
+
+    public void grantLease(long raftIndex, KvImpl.OpContext ctx) {
+        if (leases.containsKey(raftIndex)) {
+            return;
+        }
+        Lease lease = new Lease(raftIndex, ctx.operator);
+        leases.put(raftIndex, lease);
+        if (addLeaseTtlAndAddToQueue(raftIndex, lease, ctx)) {
+            task.signal();
+        }
+    }
+
+    // this method should be idempotent, the ttl of lease is not changed by keep alive
+    public void keepAliveLease(long raftIndex, Lease lease, KvImpl.OpContext ctx) {
+        if (lease.ttlInfo.raftIndex >= raftIndex) {
+            return;
+        }
+        ctx.ttlMillis = lease.ttlInfo.ttlMillis;
+        doRemove(lease.ttlInfo);
+        if (addLeaseTtlAndAddToQueue(raftIndex, lease, ctx)) {
+            task.signal();
+        }
+    }
+
+    // called when install snapshot or checkpoint, the lease is rebuilt from the lease record
+    public void installLease(long raftIndex, long leaseId, KvImpl.OpContext ctx) {
+        Lease lease = leases.get(leaseId);
+        if (lease == null) {
+            lease = new Lease(leaseId, ctx.operator);
+            leases.put(leaseId, lease);
+        } else if (lease.ttlInfo.raftIndex >= raftIndex) {
+            return;
+        } else {
+            doRemove(lease.ttlInfo);
+        }
+        if (addLeaseTtlAndAddToQueue(raftIndex, lease, ctx)) {
+            task.signal();
+        }
+    }
+
+    // called after install checkpoint, the leases not in the checkpoint are revoked or expired after the base snapshot
+    public void retainLeases(Set<Long> leaseIds) {
+        ArrayList<Lease> list = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            if (!leaseIds.contains(lease.leaseId)) {
+                list.add(lease);
+            }
+        }
+        for (Lease lease : list) {
+            removeLease(lease);
+        }
+    }
+
+    public void removeLease(Lease lease) {
+        doRemove(lease.ttlInfo);
+        leases.remove(lease.leaseId);
+    }
+
+    private boolean addLeaseTtlAndAddToQueue(long raftIndex, Lease lease, KvImpl.OpContext ctx) {
+        TtlInfo ttlInfo = new TtlInfo(null, raftIndex, lease.owner, ctx.leaderCreateTimeMillis, ctx.ttlMillis,
+                ctx.localCreateNanos + ctx.ttlMillis * 1_000_000, ttlInfoIndex++, lease);
+        lease.ttlInfo = ttlInfo;
+        ttlQueue.add(ttlInfo);
+        return ttlQueue.first() == ttlInfo;
+    }
+
+    /**
+     * called before install snapshot, the ttl of new nodes will be added by KvImpl.installSnapshotPut
+     */
+    public void reset() {
+        ttlQueue.clear();
+        pendingQueue.clear();
+        leases.clear();
+    }
+
     public void roleChange(RaftRole newRole) {
         try {
             role = newRole;
@@ -199,6 +305,7 @@ class TtlManager {
 
 final class TtlInfo implements Comparable<TtlInfo> {
 
+    // null if this is the ttl of a lease
     final ByteArray key;
     final long raftIndex;
     final UUID owner;
@@ -206,12 +313,19 @@ final class TtlInfo implements Comparable<TtlInfo> {
     final long ttlMillis;
     final long expireNanos;
     private final int ttlInfoIndex;
+    // not null if the node is attached to a lease, or this is the ttl of the lease itself
+    final Lease lease;
 
     boolean expireFailed;
     long lastFailNanos;
 
     TtlInfo(ByteArray key, long raftIndex, UUID owner, long leaderTtlStartMillis, long ttlMillis,
             long expireNanos, int ttlInfoIndex) {
+        this(key, raftIndex, owner, leaderTtlStartMillis, ttlMillis, expireNanos, ttlInfoIndex, null);
+    }
+
+    TtlInfo(ByteArray key, long raftIndex, UUID owner, long leaderTtlStartMillis, long ttlMillis,
+            long expireNanos, int ttlInfoIndex, Lease lease) {
         this.key = key;
         this.raftIndex = raftIndex;
         this.owner = owner;
@@ -219,6 +333,7 @@ final class TtlInfo implements Comparable<TtlInfo> {
         this.ttlMillis = ttlMillis;
         this.expireNanos = expireNanos;
         this.ttlInfoIndex = ttlInfoIndex;
+        this.lease = lease;
     }
 
     @Override
@@ -235,3 +350,17 @@ final class TtlInfo implements Comparable<TtlInfo> {
         }
     }
 }
+
+final class Lease {
+    final long leaseId;
+    final UUID owner;
+    // replaced by keep alive, so the snapshot can hold the old one as a frozen copy
+    TtlInfo ttlInfo;
+    // the keys of temp nodes and temp dirs attached to this lease
+    final HashSet<ByteArray> keys = new HashSet<>();
+
+    Lease(long leaseId, UUID owner) {
+        this.leaseId = leaseId;
+        this.owner = owner;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.dtkv.KvClientConfig;
+import com.github.dtprj.dongting.dtkv.WatchNotify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Bounded ring buffer of recent change events (raft index, key, state) of a group, used to send
+ * the changed descendants to a directory watcher instead of letting it re-list the whole directory.
+ * Run in dtkv executor.
+ *
+ * @author huangli
+ */
+final class WatchEventHistory {
+    private final long[] indexes;
+    private final int[] states;
+    private final ByteArray[] keys;
+
+    private int head; // next write position
+    private int size;
+
+    // the history contains all events whose raft index is greater than this, -1 means no event recorded
+    private long floorIndex = -1;
+
+    WatchEventHistory(int capacity) {
+        this.indexes = new long[capacity];
+        this.states = new int[capacity];
+        this.keys = new ByteArray[capacity];
+    }
+
+    public void reset() {
+        head = 0;
+        size = 0;
+        floorIndex = -1;
+        Arrays.fill(keys, null);
+    }
+
+    public void record(long raftIndex, ByteArray key, int state) {
+        int capacity = indexes.length;
+        if (capacity == 0) {
+            return;
+        }
+        if (floorIndex < 0) {
+            // events before this index are not recorded (before startup, or install snapshot)
+            floorIndex = raftIndex - 1;
+        }
+        if (size == capacity) {
+            // the oldest is overwritten, there may be other events with same index, but they are older too
+            floorIndex = Math.max(floorIndex, indexes[head]);
+        } else {
+            size++;
+        }
+        indexes[head] = raftIndex;
+        states[head] = state;
+        keys[head] = key;
+        head = head + 1 == capacity ? 0 : head + 1;
+    }
+
+    /**
+     * Return the changes of the dir and its descendants whose raft index is greater than sinceIndex,
+     * ordered by raft index. Return null if the history is not complete after sinceIndex, or the
+     * total key bytes exceed maxBytes.
+     */
+    public ArrayList<WatchNotify> changesSince(ByteArray dirKey, long sinceIndex, int maxBytes) {
+        if (sinceIndex <= 0 || floorIndex < 0 || sinceIndex < floorIndex) {
+            return null;
+        }
+        ArrayList<WatchNotify> list = new ArrayList<>();
+        int bytes = 0;
+        int capacity = indexes.length;
+        int pos = head;
+        for (int i = 0; i < size; i++) {
+            pos = pos == 0 ? capacity - 1 : pos - 1;
+            if (indexes[pos] <= sinceIndex) {
+                break;
+            }
+            ByteArray k = keys[pos];
+            if (isSelfOrDescendant(dirKey, k)) {
+                bytes += k.length;
+                if (bytes > maxBytes) {
+                    return null;
+                }
+                list.add(new WatchNotify(indexes[pos], states[pos], k.getData(), null));
+            }
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    private static boolean isSelfOrDescendant(ByteArray dirKey, ByteArray key) {
+        int dirLen = dirKey.length;
+        if (dirLen == 0) {
+            // root dir
+            return true;
+        }
+        if (key.length < dirLen) {
+            return false;
+        }
+        // keys in kv map are not slice, getData() will not copy
+        byte[] k = key.getData();
+        if (k.length > dirLen && k[dirLen] != KvClientConfig.SEPARATOR) {
+            return false;
+        }
+        byte[] d = dirKey.getData();
+        for (int i = 0; i < dirLen; i++) {
+            if (k[i] != d[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
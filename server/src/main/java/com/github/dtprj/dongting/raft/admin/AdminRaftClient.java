@@ -109,12 +109,24 @@ public class AdminRaftClient extends RaftClient {
     public CompletableFuture<Long> prepareChange(int groupId, Set<Integer> oldMembers, Set<Integer> oldObservers,
                                                  Set<Integer> newMembers, Set<Integer> newObservers,
                                                  DtTime timeout) {
+        return prepareChange(groupId, oldMembers, oldObservers, newMembers, newObservers, 0, timeout);
+    }
+
+    /**
+     * Prepare config change, the new nodes install snapshot from the snapshotSourceId member instead of the
+     * leader, 0 means the leader, -1 means choose a healthy follower automatically.
+     * Notice this method is idempotent.
+     */
+    public CompletableFuture<Long> prepareChange(int groupId, Set<Integer> oldMembers, Set<Integer> oldObservers,
+                                                 Set<Integer> newMembers, Set<Integer> newObservers,
+                                                 int snapshotSourceId, DtTime timeout) {
         AdminPrepareConfigChangeReq req = new AdminPrepareConfigChangeReq();
         req.groupId = groupId;
         req.members = new HashSet<>(oldMembers);
         req.observers = new HashSet<>(oldObservers);
         req.preparedMembers = new HashSet<>(newMembers);
         req.preparedObservers = new HashSet<>(newObservers);
+        req.snapshotSourceId = snapshotSourceId;
         SimpleWritePacket p = new SimpleWritePacket(Commands.RAFT_ADMIN_PREPARE_CHANGE, req);
 
         DecoderCallbackCreator<Long> dc = PbLongCallback.CALLBACK_CREATOR;
@@ -158,7 +170,7 @@ public class AdminRaftClient extends RaftClient {
         return sendByNodeId(nodeId, timeout, p, DecoderCallbackCreator.VOID_DECODE_CALLBACK_CREATOR);
     }
 
-    private <T> CompletableFuture<T> sendByNodeId(int nodeId, DtTime timeout, WritePacket p, DecoderCallbackCreator<T> dc) {
+    protected <T> CompletableFuture<T> sendByNodeId(int nodeId, DtTime timeout, WritePacket p, DecoderCallbackCreator<T> dc) {
         RaftNode n = getNode(nodeId);
         if (n == null) {
             return DtUtil.failedFuture(new RaftException("node not found: " + nodeId));
@@ -172,10 +184,20 @@ public class AdminRaftClient extends RaftClient {
      * Add and start a new raft group on the specified node, the future completes after the group initialized.
      */
     public CompletableFuture<Void> serverAddGroup(int nodeId, int groupId, String members, String observers, DtTime timeout) {
+        return serverAddGroup(nodeId, groupId, members, observers, null, timeout);
+    }
+
+    /**
+     * Add and start a new raft group on the specified node, the future completes after the group initialized.
+     * The witnesses is a subset of members, which vote and persist logs but have no state machine data.
+     */
+    public CompletableFuture<Void> serverAddGroup(int nodeId, int groupId, String members, String observers,
+                                                  String witnesses, DtTime timeout) {
         AdminAddGroupReq req = new AdminAddGroupReq();
         req.groupId = groupId;
         req.nodeIdOfMembers = members;
         req.nodeIdOfObservers = observers;
+        req.nodeIdOfWitnesses = witnesses;
         SimpleWritePacket p = new SimpleWritePacket(Commands.RAFT_ADMIN_ADD_GROUP, req);
         return sendByNodeId(nodeId, timeout, p);
     }
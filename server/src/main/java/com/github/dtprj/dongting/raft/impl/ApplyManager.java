@@ -78,6 +78,7 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
 
     private final PriorityQueue<Pair<DtTime, CompletableFuture<Void>>> waitReadyQueue;
     private final LinkedList<FiberFuture<Snapshot>> takeSnapshotRequests = new LinkedList<>();
+    private final LinkedList<Pair<Long, FiberFuture<Snapshot>>> takeCheckpointRequests = new LinkedList<>();
 
     private int execCount = 0;
 
@@ -177,8 +178,9 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
             case LogItem.TYPE_NORMAL:
             case LogItem.TYPE_LOG_READ: {
                 RaftInput input = rt.input;
-                if (input.readOnly && rt.callback == null) {
-                    // no need to execute read only task if no one wait for result
+                if ((input.readOnly && rt.callback == null) || raftStatus.witness) {
+                    // no need to execute read only task if no one wait for result,
+                    // and witness never apply logs to state machine
                     afterExec(index, rt, null, null);
                 } else {
                     long t = perfCallback.takeTimeAndRefresh(PerfConsts.RAFT_D_STATE_MACHINE_EXEC, ts);
@@ -320,6 +322,9 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
             raftStatus.initFuture.complete(null);
         }
         if (processWaitGroupReadyQueue) {
+            if (!raftStatus.firstReadyFuture.isDone()) {
+                raftStatus.firstReadyFuture.complete(null);
+            }
             processWaitGroupReadyQueue(false, false);
         }
 
@@ -370,6 +375,13 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
         return future;
     }
 
+    public FiberFuture<Snapshot> requestTakeCheckpoint(long baseIndex) {
+        FiberFuture<Snapshot> future = fiberGroup.newFuture("take-checkpoint");
+        takeCheckpointRequests.add(new Pair<>(baseIndex, future));
+        wakeupApply();
+        return future;
+    }
+
     private class ApplyFrame extends FiberFrame<Void> {
 
         private RaftLog.LogIterator logIterator;
@@ -405,7 +417,7 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
             }
             RaftStatusImpl raftStatus = ApplyManager.this.raftStatus;
             long diff = raftStatus.commitIndex - raftStatus.lastApplying;
-            if (!takeSnapshotRequests.isEmpty()) {
+            if (!takeSnapshotRequests.isEmpty() || !takeCheckpointRequests.isEmpty()) {
                 return Fiber.call(new TakeSnapshotFrame(), this);
             } else if (diff == 0) {
                 return needApplyCond.await(this);
@@ -563,6 +575,8 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
             Set<Integer> oldObserverIds = parseSet(fields[1]);
             Set<Integer> newMemberIds = parseSet(fields[2]);
             Set<Integer> newObserverIds = parseSet(fields[3]);
+            // the log item written by old version has no snapshot source
+            int snapshotSourceId = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
             if (!oldMemberIds.equals(raftStatus.nodeIdOfMembers)) {
                 log.error("oldMemberIds not match, oldMemberIds={}, currentMembers={}, groupId={}",
                         oldMemberIds, raftStatus.nodeIdOfMembers, raftStatus.groupId);
@@ -571,7 +585,7 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
                 log.error("oldObserverIds not match, oldObserverIds={}, currentObservers={}, groupId={}",
                         oldObserverIds, raftStatus.nodeIdOfObservers, raftStatus.groupId);
             }
-            return gc.memberManager.doPrepare(rt.item.index, newMemberIds, newObserverIds);
+            return gc.memberManager.doPrepare(rt.item.index, newMemberIds, newObserverIds, snapshotSourceId);
         }
 
         private Set<Integer> parseSet(String s) {
@@ -589,9 +603,18 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
 
     private class TakeSnapshotFrame extends FiberFrame<Void> {
         private final FiberFuture<Snapshot> snapshotFuture;
+        // -1 means take a full snapshot
+        private final long checkpointBaseIndex;
 
         TakeSnapshotFrame() {
-            this.snapshotFuture = takeSnapshotRequests.pollFirst();
+            if (!takeSnapshotRequests.isEmpty()) {
+                this.snapshotFuture = takeSnapshotRequests.pollFirst();
+                this.checkpointBaseIndex = -1;
+            } else {
+                Pair<Long, FiberFuture<Snapshot>> p = takeCheckpointRequests.pollFirst();
+                this.snapshotFuture = p.getRight();
+                this.checkpointBaseIndex = p.getLeft();
+            }
         }
 
         @Override
@@ -609,7 +632,15 @@ public class ApplyManager implements Comparator<Pair<DtTime, CompletableFuture<V
                 return Fiber.frameReturn();
             }
             SnapshotInfo si = new SnapshotInfo(raftStatus);
-            FiberFuture<Snapshot> f = stateMachine.takeSnapshot(si);
+            FiberFuture<Snapshot> f;
+            if (checkpointBaseIndex < 0) {
+                f = stateMachine.takeSnapshot(si);
+            } else {
+                f = stateMachine.takeCheckpoint(si, checkpointBaseIndex);
+                if (f == null) {
+                    return afterTake(null);
+                }
+            }
             return f.await(this::afterTake);
         }
 
@@ -140,6 +140,8 @@ public class CommitManager {
     private void commit(long newCommitIndex) {
         raftStatus.commitIndex = newCommitIndex;
         applyManager.wakeupApply();
+        // wake up log fetch requests
+        raftStatus.logCommitCondition.signalAll();
     }
 
     public void updateCommitHistory(long newCommitIndex) {
@@ -0,0 +1,251 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.impl;
+
+import com.github.dtprj.dongting.buf.RefBuffer;
+import com.github.dtprj.dongting.buf.RefBufferFactory;
+import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.fiber.Fiber;
+import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.log.DtLog;
+import com.github.dtprj.dongting.log.DtLogs;
+import com.github.dtprj.dongting.net.Commands;
+import com.github.dtprj.dongting.net.ReadPacket;
+import com.github.dtprj.dongting.net.RpcCallback;
+import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.rpc.AppendResp;
+import com.github.dtprj.dongting.raft.rpc.InstallSnapshotReq;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.Snapshot;
+import com.github.dtprj.dongting.raft.sm.SnapshotInfo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Run on a follower (or observer) when the leader delegates the snapshot install of a new member to it.
+ * The install requests carry the leader id, so the target node treats them as sent by the leader.
+ * Return the last included index of the installed snapshot, the leader replicates the rest logs after it.
+ *
+ * @author huangli
+ */
+public class DelegateInstallFrame extends FiberFrame<Long> {
+    private static final DtLog log = DtLogs.getLogger(DelegateInstallFrame.class);
+
+    private static final DecoderCallbackCreator<AppendResp> APPEND_RESP_DECODER_CALLBACK_CREATOR = ctx -> {
+        AppendResp.Callback c = ((DecodeContextEx) ctx).appendRespCallback();
+        return ctx.toDecoderCallback(c);
+    };
+
+    private final GroupComponents gc;
+    private final RaftStatusImpl raftStatus;
+    private final RaftGroupConfigEx groupConfig;
+    private final RaftServerConfig serverConfig;
+    private final int groupId;
+    private final int term;
+    private final int leaderId;
+    private final int targetNodeId;
+    private final long deadlineNanos;
+    private final long waitTargetDeadlineNanos;
+
+    private RaftMember target;
+    private Snapshot snapshot;
+    private long nextPos;
+    private long offset;
+
+    public DelegateInstallFrame(GroupComponents gc, int term, int leaderId, int targetNodeId) {
+        this.gc = gc;
+        this.raftStatus = gc.raftStatus;
+        this.groupConfig = gc.groupConfig;
+        this.serverConfig = gc.serverConfig;
+        this.groupId = groupConfig.groupId;
+        this.term = term;
+        this.leaderId = leaderId;
+        this.targetNodeId = targetNodeId;
+        long now = raftStatus.ts.nanoTime;
+        this.deadlineNanos = now + TimeUnit.SECONDS.toNanos(groupConfig.delegateInstallTimeoutSeconds);
+        this.waitTargetDeadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(serverConfig.rpcTimeout);
+    }
+
+    private boolean shouldStop() {
+        if (isGroupShouldStopPlain()) {
+            return true;
+        }
+        RaftRole role = raftStatus.getRole();
+        if (role != RaftRole.follower && role != RaftRole.observer) {
+            return true;
+        }
+        if (raftStatus.currentTerm != term || raftStatus.installSnapshot) {
+            return true;
+        }
+        RaftMember leader = raftStatus.getCurrentLeader();
+        if (leader == null || leader.node.nodeId != leaderId) {
+            return true;
+        }
+        return raftStatus.ts.nanoTime - deadlineNanos > 0;
+    }
+
+    private void checkStop() {
+        if (shouldStop()) {
+            throw new RaftCancelException("delegate install cancelled, groupId=" + groupId
+                    + ", target=" + targetNodeId);
+        }
+    }
+
+    @Override
+    public FrameCallResult execute(Void input) {
+        checkStop();
+        target = findTarget();
+        if (target == null) {
+            // the leader may apply the config change earlier than this node, wait a while
+            if (raftStatus.ts.nanoTime - waitTargetDeadlineNanos > 0) {
+                throw new RaftException("target node is not member of the group: " + targetNodeId);
+            }
+            return raftStatus.logCommitCondition.await(100, this);
+        }
+        log.info("begin delegate install snapshot: target={}, groupId={}", targetNodeId, groupId);
+        FiberFuture<Snapshot> f = gc.applyManager.requestTakeSnapshot();
+        return f.await(this::afterTakeSnapshot);
+    }
+
+    private RaftMember findTarget() {
+        List<RaftMember> list = raftStatus.replicateList;
+        for (int i = 0, size = list.size(); i < size; i++) {
+            RaftMember m = list.get(i);
+            if (m.node.nodeId == targetNodeId && !m.node.self) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private FrameCallResult afterTakeSnapshot(Snapshot snapshot) {
+        if (snapshot == null) {
+            throw new RaftException("open recent snapshot fail");
+        }
+        this.snapshot = snapshot;
+        FiberFrame<Long> f = gc.raftLog.loadNextItemPos(snapshot.getSnapshotInfo().lastIncludedIndex);
+        return Fiber.call(f, this::afterLoadNextItemPos);
+    }
+
+    private FrameCallResult afterLoadNextItemPos(Long nextPos) {
+        checkStop();
+        this.nextPos = nextPos;
+        // send the first request, no data
+        return sendInstallSnapshotReq(null, true, false).await(this::startReader);
+    }
+
+    private FrameCallResult startReader(Void v) {
+        checkStop();
+        RefBufferFactory heapPool = groupConfig.fiberGroup.dispatcher.thread.heapPool;
+        Supplier<RefBuffer> bufferCreator = () -> heapPool.create(groupConfig.replicateSnapshotBufferSize);
+        SnapshotReader reader = new SnapshotReader(snapshot, groupConfig.snapshotConcurrency,
+                groupConfig.replicateSnapshotConcurrency, this::readerCallback, this::shouldStop, bufferCreator);
+        return Fiber.call(reader, this::afterReaderFinish);
+    }
+
+    private FiberFuture<Void> readerCallback(RefBuffer buf, Integer readBytes) {
+        buf.getBuffer().clear();
+        buf.getBuffer().limit(readBytes);
+        return sendInstallSnapshotReq(buf, false, false);
+    }
+
+    private FrameCallResult afterReaderFinish(Void v) {
+        checkStop();
+        return sendInstallSnapshotReq(null, false, true).await(this::afterInstallFinish);
+    }
+
+    private FrameCallResult afterInstallFinish(Void v) {
+        long idx = snapshot.getSnapshotInfo().lastIncludedIndex;
+        log.info("delegate install snapshot finished: target={}, groupId={}, lastIncludedIndex={}",
+                targetNodeId, groupId, idx);
+        setResult(idx);
+        return Fiber.frameReturn();
+    }
+
+    private FiberFuture<Void> sendInstallSnapshotReq(RefBuffer data, boolean start, boolean finish) {
+        SnapshotInfo si = snapshot.getSnapshotInfo();
+        InstallSnapshotReq req = new InstallSnapshotReq();
+        req.groupId = groupId;
+        req.term = term;
+        req.leaderId = leaderId;
+        req.lastIncludedIndex = si.lastIncludedIndex;
+        req.lastIncludedTerm = si.lastIncludedTerm;
+        req.offset = offset;
+        if (data != null) {
+            offset += data.getBuffer().remaining();
+        }
+
+        if (start) {
+            req.members = si.members;
+            req.observers = si.observers;
+            req.preparedMembers = si.preparedMembers;
+            req.preparedObservers = si.preparedObservers;
+            req.lastConfigChangeIndex = si.lastConfigChangeIndex;
+        }
+        if (finish) {
+            req.done = true;
+            req.nextWritePos = nextPos;
+        }
+        req.data = data;
+
+        // data buffer released in WritePacket
+        InstallSnapshotReq.InstallReqWritePacket wf = new InstallSnapshotReq.InstallReqWritePacket(req);
+        wf.command = Commands.RAFT_INSTALL_SNAPSHOT;
+        FiberGroup fg = groupConfig.fiberGroup;
+        FiberFuture<Void> f = fg.newFuture("delegateInstall-" + groupId + "-" + req.offset);
+        DtTime timeout = new DtTime(serverConfig.rpcTimeout, TimeUnit.MILLISECONDS);
+        RpcCallback<AppendResp> callback = (resp, ex) ->
+                fg.getExecutor().execute(() -> afterInstallRpc(resp, ex, f));
+        gc.replicateManager.client.sendRequest(target.node.peer, wf, APPEND_RESP_DECODER_CALLBACK_CREATOR,
+                timeout, callback);
+        return f;
+    }
+
+    private void afterInstallRpc(ReadPacket<AppendResp> rf, Throwable ex, FiberFuture<Void> f) {
+        if (ex != null) {
+            f.completeExceptionally(ex);
+            return;
+        }
+        AppendResp respBody = rf.getBody();
+        if (!respBody.success) {
+            f.completeExceptionally(new RaftException("install snapshot fail. remoteNode="
+                    + targetNodeId + ", groupId=" + groupId));
+            return;
+        }
+        if (respBody.term != term) {
+            f.completeExceptionally(new RaftException("term not match. remoteNode=" + targetNodeId
+                    + ", groupId=" + groupId + ", remoteTerm=" + respBody.term + ", localTerm=" + term));
+            return;
+        }
+        f.complete(null);
+    }
+
+    @Override
+    protected FrameCallResult doFinally() {
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        return Fiber.frameReturn();
+    }
+}
@@ -47,6 +47,19 @@ public class FileUtil {
         return dir;
     }
 
+    // total bytes of files in the dir (recursive), return 0 if the dir not exists
+    public static long dirSize(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = 0;
+        for (File f : files) {
+            size += f.isDirectory() ? dirSize(f) : f.length();
+        }
+        return size;
+    }
+
     public static String baseName(File f) {
         String name = f.getName();
         int i = name.lastIndexOf('.');
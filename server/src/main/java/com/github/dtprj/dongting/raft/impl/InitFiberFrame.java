@@ -100,6 +100,7 @@ public class InitFiberFrame extends FiberFrame<Void> {
         raftStatus.needRepCondition = fg.newCondition("needRep" + groupId);
         raftStatus.logForceFinishCondition = fg.newCondition("logSyncFinish" + groupId);
         raftStatus.logWriteFinishCondition = fg.newCondition("logWriteFinish" + groupId);
+        raftStatus.logCommitCondition = fg.newCondition("logCommit" + groupId);
     }
 
     private FrameCallResult afterInitStatusFile(Void unused) {
@@ -155,17 +156,38 @@ public class InitFiberFrame extends FiberFrame<Void> {
         if (cancelInit()) {
             return Fiber.frameReturn();
         }
-        FiberFrame<Void> f = gc.snapshotManager.recover(snapshot);
-        return Fiber.call(f, v -> afterRecoverStateMachine(snapshot));
+        FiberFrame<SnapshotInfo> f = gc.snapshotManager.recover(snapshot);
+        return Fiber.call(f, si -> afterRecover(snapshot.getSnapshotInfo(), si));
     }
 
-    private FrameCallResult afterRecoverStateMachine(Snapshot snapshot) {
+    private FrameCallResult afterRecover(SnapshotInfo snapshotInfo, SnapshotInfo recoverInfo) {
+        if (cancelInit()) {
+            return Fiber.frameReturn();
+        }
+        if (recoverInfo == null || recoverInfo == snapshotInfo) {
+            return afterRecoverStateMachine(snapshotInfo);
+        }
+        // recovered from a checkpoint newer than the snapshot, lastSavedSnapshotIndex keeps the snapshot index,
+        // so the raft logs after the snapshot are not deleted.
+        log.info("recover from checkpoint, snapshotIndex={}, checkpointIndex={}, groupId={}",
+                snapshotInfo.lastIncludedIndex, recoverInfo.lastIncludedIndex, groupConfig.groupId);
+        if (recoverInfo.lastConfigChangeIndex == snapshotInfo.lastConfigChangeIndex) {
+            return afterRecoverStateMachine(recoverInfo);
+        }
+        gc.raftStatus.lastConfigChangeIndex = recoverInfo.lastConfigChangeIndex;
+        FiberFrame<Void> f = gc.memberManager.applyConfigFrame(
+                "state machine recover apply checkpoint config change",
+                recoverInfo.members, recoverInfo.observers, recoverInfo.preparedMembers, recoverInfo.preparedObservers);
+        return Fiber.call(f, v -> afterRecoverStateMachine(recoverInfo));
+    }
+
+    private FrameCallResult afterRecoverStateMachine(SnapshotInfo si) {
         if (cancelInit()) {
             return Fiber.frameReturn();
         }
 
-        int snapshotTerm = snapshot == null ? 0 : snapshot.getSnapshotInfo().lastIncludedTerm;
-        long snapshotIndex = snapshot == null ? 0 : snapshot.getSnapshotInfo().lastIncludedIndex;
+        int snapshotTerm = si == null ? 0 : si.lastIncludedTerm;
+        long snapshotIndex = si == null ? 0 : si.lastIncludedIndex;
         log.info("load snapshot to term={}, index={}, groupId={}", snapshotTerm, snapshotIndex, groupConfig.groupId);
         raftStatus.setLastApplied(snapshotIndex);
         raftStatus.lastAppliedTerm = snapshotTerm;
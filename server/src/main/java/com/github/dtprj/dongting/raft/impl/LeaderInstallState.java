@@ -0,0 +1,119 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.impl;
+
+import com.github.dtprj.dongting.buf.RefBuffer;
+import com.github.dtprj.dongting.raft.sm.Snapshot;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Leader side state of an install snapshot task. The chunks read from snapshot are kept until the
+ * follower ack them, so if the connection broken, a new LeaderInstallFrame can resume from the offset
+ * that the follower expected, instead of taking a new snapshot and transfer all data again.
+ *
+ * @author huangli
+ */
+class LeaderInstallState {
+    final Snapshot snapshot;
+    final int term;
+    final long nextPosAfterInstallFinish;
+
+    long readOffset; // the offset of next chunk read from snapshot
+    boolean readFinish;
+    boolean running;
+    long brokenNanos;
+
+    private final LinkedList<Chunk> chunks = new LinkedList<>();
+
+    static final class Chunk {
+        final long offset;
+        final RefBuffer buf;
+        final int len;
+
+        Chunk(long offset, RefBuffer buf, int len) {
+            this.offset = offset;
+            this.buf = buf;
+            this.len = len;
+        }
+    }
+
+    LeaderInstallState(Snapshot snapshot, int term, long nextPosAfterInstallFinish) {
+        this.snapshot = snapshot;
+        this.term = term;
+        this.nextPosAfterInstallFinish = nextPosAfterInstallFinish;
+    }
+
+    /**
+     * add a chunk read from snapshot, take one reference of the buffer.
+     * @return the offset of the chunk
+     */
+    long addChunk(RefBuffer buf, int len) {
+        long offset = readOffset;
+        chunks.add(new Chunk(offset, buf, len));
+        readOffset += len;
+        return offset;
+    }
+
+    void ack(long offset) {
+        Iterator<Chunk> it = chunks.iterator();
+        while (it.hasNext()) {
+            Chunk c = it.next();
+            if (c.offset == offset) {
+                it.remove();
+                c.buf.release();
+                return;
+            } else if (c.offset > offset) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * the first offset not acked by follower.
+     */
+    long firstOffset() {
+        Chunk c = chunks.peekFirst();
+        return c == null ? readOffset : c.offset;
+    }
+
+    /**
+     * drop the chunks before the offset (the follower has applied them).
+     * @return false if the offset is not the beginning of any chunk, can't resume
+     */
+    boolean skipTo(long offset) {
+        Chunk c;
+        while ((c = chunks.peekFirst()) != null && c.offset < offset) {
+            chunks.removeFirst();
+            c.buf.release();
+        }
+        c = chunks.peekFirst();
+        return c == null ? offset == readOffset : c.offset == offset;
+    }
+
+    LinkedList<Chunk> getChunks() {
+        return chunks;
+    }
+
+    void close() {
+        Chunk c;
+        while ((c = chunks.pollFirst()) != null) {
+            c.buf.release();
+        }
+        snapshot.close();
+    }
+}
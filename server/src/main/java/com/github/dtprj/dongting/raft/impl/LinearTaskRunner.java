@@ -15,6 +15,7 @@
  */
 package com.github.dtprj.dongting.raft.impl;
 
+import com.github.dtprj.dongting.codec.EncodeContext;
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.common.FlowControlException;
 import com.github.dtprj.dongting.common.PerfCallback;
@@ -61,6 +62,9 @@ public class LinearTaskRunner {
 
     private final PerfCallback perfCallback;
 
+    // used to compress log body, created when first used
+    private EncodeContext encodeContext;
+
     public LinearTaskRunner(GroupComponents gc) {
         this.gc = gc;
         this.serverConfig = gc.serverConfig;
@@ -235,6 +239,9 @@ public class LinearTaskRunner {
             }
             long index = li.index;
 
+            // compress before the item visible to replicate and log writer
+            compressIfNecessary(li);
+
             // successful change owner to TailCache and release in TailCache.release(RaftTask)
             tailCache.put(index, rt);
 
@@ -249,6 +256,17 @@ public class LinearTaskRunner {
         return raftLog.append(logItems);
     }
 
+    private void compressIfNecessary(LogItem li) {
+        int compressType = groupConfig.logCompressType;
+        if (compressType == LogCompressor.COMPRESS_NONE || li.type != LogItem.TYPE_NORMAL) {
+            return;
+        }
+        if (encodeContext == null) {
+            encodeContext = new EncodeContext(groupConfig.fiberGroup.dispatcher.thread.heapPool);
+        }
+        LogCompressor.compressIfNecessary(li, compressType, groupConfig.logCompressThreshold, encodeContext);
+    }
+
     private RaftInput createHeartBeatInput() {
         DtTime deadline = new DtTime(ts, raftStatus.getElectTimeoutNanos(), TimeUnit.NANOSECONDS);
         return new RaftInput(0, null, null, deadline, false);
@@ -0,0 +1,156 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.impl;
+
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.Decoder;
+import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.codec.Encodable;
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.server.LogItem;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress the body of raft log item, the compressed body is stored in log file and sent to followers,
+ * and decompressed transparently when loaded or received.
+ * <p>
+ * Compressed format: codec type(1 byte) + uncompressed length(4 bytes) + compressed data.
+ *
+ * @author huangli
+ */
+public final class LogCompressor {
+
+    public static final int COMPRESS_NONE = 0;
+    public static final int COMPRESS_DEFLATE = 1;
+
+    private static final int PREFIX_LEN = 5;
+
+    // the deflater/inflater hold native resources, so cache them in thread local
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private LogCompressor() {
+    }
+
+    /**
+     * compress the body of log item if necessary, should be called before the item is visible to replicate
+     * and the log writer.
+     */
+    public static void compressIfNecessary(LogItem li, int compressType, int threshold, EncodeContext encodeContext) {
+        if (compressType == COMPRESS_NONE || li.type != LogItem.TYPE_NORMAL || li.getCompressedBody() != null) {
+            return;
+        }
+        int bodySize = li.getActualBodySize();
+        if (bodySize < threshold || bodySize <= PREFIX_LEN) {
+            return;
+        }
+        if (compressType != COMPRESS_DEFLATE) {
+            throw new RaftException("unsupported compress type: " + compressType);
+        }
+        byte[] raw = encode(li.getBody(), bodySize, encodeContext);
+        ByteArray compressed = deflate(raw);
+        if (compressed != null) {
+            li.setCompressedBody(compressed);
+        }
+    }
+
+    private static byte[] encode(Encodable body, int size, EncodeContext encodeContext) {
+        byte[] raw = new byte[size];
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        try {
+            if (!body.encode(encodeContext, buf) || buf.hasRemaining()) {
+                throw new RaftException("encode problem, encoded size not match: " + buf.position() + "," + size);
+            }
+        } finally {
+            encodeContext.reset();
+        }
+        return raw;
+    }
+
+    // return null if the compressed data is not smaller than raw data
+    static ByteArray deflate(byte[] raw) {
+        Deflater d = DEFLATER.get();
+        try {
+            d.setInput(raw);
+            d.finish();
+            byte[] out = new byte[raw.length];
+            int len = PREFIX_LEN;
+            while (!d.finished() && len < out.length) {
+                len += d.deflate(out, len, out.length - len);
+            }
+            if (!d.finished()) {
+                return null;
+            }
+            out[0] = COMPRESS_DEFLATE;
+            ByteBuffer.wrap(out, 1, 4).putInt(raw.length);
+            return new ByteArray(Arrays.copyOf(out, len));
+        } finally {
+            d.reset();
+        }
+    }
+
+    public static byte[] decompress(ByteArray compressed) {
+        byte[] data = compressed.getData();
+        if (data.length < PREFIX_LEN) {
+            throw new RaftException("compressed data too short: " + data.length);
+        }
+        if (data[0] != COMPRESS_DEFLATE) {
+            throw new RaftException("unsupported compress type: " + data[0]);
+        }
+        int rawLen = ByteBuffer.wrap(data, 1, 4).getInt();
+        if (rawLen < 0) {
+            throw new RaftException("bad uncompressed length: " + rawLen);
+        }
+        Inflater inf = INFLATER.get();
+        try {
+            inf.setInput(data, PREFIX_LEN, data.length - PREFIX_LEN);
+            byte[] raw = new byte[rawLen];
+            int len = 0;
+            while (len < rawLen) {
+                int n = inf.inflate(raw, len, rawLen - len);
+                if (n == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != rawLen || !inf.finished()) {
+                throw new RaftException("uncompressed length not match: " + len + "," + rawLen);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new RaftException(e);
+        } finally {
+            inf.reset();
+        }
+    }
+
+    public static Encodable decodeBody(byte[] raw, DecoderCallback<? extends Encodable> callback, DecodeContext context) {
+        Decoder decoder = new Decoder();
+        decoder.prepareNext(context, callback);
+        Encodable result = (Encodable) decoder.decode(ByteBuffer.wrap(raw), raw.length, 0);
+        if (!decoder.isFinished()) {
+            throw new RaftException("decode not finished");
+        }
+        return result;
+    }
+}
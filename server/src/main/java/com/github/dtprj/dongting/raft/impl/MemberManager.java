@@ -339,7 +339,7 @@ public class MemberManager {
 
     public FiberFrame<Void> leaderPrepareJointConsensus(Set<Integer> members, Set<Integer> observers,
                                                         Set<Integer> newMemberNodes, Set<Integer> newObserverNodes,
-                                                        CompletableFuture<Long> f) {
+                                                        int snapshotSourceId, CompletableFuture<Long> f) {
         return new FiberFrame<>() {
             @Override
             protected FrameCallResult handle(Throwable ex) {
@@ -356,9 +356,20 @@ public class MemberManager {
                     f.completeExceptionally(new RaftException("old members or observers not match"));
                     return Fiber.frameReturn();
                 }
+                if (!raftStatus.nodeIdOfWitnesses.isEmpty()
+                        && raftStatus.nodeIdOfWitnesses.containsAll(newMemberNodes)) {
+                    f.completeExceptionally(new RaftException("all new members are witnesses"));
+                    return Fiber.frameReturn();
+                }
+                if (snapshotSourceId > 0 && (raftStatus.nodeIdOfWitnesses.contains(snapshotSourceId)
+                        || (!members.contains(snapshotSourceId) && !observers.contains(snapshotSourceId)))) {
+                    f.completeExceptionally(new RaftException("snapshot source is not a member or observer: "
+                            + snapshotSourceId));
+                    return Fiber.frameReturn();
+                }
                 nodeManager.checkLeaderPrepare(newMemberNodes, newObserverNodes);
                 leaderConfigChange(LogItem.TYPE_PREPARE_CONFIG_CHANGE,
-                        getInputData(newMemberNodes, newObserverNodes), f);
+                        getInputData(newMemberNodes, newObserverNodes, snapshotSourceId), f);
                 return Fiber.frameReturn();
             }
         };
@@ -418,13 +429,14 @@ public class MemberManager {
         }
     }
 
-    private byte[] getInputData(Set<Integer> newMemberNodes, Set<Integer> newObserverNodes) {
+    // the snapshot source is saved in the prepare log item, so a new leader elected during the change still knows it
+    private byte[] getInputData(Set<Integer> newMemberNodes, Set<Integer> newObserverNodes, int snapshotSourceId) {
         StringBuilder sb = new StringBuilder(64);
         appendSet(sb, raftStatus.nodeIdOfMembers);
         appendSet(sb, raftStatus.nodeIdOfObservers);
         appendSet(sb, newMemberNodes);
         appendSet(sb, newObserverNodes);
-        sb.deleteCharAt(sb.length() - 1);
+        sb.append(snapshotSourceId < 0 ? -1 : snapshotSourceId);
         return sb.toString().getBytes();
     }
 
@@ -533,13 +545,31 @@ public class MemberManager {
         return m;
     }
 
-    public FrameCallResult doPrepare(long raftIndex, Set<Integer> newMemberIds, Set<Integer> newObserverIds) {
+    public FrameCallResult doPrepare(long raftIndex, Set<Integer> newMemberIds, Set<Integer> newObserverIds,
+                                     int snapshotSourceId) {
+        // applied in all members, and kept after commit, since the new members may start after the commit.
+        // the source only installs the members added by this change, and it's cleared when they caught up.
+        HashSet<Integer> targets = new HashSet<>();
+        if (snapshotSourceId != 0) {
+            addInstallTargets(targets, newMemberIds);
+            addInstallTargets(targets, newObserverIds);
+        }
+        raftStatus.installSourceId = targets.isEmpty() ? 0 : snapshotSourceId;
+        raftStatus.installSourceTargets = targets;
         ApplyConfigFrame f = new ApplyConfigFrame("(" + raftIndex + ") prepare config change",
                 raftStatus.nodeIdOfMembers, raftStatus.nodeIdOfObservers, newMemberIds, newObserverIds);
         f.raftIndex = raftIndex;
         return Fiber.call(f, v -> Fiber.frameReturn());
     }
 
+    private void addInstallTargets(HashSet<Integer> targets, Set<Integer> newIds) {
+        for (int id : newIds) {
+            if (!raftStatus.nodeIdOfMembers.contains(id) && !raftStatus.nodeIdOfObservers.contains(id)) {
+                targets.add(id);
+            }
+        }
+    }
+
     public FrameCallResult doAbort(long raftIndex) {
         HashSet<Integer> preparedMemberIds = new HashSet<>(raftStatus.nodeIdOfPreparedMembers);
         if (preparedMemberIds.isEmpty()) {
@@ -547,6 +577,8 @@ public class MemberManager {
                     raftIndex, raftStatus.groupId);
             return Fiber.frameReturn();
         }
+        raftStatus.installSourceId = 0;
+        raftStatus.installSourceTargets = emptySet();
         ApplyConfigFrame f = new ApplyConfigFrame("(" + raftIndex + ") abort config change",
                 raftStatus.nodeIdOfMembers, raftStatus.nodeIdOfObservers, emptySet(), emptySet());
         f.raftIndex = raftIndex;
@@ -762,6 +794,11 @@ public class MemberManager {
                 || raftStatus.nodeIdOfPreparedMembers.contains(nodeId);
     }
 
+    // witness can vote but can't be leader since it has no state machine data
+    public static boolean canBeLeader(RaftStatusImpl raftStatus, int nodeId) {
+        return validCandidate(raftStatus, nodeId) && !raftStatus.nodeIdOfWitnesses.contains(nodeId);
+    }
+
     public void transferLeadership(int nodeId, CompletableFuture<Void> f, DtTime deadline) {
         if (!groupConfig.fiberGroup.fireFiber("transfer-leader",
                 new TranferLeaderFiberFrame(nodeId, f, deadline))) {
@@ -824,6 +861,11 @@ public class MemberManager {
                 RaftUtil.clearTransferLeaderCondition(raftStatus);
                 return Fiber.frameReturn();
             }
+            if (raftStatus.nodeIdOfWitnesses.contains(nodeId)) {
+                f.completeExceptionally(new RaftException("can't transfer leader to witness: " + nodeId));
+                RaftUtil.clearTransferLeaderCondition(raftStatus);
+                return Fiber.frameReturn();
+            }
 
             if (deadline.isTimeout()) {
                 f.completeExceptionally(new RaftException("transfer leader timeout"));
@@ -74,6 +74,10 @@ public class NodeManager extends AbstractLifeCircle {
 
     private final long pingIntervalMillis;
 
+    // node id -> handshake uuid of the replicate client of that node, recorded when the node ping us.
+    // used to check the requests (e.g. forwarded writes) which are only accepted from other raft nodes.
+    private final ConcurrentHashMap<Integer, UUID> nodeClientUuids = new ConcurrentHashMap<>();
+
     public NodeManager(RaftServerConfig config, List<RaftNode> allRaftNodes,
                        NioClient client, int startReadyQuorum, NioServer nioServer) {
         this.selfNodeId = config.nodeId;
@@ -383,6 +387,7 @@ public class NodeManager extends AbstractLifeCircle {
                 } else {
                     if (existNode.useCount == 0) {
                         allNodesEx.remove(nodeId);
+                        nodeClientUuids.remove(nodeId);
                         client.removePeer(existNode.peer).thenRun(() -> f.complete(null));
                     } else {
                         f.completeExceptionally(new RaftException("node is using, current ref count: " + existNode.useCount));
@@ -406,6 +411,14 @@ public class NodeManager extends AbstractLifeCircle {
         return uuid;
     }
 
+    /**
+     * Check whether the remote uuid (initialized in handshake) belongs to the replicate client of a known raft node,
+     * which has finished node ping with this node. Can be called in any thread.
+     */
+    public boolean isNodeClient(UUID remoteUuid) {
+        return remoteUuid != null && nodeClientUuids.containsValue(remoteUuid);
+    }
+
     // create new set since this method invoke occasionally
     public Set<Integer> getAllNodeIdsInLock() {
         HashSet<Integer> ids = new HashSet<>();
@@ -437,6 +450,10 @@ public class NodeManager extends AbstractLifeCircle {
                 p = new EmptyBodyRespPacket(CmdCodes.SYS_ERROR);
                 p.msg = "node not found: " + reqPing.localNodeId;
             } else {
+                UUID clientUuid = reqContext.getDtChannel().getRemoteUuid();
+                if (clientUuid != null) {
+                    nodeClientUuids.put(reqPing.localNodeId, clientUuid);
+                }
                 NodePing respPing = new NodePing(selfNodeId, reqPing.localNodeId, uuid);
                 p = new SimpleWritePacket(respPing);
                 p.respCode = CmdCodes.SUCCESS;
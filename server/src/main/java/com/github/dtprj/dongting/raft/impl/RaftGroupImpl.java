@@ -177,7 +177,8 @@ public final class RaftGroupImpl extends RaftGroup {
 
     @Override
     public CompletableFuture<Long> leaderPrepareJointConsensus(Set<Integer> members, Set<Integer> observers,
-                                                               Set<Integer> preparedMembers, Set<Integer> prepareObservers) {
+                                                               Set<Integer> preparedMembers, Set<Integer> prepareObservers,
+                                                               int snapshotSourceId) {
         if (preparedMembers.isEmpty()) {
             throw new RaftException("preparedMembers are empty");
         }
@@ -190,7 +191,7 @@ public final class RaftGroupImpl extends RaftGroup {
         }
         CompletableFuture<Long> f = new CompletableFuture<>();
         FiberFrame<Void> ff = groupComponents.memberManager.leaderPrepareJointConsensus(
-                members, observers, preparedMembers, prepareObservers, f);
+                members, observers, preparedMembers, prepareObservers, snapshotSourceId, f);
         Fiber fiber = new Fiber("leaderPrepareJointConsensus", groupComponents.fiberGroup, ff, true);
         groupComponents.fiberGroup.fireFiber(fiber);
         return f;
@@ -39,6 +39,8 @@ public class RaftMember {
     public int replicateEpoch;
     public int nodeEpoch;
     public boolean installSnapshot;
+    LeaderInstallState installState; // kept for resume after the install is broken
+    boolean delegateInstallTried; // only try once to install snapshot from other member
 
     public RaftMember(RaftNodeEx node, FiberGroup fg) {
         this.node = node;
@@ -27,6 +27,7 @@ import com.github.dtprj.dongting.raft.RaftNode;
 import com.github.dtprj.dongting.raft.server.RaftStatus;
 
 import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -54,6 +55,11 @@ public final class RaftStatusImpl extends RaftStatus {
     public Set<Integer> nodeIdOfObservers;
     public Set<Integer> nodeIdOfPreparedMembers;
     public Set<Integer> nodeIdOfPreparedObservers;
+    public Set<Integer> nodeIdOfWitnesses = Collections.emptySet();
+    public boolean witness; // self is witness
+    // for witness, min persisted index of the members which are not witness, reported by the leader.
+    // the witness has no state machine data, so it keeps the logs which may not be persisted by the other members.
+    public long witnessDeleteBound;
     public long lastConfigChangeIndex;
 
     public volatile MembersInfo membersInfo;
@@ -65,6 +71,16 @@ public final class RaftStatusImpl extends RaftStatus {
     public FiberCondition needRepCondition;
 
     public boolean installSnapshot;
+    // follower side state of current install, used to check chunk order and resume after disconnect
+    public int installLeaderId;
+    public long installSnapshotIndex;
+    public int installSnapshotTerm;
+    public long installOffset; // next expected offset, -1 if state machine failed
+    // the member which installs snapshot for new members, 0 means the leader, -1 means auto choose.
+    // set when the prepare config change applied, so it survives re-election, but not restart.
+    public int installSourceId;
+    // the members added by the prepared config change, which are installed by installSourceId
+    public Set<Integer> installSourceTargets = Collections.emptySet();
 
     public int currentTerm; // raft paper persistent state of all servers
     public int votedFor; // raft paper persistent state of all servers
@@ -117,9 +133,12 @@ public final class RaftStatusImpl extends RaftStatus {
 
     public FiberCondition logForceFinishCondition;
     public FiberCondition logWriteFinishCondition;
+    public FiberCondition logCommitCondition;
     public FiberCondition transferLeaderCondition;
 
     public final CompletableFuture<Void> initFuture = new CompletableFuture<>();
+    // complete when the group is ready at the first time after start, the service port serves the group after that
+    public final CompletableFuture<Void> firstReadyFuture = new CompletableFuture<>();
     private boolean initFinished;
     private boolean initFailed;
 
@@ -170,6 +170,14 @@ public final class RaftUtil {
         }
 
         member.installSnapshot = false;
+        member.delegateInstallTried = false;
+        LeaderInstallState installState = member.installState;
+        if (installState != null) {
+            member.installState = null;
+            if (!installState.running) {
+                installState.close();
+            } // else closed by LeaderInstallFrame
+        }
         member.replicateEpoch++;
         // wake up replicate fiber if it is waiting on this condition
         member.repDoneCondition.signalAll();
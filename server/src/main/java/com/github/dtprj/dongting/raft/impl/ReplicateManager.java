@@ -18,6 +18,7 @@ package com.github.dtprj.dongting.raft.impl;
 import com.github.dtprj.dongting.buf.RefBuffer;
 import com.github.dtprj.dongting.buf.RefBufferFactory;
 import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
+import com.github.dtprj.dongting.codec.PbLongCallback;
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.common.DtUtil;
 import com.github.dtprj.dongting.common.IntObjMap;
@@ -40,10 +41,12 @@ import com.github.dtprj.dongting.net.NetCodeException;
 import com.github.dtprj.dongting.net.NioClient;
 import com.github.dtprj.dongting.net.ReadPacket;
 import com.github.dtprj.dongting.net.RpcCallback;
+import com.github.dtprj.dongting.net.SimpleWritePacket;
 import com.github.dtprj.dongting.raft.RaftException;
 import com.github.dtprj.dongting.raft.rpc.AppendProcessor;
 import com.github.dtprj.dongting.raft.rpc.AppendReqWritePacket;
 import com.github.dtprj.dongting.raft.rpc.AppendResp;
+import com.github.dtprj.dongting.raft.rpc.DelegateInstallReq;
 import com.github.dtprj.dongting.raft.rpc.InstallSnapshotReq;
 import com.github.dtprj.dongting.raft.server.LogItem;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
@@ -54,9 +57,13 @@ import com.github.dtprj.dongting.raft.sm.StateMachine;
 import com.github.dtprj.dongting.raft.store.RaftLog;
 import com.github.dtprj.dongting.raft.store.StatusManager;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
@@ -65,6 +72,7 @@ import java.util.function.Supplier;
  * @author huangli
  */
 public class ReplicateManager {
+    private static final DtLog log = DtLogs.getLogger(ReplicateManager.class);
 
     final NioClient client;
     final GroupComponents gc;
@@ -105,13 +113,30 @@ public class ReplicateManager {
             if (m.node.self) {
                 continue;
             }
+            LeaderInstallState installState = m.installState;
+            if (installState != null && !installState.running && raftStatus.ts.nanoTime - installState.brokenNanos
+                    > TimeUnit.SECONDS.toNanos(groupConfig.installResumeSeconds)) {
+                log.info("install snapshot resume timeout, drop it. nodeId={}, groupId={}",
+                        m.node.nodeId, groupId);
+                m.installState = null;
+                installState.close();
+            }
             if (!m.ready) {
                 continue;
             }
             Pair<RaftMember, Fiber> currentTask = replicateFibers.get(m.node.nodeId);
             if (currentTask == null || currentTask.getRight().isFinished()) {
                 Fiber f;
-                if (m.installSnapshot) {
+                RaftMember source;
+                if (m.installSnapshot && (source = chooseInstallSource(m)) != null) {
+                    if (source.matchIndex <= 0) {
+                        // wait the source to be confirmed in current term, the raft ping fiber will try again
+                        continue;
+                    }
+                    LeaderDelegateInstallFrame ff = new LeaderDelegateInstallFrame(this, m, source);
+                    f = new Fiber("delegateInstall-" + m.node.nodeId + "-" + m.replicateEpoch,
+                            groupConfig.fiberGroup, ff, true);
+                } else if (m.installSnapshot) {
                     LeaderInstallFrame ff = new LeaderInstallFrame(this, m);
                     f = new Fiber("install-" + m.node.nodeId + "-" + m.replicateEpoch,
                             groupConfig.fiberGroup, ff, true);
@@ -126,6 +151,40 @@ public class ReplicateManager {
         }
     }
 
+    /**
+     * Choose a member to install snapshot to m instead of the leader, return null if the leader should
+     * install it. Only the members added by the prepared config change are installed by the source, and
+     * only try once for each member in a term, if the delegated install fails, the leader installs it.
+     * The matchIndex of the returned source may be 0 (reset when the leader changes), the caller should
+     * wait until it's confirmed in current term.
+     */
+    private RaftMember chooseInstallSource(RaftMember m) {
+        int sourceId = raftStatus.installSourceId;
+        if (sourceId == 0 || m.delegateInstallTried || m.installState != null
+                || !raftStatus.installSourceTargets.contains(m.node.nodeId)
+                || raftStatus.nodeIdOfWitnesses.contains(m.node.nodeId)) {
+            return null;
+        }
+        RaftMember result = null;
+        List<RaftMember> list = raftStatus.replicateList;
+        for (int size = list.size(), i = 0; i < size; i++) {
+            RaftMember c = list.get(i);
+            if (c == m || c.node.self || !c.ready || c.installSnapshot
+                    || raftStatus.nodeIdOfWitnesses.contains(c.node.nodeId)) {
+                continue;
+            }
+            if (sourceId > 0) {
+                if (c.node.nodeId == sourceId) {
+                    return c;
+                }
+            } else if (result == null || c.matchIndex > result.matchIndex) {
+                // auto choose, the member with max match index
+                result = c;
+            }
+        }
+        return result;
+    }
+
     boolean checkTermFailed(int remoteTerm, boolean append) {
         if (remoteTerm > raftStatus.currentTerm) {
             String msg = (append ? "append" : "install") + " response term greater than local";
@@ -200,6 +259,23 @@ abstract class AbstractLeaderRepFrame extends FiberFrame<Void> {
         }
     }
 
+    protected void installFinished(long lastIncludedIndex) {
+        incrementEpoch();
+        member.installSnapshot = false;
+        member.matchIndex = lastIncludedIndex;
+        member.nextIndex = lastIncludedIndex + 1;
+        Set<Integer> targets = raftStatus.installSourceTargets;
+        if (targets.contains(member.node.nodeId)) {
+            // the new member caught up, if it lags again later, the leader installs it
+            HashSet<Integer> s = new HashSet<>(targets);
+            s.remove(member.node.nodeId);
+            raftStatus.installSourceTargets = s;
+            if (s.isEmpty()) {
+                raftStatus.installSourceId = 0;
+            }
+        }
+    }
+
 }
 
 class LeaderRepFrame extends AbstractLeaderRepFrame {
@@ -376,6 +452,22 @@ class LeaderRepFrame extends AbstractLeaderRepFrame {
         return Fiber.resume(null, this);
     }
 
+    // the min persisted index of the members (include self) which are not witness
+    private long witnessDeleteBound() {
+        long bound = raftStatus.lastForceLogIndex;
+        bound = minMatchIndex(raftStatus.members, bound);
+        return minMatchIndex(raftStatus.preparedMembers, bound);
+    }
+
+    private long minMatchIndex(List<RaftMember> list, long bound) {
+        for (RaftMember m : list) {
+            if (!m.node.self && !raftStatus.nodeIdOfWitnesses.contains(m.node.nodeId)) {
+                bound = Math.min(bound, m.matchIndex);
+            }
+        }
+        return bound;
+    }
+
     private void sendAppendRequest(RaftMember member, List<LogItem> items) {
         AppendReqWritePacket req = new AppendReqWritePacket();
         req.command = Commands.RAFT_APPEND_ENTRIES;
@@ -383,6 +475,9 @@ class LeaderRepFrame extends AbstractLeaderRepFrame {
         req.term = raftStatus.currentTerm;
         req.leaderId = serverConfig.nodeId;
         req.leaderCommit = raftStatus.commitIndex;
+        if (raftStatus.nodeIdOfWitnesses.contains(member.node.nodeId)) {
+            req.witnessDeleteBound = witnessDeleteBound();
+        }
 
         if (!items.isEmpty()) {
             LogItem firstItem = items.get(0);
@@ -619,8 +714,10 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
     private final RefBufferFactory heapPool;
 
     private Snapshot snapshot;
-    private long nextPosAfterInstallFinish;
-    private long snapshotOffset;
+    private LeaderInstallState state;
+    private SnapshotReader reader;
+    private long resumeOffset;
+    private boolean finished;
 
     public LeaderInstallFrame(ReplicateManager replicateManager, RaftMember member) {
         super(replicateManager, member);
@@ -641,10 +738,25 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
 
     @Override
     protected FrameCallResult doFinally() {
-        if (snapshot != null) {
+        if (state != null) {
+            state.running = false;
+            if (!finished && (reader == null || !reader.isReadFailed()) && state.firstOffset() > 0
+                    && groupConfig.installResumeSeconds > 0 && member.installState == state) {
+                // keep the snapshot and the chunks not acked, the next LeaderInstallFrame will try to resume
+                state.brokenNanos = raftStatus.ts.nanoTime;
+                log.info("install snapshot broken, keep it for resume. nodeId={}, groupId={}, offset={}",
+                        member.node.nodeId, groupId, state.firstOffset());
+            } else {
+                if (member.installState == state) {
+                    member.installState = null;
+                }
+                state.close();
+            }
+            state = null;
+        } else if (snapshot != null) {
             snapshot.close();
-            snapshot = null;
         }
+        snapshot = null;
         return Fiber.frameReturn();
     }
 
@@ -653,6 +765,27 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         if (shouldStopReplicate()) {
             return Fiber.frameReturn();
         }
+        LeaderInstallState s = member.installState;
+        if (s != null) {
+            if (s.term == raftStatus.currentTerm && !s.running) {
+                this.state = s;
+                this.snapshot = s.snapshot;
+                s.running = true;
+                log.info("try resume install snapshot for member: nodeId={}, groupId={}, offset={}",
+                        member.node.nodeId, groupId, s.firstOffset());
+                // the first request with offset, no data
+                FiberFuture<Void> f = sendInstallSnapshotReq(null, true, false, s.firstOffset());
+                return f.await(this::afterResumeReqFinished);
+            }
+            member.installState = null;
+            if (!s.running) {
+                s.close();
+            }
+        }
+        return takeSnapshot();
+    }
+
+    private FrameCallResult takeSnapshot() {
         FiberFuture<Snapshot> f = replicateManager.gc.applyManager.requestTakeSnapshot();
         return f.await(this::afterTakeSnapshot);
     }
@@ -674,36 +807,98 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         log.info("begin install snapshot for member: nodeId={}, groupId={}",
                 member.node.nodeId, groupId);
         this.snapshot = snapshot;
-        this.nextPosAfterInstallFinish = nextPos;
+        this.state = new LeaderInstallState(snapshot, raftStatus.currentTerm, nextPos);
+        this.state.running = true;
+        member.installState = state;
         // send the first request, no data
-        FiberFuture<Void> f = sendInstallSnapshotReq(null, true, false);
-        return f.await(this::afterFirstReqFinished);
+        FiberFuture<Void> f = sendInstallSnapshotReq(null, true, false, 0);
+        return f.await(v -> startReader());
     }
 
-    private FrameCallResult afterFirstReqFinished(Void unused) {
+    private FrameCallResult afterResumeReqFinished(Void unused) {
         if (shouldStopReplicate()) {
             return Fiber.frameReturn();
         }
+        if (resumeOffset <= 0 || !state.skipTo(resumeOffset)) {
+            log.info("can't resume install snapshot, start a new one. nodeId={}, groupId={}, resumeOffset={}",
+                    member.node.nodeId, groupId, resumeOffset);
+            member.installState = null;
+            state.running = false;
+            state.close();
+            state = null;
+            snapshot = null;
+            return takeSnapshot();
+        }
+        log.info("resume install snapshot for member: nodeId={}, groupId={}, offset={}",
+                member.node.nodeId, groupId, resumeOffset);
+        LinkedList<LeaderInstallState.Chunk> chunks = state.getChunks();
+        if (chunks.isEmpty()) {
+            return afterResendFinished(null);
+        }
+        FiberFuture<?>[] fs = new FiberFuture[chunks.size()];
+        int i = 0;
+        for (LeaderInstallState.Chunk c : chunks) {
+            // the buffer in chunk is kept for later resume, send a copy of it
+            RefBuffer copy = heapPool.create(c.len);
+            ByteBuffer src = c.buf.getBuffer().duplicate();
+            src.clear();
+            src.limit(c.len);
+            ByteBuffer dest = copy.getBuffer();
+            dest.clear();
+            dest.put(src);
+            dest.flip();
+            fs[i++] = sendInstallSnapshotReq(copy, false, false, c.offset);
+        }
+        return FiberFuture.allOf("resendInstall", fs).await(this::afterResendFinished);
+    }
+
+    private FrameCallResult afterResendFinished(Void unused) {
+        if (shouldStopReplicate()) {
+            return Fiber.frameReturn();
+        }
+        if (state.readFinish) {
+            return afterReaderFinish(null);
+        }
+        return startReader();
+    }
+
+    private FrameCallResult startReader() {
+        if (shouldStopReplicate()) {
+            return Fiber.frameReturn();
+        }
+        if (raftStatus.nodeIdOfWitnesses.contains(member.node.nodeId)) {
+            // witness don't need snapshot data
+            return afterReaderFinish(null);
+        }
         Supplier<RefBuffer> bufferCreator = () -> heapPool.create(groupConfig.replicateSnapshotBufferSize);
 
         int readConcurrency = groupConfig.snapshotConcurrency;
         int writeConcurrency = groupConfig.replicateSnapshotConcurrency;
-        SnapshotReader r = new SnapshotReader(snapshot, readConcurrency, writeConcurrency, this::readerCallback,
-                this::shouldStopReplicate, bufferCreator);
-        return Fiber.call(r, this::afterReaderFinish);
+        reader = new SnapshotReader(snapshot, readConcurrency, writeConcurrency, this::readerCallback,
+                this::shouldStopReplicate, bufferCreator, this::keepUnsent);
+        return Fiber.call(reader, this::afterReaderFinish);
     }
 
     private FiberFuture<Void> readerCallback(RefBuffer buf, Integer readBytes) {
         buf.getBuffer().clear();
         buf.getBuffer().limit(readBytes);
-        return sendInstallSnapshotReq(buf, false, false);
+        // one reference kept in state until the follower acked
+        buf.retain();
+        long offset = state.addChunk(buf, readBytes);
+        return sendInstallSnapshotReq(buf, false, false, offset);
+    }
+
+    private void keepUnsent(RefBuffer buf, Integer readBytes) {
+        // read from snapshot but not sent, keep it for resume
+        state.addChunk(buf, readBytes);
     }
 
     private FrameCallResult afterReaderFinish(Void unused) {
         if (shouldStopReplicate()) {
             return Fiber.frameReturn();
         }
-        return sendInstallSnapshotReq(null, false, true)
+        state.readFinish = true;
+        return sendInstallSnapshotReq(null, false, true, state.readOffset)
                 .await(this::afterInstallFinish);
     }
 
@@ -715,7 +910,7 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         return Fiber.frameReturn();
     }
 
-    private FiberFuture<Void> sendInstallSnapshotReq(RefBuffer data, boolean start, boolean finish) {
+    private FiberFuture<Void> sendInstallSnapshotReq(RefBuffer data, boolean start, boolean finish, long offset) {
         SnapshotInfo si = snapshot.getSnapshotInfo();
         InstallSnapshotReq req = new InstallSnapshotReq();
         req.groupId = groupId;
@@ -723,7 +918,7 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         req.leaderId = serverConfig.nodeId;
         req.lastIncludedIndex = si.lastIncludedIndex;
         req.lastIncludedTerm = si.lastIncludedTerm;
-        req.offset = snapshotOffset;
+        req.offset = offset;
 
         if (start) {
             req.members = si.members;
@@ -734,7 +929,7 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         }
         if (finish) {
             req.done = true;
-            req.nextWritePos = nextPosAfterInstallFinish;
+            req.nextWritePos = state.nextPosAfterInstallFinish;
         }
         req.data = data;
 
@@ -744,20 +939,20 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
         FiberGroup fg = groupConfig.fiberGroup;
         FiberFuture<Void> f = fg.newFuture("install-" + groupId + "-" + req.offset);
         DtTime timeout = new DtTime(serverConfig.rpcTimeout, TimeUnit.MILLISECONDS);
+        boolean hasData = data != null;
         RpcCallback<AppendResp> callback = (resp, ex) ->
-                fg.getExecutor().execute(() -> afterInstallRpc(resp, ex, req, f));
+                fg.getExecutor().execute(() -> afterInstallRpc(resp, ex, req, hasData, f));
         int bytes = data == null ? 0 : data.getBuffer().remaining();
         // buffer released after send encode (in another thread)
         client.sendRequest(member.node.peer, wf, APPEND_RESP_DECODER_CALLBACK_CREATOR,
                 timeout, callback);
-        snapshotOffset += bytes;
         log.info("transfer snapshot data to member {}. groupId={}, offset={}, bytes={}, done={}",
                 member.node.nodeId, groupId, req.offset, bytes, req.done);
         return f;
     }
 
     private void afterInstallRpc(ReadPacket<AppendResp> rf, Throwable ex,
-                                 InstallSnapshotReq req, FiberFuture<Void> f) {
+                                 InstallSnapshotReq req, boolean hasData, FiberFuture<Void> f) {
         if (epochChange()) {
             f.completeExceptionally(new RaftCancelException("epoch not match, ignore install snapshot response."));
             return;
@@ -780,15 +975,83 @@ class LeaderInstallFrame extends AbstractLeaderRepFrame {
                     + member.node.nodeId + ", groupId=" + groupId));
             return;
         }
+        if (req.members != null && !req.members.isEmpty() && req.offset > 0) {
+            resumeOffset = respBody.installOffset;
+        } else if (hasData && state != null) {
+            state.ack(req.offset);
+        }
         if (req.done) {
             log.info("install snapshot for member finished success. nodeId={}, groupId={}",
                     member.node.nodeId, groupId);
-            incrementEpoch();
-            member.installSnapshot = false;
-            member.matchIndex = req.lastIncludedIndex;
-            member.nextIndex = req.lastIncludedIndex + 1;
+            finished = true;
+            installFinished(req.lastIncludedIndex);
         }
         f.complete(null);
     }
 
 }
+
+class LeaderDelegateInstallFrame extends AbstractLeaderRepFrame {
+    private static final DtLog log = DtLogs.getLogger(LeaderDelegateInstallFrame.class);
+
+    private final ReplicateManager replicateManager;
+    private final RaftMember source;
+
+    public LeaderDelegateInstallFrame(ReplicateManager replicateManager, RaftMember member, RaftMember source) {
+        super(replicateManager, member);
+        this.replicateManager = replicateManager;
+        this.source = source;
+    }
+
+    @Override
+    protected FrameCallResult handle(Throwable ex) {
+        log.warn("delegate install snapshot fail, the leader will install it. source={}, target={}, groupId={}",
+                source.node.nodeId, member.node.nodeId, groupId, ex);
+        incrementEpoch();
+        return Fiber.frameReturn();
+    }
+
+    @Override
+    public FrameCallResult execute(Void input) {
+        if (shouldStopReplicate()) {
+            return Fiber.frameReturn();
+        }
+        member.delegateInstallTried = true;
+        log.info("delegate install snapshot. source={}, target={}, groupId={}",
+                source.node.nodeId, member.node.nodeId, groupId);
+        DelegateInstallReq req = new DelegateInstallReq();
+        req.groupId = groupId;
+        req.term = term;
+        req.leaderId = replicateManager.serverConfig.nodeId;
+        req.targetNodeId = member.node.nodeId;
+        SimpleWritePacket wf = new SimpleWritePacket(req);
+        wf.command = Commands.RAFT_DELEGATE_INSTALL;
+
+        FiberFuture<Long> f = replicateManager.groupConfig.fiberGroup.newFuture("delegateInstall-" + groupId);
+        DtTime timeout = new DtTime(replicateManager.groupConfig.delegateInstallTimeoutSeconds, TimeUnit.SECONDS);
+        replicateManager.client.sendRequest(source.node.peer, wf, PbLongCallback.CALLBACK_CREATOR, timeout,
+                (rf, ex) -> {
+                    if (ex != null) {
+                        f.fireCompleteExceptionally(ex);
+                    } else {
+                        f.fireComplete(rf.getBody());
+                    }
+                });
+        return f.await(this::afterDelegateInstall);
+    }
+
+    private FrameCallResult afterDelegateInstall(Long lastIncludedIndex) {
+        if (shouldStopReplicate()) {
+            return Fiber.frameReturn();
+        }
+        if (lastIncludedIndex == null || lastIncludedIndex + 1 < raftStatus.firstValidIndex) {
+            // the logs after the snapshot of source are deleted in leader, the leader should install it
+            throw new RaftException("bad lastIncludedIndex of delegate install: " + lastIncludedIndex
+                    + ", firstValidIndex=" + raftStatus.firstValidIndex);
+        }
+        log.info("delegate install snapshot success. source={}, target={}, groupId={}, lastIncludedIndex={}",
+                source.node.nodeId, member.node.nodeId, groupId, lastIncludedIndex);
+        installFinished(lastIncludedIndex);
+        return Fiber.frameReturn();
+    }
+}
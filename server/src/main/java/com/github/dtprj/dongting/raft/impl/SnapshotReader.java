@@ -31,6 +31,7 @@ import com.github.dtprj.dongting.raft.sm.Snapshot;
 
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
 
@@ -47,6 +48,7 @@ public class SnapshotReader extends FiberFrame<Void> {
     private final BiFunction<RefBuffer, Integer, FiberFuture<Void>> callback;
     private final Supplier<Boolean> cancel;
     private final Supplier<RefBuffer> bufferCreator;
+    private final BiConsumer<RefBuffer, Integer> unwrittenCallback;
 
     private final FiberCondition cond;
 
@@ -55,18 +57,30 @@ public class SnapshotReader extends FiberFrame<Void> {
 
     private Throwable firstEx;
     private boolean readFinish;
+    private boolean readFailed;
 
     // the callback should release the buffer
     public SnapshotReader(Snapshot snapshot, int maxReadConcurrency, int maxWriteConcurrency,
                           BiFunction<RefBuffer, Integer, FiberFuture<Void>> callback,
                           Supplier<Boolean> cancel,
                           Supplier<RefBuffer> bufferCreator) {
+        this(snapshot, maxReadConcurrency, maxWriteConcurrency, callback, cancel, bufferCreator, null);
+    }
+
+    // the data read from snapshot but not passed to callback (canceled or write failed) is passed to
+    // unwrittenCallback in order, so the caller can keep it, the unwrittenCallback should release the buffer
+    public SnapshotReader(Snapshot snapshot, int maxReadConcurrency, int maxWriteConcurrency,
+                          BiFunction<RefBuffer, Integer, FiberFuture<Void>> callback,
+                          Supplier<Boolean> cancel,
+                          Supplier<RefBuffer> bufferCreator,
+                          BiConsumer<RefBuffer, Integer> unwrittenCallback) {
         this.snapshot = snapshot;
         this.maxReadConcurrency = maxReadConcurrency;
         this.maxWriteConcurrency = maxWriteConcurrency;
         this.callback = callback;
         this.cancel = cancel;
         this.bufferCreator = bufferCreator;
+        this.unwrittenCallback = unwrittenCallback;
         this.cond = FiberGroup.currentGroup().newCondition("snapshotReaderCond");
         log.info("create snapshot reader: {}", snapshot.getClass().getSimpleName());
     }
@@ -123,11 +137,13 @@ public class SnapshotReader extends FiberFrame<Void> {
             return;
         }
         if (f.getEx() != null) {
+            readFailed = true;
             if (firstEx == null) {
                 // only record the first exception
                 firstEx = f.getEx();
             }
         } else if (f.getResult() == null) {
+            readFailed = true;
             if (firstEx == null) {
                 // only record the first exception
                 firstEx = new RaftException("result is null");
@@ -137,7 +153,16 @@ public class SnapshotReader extends FiberFrame<Void> {
         }
         if (cancel.get() || firstEx != null || readFinish) {
             readList.removeFirst();
-            buf.release();
+            if (unwrittenCallback != null && !readFailed && !readFinish) {
+                try {
+                    unwrittenCallback.accept(buf, f.getResult());
+                } catch (Throwable e) {
+                    BugLog.log(e);
+                    buf.release();
+                }
+            } else {
+                buf.release();
+            }
         } else if (writeList.size() < maxWriteConcurrency) {
             readList.removeFirst();
             try {
@@ -153,6 +178,10 @@ public class SnapshotReader extends FiberFrame<Void> {
         }
     }
 
+    public boolean isReadFailed() {
+        return readFailed;
+    }
+
     private void processWriteResult() {
         FiberFuture<Void> f;
         while ((f = writeList.peekFirst()) != null) {
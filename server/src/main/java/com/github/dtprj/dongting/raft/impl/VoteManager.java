@@ -134,7 +134,7 @@ public class VoteManager {
     }
 
     private void tryStartPreVote() {
-        if (!MemberManager.validCandidate(raftStatus, config.nodeId)) {
+        if (!MemberManager.canBeLeader(raftStatus, config.nodeId)) {
             log.info("not valid candidate, can't start pre vote. groupId={}, term={}",
                     groupId, raftStatus.currentTerm);
             return;
@@ -420,7 +420,7 @@ public class VoteManager {
                         resp.voteGranted);
                 return true;
             }
-            if (MemberManager.validCandidate(raftStatus, config.nodeId)) {
+            if (MemberManager.canBeLeader(raftStatus, config.nodeId)) {
                 return false;
             } else {
                 log.error("not valid candidate, cancel vote. groupId={}, term={}",
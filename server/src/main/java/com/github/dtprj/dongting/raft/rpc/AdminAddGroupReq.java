@@ -28,19 +28,22 @@ public class AdminAddGroupReq extends PbCallback<AdminAddGroupReq> implements Si
     public int groupId;
     public String nodeIdOfMembers;
     public String nodeIdOfObservers;
+    public String nodeIdOfWitnesses;
 
     @Override
     public void encode(ByteBuffer buf) {
         PbUtil.writeInt32Field(buf, 1, groupId);
         PbUtil.writeAsciiField(buf, 2, nodeIdOfMembers);
         PbUtil.writeAsciiField(buf, 3, nodeIdOfObservers);
+        PbUtil.writeAsciiField(buf, 4, nodeIdOfWitnesses);
     }
 
     @Override
     public int actualSize() {
         return PbUtil.sizeOfInt32Field(1, groupId) +
                 PbUtil.sizeOfAscii(2, nodeIdOfMembers) +
-                PbUtil.sizeOfAscii(3, nodeIdOfObservers);
+                PbUtil.sizeOfAscii(3, nodeIdOfObservers) +
+                PbUtil.sizeOfAscii(4, nodeIdOfWitnesses);
     }
 
     @Override
@@ -62,6 +65,8 @@ public class AdminAddGroupReq extends PbCallback<AdminAddGroupReq> implements Si
             nodeIdOfMembers = parseUTF8(buf, fieldLen, currentPos);
         } else if (index == 3) {
             nodeIdOfObservers = parseUTF8(buf, fieldLen, currentPos);
+        } else if (index == 4) {
+            nodeIdOfWitnesses = parseUTF8(buf, fieldLen, currentPos);
         }
         return true;
     }
@@ -79,7 +79,8 @@ public class AdminConfigChangeProcessor extends RaftProcessor<Object> {
             type = "prepare";
             log(type, rg);
             AdminPrepareConfigChangeReq req = (AdminPrepareConfigChangeReq) reqFrame.getBody();
-            f = rg.leaderPrepareJointConsensus(req.members, req.observers, req.preparedMembers, req.preparedObservers);
+            f = rg.leaderPrepareJointConsensus(req.members, req.observers, req.preparedMembers, req.preparedObservers,
+                    req.snapshotSourceId);
         } else if (reqFrame.command == Commands.RAFT_ADMIN_COMMIT_CHANGE) {
             type = "commit";
             log(type, rg);
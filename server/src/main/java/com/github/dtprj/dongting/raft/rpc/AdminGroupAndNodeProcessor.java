@@ -116,6 +116,9 @@ public class AdminGroupAndNodeProcessor extends ReqProcessor<Object> {
 
     private void addGroup(AdminAddGroupReq req, ReqContext reqContext) {
         RaftGroupConfig c = factory.createConfig(req.groupId, req.nodeIdOfMembers, req.nodeIdOfObservers);
+        if (req.nodeIdOfWitnesses != null && !req.nodeIdOfWitnesses.isEmpty()) {
+            c.nodeIdOfWitnesses = req.nodeIdOfWitnesses;
+        }
         CompletableFuture<Void> f = server.addGroup(c);
         processResult(f, reqContext);
     }
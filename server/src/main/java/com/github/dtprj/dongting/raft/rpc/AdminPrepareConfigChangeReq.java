@@ -37,9 +37,14 @@ public class AdminPrepareConfigChangeReq extends RaftConfigRpcData implements Si
         repeated fixed32 observers = 3[packed = false];
         repeated fixed32 prepared_members = 4[packed = false];
         repeated fixed32 prepared_observers = 5[packed = false];
+        int32 snapshot_source = 6;
     }
      */
 
+    // the member which installs snapshot to the new nodes, 0 means the leader, -1 means choose
+    // a healthy follower automatically
+    public int snapshotSourceId;
+
     public AdminPrepareConfigChangeReq() {
     }
 
@@ -49,7 +54,8 @@ public class AdminPrepareConfigChangeReq extends RaftConfigRpcData implements Si
                 + PbUtil.sizeOfFix32Field(2, members)
                 + PbUtil.sizeOfFix32Field(3, observers)
                 + PbUtil.sizeOfFix32Field(4, preparedMembers)
-                + PbUtil.sizeOfFix32Field(5, preparedObservers);
+                + PbUtil.sizeOfFix32Field(5, preparedObservers)
+                + PbUtil.sizeOfInt32Field(6, snapshotSourceId);
     }
 
     @Override
@@ -59,6 +65,7 @@ public class AdminPrepareConfigChangeReq extends RaftConfigRpcData implements Si
         PbUtil.writeFix32Field(buf, 3, observers);
         PbUtil.writeFix32Field(buf, 4, preparedMembers);
         PbUtil.writeFix32Field(buf, 5, preparedObservers);
+        PbUtil.writeInt32Field(buf, 6, snapshotSourceId);
     }
 
     static final class Callback extends PbCallback<AdminPrepareConfigChangeReq> {
@@ -73,6 +80,8 @@ public class AdminPrepareConfigChangeReq extends RaftConfigRpcData implements Si
         public boolean readVarNumber(int index, long value) {
             if (index == 1) {
                 req.groupId = (int) value;
+            } else if (index == 6) {
+                req.snapshotSourceId = (int) value;
             }
             return true;
         }
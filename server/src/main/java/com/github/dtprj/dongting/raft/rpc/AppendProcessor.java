@@ -222,7 +222,7 @@ abstract class AbstractAppendFrame<C> extends FiberFrame<Void> {
         }
     }
 
-    protected FrameCallResult writeAppendResp(int code, int suggestTerm, long suggestIndex, String msg) {
+    protected AppendResp createAppendResp(int code) {
         AppendResp resp = new AppendResp();
         resp.term = gc.raftStatus.currentTerm;
         if (code == AppendProcessor.APPEND_SUCCESS) {
@@ -231,8 +231,17 @@ abstract class AbstractAppendFrame<C> extends FiberFrame<Void> {
             resp.success = false;
             resp.appendCode = code;
         }
+        return resp;
+    }
+
+    protected FrameCallResult writeAppendResp(int code, int suggestTerm, long suggestIndex, String msg) {
+        AppendResp resp = createAppendResp(code);
         resp.suggestTerm = suggestTerm;
         resp.suggestIndex = suggestIndex;
+        return writeAppendResp(resp, msg);
+    }
+
+    protected FrameCallResult writeAppendResp(AppendResp resp, String msg) {
         SimpleWritePacket p = new SimpleWritePacket(resp);
         p.respCode = CmdCodes.SUCCESS;
         p.msg = msg;
@@ -360,6 +369,9 @@ class AppendFiberFrame extends AbstractAppendFrame<AppendReq> {
     }
 
     private void updateLeaderCommit(AppendReq req, RaftStatusImpl raftStatus) {
+        if (raftStatus.witness) {
+            raftStatus.witnessDeleteBound = req.witnessDeleteBound;
+        }
         if (req.leaderCommit < raftStatus.commitIndex) {
             log.info("leader commitIndex less than local, maybe leader restart recently. leaderId={}," +
                             " leaderTerm={}, leaderCommitIndex={}, localCommitIndex={}, groupId={}",
@@ -474,12 +486,33 @@ class InstallFiberFrame extends AbstractAppendFrame<InstallSnapshotReq> {
         InstallSnapshotReq req = reqInfo.reqFrame.getBody();
         needRelease = false;
         if (!req.members.isEmpty()) {
+            if (req.offset > 0) {
+                return resumeInstall(raftStatus, req);
+            }
             return startInstall(raftStatus, req);
         } else {
             return doInstall(raftStatus, req);
         }
     }
 
+    private FrameCallResult resumeInstall(RaftStatusImpl raftStatus, InstallSnapshotReq req) {
+        reqInfo.reqFrame.clean();
+        AppendResp resp = createAppendResp(AppendProcessor.APPEND_SUCCESS);
+        if (raftStatus.installSnapshot && raftStatus.installLeaderId == req.leaderId
+                && raftStatus.installSnapshotIndex == req.lastIncludedIndex
+                && raftStatus.installSnapshotTerm == req.lastIncludedTerm
+                && raftStatus.installOffset >= req.offset) {
+            log.info("resume install snapshot, groupId={}, lastIncludedIndex={}, offset={}",
+                    groupId, req.lastIncludedIndex, raftStatus.installOffset);
+            resp.installOffset = raftStatus.installOffset;
+        } else {
+            log.info("can't resume install snapshot, groupId={}, lastIncludedIndex={}, leaderOffset={}, localOffset={}",
+                    groupId, req.lastIncludedIndex, req.offset, raftStatus.installOffset);
+            // resp.installOffset is 0, the leader should start a new install
+        }
+        return writeAppendResp(resp, null);
+    }
+
     private FrameCallResult startInstall(RaftStatusImpl raftStatus, InstallSnapshotReq req) {
         if (!markInstall) {
             log.info("start install snapshot, groupId={}, lastIncludedIndex={}, lastIncludedTerm={}",
@@ -507,7 +540,12 @@ class InstallFiberFrame extends AbstractAppendFrame<InstallSnapshotReq> {
         MemberManager mm = reqInfo.raftGroup.groupComponents.memberManager;
         InstallSnapshotReq req = reqInfo.reqFrame.getBody();
 
-        reqInfo.raftGroup.groupComponents.raftStatus.lastConfigChangeIndex = req.lastIncludedIndex;
+        RaftStatusImpl raftStatus = gc.raftStatus;
+        raftStatus.lastConfigChangeIndex = req.lastIncludedIndex;
+        raftStatus.installLeaderId = req.leaderId;
+        raftStatus.installSnapshotIndex = req.lastIncludedIndex;
+        raftStatus.installSnapshotTerm = req.lastIncludedTerm;
+        raftStatus.installOffset = 0;
 
         FiberFrame<Void> f = mm.applyConfigFrame("install snapshot config change",
                 req.members, req.observers, req.preparedMembers, req.preparedObservers);
@@ -519,21 +557,48 @@ class InstallFiberFrame extends AbstractAppendFrame<InstallSnapshotReq> {
             log.error("not in install snapshot state, groupId={}", groupId);
             return writeRespAndRelease(new RaftException("not in install snapshot state"));
         }
+        if (req.offset != raftStatus.installOffset) {
+            // the chunks are sent in pipeline, if some chunk is lost (timeout or disconnect),
+            // reject all following chunks, the leader will resume from installOffset
+            log.warn("install snapshot offset not match, groupId={}, reqOffset={}, expectOffset={}",
+                    groupId, req.offset, raftStatus.installOffset);
+            return writeRespAndRelease(new RaftException("install snapshot offset not match, expect "
+                    + raftStatus.installOffset + ", but " + req.offset));
+        }
         boolean done = req.done;
         ByteBuffer buf = req.data == null ? null : req.data.getBuffer();
         log.info("apply snapshot, groupId={}, offset={}, bytes={}, done={}", groupId,
                 req.offset, buf == null ? 0 : buf.remaining(), done);
-        FiberFuture<Void> f = gc.stateMachine.installSnapshot(req.lastIncludedIndex,
-                req.lastIncludedTerm, req.offset, done, buf);
+        if (buf != null) {
+            raftStatus.installOffset += buf.remaining();
+        }
+        FiberFuture<Void> f;
+        if (raftStatus.witness) {
+            // witness has no state machine data, only reset the raft log
+            f = FiberFuture.completedFuture(gc.fiberGroup, null);
+        } else {
+            f = gc.stateMachine.installSnapshot(req.lastIncludedIndex,
+                    req.lastIncludedTerm, req.offset, done, buf);
+        }
         if (done) {
             return f.await(v -> finishInstall(req, raftStatus));
         } else {
-            f.registerCallback((v, ex) -> writeRespAndRelease(ex));
+            f.registerCallback((v, ex) -> {
+                if (ex != null) {
+                    // the state machine is broken, can't resume
+                    raftStatus.installOffset = -1;
+                }
+                writeRespAndRelease(ex);
+            });
             return Fiber.frameReturn();
         }
     }
 
     private FrameCallResult finishInstall(InstallSnapshotReq req, RaftStatusImpl raftStatus) throws Exception {
+        if (raftStatus.installOffset < 0) {
+            // some previous chunk failed in state machine, the new install will reset it
+            return writeRespAndRelease(new RaftException("state machine install snapshot failed"));
+        }
         raftStatus.installSnapshot = false;
 
         raftStatus.setLastApplied(req.lastIncludedIndex);
@@ -40,6 +40,7 @@ import java.util.function.Function;
 //fixed64 leader_commit = 6;
 //int32 logs_size = 7;
 //repeated LogItem entries = 8[packed=false];
+//fixed64 witness_delete_bound = 9;
 //}
 public class AppendReq extends RaftRpcData implements DtCleanable {
     private static final DtLog log = DtLogs.getLogger(AppendReq.class);
@@ -52,6 +53,7 @@ public class AppendReq extends RaftRpcData implements DtCleanable {
     public static final int IDX_LEADER_COMMIT = 6;
     public static final int IDX_LOGS_SIZE = 7;
     public static final int IDX_ENTRIES = 8;
+    public static final int IDX_WITNESS_DELETE_BOUND = 9;
 
     // private int groupId;
     // private int term;
@@ -60,6 +62,8 @@ public class AppendReq extends RaftRpcData implements DtCleanable {
     public int prevLogTerm;
     public long leaderCommit;
     public ArrayList<LogItem> logs;
+    // only sent to witness, see RaftStatusImpl.witnessDeleteBound
+    public long witnessDeleteBound;
 
     @Override
     public void clean() {
@@ -126,6 +130,9 @@ public class AppendReq extends RaftRpcData implements DtCleanable {
                 case IDX_LEADER_COMMIT:
                     result.leaderCommit = value;
                     break;
+                case IDX_WITNESS_DELETE_BOUND:
+                    result.witnessDeleteBound = value;
+                    break;
             }
             return true;
         }
@@ -37,6 +37,7 @@ import java.util.List;
 //fixed64 leader_commit = 6;
 //int32 logs_size = 7;
 //repeated LogItem entries = 8[packed=false];
+//fixed64 witness_delete_bound = 9;
 //        }
 //
 //message LogItem {
@@ -48,6 +49,7 @@ import java.util.List;
 //fixed64 timestamp = 6;
 //bytes header = 7;
 //bytes body = 8;
+//bytes compressed_body = 9;
 //}
 public class AppendReqWritePacket extends WritePacket {
 
@@ -58,6 +60,7 @@ public class AppendReqWritePacket extends WritePacket {
     public int prevLogTerm;
     public long leaderCommit;
     public List<LogItem> logs;
+    public long witnessDeleteBound;
 
     private int headerSize;
 
@@ -81,7 +84,8 @@ public class AppendReqWritePacket extends WritePacket {
                 + PbUtil.sizeOfFix64Field(AppendReq.IDX_PREV_LOG_INDEX, prevLogIndex)
                 + PbUtil.sizeOfInt32Field(AppendReq.IDX_PREV_LOG_TERM, prevLogTerm)
                 + PbUtil.sizeOfFix64Field(AppendReq.IDX_LEADER_COMMIT, leaderCommit)
-                + PbUtil.sizeOfInt32Field(AppendReq.IDX_LOGS_SIZE, logs == null ? 0 : logs.size());
+                + PbUtil.sizeOfInt32Field(AppendReq.IDX_LOGS_SIZE, logs == null ? 0 : logs.size())
+                + PbUtil.sizeOfFix64Field(AppendReq.IDX_WITNESS_DELETE_BOUND, witnessDeleteBound);
         int x = headerSize;
         if (logs != null) {
             for (LogItem item : logs) {
@@ -106,7 +110,8 @@ public class AppendReqWritePacket extends WritePacket {
                 + PbUtil.sizeOfFix64Field(LogItem.IDX_TIMESTAMP, item.timestamp);
         itemSize = itemHeaderSize
                 + EncodeUtil.sizeOf(LogItem.IDX_HEADER, item.getHeader())
-                + EncodeUtil.sizeOf(LogItem.IDX_BODY, item.getBody());
+                + (item.getCompressedBody() == null ? EncodeUtil.sizeOf(LogItem.IDX_BODY, item.getBody())
+                : EncodeUtil.sizeOf(LogItem.IDX_COMPRESSED_BODY, item.getCompressedBody()));
         item.pbItemSize = itemSize;
         item.pbHeaderSize = itemHeaderSize;
         return itemSize;
@@ -127,6 +132,7 @@ public class AppendReqWritePacket extends WritePacket {
                     PbUtil.writeInt32Field(dest, AppendReq.IDX_PREV_LOG_TERM, prevLogTerm);
                     PbUtil.writeFix64Field(dest, AppendReq.IDX_LEADER_COMMIT, leaderCommit);
                     PbUtil.writeInt32Field(dest, AppendReq.IDX_LOGS_SIZE, logs == null ? 0 : logs.size());
+                    PbUtil.writeFix64Field(dest, AppendReq.IDX_WITNESS_DELETE_BOUND, witnessDeleteBound);
                     writeStatus = WRITE_ITEM_HEADER;
                     break;
                 case WRITE_ITEM_HEADER:
@@ -157,7 +163,13 @@ public class AppendReqWritePacket extends WritePacket {
                         return false;
                     }
                 case WRITE_ITEM_BIZ_BODY:
-                    if (EncodeUtil.encode(context, dest, LogItem.IDX_BODY, currentItem.getBody())) {
+                    boolean finish;
+                    if (currentItem.getCompressedBody() == null) {
+                        finish = EncodeUtil.encode(context, dest, LogItem.IDX_BODY, currentItem.getBody());
+                    } else {
+                        finish = EncodeUtil.encode(context, dest, LogItem.IDX_COMPRESSED_BODY, currentItem.getCompressedBody());
+                    }
+                    if (finish) {
                         writeStatus = WRITE_ITEM_HEADER;
                         currentItem = null;
                         encodeLogIndex++;
@@ -31,12 +31,15 @@ import java.nio.ByteBuffer;
 //  uint32 append_code = 3;
 //  uint32 suggest_term = 4;
 //  fixed64 suggest_index = 5;
+//  fixed64 install_offset = 6;
 public class AppendResp extends RaftRpcData implements SimpleEncodable {
     // public int term;
     public boolean success;
     public int appendCode;
     public int suggestTerm;
     public long suggestIndex;
+    // for install snapshot resume request, the offset follower expected, 0 means can't resume
+    public long installOffset;
 
     @Override
     public int actualSize() {
@@ -44,7 +47,8 @@ public class AppendResp extends RaftRpcData implements SimpleEncodable {
                 + PbUtil.sizeOfInt32Field(2, success ? 1 : 0)
                 + PbUtil.sizeOfInt32Field(3, appendCode)
                 + PbUtil.sizeOfInt32Field(4, suggestTerm)
-                + PbUtil.sizeOfFix64Field(5, suggestIndex);
+                + PbUtil.sizeOfFix64Field(5, suggestIndex)
+                + PbUtil.sizeOfFix64Field(6, installOffset);
     }
 
     @Override
@@ -54,6 +58,7 @@ public class AppendResp extends RaftRpcData implements SimpleEncodable {
         PbUtil.writeInt32Field(buf, 3, appendCode);
         PbUtil.writeInt32Field(buf, 4, suggestTerm);
         PbUtil.writeFix64Field(buf, 5, suggestIndex);
+        PbUtil.writeFix64Field(buf, 6, installOffset);
     }
 
     // re-used
@@ -94,6 +99,8 @@ public class AppendResp extends RaftRpcData implements SimpleEncodable {
         public boolean readFix64(int index, long value) {
             if (index == 5) {
                 result.suggestIndex = value;
+            } else if (index == 6) {
+                result.installOffset = value;
             }
             return true;
         }
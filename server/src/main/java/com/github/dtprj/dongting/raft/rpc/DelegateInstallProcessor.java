@@ -0,0 +1,107 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.rpc;
+
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.fiber.Fiber;
+import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.log.DtLog;
+import com.github.dtprj.dongting.log.DtLogs;
+import com.github.dtprj.dongting.net.PbLongWritePacket;
+import com.github.dtprj.dongting.net.ReadPacket;
+import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.impl.DelegateInstallFrame;
+import com.github.dtprj.dongting.raft.impl.GroupComponents;
+import com.github.dtprj.dongting.raft.impl.RaftMember;
+import com.github.dtprj.dongting.raft.impl.RaftRole;
+import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+
+/**
+ * Process the snapshot install delegated by the leader. The install runs in a separate daemon fiber, so the
+ * processor fiber is not blocked, the response is written after the install finished.
+ *
+ * @author huangli
+ */
+public class DelegateInstallProcessor extends RaftSequenceProcessor<DelegateInstallReq> {
+
+    private static final DtLog log = DtLogs.getLogger(DelegateInstallProcessor.class);
+
+    public DelegateInstallProcessor(RaftServer raftServer) {
+        super(raftServer, false, true);
+    }
+
+    @Override
+    public DecoderCallback<DelegateInstallReq> createDecoderCallback(int command, DecodeContext context) {
+        return context.toDecoderCallback(new DelegateInstallReq.Callback());
+    }
+
+    @Override
+    protected int getGroupId(ReadPacket<DelegateInstallReq> frame) {
+        return frame.getBody().groupId;
+    }
+
+    @Override
+    protected FiberFrame<Void> processInFiberGroup(ReqInfoEx<DelegateInstallReq> reqInfo) {
+        DelegateInstallReq req = reqInfo.reqFrame.getBody();
+        GroupComponents gc = reqInfo.raftGroup.groupComponents;
+        RaftStatusImpl raftStatus = gc.raftStatus;
+        RaftRole role = raftStatus.getRole();
+        RaftMember leader = raftStatus.getCurrentLeader();
+        String err = null;
+        if (role != RaftRole.follower && role != RaftRole.observer) {
+            err = "not follower or observer: " + role;
+        } else if (raftStatus.currentTerm != req.term) {
+            err = "term not match, reqTerm=" + req.term + ", localTerm=" + raftStatus.currentTerm;
+        } else if (leader == null || leader.node.nodeId != req.leaderId) {
+            err = "leader not match, reqLeader=" + req.leaderId;
+        } else if (raftStatus.installSnapshot) {
+            err = "self is installing snapshot";
+        } else if (req.targetNodeId == gc.serverConfig.nodeId) {
+            err = "target is self";
+        }
+        if (err != null) {
+            log.error("delegate install check fail, groupId={}, {}", req.groupId, err);
+            writeErrorResp(reqInfo, new RaftException(err));
+            return FiberFrame.voidCompletedFrame();
+        }
+        DelegateInstallFrame installFrame = new DelegateInstallFrame(gc, req.term, req.leaderId, req.targetNodeId);
+        // daemon fiber, don't block the group to stop
+        Fiber f = new Fiber("delegateInstall-" + req.targetNodeId, FiberGroup.currentGroup(), new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(installFrame, this::afterInstall);
+            }
+
+            private FrameCallResult afterInstall(Long lastIncludedIndex) {
+                reqInfo.reqContext.writeRespInBizThreads(new PbLongWritePacket(lastIncludedIndex));
+                return Fiber.frameReturn();
+            }
+
+            @Override
+            protected FrameCallResult handle(Throwable ex) {
+                log.error("delegate install fail, groupId={}, target={}", req.groupId, req.targetNodeId, ex);
+                writeErrorResp(reqInfo, ex);
+                return Fiber.frameReturn();
+            }
+        }, true);
+        f.start();
+        return FiberFrame.voidCompletedFrame();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.rpc;
+
+import com.github.dtprj.dongting.codec.PbCallback;
+import com.github.dtprj.dongting.codec.PbUtil;
+import com.github.dtprj.dongting.codec.SimpleEncodable;
+import com.github.dtprj.dongting.raft.RaftRpcData;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sent by the leader to a follower (or observer), ask it to install its own snapshot to the target node.
+ *
+ * @author huangli
+ */
+//message DelegateInstallReq {
+//uint32 group_id = 1;
+//uint32 term = 2;
+//uint32 leader_id = 3;
+//uint32 target_node_id = 4;
+//}
+public class DelegateInstallReq extends RaftRpcData implements SimpleEncodable {
+    // public int groupId;
+    // public int term;
+    public int leaderId;
+    public int targetNodeId;
+
+    public DelegateInstallReq() {
+    }
+
+    @Override
+    public int actualSize() {
+        return PbUtil.sizeOfInt32Field(1, groupId)
+                + PbUtil.sizeOfInt32Field(2, term)
+                + PbUtil.sizeOfInt32Field(3, leaderId)
+                + PbUtil.sizeOfInt32Field(4, targetNodeId);
+    }
+
+    @Override
+    public void encode(ByteBuffer buf) {
+        PbUtil.writeInt32Field(buf, 1, groupId);
+        PbUtil.writeInt32Field(buf, 2, term);
+        PbUtil.writeInt32Field(buf, 3, leaderId);
+        PbUtil.writeInt32Field(buf, 4, targetNodeId);
+    }
+
+    static final class Callback extends PbCallback<DelegateInstallReq> {
+        private final DelegateInstallReq req = new DelegateInstallReq();
+
+        @Override
+        public boolean readVarNumber(int index, long value) {
+            switch (index) {
+                case 1:
+                    req.groupId = (int) value;
+                    break;
+                case 2:
+                    req.term = (int) value;
+                    break;
+                case 3:
+                    req.leaderId = (int) value;
+                    break;
+                case 4:
+                    req.targetNodeId = (int) value;
+                    break;
+            }
+            return true;
+        }
+
+        @Override
+        public DelegateInstallReq getResult() {
+            return req;
+        }
+    }
+}
@@ -67,6 +67,8 @@ public class InstallSnapshotReq extends RaftConfigRpcData implements DtCleanable
     public int leaderId;
     public long lastIncludedIndex;
     public int lastIncludedTerm;
+    // if members is not empty (the first request of an install) and offset > 0, it's a resume request,
+    // the offset is the first data offset that leader still holds
     public long offset;
     public boolean done;
 
@@ -251,8 +253,17 @@ public class InstallSnapshotReq extends RaftConfigRpcData implements DtCleanable
             if (bufferSize == 0) {
                 return true;
             }
-            dest.put(req.data.getBuffer());
-            return !req.data.getBuffer().hasRemaining();
+            ByteBuffer src = req.data.getBuffer();
+            if (src.remaining() > dest.remaining()) {
+                // the dest buffer may be shared with other packets, copy part of data
+                int limit = src.limit();
+                src.limit(src.position() + dest.remaining());
+                dest.put(src);
+                src.limit(limit);
+            } else {
+                dest.put(src);
+            }
+            return !src.hasRemaining();
         }
 
         @Override
@@ -0,0 +1,208 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.rpc;
+
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.fiber.Fiber;
+import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.net.CmdCodes;
+import com.github.dtprj.dongting.net.EmptyBodyRespPacket;
+import com.github.dtprj.dongting.net.ReadPacket;
+import com.github.dtprj.dongting.raft.LogFetchReq;
+import com.github.dtprj.dongting.raft.impl.GroupComponents;
+import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
+import com.github.dtprj.dongting.raft.impl.RaftTask;
+import com.github.dtprj.dongting.raft.impl.TailCache;
+import com.github.dtprj.dongting.raft.server.LogItem;
+import com.github.dtprj.dongting.raft.server.RaftServer;
+import com.github.dtprj.dongting.raft.store.RaftLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process log fetch of LogTailConsumer. Each fetch runs in a separate fiber, if there is no committed log
+ * at the fetch index, the fiber waits for new commits at most waitMillis, so the processor fiber is not blocked.
+ * Only normal logs are returned, internal logs (heartbeat, config change, etc.) are skipped.
+ *
+ * @author huangli
+ */
+public class LogFetchProcessor extends RaftSequenceProcessor<LogFetchReq> {
+
+    public LogFetchProcessor(RaftServer raftServer) {
+        super(raftServer, true, false);
+    }
+
+    @Override
+    public DecoderCallback<LogFetchReq> createDecoderCallback(int command, DecodeContext context) {
+        return context.toDecoderCallback(new LogFetchReq.Callback());
+    }
+
+    @Override
+    protected int getGroupId(ReadPacket<LogFetchReq> frame) {
+        return frame.getBody().groupId;
+    }
+
+    @Override
+    protected FiberFrame<Void> processInFiberGroup(ReqInfoEx<LogFetchReq> reqInfo) {
+        LogFetchReq req = reqInfo.reqFrame.getBody();
+        if (req.fromIndex <= 0 || req.maxItems <= 0 || req.maxBytes <= 0) {
+            EmptyBodyRespPacket wf = new EmptyBodyRespPacket(CmdCodes.CLIENT_ERROR);
+            wf.msg = "invalid log fetch request";
+            reqInfo.reqContext.writeRespInBizThreads(wf);
+            return FiberFrame.voidCompletedFrame();
+        }
+        RaftStatusImpl raftStatus = reqInfo.raftGroup.groupComponents.raftStatus;
+        if (req.fromIndex < raftStatus.firstValidIndex) {
+            EmptyBodyRespPacket wf = new EmptyBodyRespPacket(CmdCodes.CLIENT_ERROR);
+            wf.msg = "log is truncated, fromIndex=" + req.fromIndex + ", firstValidIndex=" + raftStatus.firstValidIndex;
+            reqInfo.reqContext.writeRespInBizThreads(wf);
+            return FiberFrame.voidCompletedFrame();
+        }
+        // daemon fiber, don't block the group to stop
+        Fiber f = new Fiber("logFetch", FiberGroup.currentGroup(), new FetchFrame(reqInfo, req), true);
+        f.start();
+        return FiberFrame.voidCompletedFrame();
+    }
+
+    private class FetchFrame extends FiberFrame<Void> {
+        private final ReqInfoEx<LogFetchReq> reqInfo;
+        private final LogFetchReq req;
+        private final GroupComponents gc;
+        private final RaftStatusImpl raftStatus;
+        private final long deadlineNanos;
+
+        private long fetchIndex;
+        private RaftLog.LogIterator iterator;
+        private List<LogItem> items;
+
+        FetchFrame(ReqInfoEx<LogFetchReq> reqInfo, LogFetchReq req) {
+            this.reqInfo = reqInfo;
+            this.req = req;
+            this.gc = reqInfo.raftGroup.groupComponents;
+            this.raftStatus = gc.raftStatus;
+            this.deadlineNanos = raftStatus.ts.nanoTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, req.waitMillis));
+            this.fetchIndex = req.fromIndex;
+        }
+
+        @Override
+        public FrameCallResult execute(Void input) {
+            if (isGroupShouldStopPlain()) {
+                reqInfo.reqContext.writeRespInBizThreads(createStoppedResp(raftStatus.groupId));
+                return Fiber.frameReturn();
+            }
+            long commitIndex = raftStatus.commitIndex;
+            if (fetchIndex <= commitIndex) {
+                return load(commitIndex);
+            }
+            long rest = deadlineNanos - raftStatus.ts.nanoTime;
+            if (rest <= 0) {
+                writeResp(fetchIndex);
+                return Fiber.frameReturn();
+            }
+            return raftStatus.logCommitCondition.await(rest, TimeUnit.NANOSECONDS, this);
+        }
+
+        private FrameCallResult load(long commitIndex) {
+            long index = fetchIndex;
+            int limit = (int) Math.min(req.maxItems, commitIndex - index + 1);
+            TailCache tailCache = raftStatus.tailCache;
+            if (tailCache.get(index) != null) {
+                ArrayList<LogItem> list = new ArrayList<>(limit);
+                long size = 0;
+                for (int i = 0; i < limit; i++) {
+                    RaftTask rt = tailCache.get(index + i);
+                    if (rt == null) {
+                        break;
+                    }
+                    LogItem li = rt.item;
+                    size += li.getActualBodySize();
+                    if (i > 0 && size > req.maxBytes) {
+                        break;
+                    }
+                    li.retain();
+                    list.add(li);
+                }
+                items = list;
+                return afterLoad(list);
+            }
+            if (iterator == null) {
+                iterator = gc.raftLog.openIterator(null);
+            }
+            return Fiber.call(iterator.next(index, limit, req.maxBytes), this::afterLoad);
+        }
+
+        private FrameCallResult afterLoad(List<LogItem> list) {
+            items = list;
+            long nextIndex = list.get(list.size() - 1).index + 1;
+            ArrayList<LogItem> normalItems = new ArrayList<>(list.size());
+            for (LogItem li : list) {
+                if (li.type == LogItem.TYPE_NORMAL) {
+                    normalItems.add(li);
+                } else {
+                    li.release();
+                }
+            }
+            items = normalItems;
+            if (normalItems.isEmpty() && raftStatus.ts.nanoTime < deadlineNanos) {
+                // only internal logs, continue wait
+                fetchIndex = nextIndex;
+                items = null;
+                return Fiber.resume(null, this);
+            }
+            // the write packet release the items
+            writeResp(nextIndex);
+            return Fiber.frameReturn();
+        }
+
+        private void writeResp(long nextIndex) {
+            LogFetchRespWritePacket wf = new LogFetchRespWritePacket();
+            wf.groupId = raftStatus.groupId;
+            wf.nextIndex = nextIndex;
+            wf.commitIndex = raftStatus.commitIndex;
+            wf.logs = items;
+            wf.respCode = CmdCodes.SUCCESS;
+            items = null;
+            reqInfo.reqContext.writeRespInBizThreads(wf);
+        }
+
+        @Override
+        protected FrameCallResult handle(Throwable ex) {
+            if (items != null) {
+                for (LogItem li : items) {
+                    li.release();
+                }
+                items = null;
+            }
+            writeErrorResp(reqInfo, ex);
+            return Fiber.frameReturn();
+        }
+
+        @Override
+        protected FrameCallResult doFinally() {
+            if (iterator != null) {
+                DtUtil.close(iterator);
+                iterator = null;
+            }
+            return Fiber.frameReturn();
+        }
+    }
+}
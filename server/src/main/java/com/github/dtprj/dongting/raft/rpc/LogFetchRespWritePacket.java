@@ -0,0 +1,138 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.rpc;
+
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.codec.EncodeUtil;
+import com.github.dtprj.dongting.codec.PbUtil;
+import com.github.dtprj.dongting.net.WritePacket;
+import com.github.dtprj.dongting.raft.LogFetchResp;
+import com.github.dtprj.dongting.raft.LogRecord;
+import com.github.dtprj.dongting.raft.impl.RaftUtil;
+import com.github.dtprj.dongting.raft.server.LogItem;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encode LogItems as LogFetchResp, the body is always written uncompressed.
+ *
+ * @author huangli
+ */
+public class LogFetchRespWritePacket extends WritePacket {
+
+    public int groupId;
+    public long nextIndex;
+    public long commitIndex;
+    public List<LogItem> logs;
+
+    private int headerSize;
+    private int[] itemHeaderSizes;
+    private int[] itemSizes;
+
+    private static final int WRITE_HEADER = 0;
+    private static final int WRITE_ITEM_HEADER = 1;
+    private static final int WRITE_ITEM_BIZ_HEADER = 2;
+    private static final int WRITE_ITEM_BIZ_BODY = 3;
+    private int writeStatus;
+    private int encodeLogIndex;
+
+    private LogItem currentItem;
+
+    @Override
+    protected int calcActualBodySize() {
+        int count = logs == null ? 0 : logs.size();
+        headerSize = PbUtil.sizeOfInt32Field(LogFetchResp.IDX_GROUP_ID, groupId)
+                + PbUtil.sizeOfFix64Field(LogFetchResp.IDX_NEXT_INDEX, nextIndex)
+                + PbUtil.sizeOfFix64Field(LogFetchResp.IDX_COMMIT_INDEX, commitIndex)
+                + PbUtil.sizeOfInt32Field(LogFetchResp.IDX_RECORDS_SIZE, count);
+        int x = headerSize;
+        itemHeaderSizes = new int[count];
+        itemSizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            LogItem item = logs.get(i);
+            int h = PbUtil.sizeOfInt32Field(LogRecord.IDX_BIZ_TYPE, item.bizType)
+                    + PbUtil.sizeOfInt32Field(LogRecord.IDX_TERM, item.term)
+                    + PbUtil.sizeOfFix64Field(LogRecord.IDX_INDEX, item.index)
+                    + PbUtil.sizeOfFix64Field(LogRecord.IDX_TIMESTAMP, item.timestamp);
+            int itemSize = h + EncodeUtil.sizeOf(LogRecord.IDX_HEADER, item.getHeader())
+                    + EncodeUtil.sizeOf(LogRecord.IDX_BODY, item.getBody());
+            itemHeaderSizes[i] = h;
+            itemSizes[i] = itemSize;
+            x += PbUtil.sizeOfLenFieldPrefix(LogFetchResp.IDX_RECORDS, itemSize) + itemSize;
+        }
+        return x;
+    }
+
+    @Override
+    protected boolean encodeBody(EncodeContext context, ByteBuffer dest) {
+        while (true) {
+            switch (writeStatus) {
+                case WRITE_HEADER:
+                    if (dest.remaining() < headerSize) {
+                        return false;
+                    }
+                    PbUtil.writeInt32Field(dest, LogFetchResp.IDX_GROUP_ID, groupId);
+                    PbUtil.writeFix64Field(dest, LogFetchResp.IDX_NEXT_INDEX, nextIndex);
+                    PbUtil.writeFix64Field(dest, LogFetchResp.IDX_COMMIT_INDEX, commitIndex);
+                    PbUtil.writeInt32Field(dest, LogFetchResp.IDX_RECORDS_SIZE, logs == null ? 0 : logs.size());
+                    writeStatus = WRITE_ITEM_HEADER;
+                    break;
+                case WRITE_ITEM_HEADER:
+                    if (logs != null && encodeLogIndex < logs.size()) {
+                        currentItem = logs.get(encodeLogIndex);
+                    } else {
+                        return true;
+                    }
+                    int itemSize = itemSizes[encodeLogIndex];
+                    if (dest.remaining() < PbUtil.sizeOfLenFieldPrefix(LogFetchResp.IDX_RECORDS, itemSize)
+                            + itemHeaderSizes[encodeLogIndex]) {
+                        return false;
+                    }
+                    PbUtil.writeLenFieldPrefix(dest, LogFetchResp.IDX_RECORDS, itemSize);
+                    PbUtil.writeInt32Field(dest, LogRecord.IDX_BIZ_TYPE, currentItem.bizType);
+                    PbUtil.writeInt32Field(dest, LogRecord.IDX_TERM, currentItem.term);
+                    PbUtil.writeFix64Field(dest, LogRecord.IDX_INDEX, currentItem.index);
+                    PbUtil.writeFix64Field(dest, LogRecord.IDX_TIMESTAMP, currentItem.timestamp);
+                    writeStatus = WRITE_ITEM_BIZ_HEADER;
+                    break;
+                case WRITE_ITEM_BIZ_HEADER:
+                    if (EncodeUtil.encode(context, dest, LogRecord.IDX_HEADER, currentItem.getHeader())) {
+                        writeStatus = WRITE_ITEM_BIZ_BODY;
+                        break;
+                    } else {
+                        return false;
+                    }
+                case WRITE_ITEM_BIZ_BODY:
+                    if (EncodeUtil.encode(context, dest, LogRecord.IDX_BODY, currentItem.getBody())) {
+                        writeStatus = WRITE_ITEM_HEADER;
+                        currentItem = null;
+                        encodeLogIndex++;
+                        break;
+                    } else {
+                        return false;
+                    }
+                default:
+                    throw new IllegalStateException("unknown write status " + writeStatus);
+            }
+        }
+    }
+
+    @Override
+    protected void doClean() {
+        RaftUtil.release(logs);
+    }
+}
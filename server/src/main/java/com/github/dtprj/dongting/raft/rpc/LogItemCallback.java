@@ -15,11 +15,13 @@
  */
 package com.github.dtprj.dongting.raft.rpc;
 
+import com.github.dtprj.dongting.codec.DecodeContext;
 import com.github.dtprj.dongting.codec.DecoderCallback;
 import com.github.dtprj.dongting.codec.Encodable;
 import com.github.dtprj.dongting.codec.PbCallback;
 import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
 import com.github.dtprj.dongting.raft.server.LogItem;
 import com.github.dtprj.dongting.raft.sm.RaftCodecFactory;
 
@@ -125,6 +127,20 @@ class LogItemCallback extends PbCallback<Object> {
             if (end) {
                 item.setBody(result);
             }
+        } else if (index == LogItem.IDX_COMPRESSED_BODY) {
+            ByteArray compressed = parseNested(buf, len, currentPos, begin ? new ByteArray.Callback() : null);
+            if (end) {
+                byte[] raw = LogCompressor.decompress(compressed);
+                DecodeContext c = context.createOrGetNestedContext();
+                currentDecoderCallback = codecFactory.createBodyCallback(item.bizType, c);
+                if (currentDecoderCallback == null) {
+                    throw new RaftException("no decoder for body, bizType=" + item.bizType);
+                }
+                // keep the compressed body, so the follower can write it to log file directly
+                item.setCompressedBody(compressed);
+                item.setActualBodySize(raw.length);
+                item.setBody(LogCompressor.decodeBody(raw, currentDecoderCallback, c));
+            }
         }
         return true;
     }
@@ -70,7 +70,7 @@ public class VoteProcessor extends RaftSequenceProcessor<VoteReq> {
 
         @Override
         public FrameCallResult execute(Void input) {
-            if (!MemberManager.validCandidate(raftStatus, voteReq.candidateId)) {
+            if (!MemberManager.canBeLeader(raftStatus, voteReq.candidateId)) {
                 log.warn("receive vote request from unknown member. remoteId={}, group={}, remote={}",
                         voteReq.candidateId, voteReq.groupId,
                         reqInfo.reqContext.getDtChannel().getRemoteAddr());
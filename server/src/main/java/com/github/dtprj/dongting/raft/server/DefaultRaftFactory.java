@@ -33,6 +33,7 @@ import com.github.dtprj.dongting.raft.store.StatusManager;
 
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -71,10 +72,20 @@ public abstract class DefaultRaftFactory implements RaftFactory {
 
     @Override
     public SnapshotManager createSnapshotManager(RaftGroupConfigEx groupConfig, StateMachine stateMachine,
-                                                 Supplier<FiberFuture<Snapshot>> snapshotCreator, RaftLog raftLog) {
-        Consumer<Long> logDeleter = lastIncludeIndex -> raftLog.markTruncateByIndex(
-                lastIncludeIndex, groupConfig.autoDeleteLogDelaySeconds * 1000L);
-        return new DefaultSnapshotManager(groupConfig, stateMachine, snapshotCreator, logDeleter);
+                                                 Supplier<FiberFuture<Snapshot>> snapshotCreator,
+                                                 Function<Long, FiberFuture<Snapshot>> checkpointCreator,
+                                                 RaftLog raftLog) {
+        Consumer<Long> logDeleter = lastIncludeIndex -> {
+            long delayMillis = groupConfig.autoDeleteLogDelaySeconds * 1000L;
+            if (groupConfig.logRetentionSeconds > 0) {
+                // the snapshot index is still the upper bound of the deletion
+                long timestampBound = groupConfig.ts.wallClockMillis - groupConfig.logRetentionSeconds * 1000L;
+                raftLog.markTruncateByTimestamp(timestampBound, delayMillis);
+            } else {
+                raftLog.markTruncateByIndex(lastIncludeIndex, delayMillis);
+            }
+        };
+        return new DefaultSnapshotManager(groupConfig, stateMachine, snapshotCreator, checkpointCreator, logDeleter);
     }
 
     @Override
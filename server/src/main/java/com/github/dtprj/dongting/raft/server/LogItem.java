@@ -16,6 +16,7 @@
 package com.github.dtprj.dongting.raft.server;
 
 import com.github.dtprj.dongting.codec.Encodable;
+import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.RefCount;
 
 /**
@@ -31,6 +32,7 @@ public class LogItem {
     //    fixed64 timestamp = 6;
     //    bytes header = 7;
     //    bytes body = 8;
+    //    bytes compressed_body = 9;
     //}
     public static final int IDX_TYPE = 1;
     public static final int IDX_BIZ_TYPE = 2;
@@ -40,6 +42,7 @@ public class LogItem {
     public static final int IDX_TIMESTAMP = 6;
     public static final int IDX_HEADER = 7;
     public static final int IDX_BODY = 8;
+    public static final int IDX_COMPRESSED_BODY = 9;
 
     public static final int TYPE_NORMAL = 0;
     public static final int TYPE_HEARTBEAT = 1;
@@ -63,6 +66,9 @@ public class LogItem {
     private boolean headerIsRefCount;
     private int actualHeaderSize = -1;
 
+    // not null if the body is compressed, used to write log file and replicate, see LogCompressor
+    private ByteArray compressedBody;
+
     public int pbHeaderSize;
     public int pbItemSize;
 
@@ -137,4 +143,12 @@ public class LogItem {
         this.actualHeaderSize = actualHeaderSize;
     }
 
+    public ByteArray getCompressedBody() {
+        return compressedBody;
+    }
+
+    public void setCompressedBody(ByteArray compressedBody) {
+        this.compressedBody = compressedBody;
+    }
+
 }
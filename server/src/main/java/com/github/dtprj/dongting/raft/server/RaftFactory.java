@@ -26,6 +26,7 @@ import com.github.dtprj.dongting.raft.store.RaftLog;
 import com.github.dtprj.dongting.raft.store.StatusManager;
 
 import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 /**
@@ -44,7 +45,8 @@ public interface RaftFactory {
     RaftLog createRaftLog(RaftGroupConfigEx groupConfig, StatusManager statusManager, RaftCodecFactory codecFactory);
 
     SnapshotManager createSnapshotManager(RaftGroupConfigEx groupConfig, StateMachine stateMachine,
-                                          Supplier<FiberFuture<Snapshot>> snapshotCreator, RaftLog raftLog);
+                                          Supplier<FiberFuture<Snapshot>> snapshotCreator,
+                                          Function<Long, FiberFuture<Snapshot>> checkpointCreator, RaftLog raftLog);
 
     Dispatcher createDispatcher(RaftServerConfig serverConfig, RaftGroupConfig groupConfig);
 
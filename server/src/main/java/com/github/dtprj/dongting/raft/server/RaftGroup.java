@@ -87,8 +87,19 @@ public abstract class RaftGroup {
     /**
      * ADMIN API. This method is idempotent. This method should be called on the leader; otherwise, it will throw a NotLeaderException.
      */
+    public CompletableFuture<Long> leaderPrepareJointConsensus(Set<Integer> members, Set<Integer> observers,
+            Set<Integer> prepareMembers, Set<Integer> prepareObservers) {
+        return leaderPrepareJointConsensus(members, observers, prepareMembers, prepareObservers, 0);
+    }
+
+    /**
+     * ADMIN API. This method is idempotent. This method should be called on the leader; otherwise, it will throw a NotLeaderException.
+     * The snapshotSourceId is the member which installs snapshot to the new nodes, 0 means the leader,
+     * -1 means choose a healthy follower automatically. The leader installs the snapshot itself if the
+     * install from the source fails.
+     */
     public abstract CompletableFuture<Long> leaderPrepareJointConsensus(Set<Integer> members, Set<Integer> observers,
-            Set<Integer> prepareMembers, Set<Integer> prepareObservers);
+            Set<Integer> prepareMembers, Set<Integer> prepareObservers, int snapshotSourceId);
 
     /**
      * ADMIN API. This method is idempotent. This method should be called on the leader; otherwise, it will throw a NotLeaderException.
@@ -25,6 +25,9 @@ public class RaftGroupConfig {
     public final int groupId;
     public final String nodeIdOfMembers;
     public final String nodeIdOfObservers;
+    // comma separated subset of nodeIdOfMembers. witnesses vote and persist logs (so count in quorum),
+    // but never apply logs to state machine and never become leader.
+    public String nodeIdOfWitnesses;
     public String dataDir = "./data";
     public String statusFile = "raft.status";
     public int[] ioRetryInterval = new int[]{100, 1000, 3000, 5000, 10000, 20000};
@@ -45,6 +48,22 @@ public class RaftGroupConfig {
     public int idxCacheSize = 16 * 1024;
     public int idxFlushThreshold = 8 * 1024;
     public long logFileSize = 1024 * 1024 * 1024;
+    // max deleted files kept (for each of log and idx queue) to be reused as new files, a reused file is already
+    // allocated, so the first writes to it need no block allocation. 0 means delete the files directly.
+    public int maxRecycleFiles = 0;
+    // zero-fill a recycled file once before reuse, not required by the log restore
+    public boolean zeroFillRecycleFile = false;
+    // write the block aligned part of log file (not idx file) with O_DIRECT, to keep the log data out of page cache.
+    // the unaligned head and tail of each write still go through page cache. fall back to buffered io if the file
+    // system not support it.
+    public boolean logDirectIo = false;
+    // when restore, read the next block of log file when check the crc of current block
+    public boolean restoreReadAhead = true;
+
+    // compress log body (of normal type) when write log file and replicate, see LogCompressor.
+    // 0 means no compression, 1 means deflate. logs are readable whatever this value is.
+    public int logCompressType = 0;
+    public int logCompressThreshold = 1024;
 
     public boolean ioCallbackUseGroupExecutor = false;
 
@@ -55,15 +74,36 @@ public class RaftGroupConfig {
     public int snapshotConcurrency = 1;
     public int diskSnapshotConcurrency = 4; // disk snapshot read/write concurrency
     public int diskSnapshotBufferSize = 64 * 1024;
+    // read the snapshot file in large blocks (diskSnapshotConcurrency outstanding reads) when recovering,
+    // 0 to disable read-ahead
+    public int diskSnapshotReadAheadSize = 2 * 1024 * 1024;
     public int replicateSnapshotConcurrency = 4;
     public int replicateSnapshotBufferSize = 64 * 1024;
+    // keep the snapshot and un-acked chunks of a broken install for a while, so it can resume from
+    // the follower's offset after reconnect, 0 to disable
+    public int installResumeSeconds = 300;
+    // max time of a snapshot install delegated to a follower (see AdminPrepareConfigChangeReq.snapshotSourceId),
+    // the leader installs the snapshot itself if the delegated install fails or timeout
+    public int delegateInstallTimeoutSeconds = 3600;
 
     public int saveSnapshotSeconds = 3600;
+    // save an incremental checkpoint between two snapshots to bound the log replay on restart,
+    // 0 means disabled. require state machine support, see StateMachine.takeCheckpoint.
+    public int saveCheckpointSeconds = 0;
     public int maxKeepSnapshots = 2;
     public boolean saveSnapshotWhenClose = true;
     public int autoDeleteLogDelaySeconds = 60;
 
     public boolean deleteLogsAfterTakeSnapshot = true;
+    // if positive, logs covered by snapshot are deleted only when older than this, so the log tail
+    // consumers (see LogFetchProcessor) can read them. 0 means delete logs once covered by snapshot.
+    public long logRetentionSeconds = 0;
+    // if not null, the log and idx files are moved to the "log" and "idx" sub dir of this dir instead of deleted,
+    // and still readable by replicate and log fetch, so a lagging follower can catch up without install snapshot.
+    // it can be on a cheaper disk, but each group should use a different dir.
+    public String archiveDir = null;
+    // archived files older than this are deleted, 0 means keep them until install snapshot
+    public long archiveRetentionSeconds = 7 * 24 * 3600;
 
     RaftGroupConfig(int groupId, String nodeIdOfMembers, String nodeIdOfObservers) {
         this.groupId = groupId;
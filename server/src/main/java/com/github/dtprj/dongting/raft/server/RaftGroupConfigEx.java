@@ -17,6 +17,7 @@ package com.github.dtprj.dongting.raft.server;
 
 import com.github.dtprj.dongting.common.Timestamp;
 import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.raft.store.SharedWal;
 
 import java.util.concurrent.ExecutorService;
 
@@ -30,6 +31,8 @@ public class RaftGroupConfigEx extends RaftGroupConfig {
     public ExecutorService blockIoExecutor;
     public FiberGroup fiberGroup;
     public RaftServer raftServer;
+    // null if RaftServerConfig.sharedWalDir is not set
+    public SharedWal sharedWal;
 
     public RaftGroupConfigEx(int groupId, String nodeIdOfMembers, String nodeIdOfObservers) {
         super(groupId, nodeIdOfMembers, nodeIdOfObservers);
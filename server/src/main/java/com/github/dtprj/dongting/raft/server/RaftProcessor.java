@@ -90,12 +90,6 @@ public abstract class RaftProcessor<T> extends ReqProcessor<T> {
             return createWrongPortRest(packet, reqContext);
         }
         if (servicePort) {
-            if (!raftServer.isGroupReady()) {
-                packet.clean();
-                EmptyBodyRespPacket wf = new EmptyBodyRespPacket(CmdCodes.NOT_INIT);
-                wf.msg = "raft server not ready";
-                return wf;
-            }
             if (raftServer.getStatus() > AbstractLifeCircle.STATUS_RUNNING) {
                 packet.clean();
                 EmptyBodyRespPacket wf = new EmptyBodyRespPacket(CmdCodes.STOPPING);
@@ -112,6 +106,13 @@ public abstract class RaftProcessor<T> extends ReqProcessor<T> {
             log.error(errorResp.msg);
             return errorResp;
         }
+        // each group serves as soon as itself is ready, no need to wait other groups restored
+        if (servicePort && !raftServer.isGroupReady() && !g.groupComponents.raftStatus.firstReadyFuture.isDone()) {
+            packet.clean();
+            EmptyBodyRespPacket wf = new EmptyBodyRespPacket(CmdCodes.NOT_INIT);
+            wf.msg = "raft group not ready: " + groupId;
+            return wf;
+        }
         ReqInfoEx<T> reqInfo = new ReqInfoEx<>(packet, reqContext, g);
         RaftShareStatus ss = g.groupComponents.raftStatus.getShareStatus();
         if (!ss.initFinished && packet.command != Commands.RAFT_QUERY_STATUS) {
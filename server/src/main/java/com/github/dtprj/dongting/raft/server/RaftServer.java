@@ -42,6 +42,7 @@ import com.github.dtprj.dongting.raft.RaftNode;
 import com.github.dtprj.dongting.raft.impl.ApplyManager;
 import com.github.dtprj.dongting.raft.impl.CommitManager;
 import com.github.dtprj.dongting.raft.impl.DecodeContextEx;
+import com.github.dtprj.dongting.raft.impl.FileUtil;
 import com.github.dtprj.dongting.raft.impl.GroupComponents;
 import com.github.dtprj.dongting.raft.impl.InitFiberFrame;
 import com.github.dtprj.dongting.raft.impl.LinearTaskRunner;
@@ -59,6 +60,8 @@ import com.github.dtprj.dongting.raft.rpc.AdminConfigChangeProcessor;
 import com.github.dtprj.dongting.raft.rpc.AdminGroupAndNodeProcessor;
 import com.github.dtprj.dongting.raft.rpc.AdminTransferLeaderProcessor;
 import com.github.dtprj.dongting.raft.rpc.AppendProcessor;
+import com.github.dtprj.dongting.raft.rpc.DelegateInstallProcessor;
+import com.github.dtprj.dongting.raft.rpc.LogFetchProcessor;
 import com.github.dtprj.dongting.raft.rpc.NodePingProcessor;
 import com.github.dtprj.dongting.raft.rpc.QueryStatusProcessor;
 import com.github.dtprj.dongting.raft.rpc.RaftPingProcessor;
@@ -67,10 +70,13 @@ import com.github.dtprj.dongting.raft.rpc.TransferLeaderProcessor;
 import com.github.dtprj.dongting.raft.rpc.VoteProcessor;
 import com.github.dtprj.dongting.raft.sm.StateMachine;
 import com.github.dtprj.dongting.raft.store.RaftLog;
+import com.github.dtprj.dongting.raft.store.SharedWal;
 import com.github.dtprj.dongting.raft.store.StatusManager;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -103,6 +109,8 @@ public class RaftServer extends AbstractLifeCircle {
 
     private final ExecutorService sharedIoExecutor;
 
+    private final SharedWal sharedWal;
+
     private Runnable persistConfigTask;
 
     // indicate each group has enough members (>= elect quorum) raft ping ok
@@ -180,6 +188,8 @@ public class RaftServer extends AbstractLifeCircle {
         addRaftGroupProcessor(nioServer, Commands.RAFT_TRANSFER_LEADER, new TransferLeaderProcessor(this));
         QueryStatusProcessor queryStatusProcessor = new QueryStatusProcessor(this);
         addRaftGroupProcessor(nioServer, Commands.RAFT_QUERY_STATUS, queryStatusProcessor);
+        addRaftGroupProcessor(nioServer, Commands.RAFT_LOG_FETCH, new LogFetchProcessor(this));
+        addRaftGroupProcessor(nioServer, Commands.RAFT_DELEGATE_INSTALL, new DelegateInstallProcessor(this));
         AdminConfigChangeProcessor adminConfigChangeProcessor = new AdminConfigChangeProcessor(this);
         nioServer.register(Commands.RAFT_ADMIN_PREPARE_CHANGE, adminConfigChangeProcessor);
         nioServer.register(Commands.RAFT_ADMIN_COMMIT_CHANGE, adminConfigChangeProcessor);
@@ -195,6 +205,7 @@ public class RaftServer extends AbstractLifeCircle {
         AtomicInteger count = new AtomicInteger();
         this.sharedIoExecutor = Executors.newFixedThreadPool(serverConfig.blockIoThreads,
                 r -> new Thread(r, "raft-io-" + count.incrementAndGet()));
+        this.sharedWal = serverConfig.sharedWalDir == null ? null : new SharedWal(serverConfig);
 
         createRaftGroups(serverConfig, groupConfig, allNodeIds);
     }
@@ -254,6 +265,19 @@ public class RaftServer extends AbstractLifeCircle {
             nodeIdOfObservers = Collections.emptySet();
         }
 
+        Set<Integer> nodeIdOfWitnesses;
+        if (rgc.nodeIdOfWitnesses != null && !rgc.nodeIdOfWitnesses.trim().isEmpty()) {
+            nodeIdOfWitnesses = parseMemberIds(allNodeIds, rgc.nodeIdOfWitnesses, rgc.groupId);
+            if (!nodeIdOfMembers.containsAll(nodeIdOfWitnesses)) {
+                throw new IllegalArgumentException("witness must be member: " + rgc.nodeIdOfWitnesses);
+            }
+            if (nodeIdOfWitnesses.size() == nodeIdOfMembers.size()) {
+                throw new IllegalArgumentException("all members are witnesses in group: " + rgc.groupId);
+            }
+        } else {
+            nodeIdOfWitnesses = Collections.emptySet();
+        }
+
         boolean isMember = nodeIdOfMembers.contains(serverConfig.nodeId);
         boolean isObserver = nodeIdOfObservers.contains(serverConfig.nodeId);
         if (!isMember && !isObserver) {
@@ -267,6 +291,8 @@ public class RaftServer extends AbstractLifeCircle {
         raftStatus.tailCache = new TailCache(rgc, raftStatus);
         raftStatus.nodeIdOfMembers = nodeIdOfMembers;
         raftStatus.nodeIdOfObservers = nodeIdOfObservers;
+        raftStatus.nodeIdOfWitnesses = nodeIdOfWitnesses;
+        raftStatus.witness = nodeIdOfWitnesses.contains(serverConfig.nodeId);
 
         RaftGroupConfigEx rgcEx = createGroupConfigEx(rgc, raftStatus, fiberGroup);
 
@@ -294,7 +320,8 @@ public class RaftServer extends AbstractLifeCircle {
         gc.commitManager = commitManager;
         gc.applyManager = applyManager;
         gc.nodeManager = nodeManager;
-        gc.snapshotManager = raftFactory.createSnapshotManager(rgcEx, stateMachine, applyManager::requestTakeSnapshot, raftLog);
+        gc.snapshotManager = raftFactory.createSnapshotManager(rgcEx, stateMachine, applyManager::requestTakeSnapshot,
+                applyManager::requestTakeCheckpoint, raftLog);
         gc.statusManager = statusManager;
         gc.linearTaskRunner = linearTaskRunner;
 
@@ -325,6 +352,7 @@ public class RaftServer extends AbstractLifeCircle {
             rgcEx.blockIoExecutor = raftFactory.createBlockIoExecutor(serverConfig, rgcEx);
         }
         rgcEx.raftServer = this;
+        rgcEx.sharedWal = sharedWal;
         return rgcEx;
     }
 
@@ -354,6 +382,14 @@ public class RaftServer extends AbstractLifeCircle {
             // sync but should complete soon
             nodeManager.initNodes(raftGroups);
 
+            if (sharedWal != null) {
+                // load old wal records, which are written back to log files in the init of each group
+                sharedWal.start();
+                CompletableFuture<?>[] initFutures = raftGroups.values().stream()
+                        .map(g -> g.groupComponents.raftStatus.initFuture).toArray(CompletableFuture[]::new);
+                CompletableFuture.allOf(initFutures).thenRun(sharedWal::finishReplay);
+            }
+
             // start all fiber group
             ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
             raftGroups.forEach((groupId, g) -> {
@@ -369,25 +405,73 @@ public class RaftServer extends AbstractLifeCircle {
             // should complete soon, so we wait here
             CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
 
-            // init raft log and state machine, async in raft thread
-            futures.clear();
-            raftGroups.forEach((groupId, g) -> {
-                initRaftGroup(g);
-                futures.add(g.groupComponents.raftStatus.initFuture);
-            });
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, ex) -> {
+            // init raft log and state machine, async in raft thread.
+            // each group starts member ping after its own init finished and node ping ready,
+            // so a group can elect and serve without waiting for other groups.
+            ArrayList<CompletableFuture<Void>> memberReadyFutures = new ArrayList<>();
+            raftGroups.forEach((groupId, g) -> memberReadyFutures.add(g.groupComponents.raftStatus.initFuture
+                    .thenCompose(v -> nodeManager.getNodePingReadyFuture())
+                    .thenCompose(v -> checkStartStatus() ? startMemberPing(g)
+                            : CompletableFuture.failedFuture(new RaftException("server is not running")))));
+            CompletableFuture.allOf(memberReadyFutures.toArray(new CompletableFuture[0])).whenComplete((v, ex) -> {
                 if (ex != null) {
                     finishAllMemberReadyFuture(ex);
                 } else if (checkStartStatus()) {
-                    startNodePing();
+                    finishAllMemberReadyFuture(null);
                 }
             });
+
+            List<RaftGroupImpl> initQueue = sortGroupsForInit();
+            AtomicInteger nextInitIndex = new AtomicInteger();
+            int concurrency = Math.max(1, serverConfig.initGroupConcurrency);
+            for (int i = 0; i < concurrency; i++) {
+                initNextGroup(initQueue, nextInitIndex);
+            }
+
+            startNodePing();
         } catch (Exception e) {
             log.error("start raft server failed", e);
             throw new RaftException(e);
         }
     }
 
+    // groups with more data init first, since they need more time to restore
+    private List<RaftGroupImpl> sortGroupsForInit() {
+        ArrayList<RaftGroupImpl> list = new ArrayList<>(raftGroups.values());
+        HashMap<Integer, Long> sizes = new HashMap<>();
+        for (RaftGroupImpl g : list) {
+            sizes.put(g.getGroupId(), FileUtil.dirSize(new File(g.groupComponents.groupConfig.dataDir)));
+        }
+        list.sort((g1, g2) -> Long.compare(sizes.get(g2.getGroupId()), sizes.get(g1.getGroupId())));
+        return list;
+    }
+
+    // init groups with limited concurrency, a group finished init triggers the next one
+    private void initNextGroup(List<RaftGroupImpl> initQueue, AtomicInteger nextInitIndex) {
+        if (status > STATUS_RUNNING) {
+            return;
+        }
+        int i = nextInitIndex.getAndIncrement();
+        if (i >= initQueue.size()) {
+            return;
+        }
+        RaftGroupImpl g = initQueue.get(i);
+        CompletableFuture<Void> initFuture = g.groupComponents.raftStatus.initFuture;
+        try {
+            initRaftGroup(g);
+        } catch (Exception e) {
+            log.error("init raft group failed, groupId={}", g.getGroupId(), e);
+            initFuture.completeExceptionally(e);
+        }
+        initFuture.whenComplete((v, ex) -> {
+            if (ex == null) {
+                log.info("raft group init finished, groupId={}, {} groups left", g.getGroupId(),
+                        Math.max(0, initQueue.size() - nextInitIndex.get()));
+            }
+            initNextGroup(initQueue, nextInitIndex);
+        });
+    }
+
     private boolean checkStartStatus() {
         if (status > STATUS_RUNNING) {
             IllegalStateException ex = new IllegalStateException("server is not running: " + status);
@@ -418,8 +502,6 @@ public class RaftServer extends AbstractLifeCircle {
             nodeManager.getNodePingReadyFuture().whenComplete((v, ex) -> {
                 if (ex != null) {
                     finishAllMemberReadyFuture(ex);
-                } else if (checkStartStatus()) {
-                    startMemberPing();
                 }
             });
         } catch (Exception e) {
@@ -428,24 +510,6 @@ public class RaftServer extends AbstractLifeCircle {
         }
     }
 
-    private void startMemberPing() {
-        try {
-            ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
-            raftGroups.forEach((groupId, g) -> futures.add(startMemberPing(g)));
-
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, ex) -> {
-                if (ex != null) {
-                    finishAllMemberReadyFuture(ex);
-                } else if (checkStartStatus()) {
-                    finishAllMemberReadyFuture(null);
-                }
-            });
-        } catch (Exception e) {
-            log.error("start raft groups failed", e);
-            finishAllMemberReadyFuture(e);
-        }
-    }
-
     private void finishAllMemberReadyFuture(Throwable ex) {
         if (ex != null) {
             allMemberReadyFuture.completeExceptionally(ex);
@@ -524,6 +588,9 @@ public class RaftServer extends AbstractLifeCircle {
                     nioClient.stop(timeout, true);
                 }
             }
+            if (sharedWal != null) {
+                sharedWal.stop();
+            }
             sharedIoExecutor.shutdown();
         } catch (RuntimeException | Error e) {
             log.error("stop raft server failed", e);
@@ -725,6 +792,10 @@ public class RaftServer extends AbstractLifeCircle {
         return nioServer;
     }
 
+    public NioClient getReplicateNioClient() {
+        return nioClient;
+    }
+
     public NodeManager getNodeManager() {
         return nodeManager;
     }
@@ -34,6 +34,17 @@ public class RaftServerConfig {
 
     public boolean checkSelf = true;
 
+    // max raft groups restoring (raft log and state machine) concurrently when the server starts,
+    // groups with more data on disk are restored first.
+    public int initGroupConcurrency = Math.max(Runtime.getRuntime().availableProcessors(), 4);
+
     public int blockIoThreads = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
 
+    // if not null, the raft log writes of all groups are synced by a write-ahead log shared in this dir, instead of
+    // sync the log files of each group, see SharedWal.
+    public String sharedWalDir;
+    public long sharedWalFileSize = 256 * 1024 * 1024;
+    // interval to sync the log files of each group when use shared wal, the wal files are deleted after that.
+    public long sharedWalCheckpointMillis = 2000;
+
 }
@@ -45,15 +45,18 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.zip.CRC32C;
 
@@ -68,6 +71,8 @@ public class DefaultSnapshotManager implements SnapshotManager {
 
     private static final String DATA_SUFFIX = ".data";
     private static final String IDX_SUFFIX = ".idx";
+    private static final String CHECKPOINT_DATA_SUFFIX = ".ckpt";
+    private static final String CHECKPOINT_IDX_SUFFIX = ".ckptidx";
 
     private static final String KEY_LAST_INDEX = "lastIncludedIndex";
     private static final String KEY_LAST_TERM = "lastIncludedTerm";
@@ -78,12 +83,14 @@ public class DefaultSnapshotManager implements SnapshotManager {
     private static final String KEY_LAST_CONFIG_CHANGE_INDEX = "lastConfigChangeIndex";
     private static final String KEY_BUFFER_SIZE = "bufferSize";
     private static final String KEY_NEXT_ID = "nextSnapshotId";
+    private static final String KEY_BASE_INDEX = "baseSnapshotIndex";
 
     private final RaftGroupConfigEx groupConfig;
     private final ExecutorService ioExecutor;
     private final RaftStatusImpl raftStatus;
     private final StateMachine stateMachine;
     private final Supplier<FiberFuture<Snapshot>> snapshotCreator;
+    private final Function<Long, FiberFuture<Snapshot>> checkpointCreator;
     private final Consumer<Long> logDeleter;
 
     private final SaveSnapshotLoopFrame saveLoopFrame;
@@ -96,6 +103,8 @@ public class DefaultSnapshotManager implements SnapshotManager {
         final File dataFile;
 
         long lastIncludeIndex;
+        long baseIndex;
+        int bufferSize;
 
         SnapshotInfo si;
 
@@ -108,13 +117,25 @@ public class DefaultSnapshotManager implements SnapshotManager {
     private final LinkedList<FileSnapshotInfo> savedSnapshots = new LinkedList<>();
     private final LinkedList<Pair<Long, FiberFuture<Long>>> saveRequest = new LinkedList<>();
 
+    // the checkpoints based on the last saved snapshot, only the last one is used in recovery
+    private final LinkedList<FileSnapshotInfo> savedCheckpoints = new LinkedList<>();
+    private final LinkedList<FiberFuture<Long>> saveCheckpointRequest = new LinkedList<>();
+    private FileSnapshotInfo recoverCheckpoint;
+
     public DefaultSnapshotManager(RaftGroupConfigEx groupConfig, StateMachine stateMachine,
                                   Supplier<FiberFuture<Snapshot>> snapshotCreator, Consumer<Long> logDeleter) {
+        this(groupConfig, stateMachine, snapshotCreator, null, logDeleter);
+    }
+
+    public DefaultSnapshotManager(RaftGroupConfigEx groupConfig, StateMachine stateMachine,
+                                  Supplier<FiberFuture<Snapshot>> snapshotCreator,
+                                  Function<Long, FiberFuture<Snapshot>> checkpointCreator, Consumer<Long> logDeleter) {
         this.groupConfig = groupConfig;
         this.ioExecutor = groupConfig.blockIoExecutor;
         this.raftStatus = (RaftStatusImpl) groupConfig.raftStatus;
         this.stateMachine = stateMachine;
         this.snapshotCreator = snapshotCreator;
+        this.checkpointCreator = checkpointCreator;
         this.logDeleter = logDeleter;
         this.saveLoopFrame = new SaveSnapshotLoopFrame();
     }
@@ -175,12 +196,61 @@ public class DefaultSnapshotManager implements SnapshotManager {
 
                 return Fiber.call(currentStatusFile.init(), v -> afterStatusFileInit(it, fsi));
             } else {
-                FileSnapshotInfo last = savedSnapshots.getLast();
-                log.info("open snapshot file {}", last.dataFile);
-                FileSnapshot s = new FileSnapshot(groupConfig, last.si, last.dataFile, lastBufferSize);
-                setResult(s);
-                return Fiber.frameReturn();
+                return loadCheckpoint();
+            }
+        }
+
+        private FrameCallResult loadCheckpoint() throws Exception {
+            File[] files = snapshotDir.listFiles(f -> f.isFile() && f.getName().endsWith(CHECKPOINT_IDX_SUFFIX));
+            if (files != null && files.length > 0) {
+                Arrays.sort(files);
+                for (int i = files.length - 1; i >= 0; i--) {
+                    File f = files[i];
+                    String baseName = FileUtil.baseName(f);
+                    File dataFile = new File(snapshotDir, baseName + CHECKPOINT_DATA_SUFFIX);
+                    if (f.length() == 0 || !dataFile.exists()) {
+                        log.warn("incomplete checkpoint: {}", f.getPath());
+                        deleteInIoExecutor(f);
+                        deleteInIoExecutor(dataFile);
+                        continue;
+                    }
+                    savedCheckpoints.addFirst(new FileSnapshotInfo(f, dataFile));
+                }
+            }
+            if (savedCheckpoints.isEmpty()) {
+                return openSnapshot();
             }
+            // only the last checkpoint is useful, others will be deleted by the save loop
+            FileSnapshotInfo c = savedCheckpoints.getLast();
+            log.info("load checkpoint info: {}", c.idxFile);
+            currentStatusFile = new StatusFile(c.idxFile, groupConfig);
+            return Fiber.call(currentStatusFile.init(), v -> afterCheckpointStatusFileInit(c));
+        }
+
+        private FrameCallResult afterCheckpointStatusFileInit(FileSnapshotInfo c) throws Exception {
+            Map<String, String> p = currentStatusFile.getProperties();
+            currentStatusFile = null;
+            c.baseIndex = Long.parseLong(p.get(KEY_BASE_INDEX));
+            c.lastIncludeIndex = Long.parseLong(p.get(KEY_LAST_INDEX));
+            c.bufferSize = Integer.parseInt(p.get(KEY_BUFFER_SIZE));
+            nextId = Math.max(nextId, Long.parseLong(p.get(KEY_NEXT_ID)));
+            FileSnapshotInfo last = savedSnapshots.getLast();
+            if (c.baseIndex == last.lastIncludeIndex && c.lastIncludeIndex > c.baseIndex) {
+                c.si = parseSnapshotInfo(c.lastIncludeIndex, p);
+                recoverCheckpoint = c;
+            } else {
+                log.info("checkpoint base index {} not match snapshot index {}, ignore it",
+                        c.baseIndex, last.lastIncludeIndex);
+            }
+            return openSnapshot();
+        }
+
+        private FrameCallResult openSnapshot() throws Exception {
+            FileSnapshotInfo last = savedSnapshots.getLast();
+            log.info("open snapshot file {}", last.dataFile);
+            FileSnapshot s = new FileSnapshot(groupConfig, last.si, last.dataFile, lastBufferSize);
+            setResult(s);
+            return Fiber.frameReturn();
         }
 
         private FrameCallResult afterStatusFileInit(Iterator<FileSnapshotInfo> it, FileSnapshotInfo fsi) throws Exception {
@@ -190,16 +260,8 @@ public class DefaultSnapshotManager implements SnapshotManager {
             if (!it.hasNext()) {
                 nextId = Long.parseLong(p.get(KEY_NEXT_ID));
                 lastBufferSize = Integer.parseInt(p.get(KEY_BUFFER_SIZE));
-
-                int lastTerm = Integer.parseInt(p.get(KEY_LAST_TERM));
-                Set<Integer> members = RaftUtil.strToIdSet(p.get(KEY_MEMBERS));
-                Set<Integer> observers = RaftUtil.strToIdSet(p.get(KEY_OBSERVERS));
-                Set<Integer> preparedMembers = RaftUtil.strToIdSet(p.get(KEY_PREPARED_MEMBERS));
-                Set<Integer> preparedObservers = RaftUtil.strToIdSet(p.get(KEY_PREPARED_OBSERVERS));
-                long lastConfigChangeIndex = Long.parseLong(p.get(KEY_LAST_CONFIG_CHANGE_INDEX));
-
-                fsi.si = new SnapshotInfo(fsi.lastIncludeIndex, lastTerm, members, observers, preparedMembers,
-                        preparedObservers, lastConfigChangeIndex);
+                fsi.bufferSize = lastBufferSize;
+                fsi.si = parseSnapshotInfo(fsi.lastIncludeIndex, p);
             }
 
             currentStatusFile = null;
@@ -208,9 +270,81 @@ public class DefaultSnapshotManager implements SnapshotManager {
         }
     }
 
+    private static SnapshotInfo parseSnapshotInfo(long lastIncludeIndex, Map<String, String> p) {
+        int lastTerm = Integer.parseInt(p.get(KEY_LAST_TERM));
+        Set<Integer> members = RaftUtil.strToIdSet(p.get(KEY_MEMBERS));
+        Set<Integer> observers = RaftUtil.strToIdSet(p.get(KEY_OBSERVERS));
+        Set<Integer> preparedMembers = RaftUtil.strToIdSet(p.get(KEY_PREPARED_MEMBERS));
+        Set<Integer> preparedObservers = RaftUtil.strToIdSet(p.get(KEY_PREPARED_OBSERVERS));
+        long lastConfigChangeIndex = Long.parseLong(p.get(KEY_LAST_CONFIG_CHANGE_INDEX));
+
+        return new SnapshotInfo(lastIncludeIndex, lastTerm, members, observers, preparedMembers,
+                preparedObservers, lastConfigChangeIndex);
+    }
+
     @Override
-    public FiberFrame<Void> recover(Snapshot snapshot) {
-        return new RecoverFiberFrame(groupConfig, stateMachine, (FileSnapshot) snapshot);
+    public FiberFrame<SnapshotInfo> recover(Snapshot snapshot) {
+        FileSnapshotInfo checkpoint = recoverCheckpoint;
+        recoverCheckpoint = null;
+        return new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                RecoverFiberFrame f = new RecoverFiberFrame(groupConfig, stateMachine, (FileSnapshot) snapshot, false);
+                return Fiber.call(f, this::afterRecoverSnapshot);
+            }
+
+            private FrameCallResult afterRecoverSnapshot(Void v) throws Exception {
+                SnapshotInfo si = snapshot.getSnapshotInfo();
+                if (checkpoint == null || checkpoint.baseIndex != si.lastIncludedIndex) {
+                    setResult(si);
+                    return Fiber.frameReturn();
+                }
+                log.info("recover from checkpoint {}, baseIndex={}, lastIndex={}", checkpoint.dataFile,
+                        checkpoint.baseIndex, checkpoint.lastIncludeIndex);
+                return Fiber.call(new RecoverCheckpointFrame(checkpoint, si), this::afterRecoverCheckpoint);
+            }
+
+            private FrameCallResult afterRecoverCheckpoint(SnapshotInfo si) {
+                setResult(si);
+                return Fiber.frameReturn();
+            }
+        };
+    }
+
+    private class RecoverCheckpointFrame extends FiberFrame<SnapshotInfo> {
+        private final FileSnapshotInfo checkpoint;
+        private final SnapshotInfo baseSnapshotInfo;
+
+        RecoverCheckpointFrame(FileSnapshotInfo checkpoint, SnapshotInfo baseSnapshotInfo) {
+            this.checkpoint = checkpoint;
+            this.baseSnapshotInfo = baseSnapshotInfo;
+        }
+
+        @Override
+        public FrameCallResult execute(Void input) throws Exception {
+            FileSnapshot s = new FileSnapshot(groupConfig, checkpoint.si, checkpoint.dataFile, checkpoint.bufferSize);
+            RecoverFiberFrame f = new RecoverFiberFrame(groupConfig, stateMachine, s, true);
+            return Fiber.call(f, v -> {
+                setResult(checkpoint.si);
+                return Fiber.frameReturn();
+            });
+        }
+
+        @Override
+        protected FrameCallResult handle(Throwable ex) throws Throwable {
+            if (isGroupShouldStopPlain()) {
+                throw ex;
+            }
+            // the state machine may be partially updated, recover from the base snapshot again
+            log.error("recover from checkpoint failed, fallback to the base snapshot: {}", checkpoint.dataFile, ex);
+            FileSnapshotInfo base = savedSnapshots.getLast();
+            FileSnapshot s = new FileSnapshot(groupConfig, baseSnapshotInfo, base.dataFile, base.bufferSize);
+            RecoverFiberFrame f = new RecoverFiberFrame(groupConfig, stateMachine, s, false);
+            return Fiber.call(f, v -> {
+                setResult(baseSnapshotInfo);
+                return Fiber.frameReturn();
+            });
+        }
     }
 
     private void deleteInIoExecutor(File f) {
@@ -242,6 +376,9 @@ public class DefaultSnapshotManager implements SnapshotManager {
         final FiberCondition saveSnapshotCond;
         private boolean stopLoop;
 
+        private long nextSnapshotNanos;
+        private long nextCheckpointNanos;
+
         @Override
         protected FrameCallResult handle(Throwable ex) throws Throwable {
             throw Fiber.fatal(ex);
@@ -257,21 +394,72 @@ public class DefaultSnapshotManager implements SnapshotManager {
                 return Fiber.frameReturn();
             }
             deleteOldFiles();
-            if (saveRequest.isEmpty()) {
-                return saveSnapshotCond.await(groupConfig.saveSnapshotSeconds * 1000L, this::doSave);
-            } else {
+            if (!saveRequest.isEmpty()) {
+                return doSave(null);
+            }
+            if (!saveCheckpointRequest.isEmpty()) {
+                return doSaveCheckpoint();
+            }
+            if (groupConfig.saveCheckpointSeconds <= 0 || checkpointCreator == null) {
+                return saveSnapshotCond.await(groupConfig.saveSnapshotSeconds * 1000L, this::afterWait);
+            }
+            long now = groupConfig.ts.nanoTime;
+            if (nextSnapshotNanos == 0) {
+                resetTimer(now);
+            }
+            if (now - nextSnapshotNanos >= 0) {
                 return doSave(null);
             }
+            if (now - nextCheckpointNanos >= 0) {
+                return doSaveCheckpoint();
+            }
+            long waitMillis = (Math.min(nextSnapshotNanos, nextCheckpointNanos) - now) / 1_000_000L;
+            return saveSnapshotCond.await(Math.max(1, waitMillis), this);
+        }
+
+        private FrameCallResult afterWait(Void v) {
+            if (saveRequest.isEmpty() && !saveCheckpointRequest.isEmpty()) {
+                // wake up by saveCheckpoint()
+                return Fiber.resume(null, this);
+            }
+            return doSave(null);
+        }
+
+        private void resetTimer(long now) {
+            nextSnapshotNanos = now + groupConfig.saveSnapshotSeconds * 1_000_000_000L;
+            nextCheckpointNanos = now + groupConfig.saveCheckpointSeconds * 1_000_000_000L;
         }
 
         private FrameCallResult doSave(Void unused) {
             if (stopLoop) {
                 return Fiber.frameReturn();
             }
+            resetTimer(groupConfig.ts.nanoTime);
             SaveFrame f = new SaveFrame(nextId++);
             return Fiber.call(f, this::afterSave);
         }
 
+        private FrameCallResult doSaveCheckpoint() {
+            long now = groupConfig.ts.nanoTime;
+            nextCheckpointNanos = now + groupConfig.saveCheckpointSeconds * 1_000_000_000L;
+            ArrayList<FiberFuture<Long>> requests = new ArrayList<>(saveCheckpointRequest);
+            saveCheckpointRequest.clear();
+            long lastCheckpointIndex = savedCheckpoints.isEmpty() ? 0 : savedCheckpoints.getLast().lastIncludeIndex;
+            if (checkpointCreator == null || savedSnapshots.isEmpty() ||
+                    raftStatus.getLastApplied() <= Math.max(lastCheckpointIndex, savedSnapshots.getLast().lastIncludeIndex)) {
+                // not supported, or no change after the last snapshot/checkpoint
+                requests.forEach(f -> f.complete(0L));
+                return Fiber.resume(null, this);
+            }
+            SaveFrame f = new SaveFrame(nextId++, savedSnapshots.getLast().lastIncludeIndex, requests);
+            return Fiber.call(f, this::afterSaveCheckpoint);
+        }
+
+        private FrameCallResult afterSaveCheckpoint(Void v) {
+            deleteOldFiles();
+            return Fiber.resume(null, this);
+        }
+
         private FrameCallResult afterSave(Void v) {
             deleteOldFiles();
             if (!isGroupShouldStopPlain() && groupConfig.deleteLogsAfterTakeSnapshot && !savedSnapshots.isEmpty()) {
@@ -290,6 +478,13 @@ public class DefaultSnapshotManager implements SnapshotManager {
                 deleteInIoExecutor(s.dataFile);
                 deleteInIoExecutor(s.idxFile);
             }
+            // only keep the last checkpoint based on the last snapshot
+            while (!savedCheckpoints.isEmpty() && (savedCheckpoints.size() > 1 || savedSnapshots.isEmpty()
+                    || savedCheckpoints.getFirst().baseIndex != savedSnapshots.getLast().lastIncludeIndex)) {
+                FileSnapshotInfo c = savedCheckpoints.removeFirst();
+                deleteInIoExecutor(c.dataFile);
+                deleteInIoExecutor(c.idxFile);
+            }
         }
     }
 
@@ -301,6 +496,14 @@ public class DefaultSnapshotManager implements SnapshotManager {
         return f;
     }
 
+    @Override
+    public FiberFuture<Long> saveCheckpoint() {
+        FiberFuture<Long> f = groupConfig.fiberGroup.newFuture("saveCheckpoint-" + groupConfig.groupId);
+        saveCheckpointRequest.addLast(f);
+        saveLoopFrame.saveSnapshotCond.signal();
+        return f;
+    }
+
     private class SaveFrame extends FiberFrame<Void> {
         private final long startTime = System.currentTimeMillis();
 
@@ -310,6 +513,9 @@ public class DefaultSnapshotManager implements SnapshotManager {
 
         private final int bufferSize = groupConfig.diskSnapshotBufferSize;
         private final long id;
+        private final boolean checkpoint;
+        private final long baseIndex;
+        private final String type;
         private RefBufferFactory directBufferFactory;
 
 
@@ -325,19 +531,33 @@ public class DefaultSnapshotManager implements SnapshotManager {
 
         private boolean success;
         private boolean cancel;
+        private boolean skip;
 
         public SaveFrame(long id) {
             currentProcessSaveRequests.addAll(saveRequest);
             saveRequest.clear();
             this.id = id;
+            this.checkpoint = false;
+            this.baseIndex = 0;
+            this.type = "snapshot";
+        }
+
+        public SaveFrame(long id, long baseIndex, List<FiberFuture<Long>> checkpointRequests) {
+            for (FiberFuture<Long> f : checkpointRequests) {
+                currentProcessSaveRequests.add(new Pair<>(0L, f));
+            }
+            this.id = id;
+            this.checkpoint = true;
+            this.baseIndex = baseIndex;
+            this.type = "checkpoint";
         }
 
         @Override
         protected FrameCallResult handle(Throwable ex) {
             if (ex instanceof RaftCancelException) {
-                log.warn("save snapshot task is cancelled");
+                log.warn("save {} task is cancelled", type);
             } else {
-                log.error("save snapshot failed", ex);
+                log.error("save {} failed", type, ex);
             }
             complete(ex);
             return Fiber.frameReturn();
@@ -351,7 +571,7 @@ public class DefaultSnapshotManager implements SnapshotManager {
             if (readSnapshot != null) {
                 readSnapshot.close();
             }
-            if (!success) {
+            if (!success && !skip) {
                 if (cancel) {
                     complete(new RaftCancelException("save snapshot task is cancelled"));
                 }
@@ -372,25 +592,36 @@ public class DefaultSnapshotManager implements SnapshotManager {
         }
 
         @Override
-        public FrameCallResult execute(Void input) {
+        public FrameCallResult execute(Void input) throws Exception {
             if (checkCancel()) {
                 return Fiber.frameReturn();
             }
             this.directBufferFactory = new RefBufferFactory(getFiberGroup().dispatcher.thread.directPool, 0);
-            FiberFuture<Snapshot> f = snapshotCreator.get();
+            FiberFuture<Snapshot> f = checkpoint ? checkpointCreator.apply(baseIndex) : snapshotCreator.get();
+            if (f == null) {
+                return afterTakeSnapshot(null);
+            }
             return f.await(this::afterTakeSnapshot);
         }
 
         private FrameCallResult afterTakeSnapshot(Snapshot snapshot) throws Exception {
             this.readSnapshot = snapshot;
+            if (checkpoint && (snapshot == null || snapshot.getSnapshotInfo().lastIncludedIndex <= baseIndex
+                    || snapshot.getSnapshotInfo().lastIncludedIndex > raftStatus.lastForceLogIndex)) {
+                // the state machine not support checkpoint, or there are no changes after the base snapshot,
+                // or the raft log of lastIncludedIndex is not persisted (can't replay from it after restart)
+                log.info("skip save checkpoint, groupId={}, baseIndex={}", groupConfig.groupId, baseIndex);
+                skip = true;
+                return Fiber.frameReturn();
+            }
             SnapshotInfo snapshotInfo = snapshot.getSnapshotInfo();
-            log.info("begin save snapshot {}. groupId={}, lastIndex={}, lastTerm={}", id,
+            log.info("begin save {} {}. groupId={}, lastIndex={}, lastTerm={}", type, id,
                     groupConfig.groupId, snapshotInfo.lastIncludedIndex, snapshotInfo.lastIncludedTerm);
 
             SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss");
             String baseName = sdf.format(new Date()) + "_" + id;
-            File dataFile = new File(snapshotDir, baseName + DATA_SUFFIX);
-            this.newIdxFile = new File(snapshotDir, baseName + IDX_SUFFIX);
+            File dataFile = new File(snapshotDir, baseName + (checkpoint ? CHECKPOINT_DATA_SUFFIX : DATA_SUFFIX));
+            this.newIdxFile = new File(snapshotDir, baseName + (checkpoint ? CHECKPOINT_IDX_SUFFIX : IDX_SUFFIX));
 
             HashSet<StandardOpenOption> options = new HashSet<>();
             options.add(StandardOpenOption.CREATE_NEW);
@@ -456,7 +687,7 @@ public class DefaultSnapshotManager implements SnapshotManager {
             if (checkCancel()) {
                 return Fiber.frameReturn();
             }
-            log.info("snapshot {} data file write success: {}", id, newDataFile.getFile().getPath());
+            log.info("{} {} data file write success: {}", type, id, newDataFile.getFile().getPath());
 
             statusFile = new StatusFile(newIdxFile, groupConfig);
             return Fiber.call(statusFile.init(), this::saveIdxFile);
@@ -474,9 +705,14 @@ public class DefaultSnapshotManager implements SnapshotManager {
             p.put(KEY_LAST_CONFIG_CHANGE_INDEX, String.valueOf(si.lastConfigChangeIndex));
             p.put(KEY_BUFFER_SIZE, String.valueOf(bufferSize));
             p.put(KEY_NEXT_ID, String.valueOf(id + 1));
+            if (checkpoint) {
+                p.put(KEY_BASE_INDEX, String.valueOf(baseIndex));
+            }
 
             fileSnapshot = new FileSnapshotInfo(newIdxFile, newDataFile.getFile());
             fileSnapshot.lastIncludeIndex = readSnapshot.getSnapshotInfo().lastIncludedIndex;
+            fileSnapshot.baseIndex = baseIndex;
+            fileSnapshot.bufferSize = bufferSize;
 
             // just for human reading
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
@@ -488,9 +724,13 @@ public class DefaultSnapshotManager implements SnapshotManager {
 
         private FrameCallResult finish2(Void unused) {
             success = true;
-            log.info("snapshot status file write success: {}", newIdxFile.getPath());
-            savedSnapshots.addLast(fileSnapshot);
-            raftStatus.lastSavedSnapshotIndex = readSnapshot.getSnapshotInfo().lastIncludedIndex;
+            log.info("{} status file write success: {}", type, newIdxFile.getPath());
+            if (checkpoint) {
+                savedCheckpoints.addLast(fileSnapshot);
+            } else {
+                savedSnapshots.addLast(fileSnapshot);
+                raftStatus.lastSavedSnapshotIndex = readSnapshot.getSnapshotInfo().lastIncludedIndex;
+            }
 
             return Fiber.frameReturn();
         }
@@ -499,6 +739,8 @@ public class DefaultSnapshotManager implements SnapshotManager {
             for (Pair<Long, FiberFuture<Long>> req : currentProcessSaveRequests) {
                 if (ex != null) {
                     req.getRight().completeExceptionally(ex);
+                } else if (skip) {
+                    req.getRight().complete(0L);
                 } else {
                     if (readSnapshot == null) {
                         // should not happen
@@ -520,6 +762,7 @@ class RecoverFiberFrame extends FiberFrame<Void> {
     private final StateMachine stateMachine;
     private final RaftGroupConfigEx groupConfig;
     private final FileSnapshot snapshot;
+    private final boolean checkpoint;
 
     private final Supplier<RefBuffer> bufferCreator;
 
@@ -527,10 +770,12 @@ class RecoverFiberFrame extends FiberFrame<Void> {
 
     private long offset;
 
-    public RecoverFiberFrame(RaftGroupConfigEx groupConfig, StateMachine stateMachine, FileSnapshot snapshot) {
+    public RecoverFiberFrame(RaftGroupConfigEx groupConfig, StateMachine stateMachine, FileSnapshot snapshot,
+                             boolean checkpoint) {
         this.stateMachine = stateMachine;
         this.groupConfig = groupConfig;
         this.snapshot = snapshot;
+        this.checkpoint = checkpoint;
         ByteBufferPool p = groupConfig.fiberGroup.dispatcher.thread.directPool;
         RefBufferFactory f = new RefBufferFactory(p, 0);
         this.bufferCreator = () -> f.create(snapshot.getBufferSize());
@@ -569,18 +814,23 @@ class RecoverFiberFrame extends FiberFrame<Void> {
         }
         buf.limit(size + 4);
         buf.position(4);
-        SnapshotInfo si = snapshot.getSnapshotInfo();
-        FiberFuture<Void> f = stateMachine.installSnapshot(si.lastIncludedIndex, si.lastIncludedTerm,
-                offset, false, buf);
+        FiberFuture<Void> f = install(false, buf);
         offset += size;
         f.registerCallback((v, ex) -> rb.release());
         return f;
     }
 
-    private FrameCallResult finish(Void v) {
+    private FiberFuture<Void> install(boolean done, ByteBuffer buf) {
         SnapshotInfo si = snapshot.getSnapshotInfo();
-        FiberFuture<Void> f = stateMachine.installSnapshot(si.lastIncludedIndex, si.lastIncludedTerm,
-                offset, true, SimpleByteBufferPool.EMPTY_BUFFER);
+        if (checkpoint) {
+            return stateMachine.installCheckpoint(si.lastIncludedIndex, si.lastIncludedTerm, offset, done, buf);
+        } else {
+            return stateMachine.installSnapshot(si.lastIncludedIndex, si.lastIncludedTerm, offset, done, buf);
+        }
+    }
+
+    private FrameCallResult finish(Void v) {
+        FiberFuture<Void> f = install(true, SimpleByteBufferPool.EMPTY_BUFFER);
         return f.await(this::justReturn);
     }
 
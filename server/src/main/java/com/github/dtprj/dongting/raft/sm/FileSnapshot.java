@@ -15,6 +15,7 @@
  */
 package com.github.dtprj.dongting.raft.sm;
 
+import com.github.dtprj.dongting.buf.ByteBufferPool;
 import com.github.dtprj.dongting.common.DtUtil;
 import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FiberGroup;
@@ -27,9 +28,15 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
 
 /**
+ * Read the snapshot file in sequence. If read-ahead is enabled (see RaftGroupConfig.diskSnapshotReadAheadSize),
+ * the file is read in large blocks with several outstanding reads, and readNext() copies data from these
+ * blocks, so the reader is not limited by the round trips of small io tasks.
+ *
  * @author huangli
  */
 public class FileSnapshot extends Snapshot {
@@ -42,6 +49,26 @@ public class FileSnapshot extends Snapshot {
 
     private final int bufferSize;
 
+    private final ByteBufferPool pool;
+    private final int readAheadSize; // 0 if read-ahead disabled
+    private final int readAheadCount;
+    private final LinkedList<ReadAheadBlock> blocks = new LinkedList<>();
+    private long readAheadPos;
+
+    private static class ReadAheadBlock {
+        final long start;
+        final int len;
+        final ByteBuffer buf;
+        FiberFuture<Void> future;
+        int copied;
+
+        ReadAheadBlock(long start, int len, ByteBuffer buf) {
+            this.start = start;
+            this.len = len;
+            this.buf = buf;
+        }
+    }
+
     public FileSnapshot(RaftGroupConfigEx groupConfig, SnapshotInfo si, File dataFile, int bufferSize) throws IOException {
         super(si);
         this.fiberGroup = groupConfig.fiberGroup;
@@ -53,6 +80,17 @@ public class FileSnapshot extends Snapshot {
         AsynchronousFileChannel channel = AsynchronousFileChannel.open(dataFile.toPath(), options,
                 groupConfig.blockIoExecutor);
         this.dtFile = new DtFile(dataFile, channel, groupConfig.fiberGroup);
+
+        this.pool = groupConfig.fiberGroup.dispatcher.thread.directPool;
+        int ras = groupConfig.diskSnapshotReadAheadSize;
+        if (ras > bufferSize && fileSize > bufferSize) {
+            // align to buffer size, so a readNext call is served by one block in most cases
+            this.readAheadSize = ras / bufferSize * bufferSize;
+            this.readAheadCount = Math.max(1, groupConfig.diskSnapshotConcurrency);
+        } else {
+            this.readAheadSize = 0;
+            this.readAheadCount = 0;
+        }
     }
 
     @Override
@@ -60,6 +98,9 @@ public class FileSnapshot extends Snapshot {
         if (filePos >= fileSize) {
             return FiberFuture.completedFuture(fiberGroup, 0);
         }
+        if (readAheadSize > 0) {
+            return readFromBlocks(buffer);
+        }
         long rest = fileSize - filePos;
         if (rest < buffer.remaining()) {
             buffer.limit(buffer.position() + (int) rest);
@@ -71,8 +112,80 @@ public class FileSnapshot extends Snapshot {
         return f.convert("FileSnapshotReadNext", v -> readBytes);
     }
 
+    private FiberFuture<Integer> readFromBlocks(ByteBuffer buffer) {
+        int n = (int) Math.min(buffer.remaining(), fileSize - filePos);
+        buffer.limit(buffer.position() + n);
+        long start = filePos;
+        filePos += n;
+        while (readAheadPos < fileSize && (readAheadPos < filePos || blocks.size() < readAheadCount)) {
+            startBlockRead();
+        }
+        ArrayList<ReadAheadBlock> list = new ArrayList<>(2);
+        boolean allDone = true;
+        for (ReadAheadBlock b : blocks) {
+            if (b.start < filePos && b.start + b.len > start) {
+                list.add(b);
+                allDone &= b.future.isDone();
+            }
+        }
+        if (allDone) {
+            for (ReadAheadBlock b : list) {
+                if (b.future.getEx() != null) {
+                    return FiberFuture.failedFuture(fiberGroup, b.future.getEx());
+                }
+            }
+            copyFromBlocks(list, buffer, start, n);
+            return FiberFuture.completedFuture(fiberGroup, n);
+        }
+        FiberFuture<?>[] fs = new FiberFuture[list.size()];
+        for (int i = 0; i < fs.length; i++) {
+            fs[i] = list.get(i).future;
+        }
+        return FiberFuture.allOf("FileSnapshotReadAhead", fs).convert("FileSnapshotReadNext", v -> {
+            copyFromBlocks(list, buffer, start, n);
+            return n;
+        });
+    }
+
+    private void startBlockRead() {
+        int len = (int) Math.min(readAheadSize, fileSize - readAheadPos);
+        ByteBuffer buf = pool.borrow(len);
+        buf.clear();
+        buf.limit(len);
+        ReadAheadBlock b = new ReadAheadBlock(readAheadPos, len, buf);
+        AsyncIoTask t = new AsyncIoTask(fiberGroup, dtFile);
+        b.future = t.read(buf, readAheadPos);
+        blocks.add(b);
+        readAheadPos += len;
+    }
+
+    private void copyFromBlocks(ArrayList<ReadAheadBlock> list, ByteBuffer dest, long start, int n) {
+        for (ReadAheadBlock b : list) {
+            long from = Math.max(start, b.start);
+            long to = Math.min(start + n, b.start + b.len);
+            ByteBuffer src = b.buf.duplicate();
+            src.limit((int) (to - b.start));
+            src.position((int) (from - b.start));
+            dest.put(src);
+            b.copied += (int) (to - from);
+            if (b.copied == b.len) {
+                blocks.remove(b);
+                pool.release(b.buf);
+            }
+        }
+    }
+
     @Override
     protected void doClose() {
+        for (ReadAheadBlock b : blocks) {
+            if (b.future.isDone()) {
+                pool.release(b.buf);
+            } else {
+                // the io may still write the buffer, release it after the io finished
+                b.future.registerCallback((v, ex) -> pool.release(b.buf));
+            }
+        }
+        blocks.clear();
         DtUtil.close(dtFile.getChannel());
     }
 
@@ -25,7 +25,11 @@ public interface SnapshotManager {
 
     FiberFrame<Snapshot> init();
 
-    FiberFrame<Void> recover(Snapshot snapshot);
+    /**
+     * recover the state machine from the snapshot (and the checkpoint if exists).
+     * @return the SnapshotInfo of the state that the state machine recovered to
+     */
+    FiberFrame<SnapshotInfo> recover(Snapshot snapshot);
 
     void startFiber();
 
@@ -33,4 +37,10 @@ public interface SnapshotManager {
 
     FiberFuture<Long> saveSnapshot();
 
+    /**
+     * save a checkpoint based on the last saved snapshot.
+     * @return the lastIncludedIndex of the checkpoint, or 0 if the checkpoint is skipped
+     */
+    FiberFuture<Long> saveCheckpoint();
+
 }
@@ -17,6 +17,8 @@ package com.github.dtprj.dongting.raft.sm;
 
 import com.github.dtprj.dongting.common.LifeCircle;
 import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.raft.RaftException;
 import com.github.dtprj.dongting.raft.server.RaftGroup;
 import com.github.dtprj.dongting.raft.server.RaftInput;
 
@@ -45,5 +47,29 @@ public interface StateMachine extends LifeCircle, RaftCodecFactory {
      */
     FiberFuture<Snapshot> takeSnapshot(SnapshotInfo snapshotInfo);
 
+    /**
+     * Take an incremental checkpoint which contains the changes after baseIndex (lastIncludedIndex of a saved
+     * snapshot), so the restart can recover from the base snapshot and the checkpoint, and replay fewer raft logs.
+     * Return null (or a future complete with null) if not supported, or the changes after baseIndex are not tracked.
+     * <p>
+     * this method is called in raft thread.
+     */
+    default FiberFuture<Snapshot> takeCheckpoint(SnapshotInfo snapshotInfo, long baseIndex) {
+        return null;
+    }
+
+    /**
+     * Apply the checkpoint data created by takeCheckpoint, after the base snapshot is installed.
+     * Only called if the state machine created the checkpoint. The default implementation returns a failed future,
+     * and the caller recovers from the base snapshot instead.
+     * <p>
+     * this method is called in raft thread.
+     */
+    default FiberFuture<Void> installCheckpoint(long lastIncludeIndex, int lastIncludeTerm, long offset, boolean done,
+                                                ByteBuffer data) {
+        return FiberFuture.failedFuture(FiberGroup.currentGroup(),
+                new RaftException("checkpoint is not supported by " + getClass().getName()));
+    }
+
     void setRaftGroup(RaftGroup raftGroup);
 }
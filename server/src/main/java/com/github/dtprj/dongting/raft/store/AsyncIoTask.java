@@ -26,6 +26,7 @@ import com.github.dtprj.dongting.raft.RaftException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.Objects;
 import java.util.concurrent.Executor;
@@ -53,6 +54,7 @@ public class AsyncIoTask implements CompletionHandler<Integer, Void>, BiConsumer
     private int position;
 
     private boolean write;
+    private boolean direct;
     private boolean force;
     private boolean flushMeta;
 
@@ -94,6 +96,14 @@ public class AsyncIoTask implements CompletionHandler<Integer, Void>, BiConsumer
         return write(ioBuffer, filePos, false, false);
     }
 
+    /**
+     * write by the direct channel of the file, the file pos, the buffer address and length should be block aligned.
+     */
+    public FiberFuture<Void> writeDirect(ByteBuffer ioBuffer, long filePos) {
+        this.direct = true;
+        return write(ioBuffer, filePos, false, false);
+    }
+
     public FiberFuture<Void> writeAndForce(ByteBuffer ioBuffer, long filePos, boolean flushMeta, Executor forceExecutor) {
         this.forceExecutor = forceExecutor;
         return write(ioBuffer, filePos, true, flushMeta);
@@ -196,7 +206,8 @@ public class AsyncIoTask implements CompletionHandler<Integer, Void>, BiConsumer
     protected void exec(long pos) {
         try {
             if (write) {
-                dtFile.getChannel().write(ioBuffer, pos, null, this);
+                AsynchronousFileChannel c = direct ? dtFile.getDirectChannel() : dtFile.getChannel();
+                c.write(ioBuffer, pos, null, this);
             } else {
                 dtFile.getChannel().read(ioBuffer, pos, null, this);
             }
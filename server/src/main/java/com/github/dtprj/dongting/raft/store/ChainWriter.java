@@ -24,6 +24,7 @@ import com.github.dtprj.dongting.fiber.FiberFrame;
 import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FiberGroup;
 import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.fiber.HandlerFrame;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.raft.RaftException;
@@ -31,6 +32,7 @@ import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -51,6 +53,9 @@ public class ChainWriter {
     private int writePerfType2;
     private int forcePerfType;
 
+    // if > 0, the block aligned part of a write is written by the direct channel of the file (if it has one)
+    private int directIoBlockSize;
+
     private final ByteBufferPool directPool;
     private final LinkedList<WriteTask> writeTasks = new LinkedList<>();
     private final LinkedList<WriteTask> forceTasks = new LinkedList<>();
@@ -65,6 +70,17 @@ public class ChainWriter {
 
     private boolean markStop;
 
+    // below fields are used when the log writes are synced by SharedWal
+    private SharedWal sharedWal;
+    private Fiber checkpointFiber;
+    private FiberCondition checkpointCond;
+    // the wal pos of the last write task finished (in order)
+    private long writtenWalPos;
+    private long checkpointPos;
+    // files has finished writes not synced
+    private final ArrayList<DtFile> dirtyFiles = new ArrayList<>();
+    private DtFile lastDirtyFile;
+
     public ChainWriter(String fiberNamePrefix, RaftGroupConfigEx config, Consumer<WriteTask> writeCallback,
                        Consumer<WriteTask> forceCallback) {
         this.config = config;
@@ -82,6 +98,9 @@ public class ChainWriter {
 
     public void start() {
         forceFiber.start();
+        if (checkpointFiber != null) {
+            checkpointFiber.start();
+        }
     }
 
     private boolean shouldCancelRetry() {
@@ -92,6 +111,10 @@ public class ChainWriter {
         this.markStop = true;
         needForceCondition.signal();
         if (forceFiber.isStarted()) {
+            if (checkpointFiber != null) {
+                checkpointCond.signal();
+                return FiberFuture.allOf("chainWriterStop", forceFiber.join(), checkpointFiber.join());
+            }
             return forceFiber.join();
         } else {
             return FiberFuture.completedFuture(config.fiberGroup, null);
@@ -103,6 +126,14 @@ public class ChainWriter {
         private final long expectNextPos;
         private final boolean force;
         private final ByteBuffer buf;
+        // the buffer borrowed from pool, buf may be a view of it
+        private final ByteBuffer poolBuf;
+        // complete after all parts of the write finished
+        private FiberFuture<Void> writeFuture;
+        private int pendingParts;
+        private Throwable partEx;
+        // the wal pos after the record of this write, 0 if not use SharedWal
+        private long walPos;
 
         private final int perfWriteItemCount;
         private final int perfWriteBytes;
@@ -113,12 +144,14 @@ public class ChainWriter {
 
 
         public WriteTask(FiberGroup fiberGroup, DtFile dtFile, int[] retryInterval, boolean retryForever,
-                         Supplier<Boolean> cancelIndicator, ByteBuffer buf, long posInFile, boolean force,
-                         int perfItemCount, long lastRaftIndex) {
+                         Supplier<Boolean> cancelIndicator, ByteBuffer poolBuf, ByteBuffer buf, long posInFile,
+                         boolean force, int perfItemCount, long lastRaftIndex) {
             super(fiberGroup, dtFile, retryInterval, retryForever, cancelIndicator);
             this.posInFile = posInFile;
             this.force = force;
+            this.poolBuf = poolBuf;
             this.buf = buf;
+            this.writeFuture = getFuture();
             this.perfWriteItemCount = perfItemCount;
             int remaining = buf == null ? 0 : buf.remaining();
             this.perfWriteBytes = remaining;
@@ -133,13 +166,21 @@ public class ChainWriter {
 
     public void submitWrite(DtFile dtFile, boolean initialized, ByteBuffer buf, long posInFile, boolean force,
                             int perfItemCount, long lastRaftIndex) {
+        submitWrite(dtFile, initialized, buf, buf, posInFile, force, perfItemCount, lastRaftIndex);
+    }
+
+    /**
+     * @param poolBuf the buffer to release to the direct pool after write, buf may be a view of it
+     */
+    public void submitWrite(DtFile dtFile, boolean initialized, ByteBuffer poolBuf, ByteBuffer buf, long posInFile,
+                            boolean force, int perfItemCount, long lastRaftIndex) {
         if (error) {
             log.warn("in error state, ignore write");
             return;
         }
         int[] retryInterval = initialized ? config.ioRetryInterval : null;
         WriteTask task = new WriteTask(config.fiberGroup, dtFile, retryInterval, true,
-                this::shouldCancelRetry, buf, posInFile, force, perfItemCount, lastRaftIndex);
+                this::shouldCancelRetry, poolBuf, buf, posInFile, force, perfItemCount, lastRaftIndex);
         if (!writeTasks.isEmpty()) {
             WriteTask lastTask = writeTasks.getLast();
             if (lastTask.getDtFile() == task.getDtFile()) {
@@ -148,13 +189,20 @@ public class ChainWriter {
                 }
             }
         }
+        if (sharedWal != null && buf != null && buf.hasRemaining()) {
+            task.walPos = sharedWal.append(config.groupId, ((LogFile) dtFile).startPos + posInFile, buf);
+        }
         long startTime = perfCallback.takeTimeAndRefresh(writePerfType2, config.ts);
-        FiberFuture<Void> f = task.getFuture();
         if (buf != null && buf.remaining() > 0) {
-            task.write(buf, task.posInFile);
+            if (directIoBlockSize > 0 && dtFile.getDirectChannel() != null) {
+                writeDirect(task, retryInterval);
+            } else {
+                task.write(buf, task.posInFile);
+            }
         } else {
-            f.complete(null);
+            task.writeFuture.complete(null);
         }
+        FiberFuture<Void> f = task.writeFuture;
         if (writePerfType1 > 0) {
             perfCallback.fireTime(writePerfType1, startTime, task.perfWriteItemCount, task.perfWriteBytes);
         }
@@ -163,10 +211,66 @@ public class ChainWriter {
         f.registerCallback((v, ex) -> afterWrite(ex, task, startTime));
     }
 
+    // the block aligned middle part is written by the direct channel, the unaligned head and tail are written by
+    // the normal channel in parallel. the parts not overlap, so no read-modify-write of partial block is needed.
+    private void writeDirect(WriteTask task, int[] retryInterval) {
+        ByteBuffer buf = task.buf;
+        long mask = directIoBlockSize - 1;
+        long start = task.posInFile;
+        long end = task.expectNextPos;
+        long alignedStart = (start + mask) & ~mask;
+        long alignedEnd = end & ~mask;
+        if (alignedStart >= alignedEnd) {
+            task.write(buf, start);
+            return;
+        }
+        task.writeFuture = config.fiberGroup.newFuture("directWrite");
+        // hold one count until all parts submitted
+        task.pendingParts = 1;
+        int base = buf.position();
+        if (alignedStart > start) {
+            writePart(task, new AsyncIoTask(config.fiberGroup, task.getDtFile(), retryInterval, true,
+                    this::shouldCancelRetry).write(slice(buf, base, alignedStart - start), start));
+        }
+        if (end > alignedEnd) {
+            writePart(task, new AsyncIoTask(config.fiberGroup, task.getDtFile(), retryInterval, true,
+                    this::shouldCancelRetry).write(slice(buf, base + (int) (alignedEnd - start), end - alignedEnd),
+                    alignedEnd));
+        }
+        ByteBuffer middle = slice(buf, base + (int) (alignedStart - start), alignedEnd - alignedStart);
+        writePart(task, task.writeDirect(middle, alignedStart));
+        partFinish(task, null);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, long len) {
+        ByteBuffer bb = buf.duplicate();
+        bb.limit(pos + (int) len);
+        bb.position(pos);
+        return bb.slice();
+    }
+
+    private void writePart(WriteTask task, FiberFuture<Void> partFuture) {
+        task.pendingParts++;
+        partFuture.registerCallback((v, ex) -> partFinish(task, ex));
+    }
+
+    private void partFinish(WriteTask task, Throwable ex) {
+        if (ex != null && task.partEx == null) {
+            task.partEx = ex;
+        }
+        if (--task.pendingParts == 0) {
+            if (task.partEx == null) {
+                task.writeFuture.complete(null);
+            } else {
+                task.writeFuture.completeExceptionally(task.partEx);
+            }
+        }
+    }
+
     private void afterWrite(Throwable ioEx, WriteTask task, long startTime) {
         perfCallback.fireTimeAndRefresh(writePerfType2, startTime, task.perfWriteItemCount, task.perfWriteBytes, config.ts);
-        if (task.buf != null) {
-            directPool.release(task.buf);
+        if (task.poolBuf != null) {
+            directPool.release(task.poolBuf);
         }
         writeTaskCount--;
         if (error || raftStatus.installSnapshot) {
@@ -182,10 +286,17 @@ public class ChainWriter {
         WriteTask lastTaskNeedCallback = null;
         while (!writeTasks.isEmpty()) {
             WriteTask t = writeTasks.getFirst();
-            FiberFuture<Void> f = t.getFuture();
+            FiberFuture<Void> f = t.writeFuture;
             if (f.isDone()) {
                 writeTasks.removeFirst();
                 lastTaskNeedCallback = t;
+                if (t.walPos > 0) {
+                    writtenWalPos = t.walPos;
+                    if (t.getDtFile() != lastDirtyFile) {
+                        dirtyFiles.add(t.getDtFile());
+                        lastDirtyFile = t.getDtFile();
+                    }
+                }
                 if (t.force) {
                     forceTasks.add(t);
                     forceTaskCount++;
@@ -248,11 +359,16 @@ public class ChainWriter {
                     log.warn("file {} should delete or deleted, ignore force", logFile.getFile());
                     return Fiber.resume(null, this);
                 }
+                WriteTask finalTask = task;
+                long perfStartTime = perfCallback.takeTimeAndRefresh(forcePerfType, config.ts);
+                if (sharedWal != null) {
+                    // the log file is synced later by checkpoint
+                    return sharedWal.waitSync(task.walPos, config.fiberGroup)
+                            .await(v -> afterForce(finalTask, perfStartTime));
+                }
                 ForceFrame ff = new ForceFrame(task.getDtFile().getChannel(), config.blockIoExecutor, false);
                 RetryFrame<Void> rf = new RetryFrame<>(ff, config.ioRetryInterval,
                         true, ChainWriter.this::shouldCancelRetry);
-                WriteTask finalTask = task;
-                long perfStartTime = perfCallback.takeTimeAndRefresh(forcePerfType, config.ts);
                 return Fiber.call(rf, v -> afterForce(finalTask, perfStartTime));
             }
         }
@@ -270,6 +386,122 @@ public class ChainWriter {
         }
     }
 
+    private class CheckpointFrame extends FiberFrame<Void> {
+        private int failCount;
+
+        @Override
+        protected FrameCallResult handle(Throwable ex) {
+            // the wal records after the last checkpoint are kept, and replayed after restart
+            log.error("log checkpoint fiber exit with error: {}", checkpointFiber.name, ex);
+            return Fiber.frameReturn();
+        }
+
+        @Override
+        public FrameCallResult execute(Void input) {
+            if (markStop) {
+                return forceFiber.join(v -> checkpoint(true));
+            }
+            return checkpointCond.await(sharedWal.getCheckpointMillis(), v -> checkpoint(false));
+        }
+
+        private FrameCallResult checkpoint(boolean exit) {
+            if (error || raftStatus.installSnapshot) {
+                log.info("checkpoint fiber exit: {}", checkpointFiber.name);
+                return Fiber.frameReturn();
+            }
+            if (!exit && markStop) {
+                return Fiber.resume(null, this);
+            }
+            if (writtenWalPos <= checkpointPos) {
+                return exit ? Fiber.frameReturn() : Fiber.resume(null, this);
+            }
+            long pos = writtenWalPos;
+            ArrayList<DtFile> files = new ArrayList<>(dirtyFiles);
+            dirtyFiles.clear();
+            lastDirtyFile = null;
+            return Fiber.call(new HandlerFrame<>(new ForceFilesFrame(files)),
+                    r -> afterForceFiles(pos, files, r.getRight(), exit));
+        }
+
+        private FrameCallResult afterForceFiles(long pos, ArrayList<DtFile> files, Throwable ex, boolean exit) {
+            if (ex != null) {
+                // keep the files dirty, the wal records after the last checkpoint are not deleted
+                for (DtFile f : dirtyFiles) {
+                    if (!files.contains(f)) {
+                        files.add(f);
+                    }
+                }
+                dirtyFiles.clear();
+                dirtyFiles.addAll(files);
+                lastDirtyFile = files.isEmpty() ? null : files.get(files.size() - 1);
+                if (exit || isGroupShouldStopPlain()) {
+                    log.error("log checkpoint fail: {}", checkpointFiber.name, ex);
+                    return Fiber.frameReturn();
+                }
+                long sleepTime = StoreUtil.calcRetryInterval(failCount++, config.ioRetryInterval);
+                log.error("log checkpoint fail: {}, retry after {} ms", checkpointFiber.name, sleepTime, ex);
+                return Fiber.sleepUntilShouldStop(Math.max(sleepTime, 0), v -> Fiber.resume(null, this));
+            }
+            failCount = 0;
+            checkpointPos = pos;
+            sharedWal.checkpoint(config.groupId, pos);
+            return exit ? Fiber.frameReturn() : Fiber.resume(null, this);
+        }
+    }
+
+    private class ForceFilesFrame extends FiberFrame<Void> {
+        private final ArrayList<DtFile> files;
+        private int i;
+        private DtFile current;
+
+        ForceFilesFrame(ArrayList<DtFile> files) {
+            this.files = files;
+        }
+
+        @Override
+        public FrameCallResult execute(Void input) {
+            if (i >= files.size()) {
+                return Fiber.frameReturn();
+            }
+            DtFile f = files.get(i++);
+            if (((LogFile) f).isDeleted()) {
+                return Fiber.resume(null, this);
+            }
+            // prevent the file from being deleted
+            f.incWriters();
+            current = f;
+            ForceFrame ff = new ForceFrame(f.getChannel(), config.blockIoExecutor, false);
+            RetryFrame<Void> rf = new RetryFrame<>(ff, config.ioRetryInterval,
+                    true, ChainWriter.this::shouldCancelRetry);
+            return Fiber.call(rf, this::afterForce);
+        }
+
+        private FrameCallResult afterForce(Void v) {
+            current.decWriters();
+            current = null;
+            return Fiber.resume(null, this);
+        }
+
+        @Override
+        protected FrameCallResult doFinally() {
+            if (current != null) {
+                current.decWriters();
+                current = null;
+            }
+            return Fiber.frameReturn();
+        }
+    }
+
+    /**
+     * sync the log writes by the shared wal, and sync the log files periodically, see SharedWal.
+     */
+    public void setSharedWal(SharedWal sharedWal) {
+        this.sharedWal = sharedWal;
+        this.checkpointCond = config.fiberGroup.newCondition("checkpointCond");
+        this.checkpointFiber = new Fiber("LogCheckpoint-" + config.groupId, config.fiberGroup,
+                new CheckpointFrame(), true);
+    }
+
     public void setWritePerfType1(int writePerfType1) {
         this.writePerfType1 = writePerfType1;
     }
@@ -281,4 +513,8 @@ public class ChainWriter {
     public void setForcePerfType(int forcePerfType) {
         this.forcePerfType = forcePerfType;
     }
+
+    public void setDirectIoBlockSize(int directIoBlockSize) {
+        this.directIoBlockSize = directIoBlockSize;
+    }
 }
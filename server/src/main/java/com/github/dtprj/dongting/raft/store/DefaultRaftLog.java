@@ -88,6 +88,25 @@ public final class DefaultRaftLog implements RaftLog {
             @Override
             public FrameCallResult execute(Void input) throws Exception {
                 createFiles();
+                SharedWal sharedWal = groupConfig.sharedWal;
+                if (sharedWal != null && !raftStatus.installSnapshot) {
+                    // write the log records which not synced to log files before crash
+                    FiberFuture<Void> f = fiberGroup.newFuture("replaySharedWal");
+                    File logDir = new File(groupConfig.dataDir, "log");
+                    groupConfig.blockIoExecutor.execute(() -> {
+                        try {
+                            sharedWal.replay(groupConfig.groupId, logDir, groupConfig.logFileSize);
+                            f.fireComplete(null);
+                        } catch (Throwable e) {
+                            f.fireCompleteExceptionally(e);
+                        }
+                    });
+                    return f.await(this::afterReplay);
+                }
+                return afterReplay(null);
+            }
+
+            private FrameCallResult afterReplay(Void v) throws Exception {
                 logFiles.initQueue();
                 idxFiles.initQueue();
                 RaftUtil.checkStop(fiberGroup);
@@ -202,21 +221,28 @@ public final class DefaultRaftLog implements RaftLog {
 
     @Override
     public void markTruncateByIndex(long index, long delayMillis) {
-        long bound = Math.min(raftStatus.getLastApplied(), idxFiles.persistedIndex);
-        bound = Math.min(bound, raftStatus.lastSavedSnapshotIndex);
-        bound = Math.min(bound, index);
+        long bound = Math.min(deleteBound(), index);
         log.info("mark truncate log files by index {}, bound={}", index, bound);
         logFiles.markDelete(bound, Long.MAX_VALUE, delayMillis);
     }
 
     @Override
     public void markTruncateByTimestamp(long timestampBound, long delayMillis) {
-        long bound = Math.min(raftStatus.getLastApplied(), idxFiles.persistedIndex);
-        bound = Math.min(bound, raftStatus.lastSavedSnapshotIndex);
+        long bound = deleteBound();
         log.info("mark truncate log files by timestamp {}, bound={}", timestampBound, bound);
         logFiles.markDelete(bound, timestampBound, delayMillis);
     }
 
+    private long deleteBound() {
+        long bound = Math.min(raftStatus.getLastApplied(), idxFiles.persistedIndex);
+        bound = Math.min(bound, raftStatus.lastSavedSnapshotIndex);
+        if (raftStatus.witness) {
+            // the snapshot of witness is empty, it can't be the bound
+            bound = Math.min(bound, raftStatus.witnessDeleteBound);
+        }
+        return bound;
+    }
+
     @Override
     public FiberFrame<Void> beginInstall() {
         return new FiberFrame<>() {
@@ -238,7 +264,17 @@ public final class DefaultRaftLog implements RaftLog {
             }
 
             private FrameCallResult afterForceDeleteIdxFiles(Void unused) {
-                return Fiber.call(logFiles.forceDeleteAll(), this::justReturn);
+                return Fiber.call(logFiles.forceDeleteAll(), this::afterForceDeleteLogFiles);
+            }
+
+            private FrameCallResult afterForceDeleteLogFiles(Void unused) {
+                SharedWal sharedWal = groupConfig.sharedWal;
+                if (sharedWal == null) {
+                    return Fiber.frameReturn();
+                }
+                // the records before are useless after the log files deleted
+                long pos = sharedWal.appendReset(groupConfig.groupId);
+                return sharedWal.waitSync(pos, fiberGroup).await(this::justReturn);
             }
         };
     }
@@ -333,25 +369,43 @@ public final class DefaultRaftLog implements RaftLog {
         }
 
         private boolean shouldDeleteFirstLog() {
-            long taskStartTimestamp = ts.wallClockMillis;
             IndexedQueue<LogFile> q = logFiles.queue;
             if (q.size() <= 1) {
                 return false;
             }
             LogFile first = q.get(0);
-            long deleteTimestamp = first.deleteTimestamp;
-            if (deleteTimestamp <= 0 || deleteTimestamp >= taskStartTimestamp) {
+            LogFile second = q.get(1);
+            if (logFiles.archiveDir != null) {
+                // only delete archived files
+                if (!first.archived || groupConfig.archiveRetentionSeconds <= 0 || second.firstTimestamp == 0) {
+                    return false;
+                }
+                long bound = ts.wallClockMillis - groupConfig.archiveRetentionSeconds * 1000L;
+                return second.firstTimestamp < bound && !first.inUse();
+            }
+            return canRemove(first, second) && !first.inUse();
+        }
+
+        private boolean shouldArchiveLog() {
+            IndexedQueue<LogFile> q = logFiles.queue;
+            int i = logFiles.archivedFiles;
+            if (logFiles.archiveDir == null || i + 1 >= q.size()) {
                 return false;
             }
-            LogFile second = q.get(1);
-            if (second.firstIndex == 0) {
+            return canRemove(q.get(i), q.get(i + 1));
+        }
+
+        // check whether the file can be removed from the log dir (delete or archive)
+        private boolean canRemove(LogFile lf, LogFile next) {
+            long deleteTimestamp = lf.deleteTimestamp;
+            if (deleteTimestamp <= 0 || deleteTimestamp >= ts.wallClockMillis) {
                 return false;
             }
-            if (raftStatus.getLastApplied() < second.firstIndex ||
-                    raftStatus.lastForceLogIndex < second.firstIndex) {
+            if (next.firstIndex == 0) {
                 return false;
             }
-            return !first.inUse();
+            return raftStatus.getLastApplied() >= next.firstIndex &&
+                    raftStatus.lastForceLogIndex >= next.firstIndex;
         }
 
         private FrameCallResult deleteLogs(Void unused) {
@@ -365,6 +419,8 @@ public final class DefaultRaftLog implements RaftLog {
             } else {
                 if (shouldDeleteFirstLog()) {
                     return Fiber.call(logFiles.deleteFirstFile(), this::deleteLogs);
+                } else if (shouldArchiveLog()) {
+                    return Fiber.call(logFiles.archiveNextFile(), this::deleteLogs);
                 } else {
                     return deleteIdx(null);
                 }
@@ -388,6 +444,22 @@ public final class DefaultRaftLog implements RaftLog {
             return !first.inUse();
         }
 
+        private boolean shouldArchiveIdx() {
+            IndexedQueue<LogFile> q = idxFiles.queue;
+            int i = idxFiles.archivedFiles;
+            if (idxFiles.archiveDir == null || i + 1 >= q.size()) {
+                return false;
+            }
+            IndexedQueue<LogFile> logQueue = logFiles.queue;
+            if (logFiles.archivedFiles >= logQueue.size()) {
+                return false;
+            }
+            // all the items of this idx file point to archived log files
+            long firstIndexOfNextFile = idxFiles.posToIndex(q.get(i).endPos);
+            long firstNotArchivedLogIndex = logQueue.get(logFiles.archivedFiles).firstIndex;
+            return firstNotArchivedLogIndex >= firstIndexOfNextFile && idxFiles.persistedIndex >= firstIndexOfNextFile;
+        }
+
         private FrameCallResult deleteIdx(Void unused) {
             if (deleteAndExit) {
                 if (idxFiles.queue.size() > 0) {
@@ -400,6 +472,8 @@ public final class DefaultRaftLog implements RaftLog {
             } else {
                 if (shouldDeleteFirstIdx()) {
                     return Fiber.call(idxFiles.deleteFirstFile(), this::deleteIdx);
+                } else if (shouldArchiveIdx()) {
+                    return Fiber.call(idxFiles.archiveNextFile(), this::deleteIdx);
                 } else {
                     // loop
                     return Fiber.resume(null, this);
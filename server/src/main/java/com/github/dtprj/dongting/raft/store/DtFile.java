@@ -27,6 +27,8 @@ import java.nio.channels.AsynchronousFileChannel;
 public class DtFile {
     private final File file;
     private final AsynchronousFileChannel channel;
+    // opened with O_DIRECT, only used to write block aligned data, may be null
+    private final AsynchronousFileChannel directChannel;
 
     private int readers;
     private int writers;
@@ -34,8 +36,14 @@ public class DtFile {
     private final FiberCondition noRwCond;
 
     public DtFile(File file, AsynchronousFileChannel channel, FiberGroup fiberGroup) {
+        this(file, channel, null, fiberGroup);
+    }
+
+    public DtFile(File file, AsynchronousFileChannel channel, AsynchronousFileChannel directChannel,
+                  FiberGroup fiberGroup) {
         this.file = file;
         this.channel = channel;
+        this.directChannel = directChannel;
         this.noRwCond = fiberGroup.newCondition("noRw-" + file.getName());
     }
 
@@ -47,6 +55,10 @@ public class DtFile {
         return channel;
     }
 
+    public AsynchronousFileChannel getDirectChannel() {
+        return directChannel;
+    }
+
     public FiberCondition getNoRwCond() {
         return noRwCond;
     }
@@ -28,6 +28,7 @@ import com.github.dtprj.dongting.fiber.FrameCallResult;
 import com.github.dtprj.dongting.log.BugLog;
 import com.github.dtprj.dongting.raft.RaftException;
 import com.github.dtprj.dongting.raft.impl.DecodeContextEx;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
 import com.github.dtprj.dongting.raft.impl.RaftCancelException;
 import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
 import com.github.dtprj.dongting.raft.impl.RaftTask;
@@ -328,7 +329,10 @@ class FileLogLoader implements RaftLog.LogIterator {
                 int oldPos = buf.position();
                 if (currentReadBytes == 0) {
                     DecoderCallback<?> callback;
-                    if (header.type == LogItem.TYPE_NORMAL || header.type == LogItem.TYPE_LOG_READ) {
+                    if (!isHeader && header.compressed) {
+                        // decompress after crc check, see below
+                        callback = new ByteArray.Callback();
+                    } else if (header.type == LogItem.TYPE_NORMAL || header.type == LogItem.TYPE_LOG_READ) {
                         callback = isHeader ? codecFactory.createHeaderCallback(header.bizType, decodeContext)
                                 : codecFactory.createBodyCallback(header.bizType, decodeContext);
                         if (callback == null) {
@@ -361,12 +365,29 @@ class FileLogLoader implements RaftLog.LogIterator {
                     throw new ChecksumException("crc32c not match: index=" + header.index + ",pos="
                             + itemStartPos + ",len=" + dataLen);
                 }
+                if (!isHeader && header.compressed) {
+                    decompressBody();
+                }
                 return true;
             } else {
                 return false;
             }
         }
 
+        private void decompressBody() {
+            LogItem li = item;
+            ByteArray compressed = (ByteArray) li.getBody();
+            byte[] raw = LogCompressor.decompress(compressed);
+            DecoderCallback<? extends Encodable> c = codecFactory.createBodyCallback(header.bizType, decodeContext);
+            if (c == null) {
+                throw new RaftException("decoder not found: bizType=" + header.bizType);
+            }
+            // keep the compressed body, so the item can be replicated without compress again
+            li.setCompressedBody(compressed);
+            li.setBody(LogCompressor.decodeBody(raw, c, decodeContext));
+            li.setActualBodySize(raw.length);
+        }
+
         private int extractBizBody(ByteBuffer buf) {
             int bodyLen = header.bodyLen;
             if (bodyLen == 0) {
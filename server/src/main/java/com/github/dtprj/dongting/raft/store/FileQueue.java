@@ -29,6 +29,7 @@ import com.github.dtprj.dongting.fiber.PostFiberFrame;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.impl.FileUtil;
 import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
 
@@ -36,8 +37,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -51,8 +55,17 @@ import java.util.regex.Pattern;
 abstract class FileQueue {
     private static final DtLog log = DtLogs.getLogger(FileQueue.class);
     private static final Pattern PATTERN = Pattern.compile("^(\\d{20})$");
+    private static final String RECYCLE_SUFFIX = ".recycle";
+    private static final Pattern RECYCLE_PATTERN = Pattern.compile("^\\d{20}\\.recycle$");
+    private static final String TMP_SUFFIX = ".tmp";
     protected final IndexedQueue<LogFile> queue = new IndexedQueue<>(32);
+    // deleted files that can be reused by allocation, see RaftGroupConfig.maxRecycleFiles
+    private final IndexedQueue<File> recycleFiles = new IndexedQueue<>(8);
     protected final File dir;
+    // see RaftGroupConfig.archiveDir, null if archive is disabled
+    protected final File archiveDir;
+    // the first archivedFiles files in queue are archived
+    protected int archivedFiles;
 
     protected final ExecutorService ioExecutor;
     protected final RaftGroupConfigEx groupConfig;
@@ -81,6 +94,7 @@ abstract class FileQueue {
             throw new IllegalArgumentException("fileSize not power of 2: " + fileSize);
         }
         this.dir = dir;
+        this.archiveDir = groupConfig.archiveDir == null ? null : new File(groupConfig.archiveDir, dir.getName());
         this.ioExecutor = groupConfig.blockIoExecutor;
         this.groupConfig = groupConfig;
         this.raftStatus = (RaftStatusImpl) groupConfig.raftStatus;
@@ -105,29 +119,39 @@ abstract class FileQueue {
     }
 
     protected void initQueue() throws IOException {
+        while (recycleFiles.size() > 0) {
+            recycleFiles.removeFirst();
+        }
+        archivedFiles = 0;
         File[] files = dir.listFiles();
-        if (files == null || files.length == 0) {
-            return;
+        if (files == null) {
+            files = new File[0];
         }
         Arrays.sort(files);
         int count = 0;
+        if (archiveDir != null) {
+            count += initArchivedFiles(files);
+        }
         for (File f : files) {
             if (!f.isFile()) {
                 continue;
             }
+            if (RECYCLE_PATTERN.matcher(f.getName()).matches()) {
+                if (f.length() == getFileSize() && recycleFiles.size() < groupConfig.maxRecycleFiles) {
+                    recycleFiles.addLast(f);
+                } else {
+                    log.info("delete recycled file: {}", f.getPath());
+                    Files.delete(f.toPath());
+                }
+                continue;
+            }
             Matcher matcher = PATTERN.matcher(f.getName());
             if (matcher.matches()) {
                 if (f.length() != getFileSize()) {
                     throw new RaftException("file size error: " + f.getPath() + ", size=" + f.length());
                 }
                 long startPos = Long.parseLong(matcher.group(1));
-                HashSet<OpenOption> openOptions = new HashSet<>();
-                openOptions.add(StandardOpenOption.READ);
-                openOptions.add(StandardOpenOption.WRITE);
-                ExecutorService executor = groupConfig.ioCallbackUseGroupExecutor ?
-                        groupConfig.fiberGroup.getExecutor() : ioExecutor;
-                AsynchronousFileChannel channel = AsynchronousFileChannel.open(f.toPath(), openOptions, executor);
-                queue.addLast(new LogFile(startPos, startPos + getFileSize(), channel, f, groupConfig.fiberGroup));
+                queue.addLast(openFile(f, startPos, false));
                 count++;
             }
         }
@@ -149,6 +173,61 @@ abstract class FileQueue {
         }
     }
 
+    private int initArchivedFiles(File[] files) throws IOException {
+        File[] archived = FileUtil.ensureDir(archiveDir).listFiles();
+        if (archived == null || archived.length == 0) {
+            return 0;
+        }
+        Arrays.sort(archived);
+        HashSet<String> names = new HashSet<>();
+        for (File f : files) {
+            names.add(f.getName());
+        }
+        for (File f : archived) {
+            if (!f.isFile()) {
+                continue;
+            }
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                log.info("delete unfinished archive file: {}", f.getPath());
+                Files.delete(f.toPath());
+                continue;
+            }
+            Matcher matcher = PATTERN.matcher(f.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            if (names.contains(f.getName())) {
+                // crash after copy and before delete the source file, archive it again later
+                log.warn("file exists in both data dir and archive dir, delete the archived one: {}", f.getPath());
+                Files.delete(f.toPath());
+                continue;
+            }
+            if (f.length() != getFileSize()) {
+                throw new RaftException("file size error: " + f.getPath() + ", size=" + f.length());
+            }
+            long startPos = Long.parseLong(matcher.group(1));
+            queue.addLast(openFile(f, startPos, true));
+            archivedFiles++;
+        }
+        return archivedFiles;
+    }
+
+    private LogFile openFile(File f, long startPos, boolean archived) throws IOException {
+        HashSet<OpenOption> openOptions = new HashSet<>();
+        openOptions.add(StandardOpenOption.READ);
+        if (!archived) {
+            openOptions.add(StandardOpenOption.WRITE);
+        }
+        ExecutorService executor = groupConfig.ioCallbackUseGroupExecutor ?
+                groupConfig.fiberGroup.getExecutor() : ioExecutor;
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(f.toPath(), openOptions, executor);
+        AsynchronousFileChannel directChannel = archived ? null : openDirectChannel(f, executor);
+        LogFile lf = new LogFile(startPos, startPos + getFileSize(), channel, directChannel, f,
+                groupConfig.fiberGroup);
+        lf.archived = archived;
+        return lf;
+    }
+
     protected void startQueueAllocFiber() {
         queueAllocFiber.start();
     }
@@ -170,7 +249,7 @@ abstract class FileQueue {
 
     // to delete all files that not be managed (unexpected)
     protected FiberFrame<Void> forceDeleteAll() {
-        File[] files = dir.listFiles();
+        File[] files = listFilesWithArchived();
         if (files == null || files.length == 0) {
             return FiberFrame.voidCompletedFrame();
         }
@@ -186,7 +265,7 @@ abstract class FileQueue {
                 File f = files[i];
                 if (PATTERN.matcher(f.getName()).matches()) {
                     log.warn("delete unexpected file: {}", f.getPath());
-                    return Fiber.call(new DeleteFrame(f, null), this);
+                    return Fiber.call(new DeleteFrame(f, null, null, null), this);
                 } else {
                     return Fiber.resume(null, this);
                 }
@@ -194,6 +273,17 @@ abstract class FileQueue {
         };
     }
 
+    private File[] listFilesWithArchived() {
+        File[] files = dir.listFiles();
+        File[] archived = archiveDir == null ? null : archiveDir.listFiles();
+        if (files == null || archived == null || archived.length == 0) {
+            return files;
+        }
+        File[] all = Arrays.copyOf(files, files.length + archived.length);
+        System.arraycopy(archived, 0, all, files.length, archived.length);
+        return all;
+    }
+
     protected LogFile getLogFile(long filePos) {
         if (filePos < queueStartPosition || filePos >= queueEndPosition) {
             return null;
@@ -239,9 +329,34 @@ abstract class FileQueue {
         };
     }
 
+    // return null if direct io is not enabled or not supported by the file system
+    private AsynchronousFileChannel openDirectChannel(File f, ExecutorService executor) {
+        if (!mainLogFile || !groupConfig.logDirectIo) {
+            return null;
+        }
+        OpenOption direct = StoreUtil.directOpenOption();
+        if (direct == null) {
+            log.warn("O_DIRECT is not supported by the jdk, use buffered io: {}", f.getPath());
+            return null;
+        }
+        try {
+            HashSet<OpenOption> openOptions = new HashSet<>();
+            openOptions.add(StandardOpenOption.WRITE);
+            openOptions.add(direct);
+            return AsynchronousFileChannel.open(f.toPath(), openOptions, executor);
+        } catch (Exception e) {
+            log.warn("open file with O_DIRECT fail, use buffered io: {}, {}", f.getPath(), e.toString());
+            return null;
+        }
+    }
+
     private void closeChannel() {
         for (int i = 0; i < queue.size(); i++) {
-            DtUtil.close(queue.get(i).getChannel());
+            LogFile lf = queue.get(i);
+            DtUtil.close(lf.getChannel());
+            if (lf.getDirectChannel() != null) {
+                DtUtil.close(lf.getDirectChannel());
+            }
         }
     }
 
@@ -249,10 +364,16 @@ abstract class FileQueue {
 
         private final File file;
         private final AsynchronousFileChannel channel;
+        private final AsynchronousFileChannel directChannel;
+        // rename the file to it instead of delete, if not null
+        private final File recycleFile;
 
-        public DeleteFrame(File file, AsynchronousFileChannel channel) {
+        public DeleteFrame(File file, AsynchronousFileChannel channel, AsynchronousFileChannel directChannel,
+                           File recycleFile) {
             this.file = file;
             this.channel = channel;
+            this.directChannel = directChannel;
+            this.recycleFile = recycleFile;
         }
 
         @Override
@@ -265,8 +386,16 @@ abstract class FileQueue {
                             log.debug("close log file: {}", file.getPath());
                             DtUtil.close(channel);
                         }
-                        log.info("delete log file: {}", file.getPath());
-                        Files.delete(file.toPath());
+                        if (directChannel != null) {
+                            DtUtil.close(directChannel);
+                        }
+                        if (recycleFile != null) {
+                            log.info("recycle log file: {}", file.getPath());
+                            Files.move(file.toPath(), recycleFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        } else {
+                            log.info("delete log file: {}", file.getPath());
+                            Files.delete(file.toPath());
+                        }
 
                         deleteFuture.fireComplete(null);
                     } catch (Throwable e) {
@@ -278,7 +407,14 @@ abstract class FileQueue {
                 log.error("submit delete task fail: ", e);
                 deleteFuture.completeExceptionally(e);
             }
-            return deleteFuture.await(this::justReturn);
+            return deleteFuture.await(this::afterDelete);
+        }
+
+        private FrameCallResult afterDelete(Void v) {
+            if (recycleFile != null) {
+                recycleFiles.addLast(recycleFile);
+            }
+            return Fiber.frameReturn();
         }
     }
 
@@ -296,7 +432,15 @@ abstract class FileQueue {
                     first.deleteTimestamp = 1;
                 }
                 first.deleted = true;
-                return Fiber.call(new DeleteFrame(first.getFile(), first.getChannel()), this::justReturn);
+                File recycleFile = null;
+                if (recycleFiles.size() < groupConfig.maxRecycleFiles && !markClose && !first.archived) {
+                    recycleFile = new File(dir, first.getFile().getName() + RECYCLE_SUFFIX);
+                    if (recycleFile.exists()) {
+                        recycleFile = null;
+                    }
+                }
+                return Fiber.call(new DeleteFrame(first.getFile(), first.getChannel(),
+                        first.getDirectChannel(), recycleFile), this::justReturn);
             }
         };
         f = new RetryFrame<>(f, groupConfig.ioRetryInterval, true,
@@ -304,7 +448,10 @@ abstract class FileQueue {
         f = new PostFiberFrame<>(f) {
             @Override
             protected FrameCallResult postProcess(Void v) {
-                queue.removeFirst();
+                LogFile first = queue.removeFirst();
+                if (first.archived) {
+                    archivedFiles--;
+                }
                 if (queue.size() >= 1) {
                     queueStartPosition = queue.get(0).startPos;
                 } else {
@@ -321,6 +468,76 @@ abstract class FileQueue {
     protected void afterDelete() {
     }
 
+    // move the first not archived file to archive dir, the file is still readable by getLogFile after archived
+    public FiberFrame<Void> archiveNextFile() {
+        LogFile lf = queue.get(archivedFiles);
+        File dest = new File(archiveDir, lf.getFile().getName());
+        FiberFrame<Void> f = new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                FiberFuture<LogFile> future = groupConfig.fiberGroup.newFuture("archiveFile");
+                try {
+                    ioExecutor.execute(() -> {
+                        try {
+                            // the opened channel of source file is still valid after move
+                            moveToArchive(lf.getFile(), dest);
+                            future.fireComplete(openFile(dest, lf.startPos, true));
+                        } catch (Throwable e) {
+                            log.error("archive file fail: {}", lf.getFile().getPath());
+                            future.fireCompleteExceptionally(e);
+                        }
+                    });
+                } catch (Throwable e) {
+                    log.error("submit archive task fail: ", e);
+                    future.completeExceptionally(e);
+                }
+                return future.await(this::afterMove);
+            }
+
+            private FrameCallResult afterMove(LogFile archived) {
+                archived.firstIndex = lf.firstIndex;
+                archived.firstTerm = lf.firstTerm;
+                archived.firstTimestamp = lf.firstTimestamp;
+                queue.set(archivedFiles, archived);
+                archivedFiles++;
+                return closeOldChannel(null);
+            }
+
+            private FrameCallResult closeOldChannel(Void v) {
+                if (lf.inUse()) {
+                    return lf.getNoRwCond().await(this::closeOldChannel);
+                }
+                DtUtil.close(lf.getChannel());
+                if (lf.getDirectChannel() != null) {
+                    DtUtil.close(lf.getDirectChannel());
+                }
+                return Fiber.frameReturn();
+            }
+        };
+        return new RetryFrame<>(f, groupConfig.ioRetryInterval, true,
+                () -> !initialized || raftStatus.installSnapshot);
+    }
+
+    private static void moveToArchive(File src, File dest) throws IOException {
+        if (!src.exists() && dest.exists()) {
+            // moved in previous try
+            return;
+        }
+        log.info("archive file: {} -> {}", src.getPath(), dest.getPath());
+        try {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // archive dir is in another file system, copy to tmp file then rename, so initQueue not see half file
+            File tmp = new File(dest.getParentFile(), dest.getName() + TMP_SUFFIX);
+            Files.copy(src.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                fc.force(false);
+            }
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(src.toPath());
+        }
+    }
+
     private class QueueAllocFrame extends FiberFrame<Void> {
 
         @Override
@@ -347,7 +564,7 @@ abstract class FileQueue {
                 }
             }
             LogFile logFile = new LogFile(f.fileStartPos, f.fileStartPos + getFileSize(), f.channel,
-                    f.file, FiberGroup.currentGroup());
+                    f.directChannel, f.file, FiberGroup.currentGroup());
             queue.addLast(logFile);
             if (queue.size() == 1) {
                 queueStartPosition = logFile.startPos;
@@ -363,6 +580,7 @@ abstract class FileQueue {
 
         private File file;
         private AsynchronousFileChannel channel;
+        private AsynchronousFileChannel directChannel;
         private final int perfType;
         private final long perfStartTime;
         private boolean result;
@@ -377,14 +595,19 @@ abstract class FileQueue {
             fileStartPos = queueEndPosition;
             String fileName = String.format("%020d", fileStartPos);
             file = new File(dir, fileName);
+            File recycled = recycleFiles.size() > 0 ? recycleFiles.removeFirst() : null;
             FiberFuture<Void> createFileFuture = getFiberGroup().newFuture("createFile");
             ioExecutor.execute(() -> {
                 long startTime = System.currentTimeMillis();
                 try {
-                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
-                    raf.setLength(getFileSize());
-                    raf.getFD().sync();
-                    raf.close();
+                    if (recycled != null) {
+                        reuseFile(recycled);
+                    } else {
+                        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                        raf.setLength(getFileSize());
+                        raf.getFD().sync();
+                        raf.close();
+                    }
                     HashSet<OpenOption> openOptions = new HashSet<>();
                     openOptions.add(StandardOpenOption.READ);
                     openOptions.add(StandardOpenOption.WRITE);
@@ -392,9 +615,11 @@ abstract class FileQueue {
                     ExecutorService executor = groupConfig.ioCallbackUseGroupExecutor ?
                             groupConfig.fiberGroup.getExecutor() : ioExecutor;
                     channel = AsynchronousFileChannel.open(file.toPath(), openOptions, executor);
+                    directChannel = openDirectChannel(file, executor);
                     long time = System.currentTimeMillis() - startTime;
                     createFileFuture.fireComplete(null);
-                    log.info("allocate file done, cost {} ms: {}", time, file.getPath());
+                    log.info("allocate file done, cost {} ms: {}{}", time, file.getPath(),
+                            recycled == null ? "" : ", reuse " + recycled.getName());
                 } catch (Throwable e) {
                     long time = System.currentTimeMillis() - startTime;
                     createFileFuture.fireCompleteExceptionally(e);
@@ -404,6 +629,24 @@ abstract class FileQueue {
             return createFileFuture.await(this::afterCreateFile);
         }
 
+        // run in io thread. the stale data in the recycled file is not zero-filled by default, the restore
+        // stops at an item whose index or term not follow the previous one, and the stale items are older.
+        private void reuseFile(File recycled) throws IOException {
+            if (groupConfig.zeroFillRecycleFile) {
+                try (RandomAccessFile raf = new RandomAccessFile(recycled, "rw")) {
+                    byte[] zeros = new byte[1024 * 1024];
+                    long rest = getFileSize();
+                    while (rest > 0) {
+                        int len = (int) Math.min(rest, zeros.length);
+                        raf.write(zeros, 0, len);
+                        rest -= len;
+                    }
+                    raf.getFD().sync();
+                }
+            }
+            Files.move(recycled.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
         private FrameCallResult afterCreateFile(Void unused) {
             result = true;
             groupConfig.perfCallback.fireTime(perfType, perfStartTime);
@@ -417,6 +660,10 @@ abstract class FileQueue {
                 DtUtil.close(channel);
                 channel = null;
             }
+            if (directChannel != null) {
+                DtUtil.close(directChannel);
+                directChannel = null;
+            }
             return Fiber.frameReturn();
         }
     }
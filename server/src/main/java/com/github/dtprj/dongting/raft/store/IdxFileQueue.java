@@ -53,6 +53,8 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
     private final int blockCacheItems;
 
     private final int flushThreshold;
+    // items of a page (4KB, or the whole file if it's smaller)
+    private final int pageItems;
     final LongLongSeqMap cache;
     private final Timestamp ts;
     private final RaftStatusImpl raftStatus;
@@ -88,6 +90,7 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
         this.maxCacheItems = groupConfig.idxCacheSize;
         this.flushThreshold = groupConfig.idxFlushThreshold;
         this.blockCacheItems = maxCacheItems << 2;
+        this.pageItems = Math.min(4096 / ITEM_LEN, itemsPerFile);
         this.cache = new LongLongSeqMap(maxCacheItems);
 
         this.flushFiber = new Fiber("idxFlush-" + groupConfig.groupId, groupConfig.fiberGroup, flushLoopFrame);
@@ -198,7 +201,7 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
         }
         cache.put(itemIndex, dataPosition);
         nextIndex = itemIndex + 1;
-        if (flushLoopFrame.waiting && getDiff() >= flushThreshold) {
+        if (flushLoopFrame.waiting && getDiff() >= currentFlushThreshold()) {
             needFlushCondition.signal();
         }
     }
@@ -213,6 +216,13 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
         if (lastIdx - startIdx > maxCacheItems) {
             lastIdx = startIdx + maxCacheItems;
         }
+        if (!suggestForce) {
+            // end at page boundary, so the next flush starts with a new page, and each page is written once
+            long alignedLastIdx = ((lastIdx + 1) & ~(pageItems - 1)) - 1;
+            if (alignedLastIdx >= startIdx) {
+                lastIdx = alignedLastIdx;
+            }
+        }
         long startIdxPos = indexToPos(startIdx);
         long lastIdxPos = indexToPos(lastIdx);
         long fileStartPos1 = startIdxPos & ~fileLenMask;
@@ -283,6 +293,11 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
         };
     }
 
+    private int currentFlushThreshold() {
+        // in restore, write idx in large batches, unless the restorer is blocked
+        return initialized || cache.size() > blockCacheItems ? flushThreshold : maxCacheItems;
+    }
+
     private long getDiff() {
         // in recovery, the commit index may be larger than last key, lastKey may be -1
         long lastNeedFlushItem = Math.min(cache.getLastKey(), raftStatus.commitIndex);
@@ -315,7 +330,7 @@ final class IdxFileQueue extends FileQueue implements IdxOps {
             if (diff > 0 && nextPersistIndex <= firstIndex) {
                 // after install snapshot
                 flushType = 1;
-            } else if (diff > flushThreshold) {
+            } else if (diff > currentFlushThreshold()) {
                 flushType = 0;
             } else if (markClose) {
                 if (diff > 0) {
@@ -18,6 +18,7 @@ package com.github.dtprj.dongting.raft.store;
 import com.github.dtprj.dongting.buf.ByteBufferPool;
 import com.github.dtprj.dongting.codec.Encodable;
 import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.PerfCallback;
 import com.github.dtprj.dongting.common.PerfConsts;
 import com.github.dtprj.dongting.fiber.DispatcherThread;
@@ -53,6 +54,7 @@ class LogAppender {
     private final RaftStatusImpl raftStatus;
 
     private final ByteBufferPool directPool;
+    private final int directIoBlockSize;
 
     // update before write operation issued
     long nextPersistIndex = -1;
@@ -71,6 +73,7 @@ class LogAppender {
         this.directPool = thread.directPool;
         this.encodeContext = new EncodeContext(thread.heapPool);
         this.fileLenMask = logFileQueue.fileLength() - 1;
+        this.directIoBlockSize = logFileQueue.directIoBlockSize;
         this.perfCallback = groupConfig.perfCallback;
     }
 
@@ -88,6 +91,8 @@ class LogAppender {
         private LogItem lastItem;
         private int writeCount;
         private int bytesToWrite;
+        // the buffer borrowed from pool, the buffer to encode may be a view of it
+        private ByteBuffer poolBuf;
 
         private final List<LogItem> taskList;
 
@@ -161,7 +166,7 @@ class LogAppender {
                 if (li.type == LogItem.TYPE_LOG_READ) {
                     len = LogHeader.ITEM_HEADER_SIZE;
                 } else {
-                    len = LogHeader.computeTotalLen(li.getActualHeaderSize(), li.getActualBodySize());
+                    len = LogHeader.computeTotalLen(li.getActualHeaderSize(), LogHeader.storeBodySize(li));
                 }
                 if (len <= fileRestBytes) {
                     bytesToWrite += len;
@@ -241,7 +246,13 @@ class LogAppender {
                     if (!buffer.hasRemaining()) {
                         buffer = doWrite(file, buffer);
                     }
-                    buffer = encodeData(li.getActualBodySize(), li.getBody(), buffer, file);
+                    ByteArray cb = li.getCompressedBody();
+                    if (cb == null) {
+                        buffer = encodeData(li.getActualBodySize(), li.getBody(), buffer, file);
+                    } else {
+                        // crc is computed over the compressed bytes
+                        buffer = encodeData(cb.length, cb, buffer, file);
+                    }
                 }
 
                 idxOps.put(li.index, dataPos);
@@ -286,7 +297,7 @@ class LogAppender {
 
             long lastIndex = lastItem != null ? lastItem.index : -1;
             long writeStartPosInFile = nextPersistPos & fileLenMask;
-            chainWriter.submitWrite(file, logFileQueue.initialized, buffer, writeStartPosInFile,
+            chainWriter.submitWrite(file, logFileQueue.initialized, poolBuf, buffer, writeStartPosInFile,
                     lastItem != null, writeCount, lastIndex);
 
             nextPersistPos += bytes;
@@ -301,10 +312,18 @@ class LogAppender {
 
         private ByteBuffer borrowBuffer(int size) {
             if (size == 0) {
+                poolBuf = null;
                 return EMPTY_BUFFER;
             } else {
                 size = Math.min(size, logFileQueue.maxWriteBufferSize);
-                return directPool.borrow(size);
+                if (directIoBlockSize > 0) {
+                    // the block aligned file range of the view is also aligned in memory, see ChainWriter.writeDirect
+                    poolBuf = directPool.borrow(size + directIoBlockSize);
+                    return StoreUtil.alignedView(poolBuf, nextPersistPos, size, directIoBlockSize);
+                } else {
+                    poolBuf = directPool.borrow(size);
+                    return poolBuf;
+                }
             }
         }
     }
@@ -34,9 +34,16 @@ class LogFile extends DtFile {
     long deleteTimestamp;
 
     boolean deleted;
+    // moved to archive dir, read only
+    boolean archived;
 
     public LogFile(long startPos, long endPos, AsynchronousFileChannel channel, File file, FiberGroup group) {
-        super(file, channel, group);
+        this(startPos, endPos, channel, null, file, group);
+    }
+
+    public LogFile(long startPos, long endPos, AsynchronousFileChannel channel, AsynchronousFileChannel directChannel,
+                   File file, FiberGroup group) {
+        super(file, channel, directChannel, group);
         this.startPos = startPos;
         this.endPos = endPos;
     }
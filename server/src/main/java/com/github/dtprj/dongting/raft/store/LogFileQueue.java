@@ -57,6 +57,9 @@ final class LogFileQueue extends FileQueue {
 
     int maxWriteBufferSize = MAX_WRITE_BUFFER_SIZE;
 
+    // 0 if direct io is disabled
+    final int directIoBlockSize;
+
     public LogFileQueue(File dir, RaftGroupConfigEx groupConfig, IdxOps idxOps) {
         super(dir, groupConfig, groupConfig.logFileSize, true);
         this.groupConfig = groupConfig;
@@ -66,7 +69,13 @@ final class LogFileQueue extends FileQueue {
         DispatcherThread t = fiberGroup.dispatcher.thread;
         this.directPool = t.directPool;
 
+        this.directIoBlockSize = groupConfig.logDirectIo ? StoreUtil.directIoBlockSize(dir) : 0;
+
         ChainWriter chainWriter = new ChainWriter("LogForce", groupConfig, this::writeFinish, this::forceFinish);
+        chainWriter.setDirectIoBlockSize(directIoBlockSize);
+        if (groupConfig.sharedWal != null) {
+            chainWriter.setSharedWal(groupConfig.sharedWal);
+        }
         chainWriter.setWritePerfType1(PerfConsts.RAFT_D_LOG_WRITE1);
         chainWriter.setWritePerfType2(PerfConsts.RAFT_D_LOG_WRITE2);
         chainWriter.setForcePerfType(PerfConsts.RAFT_D_LOG_SYNC);
@@ -108,6 +117,8 @@ final class LogFileQueue extends FileQueue {
             long writePos = 0;
             int i = 0;
             final ByteBuffer buffer = directPool.borrow(maxWriteBufferSize);
+            final ByteBuffer readAheadBuffer = groupConfig.restoreReadAhead ?
+                    directPool.borrow(maxWriteBufferSize + LogHeader.ITEM_HEADER_SIZE) : null;
 
             @Override
             public FrameCallResult execute(Void input) {
@@ -117,7 +128,7 @@ final class LogFileQueue extends FileQueue {
                     return finish();
                 }
                 LogFile lf = queue.get(i);
-                return Fiber.call(restorer.restoreFile(buffer, lf), this::afterRestoreSingleFile);
+                return Fiber.call(restorer.restoreFile(buffer, readAheadBuffer, lf), this::afterRestoreSingleFile);
             }
 
             private FrameCallResult afterRestoreSingleFile(Pair<Boolean, Long> r) {
@@ -160,6 +171,9 @@ final class LogFileQueue extends FileQueue {
             @Override
             protected FrameCallResult doFinally() {
                 directPool.release(buffer);
+                if (readAheadBuffer != null) {
+                    directPool.release(readAheadBuffer);
+                }
                 return super.doFinally();
             }
         };
@@ -15,6 +15,7 @@
  */
 package com.github.dtprj.dongting.raft.store;
 
+import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.raft.impl.RaftUtil;
 import com.github.dtprj.dongting.raft.server.LogItem;
 
@@ -28,7 +29,7 @@ class LogHeader {
     // total len(4 bytes), include this 4 bytes
     // biz header len 4 bytes
     // body len 4 bytes
-    // type 1 byte
+    // type 1 byte, the TYPE_FLAG_COMPRESSED bit means the body is compressed
     // bizType 1 byte
     // term 4 bytes
     // prevLogTerm 4 bytes
@@ -40,12 +41,15 @@ class LogHeader {
     // negative value means end of file
     private static final int END_LEN_MAGIC = 0xF19A7BCB;
 
+    static final int TYPE_FLAG_COMPRESSED = 0x40;
+
     private final CRC32C crc32c = new CRC32C();
 
     int totalLen;
     int bizHeaderLen;
     int bodyLen;
     int type;
+    boolean compressed;
     int bizType;
     int term;
     int prevLogTerm;
@@ -67,7 +71,9 @@ class LogHeader {
         totalLen = buf.getInt();
         bizHeaderLen = buf.getInt();
         bodyLen = buf.getInt();
-        type = buf.get();
+        int t = buf.get();
+        type = t & ~TYPE_FLAG_COMPRESSED;
+        compressed = (t & TYPE_FLAG_COMPRESSED) != 0;
         bizType = buf.get();
         term = buf.getInt();
         prevLogTerm = buf.getInt();
@@ -89,19 +95,30 @@ class LogHeader {
         return ITEM_HEADER_SIZE + (bizHeaderLen == 0 ? 0 : bizHeaderLen + 4) + (bodyLen == 0 ? 0 : bodyLen + 4);
     }
 
+    // the body size in log file, it's the compressed size if the body is compressed
+    public static int storeBodySize(LogItem log) {
+        ByteArray cb = log.getCompressedBody();
+        return cb == null ? log.getActualBodySize() : cb.length;
+    }
+
     public static int writeHeader(CRC32C crc, ByteBuffer buffer, LogItem log) {
         boolean read = log.type == LogItem.TYPE_LOG_READ;
         int len;
+        int bodyLen = read ? 0 : storeBodySize(log);
         if (read) {
             len = ITEM_HEADER_SIZE;
         } else {
-            len = computeTotalLen(log.getActualHeaderSize(), log.getActualBodySize());
+            len = computeTotalLen(log.getActualHeaderSize(), bodyLen);
         }
         int startPos = buffer.position();
         buffer.putInt(len);
         buffer.putInt(read ? 0 : log.getActualHeaderSize());
-        buffer.putInt(read ? 0 : log.getActualBodySize());
-        buffer.put((byte) log.type);
+        buffer.putInt(bodyLen);
+        if (!read && log.getCompressedBody() != null) {
+            buffer.put((byte) (log.type | TYPE_FLAG_COMPRESSED));
+        } else {
+            buffer.put((byte) log.type);
+        }
         buffer.put((byte) log.bizType);
         buffer.putInt(log.term);
         buffer.putInt(log.prevLogTerm);
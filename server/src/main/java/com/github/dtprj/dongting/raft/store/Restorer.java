@@ -18,7 +18,9 @@ package com.github.dtprj.dongting.raft.store;
 import com.github.dtprj.dongting.common.Pair;
 import com.github.dtprj.dongting.fiber.Fiber;
 import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.log.BugLog;
 import com.github.dtprj.dongting.log.DtLog;
 import com.github.dtprj.dongting.log.DtLogs;
 import com.github.dtprj.dongting.raft.RaftException;
@@ -79,19 +81,46 @@ class Restorer {
      * return value (right): next write pos
      */
     public FiberFrame<Pair<Boolean, Long>> restoreFile(ByteBuffer buffer, LogFile lf) {
-        return new RestoreFileFrame(buffer, lf);
+        return new RestoreFileFrame(buffer, null, lf);
+    }
+
+    /**
+     * if readAheadBuffer is not null, the next block is read into it when the current block is checked.
+     */
+    public FiberFrame<Pair<Boolean, Long>> restoreFile(ByteBuffer buffer, ByteBuffer readAheadBuffer, LogFile lf) {
+        return new RestoreFileFrame(buffer, readAheadBuffer, lf);
     }
 
     private class RestoreFileFrame extends FiberFrame<Pair<Boolean, Long>> {
-        private final ByteBuffer buffer;
+        private ByteBuffer buffer;
+        private ByteBuffer readAheadBuffer;
         private final LogFile lf;
         private long readPos;
+        private boolean fromFirstItem;
+        private int restoreCountBeforeFile;
 
-        RestoreFileFrame(ByteBuffer buffer, LogFile lf) {
+        private FiberFuture<Void> readAheadFuture;
+        private int readAheadBytes;
+
+        RestoreFileFrame(ByteBuffer buffer, ByteBuffer readAheadBuffer, LogFile lf) {
             this.buffer = buffer;
+            this.readAheadBuffer = readAheadBuffer;
             this.lf = lf;
         }
 
+        @Override
+        protected FrameCallResult handle(Throwable ex) throws Throwable {
+            if (readAheadFuture != null) {
+                // the buffer is released after this frame, so wait the read finish
+                FiberFuture<Void> f = readAheadFuture.convertWithHandle("waitReadAhead", (v, e) -> null);
+                readAheadFuture = null;
+                return f.await(v -> {
+                    throw ex;
+                });
+            }
+            throw ex;
+        }
+
         @Override
         public FrameCallResult execute(Void input) {
             buffer.clear();
@@ -134,6 +163,8 @@ class Restorer {
                             itemStartPosOfFile = 0;
                         }
                         readPos = itemStartPosOfFile;
+                        fromFirstItem = itemStartPosOfFile == firstItemPos;
+                        restoreCountBeforeFile = restoreCount;
                         buffer.clear();
                         state = STATE_ITEM_HEADER;
                         return loopRestoreFileBlock();
@@ -158,6 +189,9 @@ class Restorer {
         private FrameCallResult loopRestoreFileBlock() {
             if (readPos < logFileQueue.fileLength()) { // loop begin
                 RaftUtil.checkStop(getFiberGroup());
+                if (readAheadFuture != null) {
+                    return readAheadFuture.await(unusedVoid -> afterReadAhead());
+                }
                 AsyncIoTask task = new AsyncIoTask(groupConfig.fiberGroup, lf);
                 long fileRest = logFileQueue.fileLength() - readPos;
                 if (buffer.remaining() > fileRest) {
@@ -177,32 +211,95 @@ class Restorer {
 
         private FrameCallResult afterRead(int readBytes) {
             buffer.flip();
+            readPos += readBytes;
+            startReadAhead();
+            return checkBlock();
+        }
+
+        private void startReadAhead() {
+            if (readAheadBuffer == null || readPos >= logFileQueue.fileLength()) {
+                return;
+            }
+            // reserve space for the rest bytes of current block, see afterReadAhead()
+            ByteBuffer buf = readAheadBuffer;
+            buf.clear();
+            buf.position(LogHeader.ITEM_HEADER_SIZE);
+            long fileRest = logFileQueue.fileLength() - readPos;
+            if (buf.remaining() > fileRest) {
+                buf.limit(buf.position() + (int) fileRest);
+            }
+            readAheadBytes = buf.remaining();
+            AsyncIoTask task = new AsyncIoTask(groupConfig.fiberGroup, lf);
+            readAheadFuture = task.read(buf, readPos);
+        }
+
+        private FrameCallResult afterReadAhead() {
+            readAheadFuture = null;
+            ByteBuffer buf = readAheadBuffer;
+            // the rest is an incomplete item header or crc, which is less than ITEM_HEADER_SIZE
+            int rest = buffer.remaining();
+            if (rest > LogHeader.ITEM_HEADER_SIZE) {
+                BugLog.log("rest bytes too large: {}", rest);
+                throw new RaftException("rest bytes too large: " + rest);
+            }
+            int start = LogHeader.ITEM_HEADER_SIZE - rest;
+            ByteBuffer dup = buf.duplicate();
+            dup.position(start);
+            dup.put(buffer);
+            buf.limit(buf.position());
+            buf.position(start);
+
+            readAheadBuffer = buffer;
+            buffer = buf;
+            readPos += readAheadBytes;
+            startReadAhead();
+            return checkBlock();
+        }
+
+        private FrameCallResult checkBlock() {
             int result = restore(buffer, lf);
             if (idxOps.needWaitFlush()) {
-                return Fiber.call(idxOps.waitFlush(), v -> afterIdxFlush(readBytes, result));
+                return Fiber.call(idxOps.waitFlush(), v -> afterIdxFlush(result));
             } else {
-                return afterIdxFlush(readBytes, result);
+                return afterIdxFlush(result);
             }
         }
 
-        private FrameCallResult afterIdxFlush(int readBytes, int result) {
+        private FrameCallResult afterIdxFlush(int result) {
             switch (result) {
                 case RT_CONTINUE_LOAD:
-                    StoreUtil.prepareNextRead(buffer);
-                    readPos += readBytes;
+                    if (readAheadFuture == null) {
+                        StoreUtil.prepareNextRead(buffer);
+                    }
                     break;
                 case RT_CURRENT_FILE_FINISHED:
-                    setResult(new Pair<>(false, lf.startPos + itemStartPosOfFile));
-                    return Fiber.frameReturn();
+                    return finish(new Pair<>(false, lf.startPos + itemStartPosOfFile));
                 case RT_RESTORE_FINISHED:
-                    setResult(new Pair<>(true, lf.startPos + itemStartPosOfFile));
-                    return Fiber.frameReturn();
+                    if (fromFirstItem && restoreCount == restoreCountBeforeFile) {
+                        // the first item is stale (the file is recycled), and no item is written to this file
+                        log.info("file has no valid item: {}", lf.getFile().getPath());
+                        lf.firstIndex = 0;
+                        lf.firstTerm = 0;
+                        lf.firstTimestamp = 0;
+                    }
+                    return finish(new Pair<>(true, lf.startPos + itemStartPosOfFile));
                 default:
                     throw new RaftException("error result: " + result);
             }
             // loop
             return loopRestoreFileBlock();
         }
+
+        private FrameCallResult finish(Pair<Boolean, Long> r) {
+            if (readAheadFuture != null) {
+                // the buffers are reused by the next file, so wait the read finish
+                FiberFuture<Void> f = readAheadFuture;
+                readAheadFuture = null;
+                return f.await(v -> finish(r));
+            }
+            setResult(r);
+            return Fiber.frameReturn();
+        }
     } //end of class RestoreFileFrame
 
     private int itemCheckFail(LogFile lf, String reason) {
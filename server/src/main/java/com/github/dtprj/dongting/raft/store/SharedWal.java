@@ -0,0 +1,605 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.store;
+
+import com.github.dtprj.dongting.common.DtUtil;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.log.DtLog;
+import com.github.dtprj.dongting.log.DtLogs;
+import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.raft.impl.FileUtil;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * A write-ahead log shared by all raft groups of a server, see RaftServerConfig.sharedWalDir.
+ * <p>
+ * Each group still writes its own log files, but not sync them in the write path. The written bytes are also
+ * appended to this wal as records of (groupId, log position, bytes), a single writer thread writes the records of
+ * all groups and syncs them in one fsync (group commit). Each group syncs its log files periodically (checkpoint),
+ * and the wal files before the checkpoint of all groups are deleted. When the server restarts, the records are
+ * written back to the log files of each group before the raft log restore, in the order they are appended, so the
+ * tail of log files is the same as it is acknowledged.
+ * <p>
+ * Record format: crc(4) totalLen(4) type(4) groupId(4) logPos(8) data, the crc covers the bytes after it.
+ *
+ * @author huangli
+ */
+public class SharedWal {
+    private static final DtLog log = DtLogs.getLogger(SharedWal.class);
+
+    static final int HEADER_SIZE = 24;
+    static final int TYPE_DATA = 1;
+    // the group installs snapshot, records before it are discarded in replay
+    static final int TYPE_RESET = 2;
+
+    private static final Pattern PATTERN = Pattern.compile("^(\\d{20})$");
+
+    private final File dir;
+    private final long fileSize;
+    private final long checkpointMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition needWriteCond = lock.newCondition();
+    private final CRC32C crc32c = new CRC32C();
+
+    // below fields are guarded by lock
+    private ByteBuffer fillBuf = ByteBuffer.allocate(1024 * 1024);
+    private ByteBuffer writeBuf = ByteBuffer.allocate(1024 * 1024);
+    private ArrayList<Run> fillRuns = new ArrayList<>();
+    private ArrayList<Run> writeRuns = new ArrayList<>();
+    private final ArrayList<Waiter> waiters = new ArrayList<>();
+    private final HashMap<Integer, GroupState> groups = new HashMap<>();
+    private final HashMap<Integer, ArrayList<Rec>> replayRecords = new HashMap<>();
+    private final ArrayList<File> oldFiles = new ArrayList<>();
+    private long appendPos;
+    private long syncedPos;
+    private Throwable ex;
+    private boolean stop;
+
+    // below fields are only accessed by writer thread
+    private final ArrayList<Long> files = new ArrayList<>();
+    private FileChannel currentChannel;
+    private long currentFileStart = -1;
+
+    private Thread writer;
+
+    // a continuous range in wal, not cross files
+    private static class Run {
+        long walPos;
+        int bufOffset;
+        int len;
+    }
+
+    private static class Waiter {
+        final long pos;
+        final FiberFuture<Void> future;
+
+        Waiter(long pos, FiberFuture<Void> future) {
+            this.pos = pos;
+            this.future = future;
+        }
+    }
+
+    private static class GroupState {
+        // wal position after the last record of the group
+        long lastAppendEnd;
+        // records before it are synced to the log files of the group
+        long checkpointPos;
+    }
+
+    private static class Rec {
+        final File walFile;
+        final long dataPosInFile;
+        final int len;
+        final long logPos;
+
+        Rec(File walFile, long dataPosInFile, int len, long logPos) {
+            this.walFile = walFile;
+            this.dataPosInFile = dataPosInFile;
+            this.len = len;
+            this.logPos = logPos;
+        }
+    }
+
+    public SharedWal(RaftServerConfig serverConfig) {
+        this.dir = new File(serverConfig.sharedWalDir);
+        this.fileSize = serverConfig.sharedWalFileSize;
+        this.checkpointMillis = serverConfig.sharedWalCheckpointMillis;
+    }
+
+    public long getCheckpointMillis() {
+        return checkpointMillis;
+    }
+
+    /**
+     * load the records of old wal files, new records are appended to new files.
+     */
+    public void start() throws IOException {
+        FileUtil.ensureDir(dir);
+        File[] fs = dir.listFiles();
+        long nextPos = 0;
+        if (fs != null) {
+            Arrays.sort(fs);
+            for (File f : fs) {
+                Matcher m = PATTERN.matcher(f.getName());
+                if (f.isFile() && m.matches()) {
+                    long start = Long.parseLong(m.group(1));
+                    nextPos = Math.max(nextPos, start + f.length());
+                    loadFile(f);
+                    oldFiles.add(f);
+                }
+            }
+        }
+        appendPos = (nextPos + fileSize - 1) / fileSize * fileSize;
+        syncedPos = appendPos;
+        int count = 0;
+        for (ArrayList<Rec> list : replayRecords.values()) {
+            count += list.size();
+        }
+        log.info("shared wal started, {} old files, {} records of {} groups to replay, next pos {}",
+                oldFiles.size(), count, replayRecords.size(), appendPos);
+        writer = new Thread(this::run, "shared-wal-writer");
+        writer.start();
+    }
+
+    private void loadFile(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long len = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long pos = 0;
+            while (pos + HEADER_SIZE <= len) {
+                header.clear();
+                readFully(channel, header, pos);
+                header.flip();
+                int crc = header.getInt();
+                int totalLen = header.getInt();
+                int type = header.getInt();
+                int groupId = header.getInt();
+                long logPos = header.getLong();
+                if (totalLen < HEADER_SIZE || pos + totalLen > len) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.allocate(totalLen - HEADER_SIZE);
+                readFully(channel, data, pos + HEADER_SIZE);
+                crc32c.reset();
+                header.position(4);
+                crc32c.update(header);
+                data.flip();
+                crc32c.update(data);
+                if ((int) crc32c.getValue() != crc) {
+                    log.warn("crc mismatch, stop load wal file {} at {}", f.getPath(), pos);
+                    break;
+                }
+                if (type == TYPE_RESET) {
+                    replayRecords.put(groupId, new ArrayList<>());
+                } else {
+                    replayRecords.computeIfAbsent(groupId, k -> new ArrayList<>())
+                            .add(new Rec(f, pos + HEADER_SIZE, totalLen - HEADER_SIZE, logPos));
+                }
+                pos += totalLen;
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = channel.read(buf, pos);
+            if (r < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            pos += r;
+        }
+    }
+
+    /**
+     * write the records of the group back to its log files and sync them, run in io thread before the log restore.
+     */
+    public void replay(int groupId, File logDir, long logFileSize) throws IOException {
+        ArrayList<Rec> list;
+        lock.lock();
+        try {
+            list = replayRecords.remove(groupId);
+        } finally {
+            lock.unlock();
+        }
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        long firstFileStart = -1;
+        File[] fs = logDir.listFiles();
+        if (fs != null) {
+            for (File f : fs) {
+                Matcher m = PATTERN.matcher(f.getName());
+                if (f.isFile() && m.matches()) {
+                    long start = Long.parseLong(m.group(1));
+                    firstFileStart = firstFileStart == -1 ? start : Math.min(firstFileStart, start);
+                }
+            }
+        }
+        HashMap<File, FileChannel> walChannels = new HashMap<>();
+        HashMap<Long, FileChannel> logChannels = new HashMap<>();
+        int count = 0;
+        try {
+            for (Rec r : list) {
+                long fileStart = r.logPos - r.logPos % logFileSize;
+                if (r.logPos + r.len > fileStart + logFileSize) {
+                    throw new RaftException("record cross log file, logPos=" + r.logPos + ", len=" + r.len);
+                }
+                FileChannel lc = logChannels.get(fileStart);
+                if (lc == null) {
+                    if (firstFileStart >= 0 && fileStart < firstFileStart) {
+                        // the file is deleted
+                        continue;
+                    }
+                    File logFile = new File(logDir, String.format("%020d", fileStart));
+                    if (!logFile.exists()) {
+                        log.info("create log file in replay: {}", logFile.getPath());
+                        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                            raf.setLength(logFileSize);
+                        }
+                    }
+                    lc = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+                    logChannels.put(fileStart, lc);
+                }
+                FileChannel wc = walChannels.get(r.walFile);
+                if (wc == null) {
+                    wc = FileChannel.open(r.walFile.toPath(), StandardOpenOption.READ);
+                    walChannels.put(r.walFile, wc);
+                }
+                ByteBuffer buf = ByteBuffer.allocate(r.len);
+                readFully(wc, buf, r.dataPosInFile);
+                buf.flip();
+                long pos = r.logPos - fileStart;
+                while (buf.hasRemaining()) {
+                    pos += lc.write(buf, pos);
+                }
+                count++;
+            }
+            for (FileChannel lc : logChannels.values()) {
+                lc.force(false);
+            }
+        } finally {
+            for (FileChannel c : walChannels.values()) {
+                DtUtil.close(c);
+            }
+            for (FileChannel c : logChannels.values()) {
+                DtUtil.close(c);
+            }
+        }
+        log.info("replay {} wal records to log files of group {}", count, groupId);
+    }
+
+    /**
+     * called after the initial groups finished init (replay), delete old wal files.
+     */
+    public void finishReplay() {
+        ArrayList<File> list;
+        lock.lock();
+        try {
+            for (Integer groupId : replayRecords.keySet()) {
+                if (!replayRecords.get(groupId).isEmpty()) {
+                    log.warn("group {} has wal records but not replayed, discard them", groupId);
+                }
+            }
+            replayRecords.clear();
+            list = new ArrayList<>(oldFiles);
+            oldFiles.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (File f : list) {
+            try {
+                Files.deleteIfExists(f.toPath());
+                log.info("delete old wal file: {}", f.getPath());
+            } catch (IOException e) {
+                log.error("delete old wal file fail: {}", f.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * append a copy of the data (from position to limit, the position of data is not changed).
+     *
+     * @return the wal position after the record, used to wait sync
+     */
+    public long append(int groupId, long logPos, ByteBuffer data) {
+        return append(groupId, TYPE_DATA, logPos, data);
+    }
+
+    /**
+     * append a reset record after the group installs snapshot, wait it synced before the log files are used.
+     */
+    public long appendReset(int groupId) {
+        long end = append(groupId, TYPE_RESET, 0, null);
+        lock.lock();
+        try {
+            // the old records of the group are not needed any more
+            groups.get(groupId).checkpointPos = end;
+        } finally {
+            lock.unlock();
+        }
+        return end;
+    }
+
+    private long append(int groupId, int type, long logPos, ByteBuffer data) {
+        int dataLen = data == null ? 0 : data.remaining();
+        int totalLen = HEADER_SIZE + dataLen;
+        if (totalLen > fileSize) {
+            throw new RaftException("record too large: " + totalLen);
+        }
+        // the crc not covers the wal position, so compute it out of the lock
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0);
+        header.putInt(totalLen);
+        header.putInt(type);
+        header.putInt(groupId);
+        header.putLong(logPos);
+        CRC32C crc = new CRC32C();
+        header.position(4);
+        crc.update(header);
+        if (data != null) {
+            crc.update(data.duplicate());
+        }
+        header.putInt(0, (int) crc.getValue());
+        header.clear();
+        lock.lock();
+        try {
+            if (ex != null) {
+                throw new RaftException("shared wal in error state", ex);
+            }
+            if (stop) {
+                throw new RaftException("shared wal stopped");
+            }
+            long pos = appendPos;
+            long fileEnd = pos - pos % fileSize + fileSize;
+            if (pos + totalLen > fileEnd) {
+                pos = fileEnd;
+            }
+            if (fillBuf.remaining() < totalLen) {
+                ByteBuffer newBuf = ByteBuffer.allocate(Math.max(fillBuf.capacity() * 2,
+                        fillBuf.position() + totalLen));
+                fillBuf.flip();
+                newBuf.put(fillBuf);
+                fillBuf = newBuf;
+            }
+            int start = fillBuf.position();
+            fillBuf.put(header);
+            if (data != null) {
+                fillBuf.put(data.duplicate());
+            }
+
+            Run last = fillRuns.isEmpty() ? null : fillRuns.get(fillRuns.size() - 1);
+            if (last != null && last.walPos + last.len == pos) {
+                last.len += totalLen;
+            } else {
+                Run r = new Run();
+                r.walPos = pos;
+                r.bufOffset = start;
+                r.len = totalLen;
+                fillRuns.add(r);
+            }
+            appendPos = pos + totalLen;
+
+            GroupState gs = groups.get(groupId);
+            if (gs == null) {
+                gs = new GroupState();
+                gs.checkpointPos = pos;
+                groups.put(groupId, gs);
+            }
+            gs.lastAppendEnd = appendPos;
+            needWriteCond.signal();
+            return appendPos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * return a future complete after the wal is synced to the pos, should call in dispatcher thread.
+     */
+    public FiberFuture<Void> waitSync(long pos, FiberGroup fiberGroup) {
+        FiberFuture<Void> f = fiberGroup.newFuture("walSync");
+        lock.lock();
+        try {
+            if (ex != null) {
+                f.completeExceptionally(ex);
+            } else if (syncedPos >= pos) {
+                f.complete(null);
+            } else {
+                waiters.add(new Waiter(pos, f));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return f;
+    }
+
+    /**
+     * the group has synced its log files, records before the pos are not needed by the group.
+     */
+    public void checkpoint(int groupId, long pos) {
+        lock.lock();
+        try {
+            GroupState gs = groups.get(groupId);
+            if (gs != null && pos > gs.checkpointPos) {
+                gs.checkpointPos = pos;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long batchEnd;
+            lock.lock();
+            try {
+                if (fillRuns.isEmpty() && !stop) {
+                    needWriteCond.await(1000, TimeUnit.MILLISECONDS);
+                }
+                if (fillRuns.isEmpty() && stop) {
+                    break;
+                }
+                ByteBuffer tmpBuf = writeBuf;
+                writeBuf = fillBuf;
+                fillBuf = tmpBuf;
+                ArrayList<Run> tmpRuns = writeRuns;
+                writeRuns = fillRuns;
+                fillRuns = tmpRuns;
+                batchEnd = appendPos;
+            } catch (InterruptedException e) {
+                log.warn("shared wal writer interrupted");
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (!writeRuns.isEmpty()) {
+                    writeRuns(writeRuns, writeBuf);
+                }
+            } catch (Throwable e) {
+                log.error("shared wal write fail", e);
+                failAll(e);
+                break;
+            } finally {
+                writeRuns.clear();
+                writeBuf.clear();
+            }
+
+            lock.lock();
+            try {
+                syncedPos = batchEnd;
+                for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                    Waiter w = it.next();
+                    if (w.pos <= syncedPos) {
+                        w.future.fireComplete(null);
+                        it.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            deleteFiles();
+        }
+        DtUtil.close(currentChannel);
+        log.info("shared wal writer exit");
+    }
+
+    private void writeRuns(ArrayList<Run> runs, ByteBuffer buf) throws IOException {
+        for (Run r : runs) {
+            long fileStart = r.walPos - r.walPos % fileSize;
+            if (fileStart != currentFileStart) {
+                if (currentChannel != null) {
+                    currentChannel.force(false);
+                    DtUtil.close(currentChannel);
+                }
+                File f = new File(dir, String.format("%020d", fileStart));
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.setLength(fileSize);
+                    raf.getFD().sync();
+                }
+                currentChannel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+                currentFileStart = fileStart;
+                files.add(fileStart);
+            }
+            ByteBuffer bb = buf.duplicate();
+            bb.limit(r.bufOffset + r.len);
+            bb.position(r.bufOffset);
+            long pos = r.walPos - fileStart;
+            while (bb.hasRemaining()) {
+                pos += currentChannel.write(bb, pos);
+            }
+        }
+        currentChannel.force(false);
+    }
+
+    private void failAll(Throwable e) {
+        lock.lock();
+        try {
+            ex = e;
+            for (Waiter w : waiters) {
+                w.future.fireCompleteExceptionally(e);
+            }
+            waiters.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // run in writer thread
+    private void deleteFiles() {
+        long bound;
+        lock.lock();
+        try {
+            bound = syncedPos;
+            for (GroupState gs : groups.values()) {
+                if (gs.lastAppendEnd > gs.checkpointPos) {
+                    bound = Math.min(bound, gs.checkpointPos);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        while (files.size() > 1 && files.get(0) + fileSize <= bound) {
+            File f = new File(dir, String.format("%020d", files.get(0)));
+            try {
+                Files.deleteIfExists(f.toPath());
+                log.info("delete wal file: {}", f.getPath());
+            } catch (IOException e) {
+                log.error("delete wal file fail: {}", f.getPath(), e);
+                return;
+            }
+            files.remove(0);
+        }
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            stop = true;
+            needWriteCond.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                log.warn("interrupted when wait shared wal writer exit");
+            }
+        }
+    }
+}
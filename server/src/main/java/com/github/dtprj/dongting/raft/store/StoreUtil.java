@@ -15,12 +15,36 @@
  */
 package com.github.dtprj.dongting.raft.store;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
 
 /**
  * @author huangli
  */
 class StoreUtil {
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    // com.sun.nio.file.ExtendedOpenOption.DIRECT, resolved by reflection, so we need not depend on the
+    // jdk.unsupported module. null if not available, then the log is written with buffered io.
+    private static final OpenOption DIRECT_OPEN_OPTION = findDirectOpenOption();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static OpenOption findDirectOpenOption() {
+        try {
+            Class c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) Enum.valueOf(c, "DIRECT");
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    static OpenOption directOpenOption() {
+        return DIRECT_OPEN_OPTION;
+    }
+
     static void prepareNextRead(ByteBuffer buf) {
         if (buf.hasRemaining()) {
             ByteBuffer temp = buf.slice();
@@ -40,4 +64,36 @@ class StoreUtil {
         }
         return retryIntervals[currentRetryCount];
     }
+
+    static int directIoBlockSize(File dir) {
+        File f = dir;
+        while (f != null && !f.exists()) {
+            f = f.getParentFile();
+        }
+        try {
+            if (f != null) {
+                long bs = Files.getFileStore(f.toPath()).getBlockSize();
+                if (bs > DEFAULT_BLOCK_SIZE && bs <= MAX_BLOCK_SIZE && Long.bitCount(bs) == 1) {
+                    return (int) bs;
+                }
+            }
+        } catch (Exception e) {
+            // use default
+        }
+        return DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * return a view of buf with the given size, the address of view position 0 has the same offset in block as the
+     * filePos, so a slice of the view for a block aligned file range is also block aligned in memory.
+     * The buf capacity should be at least size + blockSize.
+     */
+    static ByteBuffer alignedView(ByteBuffer buf, long filePos, int size, int blockSize) {
+        int mask = blockSize - 1;
+        int offset = (int) ((filePos - buf.alignmentOffset(0, blockSize)) & mask);
+        ByteBuffer view = buf.duplicate();
+        view.limit(offset + size);
+        view.position(offset);
+        return view.slice();
+    }
 }
@@ -528,6 +528,46 @@ class DistributedLockImplTest extends ServerClientLockTest {
         }
     }
 
+    // ========== P0: Lock attached to lease ==========
+
+    @Test
+    public void testLockWithLease() throws Exception {
+        DistributedLock lock1 = client1.createLock(groupId, "test-lock-24".getBytes());
+        DistributedLock lock2 = client1.createLock(groupId, "test-lock-25".getBytes());
+        DistributedLock lock3 = client2.createLock(groupId, "test-lock-24".getBytes());
+        long leaseId = client1.grantLease(groupId, tick(1000));
+        try {
+            assertTrue(lock1.tryLockWithLease(leaseId, 0));
+            assertTrue(lock2.tryLockWithLease(leaseId, 0));
+            assertThrows(IllegalStateException.class, () -> lock1.updateLease(60000));
+
+            // one keep alive renews both locks
+            Thread.sleep(tick(20));
+            long rest = lock1.getLeaseRestMillis();
+            client1.keepAliveLease(groupId, leaseId);
+            assertTrue(lock1.getLeaseRestMillis() > rest);
+            assertTrue(lock2.getLeaseRestMillis() > rest);
+
+            // revoke the lease releases both locks, the waiter gets the lock
+            CompletableFuture<Boolean> f = new CompletableFuture<>();
+            lock3.tryLock(60000, tick(1000), (r, ex) -> {
+                if (ex != null) {
+                    f.completeExceptionally(ex);
+                } else {
+                    f.complete(r);
+                }
+            });
+            client1.revokeLease(groupId, leaseId);
+            assertTrue(f.get(tick(5), TimeUnit.SECONDS));
+            WaitUtil.waitUtil(() -> !lock1.isHeldByCurrentClient() && !lock2.isHeldByCurrentClient());
+            assertTrue(lock3.isHeldByCurrentClient());
+        } finally {
+            lock1.close();
+            lock2.close();
+            lock3.close();
+        }
+    }
+
     // ========== P1: Exception scenarios ==========
 
     @ParameterizedTest
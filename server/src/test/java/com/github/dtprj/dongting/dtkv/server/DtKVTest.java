@@ -39,13 +39,17 @@ import org.junit.jupiter.params.provider.ValueSource;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -65,7 +69,12 @@ public class DtKVTest extends BaseFiberTest {
     }
 
     private DtKV createAndStart(boolean useSeparateExecutor) throws Exception {
+        return createAndStart(useSeparateExecutor, false);
+    }
+
+    private DtKV createAndStart(boolean useSeparateExecutor, boolean checkpoint) throws Exception {
         RaftGroupConfigEx groupConfig = new RaftGroupConfigEx(0, "1", "");
+        groupConfig.saveCheckpointSeconds = checkpoint ? 1 : 0;
         groupConfig.raftStatus = new RaftStatusImpl(1, ts);
         groupConfig.fiberGroup = fiberGroup;
         groupConfig.ts = ts;
@@ -124,6 +133,23 @@ public class DtKVTest extends BaseFiberTest {
         return exec(index, DtKV.BIZ_TYPE_UPDATE_TTL, req);
     }
 
+    private FiberFuture<KvResult> grantLease(long index, long ttlMillis) {
+        KvReq req = new KvReq(1, null, null, ttlMillis);
+        return exec(index, DtKV.BIZ_TYPE_GRANT_LEASE, req);
+    }
+
+    private FiberFuture<KvResult> putWithLease(long index, String key, String value, long leaseId) {
+        KvReq req = new KvReq(1, key.getBytes(), value.getBytes());
+        req.leaseId = leaseId;
+        return exec(index, DtKV.BIZ_TYPE_PUT_TEMP_NODE, req);
+    }
+
+    private FiberFuture<KvResult> mkTempDirWithLease(long index, String key, long leaseId) {
+        KvReq req = new KvReq(1, key.getBytes(), null);
+        req.leaseId = leaseId;
+        return exec(index, DtKV.BIZ_MK_TEMP_DIR, req);
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     private <T> FiberFuture<T> exec(long index, int bizType, KvReq req) {
         RaftInput i = new RaftInput(bizType, null,
@@ -271,17 +297,31 @@ public class DtKVTest extends BaseFiberTest {
         private long offset = 0;
         private final long lastIndex;
         private final int lastTerm;
+        private final boolean checkpoint;
 
         CopyFrame(KvSnapshot s, DtKV dest) {
+            this(s, dest, false);
+        }
+
+        CopyFrame(KvSnapshot s, DtKV dest, boolean checkpoint) {
             this.s = s;
             this.dest = dest;
+            this.checkpoint = checkpoint;
             this.lastIndex = s.getSnapshotInfo().lastIncludedIndex;
             this.lastTerm = s.getSnapshotInfo().lastIncludedTerm;
         }
 
+        private FiberFuture<Void> install(boolean done, ByteBuffer data) {
+            if (checkpoint) {
+                return dest.installCheckpoint(lastIndex, lastTerm, offset, done, data);
+            } else {
+                return dest.installSnapshot(lastIndex, lastTerm, offset, done, data);
+            }
+        }
+
         @Override
         public FrameCallResult execute(Void input) {
-            return dest.installSnapshot(lastIndex, lastTerm, offset, false, null).await(this::loop);
+            return install(false, null).await(this::loop);
         }
 
         private FrameCallResult loop(Void unused) {
@@ -292,7 +332,7 @@ public class DtKVTest extends BaseFiberTest {
         private FrameCallResult afterRead(Integer bytes) {
             buf.flip();
             assertEquals(bytes, buf.remaining());
-            return dest.installSnapshot(lastIndex, lastTerm, offset, false, buf).await(v -> afterInstall(bytes));
+            return install(false, buf).await(v -> afterInstall(bytes));
         }
 
         private FrameCallResult afterInstall(int bytes) {
@@ -305,7 +345,7 @@ public class DtKVTest extends BaseFiberTest {
         }
 
         private FrameCallResult lastInstall() {
-            return dest.installSnapshot(lastIndex, lastTerm, offset, true, null).await(this::justReturn);
+            return install(true, null).await(this::justReturn);
         }
     }
 
@@ -591,4 +631,244 @@ public class DtKVTest extends BaseFiberTest {
         stop(newKv);
         stop(kv);
     }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testSnapshotWithLease(boolean useSeparateExecutor) throws Exception {
+        kv = createAndStart(useSeparateExecutor);
+        AtomicReference<KvSnapshot> snapshotRef = new AtomicReference<>();
+        long leaseId = ver;
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return grantLease(ver++, 5000).await(this::afterGrant);
+            }
+
+            private FrameCallResult afterGrant(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return putWithLease(ver++, "leaseKey", "leaseValue", leaseId).await(this::afterPut);
+            }
+
+            private FrameCallResult afterPut(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return mkTempDirWithLease(ver++, "leaseDir", leaseId).await(this::afterMkdir);
+            }
+
+            private FrameCallResult afterMkdir(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return put(ver++, "leaseDir.k1", "v1").await(this::afterPutChild);
+            }
+
+            private FrameCallResult afterPutChild(KvResult r) {
+                return takeSnapshot(this::afterTakeSnapshot);
+            }
+
+            private FrameCallResult afterTakeSnapshot(Snapshot snapshot) {
+                snapshotRef.set((KvSnapshot) snapshot);
+                return Fiber.frameReturn();
+            }
+        });
+        DtKV newKv = copyTo(snapshotRef.get(), useSeparateExecutor);
+        assertSameData(kv, newKv);
+        Lease lease = newKv.ttlManager.getLease(leaseId);
+        assertNotNull(lease);
+        assertEquals(uuid, lease.owner);
+        assertEquals(5000, lease.ttlInfo.ttlMillis);
+        assertEquals(2, lease.keys.size());
+        KvNodeEx n = (KvNodeEx) get(newKv, "leaseKey").getNode();
+        assertSame(lease, n.ttlInfo.lease);
+        n = (KvNodeEx) get(newKv, "leaseDir").getNode();
+        assertSame(lease, n.ttlInfo.lease);
+        // only the lease is in the ttl queue
+        assertEquals(1, newKv.ttlManager.ttlQueue.size());
+
+        stop(newKv);
+        stop(kv);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testSnapshotWithEmptyLease(boolean useSeparateExecutor) throws Exception {
+        kv = createAndStart(useSeparateExecutor);
+        AtomicReference<KvSnapshot> snapshotRef = new AtomicReference<>();
+        long leaseId = ver;
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return grantLease(ver++, 5000).await(this::afterGrant);
+            }
+
+            private FrameCallResult afterGrant(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return takeSnapshot(this::afterTakeSnapshot);
+            }
+
+            private FrameCallResult afterTakeSnapshot(Snapshot snapshot) {
+                snapshotRef.set((KvSnapshot) snapshot);
+                // keep alive after the snapshot is taken, should not be seen by the snapshot
+                KvReq req = new KvReq(1, null, null, 0);
+                req.leaseId = leaseId;
+                FiberFuture<KvResult> f = exec(ver++, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, req);
+                return f.await(this::afterKeepAlive);
+            }
+
+            private FrameCallResult afterKeepAlive(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return Fiber.frameReturn();
+            }
+        });
+        DtKV newKv = copyTo(snapshotRef.get(), useSeparateExecutor);
+        Lease lease = newKv.ttlManager.getLease(leaseId);
+        assertNotNull(lease);
+        assertEquals(uuid, lease.owner);
+        assertEquals(5000, lease.ttlInfo.ttlMillis);
+        assertEquals(leaseId, lease.ttlInfo.raftIndex);
+        assertEquals(0, lease.keys.size());
+
+        DtKV oldKv = kv;
+        kv = newKv;
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return putWithLease(ver++, "leaseKey", "leaseValue", leaseId).await(this::afterPut);
+            }
+
+            private FrameCallResult afterPut(KvResult r) {
+                assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                return Fiber.frameReturn();
+            }
+        });
+        assertSame(lease, ((KvNodeEx) get(newKv, "leaseKey").getNode()).ttlInfo.lease);
+
+        stop(newKv);
+        stop(oldKv);
+    }
+
+    private void assertSameData(DtKV expect, DtKV actual) {
+        KvMap expectMap = expect.kvStatus.kvImpl.map;
+        KvMap actualMap = actual.kvStatus.kvImpl.map;
+        int count = 0;
+        for (Iterator<KvNodeHolder> it = expectMap.iterator(); it.hasNext(); ) {
+            KvNodeHolder h = it.next();
+            if (h.latest.removed) {
+                continue;
+            }
+            count++;
+            KvNodeHolder h2 = actualMap.get(h.key());
+            assertNotNull(h2, h.key().toString());
+            assertEquals(h.latest.createIndex, h2.latest.createIndex);
+            assertEquals(h.latest.updateIndex, h2.latest.updateIndex);
+            assertEquals(h.latest.flag, h2.latest.flag);
+            assertArrayEquals(h.latest.data, h2.latest.data);
+            if (h.latest.isDir()) {
+                assertEquals(h.latest.childCount(), h2.latest.childCount());
+            }
+            assertEquals(h.latest.ttlInfo == null, h2.latest.ttlInfo == null);
+        }
+        assertEquals(count, actualMap.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    public void testCheckpoint(boolean useSeparateExecutor) throws Exception {
+        kv = createAndStart(useSeparateExecutor, true);
+        AtomicReference<KvSnapshot> snapshotRef = new AtomicReference<>();
+        AtomicReference<KvSnapshot> checkpointRef = new AtomicReference<>();
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return mkdir(ver++, "d1").await(this::afterMkdir1);
+            }
+
+            private FrameCallResult afterMkdir1(KvResult kvResult) {
+                return mkdir(ver++, "d1.dd1").await(this::afterMkdir2);
+            }
+
+            private FrameCallResult afterMkdir2(KvResult kvResult) {
+                List<String> keys = new ArrayList<>();
+                List<String> values = new ArrayList<>();
+                keys.add("k1");
+                values.add("k1_v");
+                keys.add("d1.k1");
+                values.add("d1.k1_v");
+                keys.add("d1.dd1.k1");
+                values.add("d1.dd1.k1_v");
+                keys.add("d1.dd1.k2");
+                values.add("d1.dd1.k2_v");
+                for (int i = 0; i < 20; i++) {
+                    keys.add("key" + i);
+                    values.add("value" + i);
+                }
+                return batchPut(ver++, keys, values).await(this::afterBatchPut);
+            }
+
+            private FrameCallResult afterBatchPut(Pair<Integer, List<KvResult>> p) {
+                return takeSnapshot(this::afterTakeSnapshot);
+            }
+
+            private FrameCallResult afterTakeSnapshot(Snapshot s) {
+                snapshotRef.set((KvSnapshot) s);
+                // file node re-created as dir
+                return remove(ver++, "k1").await(v -> mkdir(ver++, "k1").await(this::afterMkdir3));
+            }
+
+            private FrameCallResult afterMkdir3(KvResult kvResult) {
+                return put(ver++, "k1.k1", "k1.k1_v").await(this::afterPut1);
+            }
+
+            private FrameCallResult afterPut1(KvResult kvResult) {
+                // dir re-created as file node
+                return batchRemove(ver++, List.of("d1.dd1.k1", "d1.dd1.k2")).await(this::afterBatchRemove);
+            }
+
+            private FrameCallResult afterBatchRemove(Pair<Integer, List<KvResult>> p) {
+                return remove(ver++, "d1.dd1").await(v -> put(ver++, "d1.dd1", "d1.dd1_v").await(this::afterPut2));
+            }
+
+            private FrameCallResult afterPut2(KvResult kvResult) {
+                return put(ver++, "key3", "value3_v2").await(v -> remove(ver++, "key4").await(this::afterRemove));
+            }
+
+            private FrameCallResult afterRemove(KvResult kvResult) {
+                // created and removed after snapshot
+                return put(ver++, "key100", "value100").await(v -> remove(ver++, "key100").await(this::afterRemove2));
+            }
+
+            private FrameCallResult afterRemove2(KvResult kvResult) {
+                return putTempNode(ver++, "d1.tempKey", "tempValue", 5000).await(this::afterPutTemp);
+            }
+
+            private FrameCallResult afterPutTemp(KvResult kvResult) {
+                long baseIndex = snapshotRef.get().getSnapshotInfo().lastIncludedIndex;
+                SnapshotInfo si = new SnapshotInfo(ver - 1, 1, null, null, null, null, 0);
+                return kv.takeCheckpoint(si, baseIndex).await(this::afterTakeCheckpoint);
+            }
+
+            private FrameCallResult afterTakeCheckpoint(Snapshot s) {
+                checkpointRef.set((KvSnapshot) s);
+                // only the changed keys are scanned by checkpoint
+                long baseIndex = snapshotRef.get().getSnapshotInfo().lastIncludedIndex;
+                List<KvNodeHolder> changed = kv.kvStatus.kvImpl.changedHoldersAfter(baseIndex);
+                assertTrue(changed.stream().anyMatch(h -> h.key().equals(new ByteArray("key3".getBytes()))));
+                assertTrue(changed.stream().noneMatch(h -> h.key().equals(new ByteArray("key5".getBytes()))));
+                assertTrue(changed.size() < 15);
+                return Fiber.frameReturn();
+            }
+        });
+        DtKV newKv = copyTo(snapshotRef.get(), useSeparateExecutor);
+        doInFiber(new CopyFrame(checkpointRef.get(), newKv, true));
+
+        assertSameData(kv, newKv);
+        assertEquals("k1.k1_v", getStr(newKv, "k1.k1"));
+        assertEquals("d1.dd1_v", getStr(newKv, "d1.dd1"));
+        assertEquals("value3_v2", getStr(newKv, "key3"));
+        assertEquals(KvCodes.NOT_FOUND, get(newKv, "key4").getBizCode());
+        assertEquals(KvCodes.NOT_FOUND, get(newKv, "key100").getBizCode());
+        assertEquals(5000, ((KvNodeEx) get(newKv, "d1.tempKey").getNode()).ttlInfo.ttlMillis);
+
+        snapshotRef.get().close();
+        checkpointRef.get().close();
+        stop(newKv);
+        stop(kv);
+    }
 }
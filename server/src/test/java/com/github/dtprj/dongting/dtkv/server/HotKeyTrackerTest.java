@@ -0,0 +1,173 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.Timestamp;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.github.dtprj.dongting.dtkv.server.KvImplTest.ba;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author huangli
+ */
+public class HotKeyTrackerTest {
+
+    private static String key(KvHotKeysResp.HotKey k) {
+        return k.key == null ? "" : new String(k.key);
+    }
+
+    @Test
+    public void testTopK() {
+        HotKeyTracker.TopK<ByteArray> t = new HotKeyTracker.TopK<>(3);
+        t.update(ba("a"), 5);
+        t.update(ba("b"), 1);
+        t.update(ba("c"), 3);
+        t.update(ba("d"), 4); // evict b
+        t.update(ba("e"), 2); // less than the smallest, ignored
+        List<KvHotKeysResp.HotKey> list = new ArrayList<>();
+        t.fill(list, 10);
+        assertEquals(3, list.size());
+        assertEquals("a", key(list.get(0)));
+        assertEquals(50, list.get(0).value);
+        assertEquals("d", key(list.get(1)));
+        assertEquals("c", key(list.get(2)));
+
+        t.update(ba("a"), 1); // decrease
+        t.remove(ba("d"));
+        t.update(ba("e"), 2);
+        list.clear();
+        t.fill(list, 1);
+        assertEquals(3, list.size());
+        assertEquals("c", key(list.get(0)));
+        assertEquals("e", key(list.get(1)));
+        assertEquals("a", key(list.get(2)));
+    }
+
+    @Test
+    public void testHotKeys() throws Exception {
+        HotKeyTracker t = new HotKeyTracker(4, 1, 100);
+        for (int i = 0; i < 1000; i++) {
+            t.recordRead(ba("hot"));
+            if (i % 10 == 0) {
+                t.recordRead(ba("warm"));
+            }
+            t.recordRead(ba("cold" + i));
+        }
+        t.recordWrite(ba("w"));
+        t.recordWatch(new KvNodeHolder(ba("w"), ba("w"), null, null), 50);
+
+        KvHotKeysResp resp = new KvHotKeysResp();
+        t.fillResp(resp);
+        assertTrue(resp.windowMillis > 0);
+        assertEquals("hot", key(resp.readKeys.get(0)));
+        assertTrue(resp.readKeys.get(0).value >= 1000);
+        assertEquals("warm", key(resp.readKeys.get(1)));
+        assertTrue(resp.readKeys.get(1).value >= 100);
+        assertEquals(1, resp.writeKeys.size());
+        assertEquals(50, resp.watchKeys.get(0).value);
+
+        // the counters are reset every window, the query returns the last finished window
+        Thread.sleep(120);
+        t.recordRead(ba("new"));
+        resp = new KvHotKeysResp();
+        t.fillResp(resp);
+        assertTrue(resp.windowMillis >= 100);
+        assertEquals("hot", key(resp.readKeys.get(0)));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        HotKeyTracker t = new HotKeyTracker(4, 1, 60_000);
+        ByteArray hot = ba("hot");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    t.recordRead(hot);
+                    t.recordRead(ba("cold" + id + "_" + j));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread th : threads) {
+            th.join();
+        }
+        KvHotKeysResp resp = new KvHotKeysResp();
+        t.fillResp(resp);
+        assertEquals("hot", key(resp.readKeys.get(0)));
+        // the sketch counters are updated atomically, count-min never under estimates
+        assertTrue(resp.readKeys.get(0).value >= 40000);
+
+        // watches are tracked by holder identity
+        KvNodeHolder h1 = new KvNodeHolder(ba("w"), ba("w"), null, null);
+        KvNodeHolder h2 = new KvNodeHolder(ba("w"), ba("w"), null, null);
+        t.recordWatch(h1, 10);
+        t.recordWatch(h2, 5);
+        t.recordWatch(h1, 10);
+        resp = new KvHotKeysResp();
+        t.fillResp(resp);
+        assertEquals(2, resp.watchKeys.size());
+        assertEquals(20, resp.watchKeys.get(0).value);
+    }
+
+    @Test
+    public void testLargeKeys() {
+        Timestamp ts = new Timestamp();
+        KvServerConfig c = new KvServerConfig();
+        c.initMapCapacity = 16;
+        c.hotKeyTopK = 2;
+        KvImpl kv = new KvImpl(null, new TtlManager(ts, null), ts, 0, c);
+        UUID uuid = UUID.randomUUID();
+        long index = 1;
+        kv.opContext.init(DtKV.BIZ_TYPE_MKDIR, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+        kv.mkdir(index++, ba("dir"));
+        for (int i = 0; i < 10; i++) {
+            kv.opContext.init(DtKV.BIZ_TYPE_PUT, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+            kv.put(index++, ba("dir.k" + i), new byte[i + 1]);
+        }
+
+        KvHotKeysResp resp = new KvHotKeysResp();
+        kv.hotKeys.fillResp(resp);
+        assertEquals("dir.k9", key(resp.largeValues.get(0)));
+        assertEquals(10, resp.largeValues.get(0).value);
+        assertEquals("dir.k8", key(resp.largeValues.get(1)));
+        assertEquals("dir", key(resp.largeDirs.get(0)));
+        assertEquals(10, resp.largeDirs.get(0).value);
+        assertEquals("", key(resp.largeDirs.get(1))); // root
+        assertEquals(1, resp.largeDirs.get(1).value);
+
+        kv.opContext.init(DtKV.BIZ_TYPE_REMOVE, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+        kv.remove(index++, ba("dir.k9"));
+        kv.opContext.init(DtKV.BIZ_TYPE_PUT, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+        kv.put(index, ba("dir.k8"), new byte[1]);
+        resp = new KvHotKeysResp();
+        kv.hotKeys.fillResp(resp);
+        assertEquals(1, resp.largeValues.size());
+        assertEquals("dir.k8", key(resp.largeValues.get(0)));
+        assertEquals(1, resp.largeValues.get(0).value);
+        assertEquals(9, resp.largeDirs.get(0).value);
+        assertEquals(new ByteArray("dir".getBytes()), new ByteArray(resp.largeDirs.get(0).key));
+    }
+}
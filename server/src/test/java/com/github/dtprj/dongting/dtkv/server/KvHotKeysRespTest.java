@@ -0,0 +1,92 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.config.DtKv;
+import com.github.dtprj.dongting.dtkv.KvHotKeysResp;
+import com.github.dtprj.dongting.util.CodecTestUtil;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author huangli
+ */
+public class KvHotKeysRespTest {
+
+    private static KvHotKeysResp buildResp() {
+        KvHotKeysResp resp = new KvHotKeysResp();
+        resp.windowMillis = 60_000;
+        resp.readKeys.add(new KvHotKeysResp.HotKey("k1".getBytes(), 100_000));
+        resp.readKeys.add(new KvHotKeysResp.HotKey("k2".getBytes(), 2));
+        resp.writeKeys.add(new KvHotKeysResp.HotKey("k3".getBytes(), 300));
+        resp.largeValues.add(new KvHotKeysResp.HotKey("k4".getBytes(), 4 * 1024 * 1024));
+        resp.largeDirs.add(new KvHotKeysResp.HotKey("d1".getBytes(), 5000));
+        return resp;
+    }
+
+    @Test
+    public void testFullBuffer() throws Exception {
+        KvHotKeysResp resp = buildResp();
+        ByteBuffer buf = CodecTestUtil.fullBufferEncode(resp);
+        DtKv.KvHotKeysResp protoResp = DtKv.KvHotKeysResp.parseFrom(buf);
+        assertEquals(resp.windowMillis, protoResp.getWindowMillis());
+        compare1(resp.readKeys, protoResp.getReadKeysList());
+        compare1(resp.writeKeys, protoResp.getWriteKeysList());
+        compare1(resp.watchKeys, protoResp.getWatchKeysList());
+        compare1(resp.largeValues, protoResp.getLargeValuesList());
+        compare1(resp.largeDirs, protoResp.getLargeDirsList());
+
+        KvHotKeysResp r = CodecTestUtil.fullBufferDecode(buf, new KvHotKeysResp());
+        compare2(resp, r);
+    }
+
+    @Test
+    public void testSmallBuffer() {
+        KvHotKeysResp resp = buildResp();
+        KvHotKeysResp r = (KvHotKeysResp) CodecTestUtil.smallBufferEncodeAndParse(resp, new KvHotKeysResp());
+        compare2(resp, r);
+    }
+
+    private void compare1(List<KvHotKeysResp.HotKey> expect, List<DtKv.HotKey> proto) {
+        assertEquals(expect.size(), proto.size());
+        for (int i = 0; i < expect.size(); i++) {
+            assertArrayEquals(expect.get(i).key, proto.get(i).getKey().toByteArray());
+            assertEquals(expect.get(i).value, proto.get(i).getValue());
+        }
+    }
+
+    private void compare2(KvHotKeysResp expect, KvHotKeysResp r) {
+        assertEquals(expect.windowMillis, r.windowMillis);
+        compare2(expect.readKeys, r.readKeys);
+        compare2(expect.writeKeys, r.writeKeys);
+        compare2(expect.watchKeys, r.watchKeys);
+        compare2(expect.largeValues, r.largeValues);
+        compare2(expect.largeDirs, r.largeDirs);
+    }
+
+    private void compare2(List<KvHotKeysResp.HotKey> expect, List<KvHotKeysResp.HotKey> r) {
+        assertEquals(expect.size(), r.size());
+        for (int i = 0; i < expect.size(); i++) {
+            assertArrayEquals(expect.get(i).key, r.get(i).key);
+            assertEquals(expect.get(i).value, r.get(i).value);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.Timestamp;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measure the get throughput of KvImpl when reads run outside the dtkv executor (readInDtKvExecutor=false),
+ * with the read lock and with the optimistic read, scaling the reader threads from 1 to 64. 1% of the
+ * operations are puts, which are serialized as the dtkv executor does.
+ * <p>
+ * It's a main class rather than a unit test, since KvImpl is package private.
+ *
+ * @author huangli
+ */
+public class KvImplReadBenchmark {
+    private static final int KEY_COUNT = 10_000;
+    private static final int WRITE_PERCENT = 1;
+    private static final int[] THREADS = new int[]{1, 2, 4, 8, 16, 32, 64};
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long TEST_MILLIS = 3000;
+
+    private final boolean optimisticRead;
+    private final KvImpl kv;
+    private final ByteArray[] keys = new ByteArray[KEY_COUNT];
+    private final byte[] value = new byte[64];
+    private final UUID uuid = UUID.randomUUID();
+    private final Timestamp ts = new Timestamp();
+    private long raftIndex = 1;
+
+    private volatile boolean stop;
+    private volatile boolean testing;
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : THREADS) {
+            for (boolean optimistic : new boolean[]{false, true}) {
+                new KvImplReadBenchmark(optimistic).run(threads);
+            }
+        }
+    }
+
+    private KvImplReadBenchmark(boolean optimisticRead) {
+        this.optimisticRead = optimisticRead;
+        KvServerConfig c = new KvServerConfig();
+        c.readInDtKvExecutor = false;
+        c.optimisticRead = optimisticRead;
+        kv = new KvImpl(null, new TtlManager(ts, null), ts, 0, c);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = new ByteArray(("key" + i).getBytes());
+            put(keys[i]);
+        }
+    }
+
+    // the writes run in the dtkv executor (single thread), so serialize them
+    private synchronized void put(ByteArray key) {
+        kv.opContext.init(DtKV.BIZ_TYPE_PUT, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+        kv.put(raftIndex++, key, value);
+    }
+
+    private void run(int threadCount) throws Exception {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(this::runOps);
+            threads[i].start();
+        }
+        Thread.sleep(WARMUP_MILLIS);
+        testing = true;
+        long t = System.nanoTime();
+        Thread.sleep(TEST_MILLIS);
+        testing = false;
+        t = System.nanoTime() - t;
+        stop = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("threads=%2d, %-10s: get=%,d ops/s, put=%,d ops/s%n", threadCount,
+                optimisticRead ? "optimistic" : "lock",
+                reads.sum() * 1_000_000_000L / t, writes.sum() * 1_000_000_000L / t);
+    }
+
+    private void runOps() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long localReads = 0;
+        long localWrites = 0;
+        while (!stop) {
+            ByteArray key = keys[r.nextInt(KEY_COUNT)];
+            if (r.nextInt(100) < WRITE_PERCENT) {
+                put(key);
+                if (testing) {
+                    localWrites++;
+                }
+            } else {
+                if (kv.get(key).getNode() == null) {
+                    throw new IllegalStateException();
+                }
+                if (testing) {
+                    localReads++;
+                }
+            }
+        }
+        reads.add(localReads);
+        writes.add(localWrites);
+    }
+}
@@ -28,8 +28,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -356,6 +359,52 @@ class KvImplTest {
         }
     }
 
+    private void assertUsedMemory() {
+        long expect = 0;
+        for (Iterator<KvNodeHolder> it = kv.map.iterator(); it.hasNext(); ) {
+            KvNodeHolder h = it.next();
+            expect += KvImpl.HOLDER_OVERHEAD + h.keyInDir.length;
+            for (KvNodeEx n = h.latest; n != null; n = n.previous) {
+                expect += KvImpl.NODE_OVERHEAD + (n.data == null ? 0 : n.data.length);
+            }
+        }
+        assertEquals(expect, kv.usedMemory);
+    }
+
+    @Test
+    void testUsedMemory() {
+        long base = kv.usedMemory;
+        assertUsedMemory();
+        mkdir(ver++, ba("dir"));
+        put(ver++, ba("dir.key1"), new byte[100]);
+        put(ver++, ba("key2"), new byte[200]);
+        assertUsedMemory();
+        long afterPut = kv.usedMemory;
+        put(ver++, ba("key2"), new byte[200]);
+        assertEquals(afterPut, kv.usedMemory);
+
+        Snapshot s1 = takeSnapshot();
+        put(ver++, ba("key2"), new byte[300]);
+        put(ver++, ba("dir.key1"), new byte[10]);
+        assertUsedMemory();
+        // the old versions are retained for the snapshot
+        assertTrue(kv.usedMemory > afterPut + 100);
+        Snapshot s2 = takeSnapshot();
+        remove(ver++, ba("dir.key1"));
+        remove(ver++, ba("dir"));
+        put(ver++, ba("key3"), new byte[50]);
+        assertUsedMemory();
+        s1.close();
+        assertUsedMemory();
+        s2.close();
+        assertUsedMemory();
+
+        remove(ver++, ba("key2"));
+        remove(ver++, ba("key3"));
+        assertUsedMemory();
+        assertEquals(base, kv.usedMemory);
+    }
+
     @Test
     void testGc1() {
         put(ver++, ba("key1"), "a".getBytes());
@@ -700,5 +749,40 @@ class KvImplTest {
         assertNull(kv.map.get(ba("dir1.subDir2")));
     }
 
+    @Test
+    void testOptimisticReadWithConcurrentWrite() throws Exception {
+        KvServerConfig c = new KvServerConfig();
+        c.initMapCapacity = 16; // resize the map many times
+        c.readInDtKvExecutor = false;
+        kv = new KvImpl(null, new TtlManager(ts, null), ts, 0, c);
+        put(ver++, ba("stable"), "v".getBytes());
+        List<byte[]> keys = List.of("stable".getBytes(), "notExist".getBytes());
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!stop.get()) {
+                    KvResult r = kv.get(ba("stable"));
+                    assertEquals(KvCodes.SUCCESS, r.getBizCode());
+                    assertArrayEquals("v".getBytes(), r.getNode().data);
+                    List<KvResult> list = kv.batchGet(keys).getRight();
+                    assertArrayEquals("v".getBytes(), list.get(0).getNode().data);
+                    assertEquals(KvCodes.NOT_FOUND, list.get(1).getBizCode());
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20000; i++) {
+            put(ver++, ba("key" + i), "value".getBytes());
+            if (i % 2 == 0) {
+                remove(ver++, ba("key" + (i / 2)));
+            }
+        }
+        stop.set(true);
+        reader.join();
+        assertNull(error.get());
+    }
 }
-
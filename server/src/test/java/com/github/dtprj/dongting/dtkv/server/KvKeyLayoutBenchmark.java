@@ -0,0 +1,199 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.Timestamp;
+import com.github.dtprj.dongting.dtkv.KvNode;
+
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compare the memory per key and the lookup latency of the compact key layout of KvNodeHolder (only the
+ * last segment is stored, KvMap matches the key by the parent chain) with the previous layout (each holder
+ * keeps the full key and a sub ByteArray, indexed by a HashMap with the full key), for deep paths like
+ * "services.region-1.az-1.app-1.instance-12345".
+ * <p>
+ * The previous layout is rebuilt here (LegacyHolder), with the same KvNodeEx as the values. Run with a
+ * large heap, e.g. -Xmx2g, the key count can be set by the first argument.
+ * <p>
+ * It's a main class rather than a unit test, since KvImpl is package private.
+ *
+ * @author huangli
+ */
+public class KvKeyLayoutBenchmark {
+    private static final int APP_COUNT = 10;
+    private static final int LOOKUP_BATCH = 100_000;
+    private static final int LOOKUP_ROUNDS = 20;
+
+    private static final byte[] VALUE = new byte[16];
+
+    public static void main(String[] args) {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        for (int i = 0; i < 2; i++) {
+            // the first pass is warmup
+            runLegacy(keyCount, i == 1);
+            runCompact(keyCount, i == 1);
+        }
+    }
+
+    private static String dir(int app) {
+        return "services.region-1.az-1.app-" + app;
+    }
+
+    private static byte[] key(int i) {
+        return (dir(i % APP_COUNT) + ".instance-" + i).getBytes();
+    }
+
+    private static long usedHeap() {
+        Runtime r = Runtime.getRuntime();
+        long last = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long used = r.totalMemory() - r.freeMemory();
+            if (used >= last) {
+                return last;
+            }
+            last = used;
+        }
+        return last;
+    }
+
+    private static void runCompact(int keyCount, boolean print) {
+        long base = usedHeap();
+        Timestamp ts = new Timestamp();
+        KvServerConfig c = new KvServerConfig();
+        c.hotKeyTopK = 0;
+        KvImpl kv = new KvImpl(null, new TtlManager(ts, null), ts, 0, c);
+        UUID uuid = UUID.randomUUID();
+        long index = 1;
+        String[] dirs = new String[]{"services", "services.region-1", "services.region-1.az-1"};
+        for (String d : dirs) {
+            kv.opContext.init(DtKV.BIZ_TYPE_MKDIR, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+            kv.mkdir(index++, new ByteArray(d.getBytes()));
+        }
+        for (int i = 0; i < APP_COUNT; i++) {
+            kv.opContext.init(DtKV.BIZ_TYPE_MKDIR, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+            kv.mkdir(index++, new ByteArray(dir(i).getBytes()));
+        }
+        for (int i = 0; i < keyCount; i++) {
+            kv.opContext.init(DtKV.BIZ_TYPE_PUT, uuid, 0, ts.wallClockMillis, ts.nanoTime);
+            kv.put(index++, new ByteArray(key(i)), VALUE);
+        }
+        long mem = usedHeap() - base;
+        long nanos = lookup(keyCount, k -> kv.map.get(k));
+        if (print) {
+            System.out.printf("compact: %,d keys, %,d bytes/key, get %,d ns/op%n", keyCount,
+                    mem / keyCount, nanos);
+        }
+        if (kv.map.size() != keyCount + dirs.length + APP_COUNT + 1) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static void runLegacy(int keyCount, boolean print) {
+        long base = usedHeap();
+        HashMap<ByteArray, LegacyHolder> map = new HashMap<>(16, 0.75f);
+        LegacyHolder root = new LegacyHolder(ByteArray.EMPTY, ByteArray.EMPTY, newNode(KvNode.FLAG_DIR_MASK, null), null);
+        map.put(ByteArray.EMPTY, root);
+        LegacyHolder parent = root;
+        for (String d : new String[]{"services", "services.region-1", "services.region-1.az-1"}) {
+            parent = legacyPut(map, parent, d.getBytes(), null);
+        }
+        LegacyHolder[] apps = new LegacyHolder[APP_COUNT];
+        for (int i = 0; i < APP_COUNT; i++) {
+            apps[i] = legacyPut(map, parent, dir(i).getBytes(), null);
+        }
+        for (int i = 0; i < keyCount; i++) {
+            legacyPut(map, apps[i % APP_COUNT], key(i), VALUE);
+        }
+        long mem = usedHeap() - base;
+        long nanos = lookup(keyCount, map::get);
+        if (print) {
+            System.out.printf("legacy : %,d keys, %,d bytes/key, get %,d ns/op%n", keyCount,
+                    mem / keyCount, nanos);
+        }
+        if (map.size() != keyCount + 4 + APP_COUNT) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static KvNodeEx newNode(int flag, byte[] data) {
+        return new KvNodeEx(1, 1, 1, 1, flag, data);
+    }
+
+    private static LegacyHolder legacyPut(HashMap<ByteArray, LegacyHolder> map, LegacyHolder parent,
+                                          byte[] k, byte[] data) {
+        ByteArray key = new ByteArray(k);
+        ByteArray keyInDir = key.sub(key.lastIndexOf((byte) '.') + 1);
+        LegacyHolder h = new LegacyHolder(key, keyInDir, newNode(data == null ? KvNode.FLAG_DIR_MASK : 0, data), parent);
+        map.put(key, h);
+        return h;
+    }
+
+    private static long lookup(int keyCount, Function<ByteArray, Object> getter) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        byte[][] raw = new byte[LOOKUP_BATCH][];
+        for (int i = 0; i < LOOKUP_BATCH; i++) {
+            raw[i] = key(r.nextInt(keyCount));
+        }
+        ByteArray[] keys = new ByteArray[LOOKUP_BATCH];
+        long total = 0;
+        for (int round = 0; round < LOOKUP_ROUNDS; round++) {
+            // new ByteArray instances, so the hash is not cached, like the keys decoded from requests
+            for (int i = 0; i < LOOKUP_BATCH; i++) {
+                keys[i] = new ByteArray(raw[i]);
+            }
+            long t = System.nanoTime();
+            for (int i = 0; i < LOOKUP_BATCH; i++) {
+                if (getter.apply(keys[i]) == null) {
+                    throw new IllegalStateException();
+                }
+            }
+            if (round >= LOOKUP_ROUNDS / 2) {
+                total += System.nanoTime() - t;
+            }
+        }
+        return total / ((long) LOOKUP_BATCH * (LOOKUP_ROUNDS - LOOKUP_ROUNDS / 2));
+    }
+
+    // the fields of KvNodeHolder before the compact layout
+    @SuppressWarnings("unused")
+    private static final class LegacyHolder {
+        final ByteArray key;
+        final ByteArray keyInDir;
+        final LegacyHolder parent;
+        KvNodeEx latest;
+        WatchHolder watchHolder;
+        long updateIndex;
+        boolean inUpdateQueue;
+        int childHolderCount;
+        LegacyHolder prev;
+        LegacyHolder next;
+        LegacyHolder childPrev;
+        LegacyHolder childNext;
+
+        LegacyHolder(ByteArray key, ByteArray keyInDir, KvNodeEx n, LegacyHolder parent) {
+            this.key = key;
+            this.keyInDir = keyInDir;
+            this.latest = n;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.Timestamp;
+import com.github.dtprj.dongting.dtkv.KvCodes;
+import com.github.dtprj.dongting.dtkv.KvResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for lease operations: grantLease, keepAliveLease, revokeLease, expireLease.
+ *
+ * @author huangli
+ */
+class KvLeaseTest {
+
+    private KvImpl kv;
+    private TtlManager tm;
+    private Timestamp ts;
+    private int ver;
+    private final UUID owner1 = UUID.randomUUID();
+    private final UUID owner2 = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        ver = 1;
+        ts = new Timestamp();
+        tm = new TtlManager(ts, null);
+        KvServerConfig c = new KvServerConfig();
+        c.initMapCapacity = 16;
+        kv = new KvImpl(null, tm, ts, 0, c);
+    }
+
+    static ByteArray ba(String str) {
+        return new ByteArray(str.getBytes());
+    }
+
+    private void initOpContext(UUID uuid, int bizType, long ttlMillis, long leaseId) {
+        kv.opContext.init(bizType, uuid, ttlMillis, ts.wallClockMillis, ts.nanoTime);
+        kv.opContext.leaseId = leaseId;
+    }
+
+    private long grant(UUID owner, long ttlMillis) {
+        initOpContext(owner, DtKV.BIZ_TYPE_GRANT_LEASE, ttlMillis, 0);
+        long leaseId = ver++;
+        assertEquals(KvCodes.SUCCESS, kv.grantLease(leaseId).getBizCode());
+        return leaseId;
+    }
+
+    private KvResult putWithLease(UUID owner, String key, long leaseId) {
+        initOpContext(owner, DtKV.BIZ_TYPE_PUT_TEMP_NODE, 0, leaseId);
+        return kv.put(ver++, ba(key), "v".getBytes());
+    }
+
+    private KvNodeEx node(String key) {
+        KvResult r = kv.get(ba(key));
+        return r.getBizCode() == KvCodes.SUCCESS ? (KvNodeEx) r.getNode() : null;
+    }
+
+    @Test
+    void testGrantAndAttach() {
+        long leaseId = grant(owner1, 1000);
+        Lease lease = tm.getLease(leaseId);
+        assertNotNull(lease);
+        assertEquals(1, tm.ttlQueue.size());
+
+        assertEquals(KvCodes.SUCCESS, putWithLease(owner1, "k1", leaseId).getBizCode());
+        initOpContext(owner1, DtKV.BIZ_MK_TEMP_DIR, 0, leaseId);
+        assertEquals(KvCodes.SUCCESS, kv.mkdir(ver++, ba("d1")).getBizCode());
+        initOpContext(owner2, DtKV.BIZ_TYPE_PUT, 0, 0);
+        assertEquals(KvCodes.SUCCESS, kv.put(ver++, ba("d1.k2"), "v".getBytes()).getBizCode());
+
+        // the attached nodes use the ttl of the lease and are not in the ttl queue
+        assertEquals(1, tm.ttlQueue.size());
+        assertEquals(2, lease.keys.size());
+        assertTrue(node("k1").isTemp());
+        assertSame(lease, node("k1").ttlInfo.lease);
+        assertEquals(1000, node("k1").ttlInfo.ttlMillis);
+
+        // not found or not owner
+        assertEquals(KvCodes.LEASE_NOT_FOUND, putWithLease(owner1, "k3", 12345).getBizCode());
+        assertEquals(KvCodes.NOT_OWNER, putWithLease(owner2, "k3", leaseId).getBizCode());
+        assertNull(node("k3"));
+    }
+
+    @Test
+    void testKeepAlive() {
+        long leaseId = grant(owner1, 1000);
+        putWithLease(owner1, "k1", leaseId);
+        Lease lease = tm.getLease(leaseId);
+        TtlInfo old = lease.ttlInfo;
+
+        initOpContext(owner2, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, 0, leaseId);
+        assertEquals(KvCodes.NOT_OWNER, kv.keepAliveLease(ver++, leaseId).getBizCode());
+
+        ts = new Timestamp(ts.nanoTime + 100_000_000L, ts.wallClockMillis + 100);
+        initOpContext(owner1, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, 0, leaseId);
+        long keepAliveIndex = ver++;
+        assertEquals(KvCodes.SUCCESS, kv.keepAliveLease(keepAliveIndex, leaseId).getBizCode());
+        assertNotSame(old, lease.ttlInfo);
+        assertEquals(keepAliveIndex, lease.ttlInfo.raftIndex);
+        assertEquals(1000, lease.ttlInfo.ttlMillis);
+        assertTrue(lease.ttlInfo.expireNanos - old.expireNanos > 0);
+        assertEquals(1, tm.ttlQueue.size());
+        assertSame(lease.ttlInfo, tm.ttlQueue.first());
+
+        // idempotent
+        TtlInfo current = lease.ttlInfo;
+        kv.keepAliveLease(keepAliveIndex, leaseId);
+        assertSame(current, lease.ttlInfo);
+
+        initOpContext(owner1, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, 0, 12345);
+        assertEquals(KvCodes.LEASE_NOT_FOUND, kv.keepAliveLease(ver++, 12345).getBizCode());
+    }
+
+    @Test
+    void testExpire() {
+        long leaseId = grant(owner1, 1000);
+        putWithLease(owner1, "k1", leaseId);
+        initOpContext(owner1, DtKV.BIZ_MK_TEMP_DIR, 0, leaseId);
+        kv.mkdir(ver++, ba("d1"));
+        initOpContext(owner1, DtKV.BIZ_TYPE_PUT, 0, 0);
+        kv.put(ver++, ba("d1.k2"), "v".getBytes());
+        putWithLease(owner1, "k3", grant(owner1, 1000));
+
+        initOpContext(null, DtKV.BIZ_TYPE_EXPIRE_LEASE, 0, 0);
+        assertEquals(KvCodes.TTL_INDEX_MISMATCH, kv.expireLease(ver++, leaseId, leaseId + 100).getBizCode());
+        assertNotNull(node("k1"));
+
+        assertEquals(KvCodes.SUCCESS, kv.expireLease(ver++, leaseId, leaseId).getBizCode());
+        assertNull(node("k1"));
+        assertNull(node("d1"));
+        assertNull(node("d1.k2"));
+        // attached to another lease
+        assertNotNull(node("k3"));
+        assertNull(tm.getLease(leaseId));
+        assertEquals(1, tm.ttlQueue.size());
+
+        assertEquals(KvCodes.LEASE_NOT_FOUND, kv.expireLease(ver++, leaseId, leaseId).getBizCode());
+    }
+
+    @Test
+    void testRevoke() {
+        long leaseId = grant(owner1, 1000);
+        putWithLease(owner1, "k1", leaseId);
+
+        initOpContext(owner2, DtKV.BIZ_TYPE_REVOKE_LEASE, 0, leaseId);
+        assertEquals(KvCodes.NOT_OWNER, kv.revokeLease(ver++, leaseId).getBizCode());
+        assertNotNull(node("k1"));
+
+        initOpContext(owner1, DtKV.BIZ_TYPE_REVOKE_LEASE, 0, leaseId);
+        assertEquals(KvCodes.SUCCESS, kv.revokeLease(ver++, leaseId).getBizCode());
+        assertNull(node("k1"));
+        assertNull(tm.getLease(leaseId));
+        assertTrue(tm.ttlQueue.isEmpty());
+    }
+
+    @Test
+    void testDetach() {
+        long leaseId = grant(owner1, 1000);
+        putWithLease(owner1, "k1", leaseId);
+        putWithLease(owner1, "k2", leaseId);
+        Lease lease = tm.getLease(leaseId);
+
+        // remove the attached node
+        initOpContext(owner1, DtKV.BIZ_TYPE_REMOVE, 0, 0);
+        assertEquals(KvCodes.SUCCESS, kv.remove(ver++, ba("k1")).getBizCode());
+        assertEquals(1, lease.keys.size());
+
+        // update ttl move the node to its own ttl
+        initOpContext(owner1, DtKV.BIZ_TYPE_UPDATE_TTL, 2000, 0);
+        assertEquals(KvCodes.SUCCESS, kv.updateTtl(ver++, ba("k2")).getBizCode());
+        assertTrue(lease.keys.isEmpty());
+        assertNull(node("k2").ttlInfo.lease);
+        assertEquals(2, tm.ttlQueue.size());
+
+        // attach again
+        assertEquals(KvCodes.SUCCESS_OVERWRITE, putWithLease(owner1, "k2", leaseId).getBizCode());
+        assertSame(lease, node("k2").ttlInfo.lease);
+        assertEquals(1, tm.ttlQueue.size());
+
+        // the lease is kept after all nodes are detached
+        initOpContext(owner1, DtKV.BIZ_TYPE_REMOVE, 0, 0);
+        kv.remove(ver++, ba("k2"));
+        assertNotNull(tm.getLease(leaseId));
+    }
+
+    private KvResult tryLock(UUID owner, String key, long waitMillis, long leaseId) {
+        initOpContext(owner, DtKV.BIZ_TYPE_TRY_LOCK, waitMillis, 0);
+        byte[] value = new byte[24];
+        ByteBuffer bb = ByteBuffer.wrap(value);
+        bb.putLong(1000);
+        bb.putInt(1);
+        bb.putInt(1);
+        bb.putLong(leaseId);
+        return kv.tryLock(ver++, ba(key), value);
+    }
+
+    private KvNodeEx lockNode(UUID owner, String key) {
+        ByteArray k = KvServerUtil.buildLockKey(ba(key), owner.getMostSignificantBits(),
+                owner.getLeastSignificantBits());
+        KvNodeHolder h = kv.map.get(k);
+        return h == null || h.latest.removed ? null : h.latest;
+    }
+
+    @Test
+    void testLockWithLease() {
+        long lease1 = grant(owner1, 1000);
+        long lease2 = grant(owner2, 1000);
+        putWithLease(owner1, "k1", lease1);
+
+        assertEquals(KvCodes.LEASE_NOT_FOUND, tryLock(owner1, "lock1", 0, 12345).getBizCode());
+        assertEquals(KvCodes.NOT_OWNER, tryLock(owner1, "lock1", 0, lease2).getBizCode());
+        assertNull(node("lock1"));
+
+        // the owner is attached to the lease, the waiter is not attached until it gets the lock
+        assertEquals(KvCodes.SUCCESS, tryLock(owner1, "lock1", 0, lease1).getBizCode());
+        assertSame(tm.getLease(lease1), lockNode(owner1, "lock1").ttlInfo.lease);
+        assertEquals(KvCodes.LOCK_BY_OTHER, tryLock(owner2, "lock1", 500, lease2).getBizCode());
+        assertNull(lockNode(owner2, "lock1").ttlInfo.lease);
+        assertEquals(500, lockNode(owner2, "lock1").ttlInfo.ttlMillis);
+        assertEquals(3, tm.ttlQueue.size());
+
+        // keep alive renews the lock
+        initOpContext(owner1, DtKV.BIZ_TYPE_KEEP_ALIVE_LEASE, 0, lease1);
+        assertEquals(KvCodes.SUCCESS, kv.keepAliveLease(ver++, lease1).getBizCode());
+        assertEquals(3, tm.ttlQueue.size());
+
+        // revoke the lease releases the lock, the waiter gets the lock and is attached to its lease
+        initOpContext(owner1, DtKV.BIZ_TYPE_REVOKE_LEASE, 0, lease1);
+        KvResult r = kv.revokeLease(ver++, lease1);
+        assertEquals(KvCodes.SUCCESS, r.getBizCode());
+        assertInstanceOf(KvImpl.KvResultWithNewOwners.class, r);
+        assertEquals(1, ((KvImpl.KvResultWithNewOwners) r).newOwners.size());
+        assertNull(node("k1"));
+        assertNull(lockNode(owner1, "lock1"));
+        assertSame(tm.getLease(lease2), lockNode(owner2, "lock1").ttlInfo.lease);
+        assertEquals(1, tm.ttlQueue.size());
+    }
+}
@@ -282,6 +282,49 @@ class KvLockTest {
         assertFalse(holder2.latest.removed);
     }
 
+    @Test
+    void testWaitQueueFifoAndCancel() {
+        UUID owner3 = UUID.randomUUID();
+        initOpContext(owner1, DtKV.BIZ_TYPE_TRY_LOCK, 1000);
+        kv.tryLock(ver++, ba("lock1"), buildLockValue(5000, 1, 1));
+        initOpContext(owner2, DtKV.BIZ_TYPE_TRY_LOCK, 1000);
+        kv.tryLock(ver++, ba("lock1"), buildLockValue(5000, 2, 1));
+        initOpContext(owner3, DtKV.BIZ_TYPE_TRY_LOCK, 1000);
+        kv.tryLock(ver++, ba("lock1"), buildLockValue(5000, 3, 1));
+
+        // owner2 cancels waiting
+        initOpContext(owner2, DtKV.BIZ_TYPE_UNLOCK, 0);
+        assertEquals(KvCodes.LOCK_BY_OTHER, kv.unlock(ver++, ba("lock1")).getBizCode());
+        assertEquals(2, kv.map.get(ba("lock1")).latest.childCount());
+
+        // the lock is handed to owner3
+        initOpContext(owner1, DtKV.BIZ_TYPE_UNLOCK, 0);
+        KvImpl.KvResultWithNewOwnerInfo r = (KvImpl.KvResultWithNewOwnerInfo) kv.unlock(ver++, ba("lock1"));
+        assertEquals(owner3, r.newOwner.ttlInfo.owner);
+        assertEquals(owner3, kv.map.get(ba("lock1")).latest.peekNextOwner().latest.ttlInfo.owner);
+    }
+
+    @Test
+    void testWaitQueueOrderWhenAddOutOfOrder() {
+        // install snapshot may add children not in createIndex order
+        KvNodeEx dir = new KvNodeEx(1, 0, 1, 0, KvNode.FLAG_DIR_MASK | KvNode.FLAG_LOCK_MASK, null);
+        KvNodeHolder dirHolder = new KvNodeHolder(ba("lock1"), ba("lock1"), dir, null);
+        long[] createIndexes = {5, 3, 7, 4};
+        for (long idx : createIndexes) {
+            KvNodeEx n = new KvNodeEx(idx, 0, idx, 0, KvNode.FLAG_LOCK_MASK, new byte[1]);
+            dir.addChild(new KvNodeHolder(ba("lock1." + idx), ba(String.valueOf(idx)), n, dirHolder));
+        }
+        long last = 0;
+        for (KvNodeHolder h : dir.childrenValues()) {
+            assertTrue(h.latest.createIndex > last);
+            last = h.latest.createIndex;
+        }
+        KvNodeHolder first = dir.peekNextOwner();
+        assertEquals(3, first.latest.createIndex);
+        dir.removeChild(first);
+        assertEquals(4, dir.peekNextOwner().latest.createIndex);
+    }
+
     @Test
     void testUnlockClearEmptyDir() {
         // acquire and release lock, verify dir cleaned up
@@ -18,13 +18,14 @@ package com.github.dtprj.dongting.dtkv.server;
 import com.github.dtprj.dongting.common.ByteArray;
 import org.junit.jupiter.api.Test;
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
- * Unit tests for KvMap implementation (HashMap + doubly-linked list).
+ * Unit tests for KvMap implementation (hash table + doubly-linked list).
  *
  * @author huangli
  */
@@ -51,6 +52,43 @@ class KvMapTest {
         assertEquals(1, map.size());
     }
 
+    private static int bucket(ByteArray key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & 1;
+    }
+
+    @Test
+    void testGetWithCycleInChain() {
+        // 2 buckets, no resize
+        KvMap map = new KvMap(2, 10f);
+        ByteArray key1 = ba("key1");
+        ByteArray key2 = null;
+        ByteArray missKey = null;
+        for (int i = 0; key2 == null || missKey == null; i++) {
+            ByteArray k = ba("k" + i);
+            if (bucket(k) == bucket(key1)) {
+                if (key2 == null) {
+                    key2 = k;
+                } else {
+                    missKey = k;
+                }
+            }
+        }
+        KvNodeHolder h1 = createHolder(key1);
+        KvNodeHolder h2 = createHolder(key2);
+        map.put(key1, h1);
+        map.put(key2, h2);
+        assertSame(h1, h2.hashNext);
+        assertSame(h1, map.get(key1));
+
+        // an optimistic reader may see a cycle, when the writes of the writer are seen out of order
+        h1.hashNext = h2;
+        ByteArray absentKey = missKey;
+        assertThrows(ConcurrentModificationException.class, () -> map.get(absentKey));
+        h1.hashNext = null;
+        assertNull(map.get(absentKey));
+    }
+
     @Test
     void testPutReplacesExisting() {
         KvMap map = new KvMap(16, 0.75f);
@@ -117,7 +155,7 @@ class KvMapTest {
         while (it.hasNext()) {
             KvNodeHolder h = it.next();
             assertNotNull(h);
-            assertNotNull(h.key);
+            assertNotNull(h.key());
             count++;
         }
         assertEquals(3, count);
@@ -191,8 +229,8 @@ class KvMapTest {
             KvNodeHolder h = it.next();
             count++;
 
-            if (ba("key2").equals(h.key)) {
-                map.remove(h.key);
+            if (ba("key2").equals(h.key())) {
+                map.remove(h.key());
             }
         }
         assertEquals(3, count);
@@ -289,8 +327,63 @@ class KvMapTest {
         for (int i = 0; i < 10; i++) {
             assertTrue(it.hasNext());
             KvNodeHolder h = it.next();
-            assertEquals("key" + i, new String(h.key.getData()));
+            assertEquals("key" + i, new String(h.key().getData()));
         }
         assertFalse(it.hasNext());
     }
+
+    private KvNodeHolder createHolder(KvNodeHolder parent, String key) {
+        ByteArray k = ba(key);
+        KvNodeEx node = new KvNodeEx(1, 100, 1, 100, 0, "value".getBytes());
+        return new KvNodeHolder(k, k.sub(k.lastIndexOf((byte) '.') + 1), node, parent);
+    }
+
+    @Test
+    void testPrefixSharedKeys() {
+        KvMap map = new KvMap(2, 0.75f);
+        KvNodeHolder root = new KvNodeHolder(ByteArray.EMPTY, ByteArray.EMPTY, null, null);
+        map.put(ByteArray.EMPTY, root);
+        KvNodeHolder a = createHolder(root, "a");
+        KvNodeHolder ab = createHolder(a, "a.b");
+        map.put(ba("a"), a);
+        map.put(ba("a.b"), ab);
+        for (int i = 0; i < 100; i++) {
+            String k = "a.b.c" + i;
+            map.put(ba(k), createHolder(ab, k));
+        }
+        assertEquals(103, map.size());
+        assertSame(root, map.get(ByteArray.EMPTY));
+        assertSame(a, map.get(ba("a")));
+        assertSame(ab, map.get(ba("a.b")));
+        for (int i = 0; i < 100; i++) {
+            String k = "a.b.c" + i;
+            KvNodeHolder h = map.get(ba(k));
+            assertNotNull(h);
+            assertEquals(k, h.key().toString());
+            assertEquals("c" + i, h.keyInDir.toString());
+        }
+        // same length, differ in the separator or the prefix
+        assertNull(map.get(ba("a.bxc1")));
+        assertNull(map.get(ba("axb.c1")));
+        assertNull(map.get(ba("ab.c1")));
+        assertNull(map.get(ba("b.b.c1")));
+        assertNull(map.get(ba("c1")));
+
+        KvNodeHolder h = map.get(ba("a.b.c1"));
+        assertTrue(map.remove(h));
+        assertFalse(map.remove(h));
+        assertNull(map.get(ba("a.b.c1")));
+        assertEquals(102, map.size());
+    }
+
+    @Test
+    void testKeyInDirCopied() {
+        byte[] bs = "a.b".getBytes();
+        KvNodeHolder a = createHolder(null, "a");
+        KvNodeHolder h = new KvNodeHolder(new ByteArray(bs), new ByteArray(bs).sub(2), null, a);
+        // the holder does not reference the full key array
+        bs[2] = 'x';
+        assertEquals("a.b", h.key().toString());
+        assertTrue(h.keyEquals(ba("a.b")));
+    }
 }
@@ -46,6 +46,7 @@ public class KvReqTest {
         req.ttlMillis = Integer.MAX_VALUE + 1L;
         req.keys = keys;
         req.values = values;
+        req.leaseId = 12345L;
         return req;
     }
 
@@ -76,6 +77,7 @@ public class KvReqTest {
         Assertions.assertEquals(expect.ownerUuid.getMostSignificantBits(), req.getOwnerUuid1());
         Assertions.assertEquals(expect.ownerUuid.getLeastSignificantBits(), req.getOwnerUuid2());
         Assertions.assertEquals(expect.ttlMillis, req.getTtlMillis());
+        Assertions.assertEquals(expect.leaseId, req.getLeaseId());
         for (int i = 0; i < expect.keys.size(); i++) {
             Assertions.assertEquals(new String(expect.keys.get(i)), req.getKeys(i));
             byte[] s = expect.values.get(i);
@@ -90,6 +92,7 @@ public class KvReqTest {
         Assertions.assertArrayEquals(expect.expectValue, r.expectValue);
         Assertions.assertEquals(expect.ownerUuid, r.ownerUuid);
         Assertions.assertEquals(expect.ttlMillis, r.ttlMillis);
+        Assertions.assertEquals(expect.leaseId, r.leaseId);
         for (int i = 0; i < expect.keys.size(); i++) {
             Assertions.assertArrayEquals(expect.keys.get(i), r.keys.get(i));
             Assertions.assertArrayEquals(expect.values.get(i), r.values.get(i));
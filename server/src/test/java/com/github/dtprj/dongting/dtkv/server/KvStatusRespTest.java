@@ -34,6 +34,8 @@ public class KvStatusRespTest {
         KvStatusResp resp = new KvStatusResp();
         resp.raftServerStatus = buildQueryStatusResp();
         resp.watchCount = 100;
+        resp.usedMemory = 123456789012L;
+        resp.memoryQuota = 1L << 40;
         return resp;
     }
 
@@ -80,11 +82,15 @@ public class KvStatusRespTest {
 
     private void compare1(KvStatusResp expect, DtKv.KvStatusResp protoResp) {
         Assertions.assertEquals(expect.watchCount, protoResp.getWatchCount());
+        Assertions.assertEquals(expect.usedMemory, protoResp.getUsedMemory());
+        Assertions.assertEquals(expect.memoryQuota, protoResp.getMemoryQuota());
         QueryStatusRespTest.compare1(expect.raftServerStatus, protoResp.getRaftServerStatus());
     }
 
     private void compare2(KvStatusResp expect, KvStatusResp r) {
         Assertions.assertEquals(expect.watchCount, r.watchCount);
+        Assertions.assertEquals(expect.usedMemory, r.usedMemory);
+        Assertions.assertEquals(expect.memoryQuota, r.memoryQuota);
         QueryStatusRespTest.compare2(expect.raftServerStatus, r.raftServerStatus);
     }
 }
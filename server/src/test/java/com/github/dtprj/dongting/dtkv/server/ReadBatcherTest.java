@@ -0,0 +1,207 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.dtkv.server;
+
+import com.github.dtprj.dongting.common.Timestamp;
+import com.github.dtprj.dongting.log.BugLog;
+import com.github.dtprj.dongting.raft.RaftException;
+import com.github.dtprj.dongting.util.MockRuntimeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author huangli
+ */
+class ReadBatcherTest {
+
+    private MockExecutor executor;
+    private ReadBatcher<Integer> batcher;
+    private MockReader reader;
+
+    private static class MockExecutor extends DtKVExecutor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+        boolean reject;
+
+        MockExecutor() {
+            super(1, new Timestamp(), null);
+        }
+
+        @Override
+        protected ScheduledExecutorService createExecutor(int groupId) {
+            return null;
+        }
+
+        @Override
+        public boolean submitTaskInAnyThread(Runnable r) {
+            if (reject) {
+                return false;
+            }
+            tasks.add(r);
+            return true;
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class MockReader implements ReadBatcher.Reader<Integer> {
+        // the leaseValid argument of each read
+        final List<Boolean> leaseValidArgs = new ArrayList<>();
+        final List<Integer> served = new ArrayList<>();
+        final HashMap<Integer, Throwable> failed = new HashMap<>();
+        int invalidLeaseRead = -1;
+        int errorRead = -1;
+
+        @Override
+        public boolean read(Integer r, boolean leaseValid) {
+            leaseValidArgs.add(leaseValid);
+            if (r == errorRead) {
+                throw new MockRuntimeException();
+            }
+            if (r == invalidLeaseRead) {
+                // wait group ready, not served in this batch
+                return false;
+            }
+            served.add(r);
+            return true;
+        }
+
+        @Override
+        public void fail(Integer r, Throwable ex) {
+            failed.put(r, ex);
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        executor = new MockExecutor();
+        batcher = new ReadBatcher<>(executor, 3);
+        reader = new MockReader();
+    }
+
+    @Test
+    public void testBatch() {
+        batcher.add(1, reader);
+        batcher.add(2, reader);
+        batcher.add(3, reader);
+        // only the first read submits the task
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(1, 2, 3), reader.served);
+        // the lease is checked only by the first read
+        assertEquals(List.of(false, true, true), reader.leaseValidArgs);
+        assertTrue(reader.failed.isEmpty());
+
+        // a new batch after the queue is drained, check the lease again
+        batcher.add(4, reader);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(1, 2, 3, 4), reader.served);
+        assertFalse(reader.leaseValidArgs.get(3));
+    }
+
+    @Test
+    public void testMaxBatch() {
+        for (int i = 1; i <= 7; i++) {
+            batcher.add(i, reader);
+        }
+        assertEquals(1, executor.tasks.size());
+        executor.tasks.remove(0).run();
+        assertEquals(List.of(1, 2, 3), reader.served);
+        // the rest are served in next task
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7), reader.served);
+        assertEquals(List.of(false, true, true, false, true, true, false), reader.leaseValidArgs);
+    }
+
+    @Test
+    public void testLeaseInvalid() {
+        reader.invalidLeaseRead = 2;
+        batcher.add(1, reader);
+        batcher.add(2, reader);
+        batcher.add(3, reader);
+        executor.runAll();
+        assertEquals(List.of(1, 3), reader.served);
+        // the lease is checked again after it is found invalid
+        assertEquals(List.of(false, true, false), reader.leaseValidArgs);
+        assertTrue(reader.failed.isEmpty());
+    }
+
+    @Test
+    public void testErrorInBatch() {
+        reader.errorRead = 2;
+        batcher.add(1, reader);
+        batcher.add(2, reader);
+        batcher.add(3, reader);
+        executor.runAll();
+        // the error not affect other reads in the batch
+        assertEquals(List.of(1, 3), reader.served);
+        assertEquals(1, reader.failed.size());
+        assertInstanceOf(MockRuntimeException.class, reader.failed.get(2));
+        assertEquals(List.of(false, true, false), reader.leaseValidArgs);
+        // the unexpected exception is logged by BugLog
+        BugLog.reset();
+
+        batcher.add(4, reader);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(1, 3, 4), reader.served);
+    }
+
+    @Test
+    public void testExecutorReject() {
+        executor.reject = true;
+        batcher.add(1, reader);
+        batcher.add(2, reader);
+        assertTrue(reader.served.isEmpty());
+        assertEquals(2, reader.failed.size());
+        assertInstanceOf(RaftException.class, reader.failed.get(1));
+        assertInstanceOf(RaftException.class, reader.failed.get(2));
+
+        // the count is reset, so the next read submits the task again
+        executor.reject = false;
+        batcher.add(3, reader);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(3), reader.served);
+    }
+
+    @Test
+    public void testRejectWhenResubmit() {
+        for (int i = 1; i <= 5; i++) {
+            batcher.add(i, reader);
+        }
+        executor.reject = true;
+        executor.tasks.remove(0).run();
+        assertEquals(List.of(1, 2, 3), reader.served);
+        // the rest failed since the executor is stopping
+        assertEquals(2, reader.failed.size());
+        assertInstanceOf(RaftException.class, reader.failed.get(4));
+        assertInstanceOf(RaftException.class, reader.failed.get(5));
+        assertTrue(executor.tasks.isEmpty());
+    }
+}
@@ -19,6 +19,7 @@ import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.Timestamp;
 import com.github.dtprj.dongting.dtkv.KvCodes;
 import com.github.dtprj.dongting.dtkv.WatchEvent;
+import com.github.dtprj.dongting.dtkv.WatchNotify;
 import com.github.dtprj.dongting.dtkv.WatchNotifyReq;
 import com.github.dtprj.dongting.net.CmdCodes;
 import com.github.dtprj.dongting.net.DtChannel;
@@ -27,6 +28,7 @@ import com.github.dtprj.dongting.net.NioNet;
 import com.github.dtprj.dongting.net.Peer;
 import com.github.dtprj.dongting.net.ReadPacket;
 import com.github.dtprj.dongting.raft.test.TestUtil;
+import com.github.dtprj.dongting.util.CodecTestUtil;
 import com.github.dtprj.dongting.util.MockRuntimeException;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -36,6 +38,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -60,6 +63,7 @@ public class ServerWatchManagerTest {
     private ReadPacket<WatchNotifyRespCallback> rpcResult;
     private Throwable rpcEx;
     private long raftIndex;
+    private int signalCount;
 
     private static MockDtChannel dtc1;
     private static MockDtChannel dtc2;
@@ -88,14 +92,16 @@ public class ServerWatchManagerTest {
     private static class PushReqInfo {
         final ChannelInfo ci;
         final WatchNotifyReq req;
+        final ByteBuffer encodedReq;
         final ArrayList<ChannelWatch> watchList;
         final int requestEpoch;
         final boolean fireNext;
 
-        PushReqInfo(ChannelInfo ci, WatchNotifyReq req, ArrayList<ChannelWatch> watchList,
+        PushReqInfo(ChannelInfo ci, WatchNotifyReq req, ByteBuffer encodedReq, ArrayList<ChannelWatch> watchList,
                     int requestEpoch, boolean fireNext) {
             this.ci = ci;
             this.req = req;
+            this.encodedReq = encodedReq;
             this.watchList = watchList;
             this.requestEpoch = requestEpoch;
             this.fireNext = fireNext;
@@ -113,11 +119,17 @@ public class ServerWatchManagerTest {
         LinkedList<PushReqInfo> q = pushRequestList;
         this.rpcEx = null;
         this.rpcResult = null;
+        this.signalCount = 0;
         manager = new ServerWatchManager(groupId, ts, kvConfig, new long[]{1, 1000}) {
             @Override
-            protected void sendRequest(ChannelInfo ci, WatchNotifyReq req, ArrayList<ChannelWatch> watchList,
-                                       int requestEpoch, boolean fireNext) {
-                q.add(new PushReqInfo(ci, req, watchList, requestEpoch, fireNext));
+            protected void signalDispatch() {
+                signalCount++;
+            }
+
+            @Override
+            protected void sendRequest(ChannelInfo ci, WatchNotifyReq req, ByteBuffer encodedReq,
+                                       ArrayList<ChannelWatch> watchList, int requestEpoch, boolean fireNext) {
+                q.add(new PushReqInfo(ci, req, encodedReq, watchList, requestEpoch, fireNext));
                 Runnable run = () -> {
                     try {
                         ReadPacket<WatchNotifyRespCallback> r = rpcResult;
@@ -297,6 +309,7 @@ public class ServerWatchManagerTest {
         assertEquals(expectIndex + 1, pushReqInfo.req.notifyList.get(1).raftIndex);
 
         manager.sync(kv, dtc2, true, keys("key1", "key2"), new long[]{0, 0});
+        assertEquals(4 * ServerWatchManager.WATCH_OVERHEAD, manager.usedMemory());
         put("key1", "value1_3");
         put("key2", "value2_3");
         manager.dispatch();
@@ -324,6 +337,7 @@ public class ServerWatchManagerTest {
 
         manager.sync(kv, dtc1, true, keys("key2", "key3"), new long[]{getNotifiedIndex(dtc1, "key2"), 0});
         manager.sync(kv, dtc2, false, keys("key2"), new long[]{-1});
+        assertEquals(3 * ServerWatchManager.WATCH_OVERHEAD, manager.usedMemory());
         put("key1", "value1_4");
         put("key2", "value2_4");
         put("key3", "value3_4");
@@ -350,6 +364,7 @@ public class ServerWatchManagerTest {
 
         manager.sync(kv, dtc1, true, keys(), new long[]{});
         manager.sync(kv, dtc2, true, keys(), new long[]{});
+        assertEquals(0, manager.usedMemory());
         put("key1", "value1_5");
         put("key2", "value2_5");
         put("key3", "value3_5");
@@ -785,6 +800,147 @@ public class ServerWatchManagerTest {
         assertEquals(1, pushRequestList.size());
     }
 
+    @Test
+    public void testDispatchSignal() {
+        kvConfig.watchMaxBatchSize = 2;
+        assertEquals(0, manager.dispatchWaitNanos());
+
+        manager.sync(kv, dtc1, false, keys("key1", "key2", "key3"), new long[]{0, 0, 0});
+        assertEquals(1, signalCount);
+        assertEquals(kvConfig.watchDispatchWindowMicros * 1000L, manager.dispatchWaitNanos());
+        TestUtil.plus1Hour(ts);
+        assertEquals(0, manager.dispatchWaitNanos());
+        // the success response adds the channel back to check newer updates
+        for (int i = 0; i < 3; i++) {
+            manager.dispatch();
+            mockClientResponse();
+        }
+        assertEquals(0, manager.dispatchWaitNanos());
+        pushRequestList.clear();
+        signalCount = 0;
+
+        // first update start the window, later updates of the same key are coalesced
+        put("key1", "v1");
+        assertEquals(1, signalCount);
+        assertTrue(manager.dispatchWaitNanos() > 0);
+        put("key1", "v2");
+        assertEquals(1, signalCount);
+
+        // batch is full, dispatch immediately
+        put("key2", "v1");
+        assertEquals(2, signalCount);
+        assertEquals(0, manager.dispatchWaitNanos());
+        put("key3", "v1");
+        assertEquals(2, signalCount);
+
+        manager.dispatch();
+        mockClientResponse();
+        manager.dispatch();
+        mockClientResponse();
+        assertEquals(3, pushRequestList.stream().mapToInt(r -> r.req.notifyList.size()).sum());
+    }
+
+    @Test
+    public void testResumeWithHistory() {
+        mkdir("dir1");
+        put("dir1.key1", "v1");
+        long seenIndex = raftIndex - 1;
+        put("dir1.key2", "v1");
+        put("key1", "v1");
+
+        // resume from seen index, only get the missed changes
+        manager.sync(kv, dtc1, false, keys("dir1"), new long[]{seenIndex});
+        manager.dispatch();
+        mockClientResponse();
+        WatchNotify wn = pushRequestList.poll().req.notifyList.get(0);
+        assertEquals(WatchEvent.STATE_DIRECTORY_EXISTS, wn.state);
+        assertEquals(seenIndex + 1, wn.raftIndex);
+        assertEquals(1, wn.changes.size());
+        assertEquals("dir1.key2", new String(wn.changes.get(0).key));
+        assertEquals(WatchEvent.STATE_VALUE_EXISTS, wn.changes.get(0).state);
+        assertEquals(seenIndex + 1, wn.changes.get(0).raftIndex);
+
+        // later notify carries changes since last notify
+        put("dir1.key3", "v1");
+        remove("dir1.key2");
+        manager.dispatch();
+        mockClientResponse();
+        wn = pushRequestList.poll().req.notifyList.get(0);
+        assertEquals(2, wn.changes.size());
+        assertEquals("dir1.key3", new String(wn.changes.get(0).key));
+        assertEquals(WatchEvent.STATE_VALUE_EXISTS, wn.changes.get(0).state);
+        assertEquals("dir1.key2", new String(wn.changes.get(1).key));
+        assertEquals(WatchEvent.STATE_NOT_EXISTS, wn.changes.get(1).state);
+
+        // new watch without known index need full list
+        manager.sync(kv, dtc2, false, keys("dir1"), new long[]{0});
+        manager.dispatch();
+        mockClientResponse();
+        assertNull(pushRequestList.poll().req.notifyList.get(0).changes);
+
+        // history rolled over
+        for (int i = 0; i < kvConfig.watchHistorySize; i++) {
+            put("key1", "v1");
+        }
+        put("dir1.key4", "v1");
+        manager.dispatch();
+        mockClientResponse();
+        pushRequestList.clear();
+        manager.sync(kv, dtc3, false, keys("dir1"), new long[]{seenIndex});
+        manager.dispatch();
+        mockClientResponse();
+        wn = pushRequestList.poll().req.notifyList.get(0);
+        assertEquals(raftIndex - 1, wn.raftIndex);
+        assertNull(wn.changes);
+
+        // install snapshot reset the history
+        manager.reset();
+        put("dir1.key5", "v1");
+        manager.sync(kv, dtc3, false, keys("dir1"), new long[]{raftIndex - 2});
+        manager.dispatch();
+        mockClientResponse();
+        wn = pushRequestList.poll().req.notifyList.get(0);
+        assertEquals(1, wn.changes.size());
+        assertEquals("dir1.key5", new String(wn.changes.get(0).key));
+    }
+
+    @Test
+    public void testSharedEncode() {
+        manager.sync(kv, dtc1, false, keys("key1"), new long[]{0});
+        manager.sync(kv, dtc2, false, keys("key1"), new long[]{0});
+        manager.sync(kv, dtc3, false, keys("key1", "key2"), new long[]{0, 0});
+        put("key1", "value1");
+        manager.dispatch();
+        assertEquals(3, pushRequestList.size());
+        ByteBuffer shared = null;
+        for (PushReqInfo info : pushRequestList) {
+            if (info.ci.channel == dtc3) {
+                // more than one watch in the request, not shared
+                assertNull(info.encodedReq);
+                continue;
+            }
+            assertNotNull(info.encodedReq);
+            if (shared == null) {
+                shared = info.encodedReq;
+            } else {
+                assertSame(shared, info.encodedReq);
+            }
+        }
+        assertNotNull(shared);
+        WatchNotifyReq req = CodecTestUtil.fullBufferDecode(shared.duplicate(), new WatchNotifyReq.Callback());
+        assertEquals(1, req.notifyList.size());
+        assertEquals("key1", new String(req.notifyList.get(0).key));
+        assertEquals("value1", new String(req.notifyList.get(0).value));
+        assertEquals(raftIndex - 1, req.notifyList.get(0).raftIndex);
+        mockClientResponse();
+
+        // new update, not use the old encoded body
+        put("key1", "value2");
+        manager.dispatch();
+        PushReqInfo info = pushRequestList.getLast();
+        assertNotSame(shared, info.encodedReq);
+    }
+
     @Test
     public void testCleanTimeoutChannel() {
         manager.sync(kv, dtc1, false, keys("key1"), new long[]{0});
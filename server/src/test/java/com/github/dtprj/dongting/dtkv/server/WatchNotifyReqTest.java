@@ -33,7 +33,8 @@ class WatchNotifyReqTest {
         return new WatchNotifyReq(123456789, Arrays.asList(
                 new WatchNotify(100, 0, "key1".getBytes(), "value1".getBytes()),
                 new WatchNotify(200, 1, "key2".getBytes(), "value2".getBytes()),
-                new WatchNotify(300, 2, "key3".getBytes(), "value3".getBytes())
+                new WatchNotify(300, 2, "key3".getBytes(), "value3".getBytes()),
+                WatchNotifyTest.buildTestData()
         ));
     }
 
@@ -23,6 +23,7 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Random;
 
 /**
@@ -32,7 +33,10 @@ class WatchNotifyTest {
 
     public static WatchNotify buildTestData() {
         Random r = new Random();
-        return new WatchNotify(r.nextLong(), r.nextInt(), "key".getBytes(), "value".getBytes());
+        ArrayList<WatchNotify> changes = new ArrayList<>();
+        changes.add(new WatchNotify(r.nextLong(), r.nextInt(), "key.c1".getBytes(), null));
+        changes.add(new WatchNotify(r.nextLong(), r.nextInt(), "key.c2".getBytes(), null));
+        return new WatchNotify(r.nextLong(), r.nextInt(), "key".getBytes(), "value".getBytes(), changes);
     }
 
     @Test
@@ -59,6 +63,19 @@ class WatchNotifyTest {
         Assertions.assertEquals(expect.state, protoResult.getState());
         Assertions.assertArrayEquals(expect.key, protoResult.getKey().getBytes(StandardCharsets.UTF_8));
         Assertions.assertArrayEquals(expect.value, protoResult.getValue().toByteArray());
+        if (expect.changes == null) {
+            Assertions.assertEquals(0, protoResult.getChangesCount());
+            return;
+        }
+        Assertions.assertEquals(expect.changes.size(), protoResult.getChangesCount());
+        for (int i = 0; i < expect.changes.size(); i++) {
+            WatchNotify c = expect.changes.get(i);
+            DtKv.WatchNotify pc = protoResult.getChanges(i);
+            Assertions.assertEquals(c.raftIndex, pc.getRaftIndex());
+            Assertions.assertEquals(c.state, pc.getState());
+            Assertions.assertArrayEquals(c.key, pc.getKey().getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals(0, pc.getValue().size());
+        }
     }
 
     static void compare2(WatchNotify expect, WatchNotify parseResult) {
@@ -66,5 +83,19 @@ class WatchNotifyTest {
         Assertions.assertEquals(expect.state, parseResult.state);
         Assertions.assertArrayEquals(expect.key, parseResult.key);
         Assertions.assertArrayEquals(expect.value, parseResult.value);
+        if (expect.changes == null) {
+            Assertions.assertNull(parseResult.changes);
+            return;
+        }
+        Assertions.assertEquals(expect.changes.size(), parseResult.changes.size());
+        for (int i = 0; i < expect.changes.size(); i++) {
+            WatchNotify c = expect.changes.get(i);
+            WatchNotify pc = parseResult.changes.get(i);
+            Assertions.assertEquals(c.raftIndex, pc.raftIndex);
+            Assertions.assertEquals(c.state, pc.state);
+            Assertions.assertArrayEquals(c.key, pc.key);
+            Assertions.assertNull(pc.value);
+            Assertions.assertNull(pc.changes);
+        }
     }
 }
@@ -30,6 +30,7 @@ public class AdminAddGroupReqTest {
         req.groupId = 1;
         req.nodeIdOfMembers = "1,2,3";
         req.nodeIdOfObservers = "4,5";
+        req.nodeIdOfWitnesses = "3";
 
         ByteBuffer buf = CodecTestUtil.simpleEncode(req);
         DtRaftServer.AdminAddGroupReq protoReq = DtRaftServer.AdminAddGroupReq.parseFrom(buf);
@@ -43,11 +44,13 @@ public class AdminAddGroupReqTest {
         Assertions.assertEquals(expect.groupId, proto.getGroupId());
         Assertions.assertEquals(expect.nodeIdOfMembers, proto.getNodeIdOfMembers());
         Assertions.assertEquals(expect.nodeIdOfObservers, proto.getNodeIdOfObservers());
+        Assertions.assertEquals(expect.nodeIdOfWitnesses, proto.getNodeIdOfWitnesses());
     }
 
     private void compare(AdminAddGroupReq expect, AdminAddGroupReq result) {
         Assertions.assertEquals(expect.groupId, result.groupId);
         Assertions.assertEquals(expect.nodeIdOfMembers, result.nodeIdOfMembers);
         Assertions.assertEquals(expect.nodeIdOfObservers, result.nodeIdOfObservers);
+        Assertions.assertEquals(expect.nodeIdOfWitnesses, result.nodeIdOfWitnesses);
     }
 }
@@ -40,6 +40,7 @@ public class AdminPrepareConfigChangeReqTest {
         req.preparedMembers.add(6);
         req.preparedObservers = new HashSet<>();
         req.preparedObservers.add(7);
+        req.snapshotSourceId = -1;
 
         ByteBuffer buf = CodecTestUtil.simpleEncode(req);
         DtRaftServer.AdminPrepareConfigChangeReq protoReq = DtRaftServer.AdminPrepareConfigChangeReq.parseFrom(buf);
@@ -51,6 +52,7 @@ public class AdminPrepareConfigChangeReqTest {
 
     private void compare(AdminPrepareConfigChangeReq expect, DtRaftServer.AdminPrepareConfigChangeReq proto) {
         Assertions.assertEquals(expect.groupId, proto.getGroupId());
+        Assertions.assertEquals(expect.snapshotSourceId, proto.getSnapshotSource());
         if (expect.members != null) {
             Assertions.assertEquals(expect.members.size(), proto.getMembersCount());
             for (Integer m : expect.members) {
@@ -67,6 +69,7 @@ public class AdminPrepareConfigChangeReqTest {
 
     private void compare(AdminPrepareConfigChangeReq expect, AdminPrepareConfigChangeReq result) {
         Assertions.assertEquals(expect.groupId, result.groupId);
+        Assertions.assertEquals(expect.snapshotSourceId, result.snapshotSourceId);
         if (expect.members != null) {
             Assertions.assertEquals(expect.members, result.members);
         }
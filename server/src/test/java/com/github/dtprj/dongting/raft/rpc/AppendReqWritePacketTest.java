@@ -21,6 +21,7 @@ import com.github.dtprj.dongting.codec.Encodable;
 import com.github.dtprj.dongting.codec.EncodeContext;
 import com.github.dtprj.dongting.codec.PbParser;
 import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
 import com.github.dtprj.dongting.raft.server.LogItem;
 import com.github.dtprj.dongting.raft.sm.RaftCodecFactory;
 import com.github.dtprj.dongting.util.CodecTestUtil;
@@ -83,13 +84,45 @@ public class AppendReqWritePacketTest {
     @Test
     public void testSmallBufferEncode() {
         for (int i = 0; i < 100; i++) {
-            testSmallBufferEncode0(true, true);
-            testSmallBufferEncode0(false, false);
+            testSmallBufferEncode0(createFrame(true, true));
+            testSmallBufferEncode0(createFrame(false, false));
+            testSmallBufferEncode0(createCompressedFrame());
         }
     }
 
-    private void testSmallBufferEncode0(boolean addHeader, boolean addBody) {
-        AppendReqWritePacket f = createFrame(addHeader, addBody);
+    @Test
+    public void testEncodeCompressed() {
+        AppendReqWritePacket f = createCompressedFrame();
+        ByteBuffer buf = ByteBuffer.allocate(f.actualBodySize());
+        Assertions.assertTrue(f.encodeBody(new EncodeContext(null), buf));
+        assertEquals(buf.position(), f.actualBodySize());
+        assertTrue(f.actualBodySize() < 1000);
+
+        buf.clear();
+        AppendReq.Callback c = new AppendReq.Callback(g -> raftCodecFactory);
+        PbParser p = new PbParser();
+        p.prepareNext(CodecTestUtil.decodeContext(), c, f.actualBodySize());
+        AppendReq result = (AppendReq) p.parse(buf);
+
+        check(f, result);
+        for (LogItem li : result.logs) {
+            assertNotNull(li.getCompressedBody());
+            assertEquals(1000, li.getActualBodySize());
+        }
+    }
+
+    private AppendReqWritePacket createCompressedFrame() {
+        AppendReqWritePacket f = createFrame(true, false);
+        for (LogItem li : f.logs) {
+            // compressible body
+            li.setBody(new ByteArray(new byte[1000]));
+            LogCompressor.compressIfNecessary(li, LogCompressor.COMPRESS_DEFLATE, 100, new EncodeContext(null));
+            assertNotNull(li.getCompressedBody());
+        }
+        return f;
+    }
+
+    private void testSmallBufferEncode0(AppendReqWritePacket f) {
         EncodeContext context = new EncodeContext(null);
         DecodeContext decodeContext = CodecTestUtil.decodeContext();
         AppendReq.Callback c = new AppendReq.Callback(g -> raftCodecFactory);
@@ -123,6 +156,7 @@ public class AppendReqWritePacketTest {
         f.prevLogIndex = 100;
         f.prevLogTerm = 3;
         f.leaderCommit = 99;
+        f.witnessDeleteBound = 98;
         ArrayList<LogItem> logs = new ArrayList<>();
         f.logs = logs;
         for (int i = 0; i < 2; i++) {
@@ -150,6 +184,7 @@ public class AppendReqWritePacketTest {
         assertEquals(f.prevLogIndex, c.prevLogIndex);
         assertEquals(f.prevLogTerm, c.prevLogTerm);
         assertEquals(f.leaderCommit, c.leaderCommit);
+        assertEquals(f.witnessDeleteBound, c.witnessDeleteBound);
         assertEquals(f.logs.size(), c.logs.size());
         for (int i = 0; i < f.logs.size(); i++) {
             LogItem l1 = f.logs.get(i);
@@ -33,6 +33,7 @@ public class AppendRespTest {
         resp.appendCode = 0;
         resp.suggestTerm = 11;
         resp.suggestIndex = 200;
+        resp.installOffset = 300;
 
         ByteBuffer buf = CodecTestUtil.simpleEncode(resp);
         DtRaftServer.AppendEntriesResp protoResp = DtRaftServer.AppendEntriesResp.parseFrom(buf);
@@ -49,6 +50,7 @@ public class AppendRespTest {
         Assertions.assertEquals(expect.appendCode, proto.getAppendCode());
         Assertions.assertEquals(expect.suggestTerm, proto.getSuggestTerm());
         Assertions.assertEquals(expect.suggestIndex, proto.getSuggestIndex());
+        Assertions.assertEquals(expect.installOffset, proto.getInstallOffset());
     }
 
     private void compare(AppendResp expect, AppendResp result) {
@@ -57,5 +59,6 @@ public class AppendRespTest {
         Assertions.assertEquals(expect.appendCode, result.appendCode);
         Assertions.assertEquals(expect.suggestTerm, result.suggestTerm);
         Assertions.assertEquals(expect.suggestIndex, result.suggestIndex);
+        Assertions.assertEquals(expect.installOffset, result.installOffset);
     }
 }
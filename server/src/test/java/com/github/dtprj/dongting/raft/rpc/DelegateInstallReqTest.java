@@ -0,0 +1,48 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.rpc;
+
+import com.github.dtprj.dongting.raft.impl.DtRaftServer;
+import com.github.dtprj.dongting.util.CodecTestUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class DelegateInstallReqTest {
+
+    @Test
+    public void testFullBuffer() throws Exception {
+        DelegateInstallReq req = new DelegateInstallReq();
+        req.groupId = 1;
+        req.term = 10;
+        req.leaderId = 2;
+        req.targetNodeId = 4;
+
+        ByteBuffer buf = CodecTestUtil.simpleEncode(req);
+        DtRaftServer.DelegateInstallReq protoReq = DtRaftServer.DelegateInstallReq.parseFrom(buf);
+        Assertions.assertEquals(req.groupId, protoReq.getGroupId());
+        Assertions.assertEquals(req.term, protoReq.getTerm());
+        Assertions.assertEquals(req.leaderId, protoReq.getLeaderId());
+        Assertions.assertEquals(req.targetNodeId, protoReq.getTargetNodeId());
+
+        DelegateInstallReq result = CodecTestUtil.fullBufferDecode(buf, new DelegateInstallReq.Callback());
+        Assertions.assertEquals(req.groupId, result.groupId);
+        Assertions.assertEquals(req.term, result.term);
+        Assertions.assertEquals(req.leaderId, result.leaderId);
+        Assertions.assertEquals(req.targetNodeId, result.targetNodeId);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.github.dtprj.dongting.raft.rpc;
 
+import com.github.dtprj.dongting.buf.RefBuffer;
+import com.github.dtprj.dongting.codec.EncodeContext;
 import com.github.dtprj.dongting.raft.impl.DtRaftServer;
 import com.github.dtprj.dongting.util.CodecTestUtil;
 import org.junit.jupiter.api.Assertions;
@@ -22,6 +24,7 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
 import java.util.HashSet;
+import java.util.Random;
 
 public class InstallSnapshotReqTest {
 
@@ -37,6 +40,29 @@ public class InstallSnapshotReqTest {
         compare(req, result);
     }
 
+    @Test
+    public void testEncodeDataToSmallBuffer() throws Exception {
+        InstallSnapshotReq req = buildReq();
+        byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+        req.data = RefBuffer.wrap(ByteBuffer.wrap(data));
+        InstallSnapshotReq.InstallReqWritePacket p = new InstallSnapshotReq.InstallReqWritePacket(req);
+        EncodeContext c = CodecTestUtil.encodeContext();
+        ByteBuffer all = ByteBuffer.allocate(2000);
+        boolean finish = false;
+        while (!finish) {
+            // the dest buffer is smaller than data
+            ByteBuffer dest = ByteBuffer.allocate(100);
+            finish = p.encodeBody(c, dest);
+            dest.flip();
+            all.put(dest);
+        }
+        all.flip();
+        DtRaftServer.InstallSnapshotReq protoReq = DtRaftServer.InstallSnapshotReq.parseFrom(all);
+        Assertions.assertEquals(req.offset, protoReq.getOffset());
+        Assertions.assertArrayEquals(data, protoReq.getData().toByteArray());
+    }
+
     private InstallSnapshotReq buildReq() {
         InstallSnapshotReq req = new InstallSnapshotReq();
         req.groupId = 1;
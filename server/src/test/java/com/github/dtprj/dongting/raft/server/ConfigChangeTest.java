@@ -16,27 +16,50 @@
 package com.github.dtprj.dongting.raft.server;
 
 import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.raft.QueryStatusResp;
 import com.github.dtprj.dongting.raft.admin.AdminRaftClient;
+import com.github.dtprj.dongting.raft.sm.Snapshot;
+import com.github.dtprj.dongting.raft.sm.SnapshotInfo;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
 import com.github.dtprj.dongting.raft.test.TestUtil;
 import com.github.dtprj.dongting.test.WaitUtil;
 import org.junit.jupiter.api.Test;
 
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author huangli
  */
 public class ConfigChangeTest extends ServerTestBase {
 
+    private final ConcurrentHashMap<Integer, AtomicInteger> takeSnapshotCount = new ConcurrentHashMap<>();
+
     public ConfigChangeTest() {
         super(false);
     }
 
+    @Override
+    protected StateMachine createStateMachine(int nodeId, RaftGroupConfigEx groupConfig, KvServerConfig config) {
+        AtomicInteger count = takeSnapshotCount.computeIfAbsent(nodeId, k -> new AtomicInteger());
+        return new DtKV(groupConfig, config) {
+            @Override
+            public FiberFuture<Snapshot> takeSnapshot(SnapshotInfo si) {
+                count.incrementAndGet();
+                return super.takeSnapshot(si);
+            }
+        };
+    }
+
     @Test
     void test() throws Exception {
         ServerInfo s2 = null, s3 = null, s4 = null;
@@ -122,4 +145,63 @@ public class ConfigChangeTest extends ServerTestBase {
             waitStop(s4);
         }
     }
+
+    @Test
+    void testInstallSnapshotFromFollower() throws Exception {
+        ServerInfo s2 = null, s3 = null, s4 = null;
+        AdminRaftClient adminClient = new AdminRaftClient();
+        try {
+            DtTime timeout = new DtTime(10, TimeUnit.SECONDS);
+            String servers = "2,127.0.0.1:14402;3,127.0.0.1:14403";
+            String members = "2,3";
+            s2 = createServer(2, servers, members, "");
+            s3 = createServer(3, servers, members, "");
+            waitStart(s2);
+            waitStart(s3);
+
+            adminClient.start();
+            adminClient.clientAddNode(servers);
+            adminClient.clientAddOrUpdateGroup(groupId, new int[]{2, 3});
+            int leaderId = adminClient.fetchLeader(groupId).get(2, TimeUnit.SECONDS).nodeId;
+            int followerId = leaderId == 2 ? 3 : 2;
+
+            CompletableFuture<Void> f1 = adminClient.serverAddNode(2, 4, "127.0.0.1", 14404);
+            CompletableFuture<Void> f2 = adminClient.serverAddNode(3, 4, "127.0.0.1", 14404);
+            f1.get(5, TimeUnit.SECONDS);
+            f2.get(5, TimeUnit.SECONDS);
+
+            // the new node install snapshot from the follower
+            CompletableFuture<Long> f = adminClient.prepareChange(groupId, Set.of(2, 3), Set.of(),
+                    Set.of(2, 3, 4), Set.of(), followerId, timeout);
+            long prepareIndex = f.get(5, TimeUnit.SECONDS);
+            f = adminClient.commitChange(groupId, prepareIndex, timeout);
+            long commitIndex = f.get(5, TimeUnit.SECONDS);
+
+            // the snapshot source is saved with the prepared config, and survives the leader change
+            adminClient.transferLeader(groupId, leaderId, followerId, timeout).get(5, TimeUnit.SECONDS);
+            adminClient.transferLeader(groupId, followerId, leaderId, timeout).get(5, TimeUnit.SECONDS);
+
+            s4 = createServer(4, "2,127.0.0.1:14402;3,127.0.0.1:14403;4,127.0.0.1:14404", "2,3,4", "");
+            waitStart(s4);
+
+            // the leader replicates the logs after the snapshot
+            ServerInfo finalS4 = s4;
+            WaitUtil.waitUtil(() -> finalS4.gc.raftStatus.getLastApplied() >= commitIndex, finalS4.gc.fiberGroup.getExecutor());
+
+            // only the source takes snapshot, whichever node is the leader. if the leader is changed again when
+            // the new node is installing, the source may be delegated again, or install it as the new leader
+            assertTrue(takeSnapshotCount.get(followerId).get() >= 1);
+            assertEquals(0, takeSnapshotCount.get(leaderId).get());
+
+            // the source only installs the new members, it's cleared in the leader after they caught up
+            int currentLeaderId = adminClient.fetchLeader(groupId).get(2, TimeUnit.SECONDS).nodeId;
+            ServerInfo leader = currentLeaderId == 2 ? s2 : s3;
+            WaitUtil.waitUtil(0, () -> leader.gc.raftStatus.installSourceId, leader.gc.fiberGroup.getExecutor());
+        } finally {
+            TestUtil.stop(adminClient);
+            waitStop(s2);
+            waitStop(s3);
+            waitStop(s4);
+        }
+    }
 }
@@ -15,24 +15,39 @@
  */
 package com.github.dtprj.dongting.raft.server;
 
+import com.github.dtprj.dongting.codec.DecoderCallbackCreator;
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.common.DtUtil;
 import com.github.dtprj.dongting.common.FutureCallback;
 import com.github.dtprj.dongting.dtkv.DistributedLock;
 import com.github.dtprj.dongting.dtkv.KvClient;
 import com.github.dtprj.dongting.dtkv.KvClientConfig;
 import com.github.dtprj.dongting.dtkv.KvCodes;
 import com.github.dtprj.dongting.dtkv.KvNode;
+import com.github.dtprj.dongting.dtkv.KvReq;
+import com.github.dtprj.dongting.dtkv.KvResp;
 import com.github.dtprj.dongting.dtkv.KvResult;
 import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.net.CmdCodes;
+import com.github.dtprj.dongting.net.Commands;
+import com.github.dtprj.dongting.net.EncodableBodyWritePacket;
+import com.github.dtprj.dongting.net.HostPort;
+import com.github.dtprj.dongting.net.NetCodeException;
+import com.github.dtprj.dongting.net.NetException;
+import com.github.dtprj.dongting.net.NioClient;
 import com.github.dtprj.dongting.net.NioClientConfig;
+import com.github.dtprj.dongting.net.ReadPacket;
 import com.github.dtprj.dongting.raft.RaftClientConfig;
 import com.github.dtprj.dongting.raft.test.MockExecutors;
 import com.github.dtprj.dongting.raft.test.TestUtil;
 import com.github.dtprj.dongting.test.WaitUtil;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -48,6 +63,7 @@ public class DtKVServerTest extends ServerTestBase {
 
     private boolean useSepExecutor;
     private boolean readInDtKvExecutor;
+    private boolean forwardWriteToLeader;
 
     @Override
     protected void config(KvServerConfig config) {
@@ -55,6 +71,7 @@ public class DtKVServerTest extends ServerTestBase {
         config.watchDispatchIntervalMillis = 0;
         config.useSeparateExecutor = this.useSepExecutor;
         config.readInDtKvExecutor = this.readInDtKvExecutor;
+        config.forwardWriteToLeader = this.forwardWriteToLeader;
     }
 
     @Override
@@ -135,6 +152,88 @@ public class DtKVServerTest extends ServerTestBase {
         }
     }
 
+    @Test
+    public void testForwardWriteToLeader() throws Exception {
+        this.forwardWriteToLeader = true;
+        ServerInfo s1 = null, s2 = null, s3 = null;
+        KvClient client = new KvClient();
+        NioClient followerClient = null;
+        NioClient fakeNodeClient = null;
+
+        String repServers = "1,127.0.0.1:14401;2,127.0.0.1:14402;3,127.0.0.1:14403";
+        String servServers = "1,127.0.0.1:15501;2,127.0.0.1:15502;3,127.0.0.1:15503";
+        try {
+            s1 = createServer(1, repServers, "1,2,3", "");
+            s2 = createServer(2, repServers, "1,2,3", "");
+            s3 = createServer(3, repServers, "1,2,3", "");
+            waitStart(s1);
+            waitStart(s2);
+            waitStart(s3);
+            ServerInfo leader = waitLeaderElectAndGetLeaderId(groupId, s1, s2, s3);
+            int followerId = leader.nodeId == 1 ? 2 : 1;
+
+            // send write requests to follower directly
+            NioClientConfig nc = new NioClientConfig();
+            nc.hostPorts = Collections.singletonList(new HostPort("127.0.0.1", 15500 + followerId));
+            followerClient = new NioClient(nc);
+            followerClient.start();
+            followerClient.waitStart(new DtTime(5, TimeUnit.SECONDS));
+            DecoderCallbackCreator<KvResp> decoder = ctx -> ctx.toDecoderCallback(new KvResp.Callback());
+
+            KvReq req = new KvReq(groupId, "forwardKey".getBytes(), "forwardValue".getBytes());
+            ReadPacket<KvResp> resp = followerClient.sendRequest(new EncodableBodyWritePacket(Commands.DTKV_PUT, req),
+                    decoder, new DtTime(5, TimeUnit.SECONDS));
+            assertEquals(KvCodes.SUCCESS, resp.bizCode);
+            assertTrue(resp.getBody().raftIndex > 0);
+
+            req = new KvReq(groupId, "forwardKey".getBytes(), "forwardValue2".getBytes(), "forwardValue".getBytes());
+            resp = followerClient.sendRequest(new EncodableBodyWritePacket(Commands.DTKV_CAS, req),
+                    decoder, new DtTime(5, TimeUnit.SECONDS));
+            assertEquals(KvCodes.SUCCESS, resp.bizCode);
+
+            client.start();
+            client.getRaftClient().clientAddNode(servServers);
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1, 2, 3});
+            assertEquals("forwardValue2", new String(client.get(groupId, "forwardKey".getBytes()).data));
+
+            // lock commands are not forwarded
+            req = new KvReq(groupId, "forwardLock".getBytes(), null);
+            try {
+                followerClient.sendRequest(new EncodableBodyWritePacket(Commands.DTKV_UNLOCK, req),
+                        decoder, new DtTime(5, TimeUnit.SECONDS));
+                fail();
+            } catch (NetException e) {
+                NetCodeException root = (NetCodeException) DtUtil.rootCause(e);
+                assertEquals(CmdCodes.NOT_RAFT_LEADER, root.getCode());
+            }
+
+            // the replicate port only accepts forwarded writes from other raft nodes
+            nc = new NioClientConfig();
+            nc.hostPorts = Collections.singletonList(new HostPort("127.0.0.1", 14400 + leader.nodeId));
+            fakeNodeClient = new NioClient(nc);
+            fakeNodeClient.start();
+            fakeNodeClient.waitStart(new DtTime(5, TimeUnit.SECONDS));
+            req = new KvReq(groupId, "forwardKey".getBytes(), "fakeValue".getBytes());
+            try {
+                fakeNodeClient.sendRequest(new EncodableBodyWritePacket(Commands.DTKV_PUT, req),
+                        decoder, new DtTime(5, TimeUnit.SECONDS));
+                fail();
+            } catch (NetException e) {
+                NetCodeException root = (NetCodeException) DtUtil.rootCause(e);
+                assertEquals(CmdCodes.COMMAND_NOT_SUPPORT, root.getCode());
+            }
+            assertEquals("forwardValue2", new String(client.get(groupId, "forwardKey".getBytes()).data));
+        } finally {
+            TestUtil.stop(fakeNodeClient);
+            TestUtil.stop(followerClient);
+            TestUtil.stop(client);
+            waitStop(s1);
+            waitStop(s2);
+            waitStop(s3);
+            forwardWriteToLeader = false;
+        }
+    }
+
     private void testSimple(KvClient client) {
         client.mkdir(groupId, "dir1".getBytes());
         client.put(groupId, "dir1.k1".getBytes(), "v1".getBytes());
@@ -18,8 +18,15 @@ package com.github.dtprj.dongting.raft.server;
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.dtkv.KvClient;
 import com.github.dtprj.dongting.dtkv.KvNode;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FiberGroup;
+import com.github.dtprj.dongting.net.NioClient;
+import com.github.dtprj.dongting.net.Peer;
 import com.github.dtprj.dongting.raft.admin.AdminRaftClient;
 import com.github.dtprj.dongting.raft.impl.RaftGroupImpl;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
 import com.github.dtprj.dongting.raft.test.TestUtil;
 import com.github.dtprj.dongting.test.WaitUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -27,14 +34,18 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -42,6 +53,9 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  */
 public class InstallTest extends ServerTestBase {
 
+    private int replicateSnapshotBufferSize;
+    private StallInstallDtKV stallKv;
+
     @BeforeEach
     public void beforeEach() {
         this.idxCacheSize = 4;
@@ -49,6 +63,8 @@ public class InstallTest extends ServerTestBase {
         this.idxItemsPerFile = 8;
         this.logFileSize = 1024;
         this.electTimeout = 50;
+        this.replicateSnapshotBufferSize = 64 * 1024;
+        this.stallKv = null;
     }
 
     @Override
@@ -56,6 +72,52 @@ public class InstallTest extends ServerTestBase {
         config.autoDeleteLogDelaySeconds = 0;
         config.maxKeepSnapshots = 1;
         config.saveSnapshotWhenClose = false;
+        config.replicateSnapshotBufferSize = replicateSnapshotBufferSize;
+    }
+
+    @Override
+    protected StateMachine createStateMachine(int nodeId, RaftGroupConfigEx groupConfig, KvServerConfig config) {
+        if (nodeId == 3 && stallKv == null && replicateSnapshotBufferSize < 64 * 1024) {
+            stallKv = new StallInstallDtKV(groupConfig, config);
+            return stallKv;
+        }
+        return super.createStateMachine(nodeId, groupConfig, config);
+    }
+
+    /**
+     * delay the ack of install snapshot chunks after stallOffset, until the gate is opened.
+     */
+    private static class StallInstallDtKV extends DtKV {
+        private final long stallOffset = 4 * 1024;
+        private final CompletableFuture<Void> gate = new CompletableFuture<>();
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private final AtomicInteger newInstallCount = new AtomicInteger();
+
+        StallInstallDtKV(RaftGroupConfigEx groupConfig, KvServerConfig config) {
+            super(groupConfig, config);
+        }
+
+        @Override
+        public FiberFuture<Void> installSnapshot(long lastIncludeIndex, int lastIncludeTerm, long offset,
+                                                 boolean done, ByteBuffer data) {
+            if (offset == 0) {
+                newInstallCount.incrementAndGet();
+            }
+            FiberFuture<Void> f = super.installSnapshot(lastIncludeIndex, lastIncludeTerm, offset, done, data);
+            if (offset < stallOffset || gate.isDone()) {
+                return f;
+            }
+            stalled.countDown();
+            FiberFuture<Void> delayed = FiberGroup.currentGroup().newFuture("stallInstall");
+            f.registerCallback((v, ex) -> gate.whenComplete((v2, ex2) -> {
+                if (ex == null) {
+                    delayed.fireComplete(null);
+                } else {
+                    delayed.fireCompleteExceptionally(ex);
+                }
+            }));
+            return delayed;
+        }
     }
 
     @ParameterizedTest
@@ -175,6 +237,75 @@ public class InstallTest extends ServerTestBase {
         }
     }
 
+    @Test
+    void testResumeInstall() throws Exception {
+        // small chunks, so the install has many requests in flight
+        this.replicateSnapshotBufferSize = 1024;
+        AdminRaftClient adminClient = new AdminRaftClient();
+        KvClient client = new KvClient();
+        ServerInfo s1 = null, s2 = null, s3 = null;
+        try {
+            String servers = "1,127.0.0.1:14401;2,127.0.0.1:14402;3,127.0.0.1:14403";
+            String members = "1,2,3";
+            String observers = "";
+            s1 = createServer(1, servers, members, observers);
+            s2 = createServer(2, servers, members, observers);
+
+            waitStart(s1);
+            waitStart(s2);
+            ServerInfo leader = waitLeaderElectAndGetLeaderId(groupId, s1, s2);
+
+            client.start();
+            client.getRaftClient().clientAddNode("1,127.0.0.1:15501;2,127.0.0.1:15502;3,127.0.0.1:15503");
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1, 2, 3});
+
+            HashMap<String, byte[]> expectMap = new HashMap<>();
+            long raftIndex1 = putValues(groupId, client, "beforeInstallKey", 20, 400, expectMap);
+
+            // transfer leader make nextIndex to lastLogIndex + 1, then trigger install
+            DtTime timeout = new DtTime(5, TimeUnit.SECONDS);
+            adminClient.start();
+            adminClient.clientAddNode(servers);
+            adminClient.clientAddOrUpdateGroup(groupId, new int[]{1, 2, 3});
+            adminClient.transferLeader(groupId, leader.nodeId, leader.nodeId == 1 ? 2 : 1, timeout).get(5, TimeUnit.SECONDS);
+            leader = leader == s1 ? s2 : s1;
+
+            // not wait start, the group of server 3 is not ready until install finished
+            s3 = createServer(3, servers, members, observers);
+            StallInstallDtKV kv = stallKv;
+            assertTrue(kv.stalled.await(5, TimeUnit.SECONDS));
+
+            // break the connection while some chunks are not acked, then let the follower go on
+            NioClient nc = leader.raftServer.getReplicateNioClient();
+            for (Peer peer : nc.getPeers()) {
+                if (peer.endPoint.getPort() == 14403) {
+                    nc.disconnect(peer).get(5, TimeUnit.SECONDS);
+                }
+            }
+            kv.gate.complete(null);
+
+            RaftGroupImpl g3 = (RaftGroupImpl) s3.raftServer.getRaftGroup(groupId);
+            WaitUtil.waitUtil(() -> g3.groupComponents.raftStatus.getLastApplied() >= raftIndex1,
+                    g3.groupComponents.raftStatus.fiberGroup.getExecutor());
+            // resumed from the offset of follower, not started again from offset 0
+            assertEquals(1, kv.newInstallCount.get());
+
+            // put after install
+            long raftIndex2 = putValues(groupId, client, "afterInstallKey", 5, 400, expectMap);
+            WaitUtil.waitUtil(() -> g3.groupComponents.raftStatus.getLastApplied() >= raftIndex2,
+                    g3.groupComponents.raftStatus.fiberGroup.getExecutor());
+
+            adminClient.transferLeader(groupId, leader.nodeId, 3, timeout).get(5, TimeUnit.SECONDS);
+            check(groupId, client, expectMap);
+        } finally {
+            TestUtil.stop(adminClient);
+            TestUtil.stop(client);
+            waitStop(s1);
+            waitStop(s2);
+            waitStop(s3);
+        }
+    }
+
     @Test
     void testTruncateAndInstall() throws Exception {
         AdminRaftClient adminClient = new AdminRaftClient();
@@ -0,0 +1,204 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.server;
+
+import com.github.dtprj.dongting.common.FutureCallback;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.KvNode;
+import com.github.dtprj.dongting.dtkv.KvReq;
+import com.github.dtprj.dongting.dtkv.LogTailConsumer;
+import com.github.dtprj.dongting.raft.LogFetchResp;
+import com.github.dtprj.dongting.raft.LogRecord;
+import com.github.dtprj.dongting.raft.RaftClient;
+import com.github.dtprj.dongting.raft.test.TestUtil;
+import com.github.dtprj.dongting.test.WaitUtil;
+import com.github.dtprj.dongting.util.CodecTestUtil;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author huangli
+ */
+public class LogTailTest extends ServerTestBase {
+
+    @Override
+    protected void config(RaftGroupConfig config) {
+        super.config(config);
+        // so the early logs are read from log file
+        config.maxCacheTasks = 2;
+    }
+
+    private static KvReq decode(LogRecord r) {
+        return CodecTestUtil.fullBufferDecode(ByteBuffer.wrap(r.body), new KvReq.KvReqCallback());
+    }
+
+    private static List<String> msgKeys(List<LogRecord> records) {
+        ArrayList<String> list = new ArrayList<>();
+        for (LogRecord r : records) {
+            KvReq req = decode(r);
+            String key = new String(req.key, StandardCharsets.UTF_8);
+            if (key.startsWith("msg")) {
+                assertArrayEquals(("value_" + key).getBytes(), req.value);
+                list.add(key);
+            }
+        }
+        return list;
+    }
+
+    private void put(KvClient client, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            String key = "msg" + i;
+            client.put(groupId, key.getBytes(), ("value_" + key).getBytes());
+        }
+    }
+
+    private LogFetchResp fetch(RaftClient c, long fromIndex, int maxItems, int waitMillis) throws Exception {
+        CompletableFuture<LogFetchResp> f = new CompletableFuture<>();
+        c.fetchLog(groupId, fromIndex, maxItems, 1024 * 1024, waitMillis, FutureCallback.fromFuture(f));
+        return f.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testFetch() throws Exception {
+        ServerInfo s1 = null;
+        KvClient client = new KvClient();
+        try {
+            s1 = createServer(1, "1, 127.0.0.1:14401", "1", "");
+            waitStart(s1);
+            client.start();
+            client.getRaftClient().clientAddNode("1, 127.0.0.1:15501");
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1});
+            RaftClient rc = client.getRaftClient();
+
+            put(client, 0, 10);
+            LogFetchResp resp = fetch(rc, 1, 1000, 0);
+            List<String> keys = msgKeys(resp.records);
+            assertEquals(10, keys.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("msg" + i, keys.get(i));
+            }
+            assertTrue(resp.nextIndex <= resp.commitIndex + 1);
+            LogRecord last = resp.records.get(resp.records.size() - 1);
+            assertTrue(last.timestamp > 0);
+            assertTrue(last.term > 0);
+
+            // credit limit
+            LogFetchResp resp2 = fetch(rc, resp.records.get(0).index, 3, 0);
+            assertEquals(3, resp2.records.size());
+            assertEquals(resp.records.get(2).index + 1, resp2.nextIndex);
+
+            // no new log, return empty result after wait
+            LogFetchResp resp3 = fetch(rc, resp.nextIndex, 1000, 10);
+            assertTrue(resp3.records.isEmpty());
+            // internal logs such as heartbeat are skipped
+            assertTrue(resp3.nextIndex >= resp.nextIndex);
+
+            // the server holds the fetch until new log committed
+            CompletableFuture<LogFetchResp> f = new CompletableFuture<>();
+            rc.fetchLog(groupId, resp3.nextIndex, 1000, 1024 * 1024, 5000, FutureCallback.fromFuture(f));
+            Thread.sleep(10);
+            assertFalse(f.isDone());
+            put(client, 10, 1);
+            LogFetchResp resp4 = f.get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("msg10"), msgKeys(resp4.records));
+
+            // invalid index
+            CompletableFuture<LogFetchResp> f2 = new CompletableFuture<>();
+            rc.fetchLog(groupId, 0, 1000, 1024 * 1024, 0, FutureCallback.fromFuture(f2));
+            assertThrows(Exception.class, () -> f2.get(5, TimeUnit.SECONDS));
+        } finally {
+            TestUtil.stop(client);
+            waitStop(s1);
+        }
+    }
+
+    @Test
+    void testConsumer() throws Exception {
+        ServerInfo s1 = null;
+        KvClient client = new KvClient();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            s1 = createServer(1, "1, 127.0.0.1:14401", "1", "");
+            waitStart(s1);
+            client.start();
+            client.getRaftClient().clientAddNode("1, 127.0.0.1:15501");
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1});
+            client.mkdir(groupId, "mq".getBytes());
+
+            ConcurrentLinkedQueue<String> received = new ConcurrentLinkedQueue<>();
+            LogTailConsumer c1 = client.createLogTailConsumer(groupId, groupId, "mq.c1".getBytes(),
+                    records -> received.addAll(msgKeys(records)), executor);
+            assertEquals(1L, c1.start(1).get(5, TimeUnit.SECONDS));
+            put(client, 0, 20);
+            WaitUtil.waitUtil(() -> received.size() == 20);
+            assertEquals(20, received.size());
+            int i = 0;
+            for (String k : received) {
+                assertEquals("msg" + i++, k);
+            }
+            c1.stop();
+            long consumed = c1.getConsumedIndex();
+            KvNode n = client.get(groupId, "mq.c1".getBytes());
+            assertEquals(consumed, Long.parseLong(new String(n.data)));
+
+            // continue from the saved position
+            received.clear();
+            LogTailConsumer c2 = client.createLogTailConsumer(groupId, groupId, "mq.c1".getBytes(),
+                    records -> received.addAll(msgKeys(records)), executor);
+            assertEquals(consumed, c2.start(1).get(5, TimeUnit.SECONDS));
+            put(client, 20, 5);
+            WaitUtil.waitUtil(() -> received.size() == 5);
+            i = 20;
+            for (String k : received) {
+                assertEquals("msg" + i++, k);
+            }
+            c2.stop();
+
+            // the batch is delivered again if the listener fails, the position is not moved
+            received.clear();
+            AtomicInteger failCount = new AtomicInteger();
+            LogTailConsumer c3 = client.createLogTailConsumer(groupId, groupId, "mq.c3".getBytes(), records -> {
+                List<String> keys = msgKeys(records);
+                if (keys.contains("msg25") && failCount.getAndIncrement() == 0) {
+                    throw new RuntimeException("mock listener error");
+                }
+                received.addAll(keys);
+            }, executor);
+            c3.start(c2.getConsumedIndex());
+            put(client, 25, 1);
+            WaitUtil.waitUtil(() -> received.contains("msg25"));
+            assertEquals(2, failCount.get());
+            assertEquals(List.of("msg25"), new ArrayList<>(received));
+            c3.stop();
+        } finally {
+            executor.shutdown();
+            TestUtil.stop(client);
+            waitStop(s1);
+        }
+    }
+}
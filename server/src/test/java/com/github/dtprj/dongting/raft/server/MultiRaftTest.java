@@ -18,22 +18,49 @@ package com.github.dtprj.dongting.raft.server;
 import com.github.dtprj.dongting.common.DtTime;
 import com.github.dtprj.dongting.dtkv.KvClient;
 import com.github.dtprj.dongting.dtkv.KvNode;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.dtkv.server.KvServerConfig;
 import com.github.dtprj.dongting.raft.RaftNode;
 import com.github.dtprj.dongting.raft.admin.AdminRaftClient;
+import com.github.dtprj.dongting.raft.sm.StateMachine;
 import com.github.dtprj.dongting.raft.test.TestUtil;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * @author huangli
  */
 public class MultiRaftTest extends ServerTestBase {
 
+    private int slowGroupId;
+    private CountDownLatch slowGroupLatch;
+
+    @Override
+    protected StateMachine createStateMachine(int nodeId, RaftGroupConfigEx groupConfig, KvServerConfig config) {
+        if (groupConfig.groupId != slowGroupId) {
+            return super.createStateMachine(nodeId, groupConfig, config);
+        }
+        return new DtKV(groupConfig, config) {
+            @Override
+            protected void doStart() {
+                // simulate a group takes long time to restore, it blocks the raft thread of this group only
+                try {
+                    slowGroupLatch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.doStart();
+            }
+        };
+    }
+
     @Test
     void test() throws Exception {
         AdminRaftClient adminClient = new AdminRaftClient();
@@ -97,5 +124,40 @@ public class MultiRaftTest extends ServerTestBase {
             waitStop(s2);
         }
     }
-}
 
+    @Test
+    void testServeBeforeOtherGroupRestored() throws Exception {
+        KvClient client = new KvClient();
+        int groupId2 = groupId + 1;
+        slowGroupId = groupId2;
+        slowGroupLatch = new CountDownLatch(1);
+        extraGroupIds = new int[]{groupId2};
+        ServerInfo s1 = null;
+        try {
+            s1 = createServer(1, "1,127.0.0.1:14401", "1", "");
+            waitLeaderElectAndGetLeaderId(groupId, s1);
+            s1.group.groupComponents.raftStatus.firstReadyFuture.get(5, TimeUnit.SECONDS);
+            assertFalse(s1.raftServer.getAllGroupReadyFuture().isDone());
+
+            client.start();
+            client.getRaftClient().clientAddNode("1,127.0.0.1:15501");
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1});
+
+            // group 1 serves while group 2 is still restoring
+            client.put(groupId, "key".getBytes(), "value1".getBytes());
+            assertEquals("value1", new String(client.get(groupId, "key".getBytes()).data));
+
+            slowGroupLatch.countDown();
+            waitStart(s1);
+            client.getRaftClient().clientAddOrUpdateGroup(groupId2, new int[]{1});
+            client.put(groupId2, "key".getBytes(), "value2".getBytes());
+            assertEquals("value2", new String(client.get(groupId2, "key".getBytes()).data));
+        } finally {
+            slowGroupLatch.countDown();
+            slowGroupId = 0;
+            extraGroupIds = new int[0];
+            TestUtil.stop(client);
+            waitStop(s1);
+        }
+    }
+}
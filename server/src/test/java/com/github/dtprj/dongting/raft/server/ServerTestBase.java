@@ -39,8 +39,9 @@ import org.junit.jupiter.api.BeforeEach;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -65,6 +66,8 @@ public class ServerTestBase {
     protected long initCommitIndex = 0;
     protected boolean initSnapshot = false;
     protected int groupId = 1;
+    // other groups created with the same members and observers when the server is created
+    protected int[] extraGroupIds = new int[0];
 
     protected long electTimeout = 30;
     protected long rpcTimeout = 100;
@@ -122,14 +125,21 @@ public class ServerTestBase {
         serverConfig.rpcTimeout = tick(rpcTimeout);
 
         RaftGroupConfig groupConfig = config(nodeId, groupId, nodeIdOfMembers, nodeIdOfObservers);
-        groupConfig.idxCacheSize = idxCacheSize;
-        groupConfig.idxFlushThreshold = idxFlushThreshold;
-        groupConfig.idxItemsPerFile = idxItemsPerFile;
-        groupConfig.logFileSize = logFileSize;
+        List<RaftGroupConfig> groupConfigs = new ArrayList<>();
+        groupConfigs.add(groupConfig);
+        for (int extraGroupId : extraGroupIds) {
+            groupConfigs.add(config(nodeId, extraGroupId, nodeIdOfMembers, nodeIdOfObservers));
+        }
+        for (RaftGroupConfig c : groupConfigs) {
+            c.idxCacheSize = idxCacheSize;
+            c.idxFlushThreshold = idxFlushThreshold;
+            c.idxItemsPerFile = idxItemsPerFile;
+            c.logFileSize = logFileSize;
+        }
 
         DefaultRaftFactory raftFactory = createRaftFactory(nodeId);
 
-        RaftServer raftServer = new RaftServer(serverConfig, Collections.singletonList(groupConfig),
+        RaftServer raftServer = new RaftServer(serverConfig, groupConfigs,
                 raftFactory, g -> {
             ImplAccessor.updateMemberManager(g.groupComponents.memberManager);
             ImplAccessor.updateVoteManager(g.groupComponents.voteManager);
@@ -187,13 +197,17 @@ public class ServerTestBase {
     protected void config(KvServerConfig config) {
     }
 
+    protected StateMachine createStateMachine(int nodeId, RaftGroupConfigEx groupConfig, KvServerConfig config) {
+        return new DtKV(groupConfig, config);
+    }
+
     private DefaultRaftFactory createRaftFactory(int nodeId) {
         return new DefaultRaftFactory() {
             @Override
             public StateMachine createStateMachine(RaftGroupConfigEx groupConfig) {
                 KvServerConfig config = new KvServerConfig();
                 config(config);
-                return new DtKV(groupConfig, config);
+                return ServerTestBase.this.createStateMachine(nodeId, groupConfig, config);
             }
 
             @Override
@@ -0,0 +1,106 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.server;
+
+import com.github.dtprj.dongting.common.ByteArray;
+import com.github.dtprj.dongting.common.DtTime;
+import com.github.dtprj.dongting.dtkv.KvClient;
+import com.github.dtprj.dongting.dtkv.KvCodes;
+import com.github.dtprj.dongting.dtkv.server.DtKV;
+import com.github.dtprj.dongting.raft.admin.AdminRaftClient;
+import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
+import com.github.dtprj.dongting.raft.test.TestUtil;
+import com.github.dtprj.dongting.test.WaitUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author huangli
+ */
+public class WitnessTest extends ServerTestBase {
+
+    @Override
+    protected void config(RaftGroupConfig config) {
+        config.nodeIdOfWitnesses = "3";
+    }
+
+    @Test
+    void test() throws Exception {
+        KvClient client = new KvClient();
+        AdminRaftClient adminClient = new AdminRaftClient();
+        ServerInfo[] sis = new ServerInfo[3];
+        try {
+            String servers = "1,127.0.0.1:14401;2,127.0.0.1:14402;3,127.0.0.1:14403";
+            String members = "1,2,3";
+            for (int i = 0; i < 3; i++) {
+                sis[i] = createServer(i + 1, servers, members, "");
+            }
+            for (ServerInfo si : sis) {
+                waitStart(si);
+            }
+            ServerInfo leader = waitLeaderElectAndGetLeaderId(groupId, sis);
+            assertNotEquals(3, leader.nodeId);
+
+            client.start();
+            client.getRaftClient().clientAddNode("1,127.0.0.1:15501;2,127.0.0.1:15502;3,127.0.0.1:15503");
+            client.getRaftClient().clientAddOrUpdateGroup(groupId, new int[]{1, 2, 3});
+            HashMap<String, byte[]> expectMap = new HashMap<>();
+            long raftIndex = InstallTest.putValues(groupId, client, "witnessKey", 10, 100, expectMap);
+
+            // witness persists and commits logs, but never applies them to the state machine
+            RaftStatusImpl witnessStatus = sis[2].gc.raftStatus;
+            assertTrue(witnessStatus.witness);
+            WaitUtil.waitUtil(() -> witnessStatus.getLastApplied() >= raftIndex,
+                    witnessStatus.fiberGroup.getExecutor());
+            DtKV witnessKv = (DtKV) sis[2].gc.stateMachine;
+            for (String key : expectMap.keySet()) {
+                assertEquals(KvCodes.NOT_FOUND, witnessKv.get(new ByteArray(key.getBytes())).getBizCode());
+            }
+            // the witness can only delete the logs persisted by the other members
+            WaitUtil.waitUtil(() -> witnessStatus.witnessDeleteBound >= raftIndex,
+                    witnessStatus.fiberGroup.getExecutor());
+
+            DtTime timeout = new DtTime(5, TimeUnit.SECONDS);
+            adminClient.start();
+            adminClient.clientAddNode(servers);
+            adminClient.clientAddOrUpdateGroup(groupId, new int[]{1, 2, 3});
+            assertThrows(ExecutionException.class, () -> adminClient.transferLeader(
+                    groupId, leader.nodeId, 3, timeout).get(5, TimeUnit.SECONDS));
+
+            // the rest full member and the witness still form a quorum
+            waitStop(leader);
+            ServerInfo rest = leader == sis[0] ? sis[1] : sis[0];
+            ServerInfo newLeader = waitLeaderElectAndGetLeaderId(groupId, rest, sis[2]);
+            assertEquals(rest.nodeId, newLeader.nodeId);
+            InstallTest.putValues(groupId, client, "witnessKey2", 10, 100, expectMap);
+            InstallTest.check(groupId, client, expectMap);
+        } finally {
+            TestUtil.stop(adminClient);
+            TestUtil.stop(client);
+            for (ServerInfo si : sis) {
+                waitStop(si);
+            }
+        }
+    }
+}
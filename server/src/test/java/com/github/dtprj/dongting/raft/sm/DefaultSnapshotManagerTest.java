@@ -27,6 +27,7 @@ import com.github.dtprj.dongting.fiber.BaseFiberTest;
 import com.github.dtprj.dongting.fiber.Fiber;
 import com.github.dtprj.dongting.fiber.FiberFrame;
 import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FrameCall;
 import com.github.dtprj.dongting.fiber.FrameCallResult;
 import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
@@ -38,6 +39,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -55,6 +57,10 @@ public class DefaultSnapshotManagerTest extends BaseFiberTest {
     private RaftGroupConfigEx groupConfig;
 
     private void createManager(boolean separateExecutor, String dataDir, boolean mockInstall) {
+        createManager(separateExecutor, dataDir, mockInstall, false);
+    }
+
+    private void createManager(boolean separateExecutor, String dataDir, boolean mockInstall, boolean checkpoint) {
         raftStatus = new RaftStatusImpl(0, dispatcher.ts);
         raftStatus.nodeIdOfMembers = Set.of(1);
         raftStatus.nodeIdOfObservers = Set.of();
@@ -67,6 +73,7 @@ public class DefaultSnapshotManagerTest extends BaseFiberTest {
         groupConfig.ts = dispatcher.ts;
         groupConfig.dataDir = dataDir;
         groupConfig.blockIoExecutor = MockExecutors.ioExecutor();
+        groupConfig.saveCheckpointSeconds = checkpoint ? 3600 : 0;
         KvServerConfig kvConfig = new KvServerConfig();
         kvConfig.useSeparateExecutor = separateExecutor;
         kvConfig.initMapCapacity = 16;
@@ -79,7 +86,8 @@ public class DefaultSnapshotManagerTest extends BaseFiberTest {
                 return super.takeSnapshot(si);
             }
         };
-        m = new DefaultSnapshotManager(groupConfig, kv, ()-> kv.takeSnapshot(new SnapshotInfo(raftStatus)) , idx -> {
+        m = new DefaultSnapshotManager(groupConfig, kv, ()-> kv.takeSnapshot(new SnapshotInfo(raftStatus)),
+                base -> kv.takeCheckpoint(new SnapshotInfo(raftStatus), base), idx -> {
         });
     }
 
@@ -162,11 +170,12 @@ public class DefaultSnapshotManagerTest extends BaseFiberTest {
 
                 m.startFiber();
 
-                FiberFrame<Void> f = m.recover(snapshot);
+                FiberFrame<SnapshotInfo> f = m.recover(snapshot);
                 return Fiber.call(f, this::afterRecover);
             }
 
-            private FrameCallResult afterRecover(Void v) {
+            private FrameCallResult afterRecover(SnapshotInfo si) {
+                assertEquals(LOOP, si.lastIncludedIndex);
                 for (index = 1; index <= LOOP; index++) {
                     ByteArray key = new ByteArray(("key" + index).getBytes());
                     KvResult r = kv.get(key);
@@ -220,4 +229,139 @@ public class DefaultSnapshotManagerTest extends BaseFiberTest {
         assertFalse(saveFinished.get());
     }
 
+    private static void waitIoTasks(RaftGroupConfigEx groupConfig) throws Exception {
+        // make sure the delete file task done
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            groupConfig.blockIoExecutor.submit(latch::countDown);
+        }
+        assertTrue(latch.await(3, TimeUnit.SECONDS));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void testCheckpoint(boolean corruptCheckpoint) throws Exception {
+        String dataDir = TestDir.createTestDir(DefaultSnapshotManager.class.getSimpleName()).getAbsolutePath();
+        createManager(false, dataDir, false, true);
+        doInFiber(new FiberFrame<>() {
+            private long index = 1;
+
+            @Override
+            protected FrameCallResult doFinally() {
+                kv.stop(new DtTime(1, TimeUnit.SECONDS));
+                m.stopFiber();
+                return super.doFinally();
+            }
+
+            @Override
+            public FrameCallResult execute(Void input) {
+                kv.start();
+                return Fiber.call(m.init(), this::afterInit);
+            }
+
+            private FrameCallResult afterInit(Snapshot snapshot) {
+                assertNull(snapshot);
+                m.startFiber();
+                return put(5, this::saveSnapshot);
+            }
+
+            private FrameCallResult put(int count, FrameCall<Void> resumePoint) {
+                if (count == 0) {
+                    return Fiber.resume(null, resumePoint);
+                }
+                KvReq req = new KvReq(1, ("key" + index).getBytes(), ("value" + index).getBytes());
+                return exec(DtKV.BIZ_TYPE_PUT, req, v -> put(count - 1, resumePoint));
+            }
+
+            private FrameCallResult exec(int bizType, KvReq req, FrameCall<Void> resumePoint) {
+                RaftInput i = new RaftInput(bizType, null, req, new DtTime(1, TimeUnit.SECONDS), false);
+                Timestamp ts = groupConfig.ts;
+                FiberFuture<Object> f = kv.exec(index++, ts.wallClockMillis, ts.nanoTime, i);
+                return f.await(result -> {
+                    int code = ((KvResult) result).getBizCode();
+                    assertTrue(code == KvCodes.SUCCESS || code == KvCodes.SUCCESS_OVERWRITE);
+                    raftStatus.setLastApplied(index - 1);
+                    raftStatus.lastForceLogIndex = index - 1;
+                    return Fiber.resume(null, resumePoint);
+                });
+            }
+
+            private FrameCallResult saveSnapshot(Void v) {
+                return m.saveSnapshot().await(idx -> {
+                    assertEquals(5L, idx);
+                    // no change after the snapshot
+                    return m.saveCheckpoint().await(this::afterEmptyCheckpoint);
+                });
+            }
+
+            private FrameCallResult afterEmptyCheckpoint(Long idx) {
+                assertEquals(0L, idx);
+                // index 6-8
+                return put(3, this::removeKey2);
+            }
+
+            private FrameCallResult removeKey2(Void v) {
+                // index 9
+                KvReq req = new KvReq(1, "key2".getBytes(), null);
+                return exec(DtKV.BIZ_TYPE_REMOVE, req, this::updateKey3);
+            }
+
+            private FrameCallResult updateKey3(Void v) {
+                // index 10
+                KvReq req = new KvReq(1, "key3".getBytes(), "newValue".getBytes());
+                return exec(DtKV.BIZ_TYPE_PUT, req, this::saveCheckpoint);
+            }
+
+            private FrameCallResult saveCheckpoint(Void v) {
+                return m.saveCheckpoint().await(this::afterSaveCheckpoint);
+            }
+
+            private FrameCallResult afterSaveCheckpoint(Long idx) throws Exception {
+                assertEquals(10L, idx);
+                kv.stop(new DtTime(1, TimeUnit.SECONDS));
+                m.stopFiber();
+                waitIoTasks(groupConfig);
+
+                File dir = new File(new File(dataDir), DefaultSnapshotManager.SNAPSHOT_DIR);
+                File[] files = dir.listFiles(f -> f.getName().endsWith(".ckpt"));
+                assertNotNull(files);
+                assertEquals(1, files.length);
+                if (corruptCheckpoint) {
+                    try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+                        raf.seek(10);
+                        raf.write(raf.read() + 1);
+                    }
+                }
+
+                createManager(false, dataDir, false, true);
+                kv.start();
+                return Fiber.call(m.init(), this::afterInit2);
+            }
+
+            private FrameCallResult afterInit2(Snapshot snapshot) {
+                assertEquals(5, snapshot.getSnapshotInfo().lastIncludedIndex);
+                return Fiber.call(m.recover(snapshot), this::afterRecover);
+            }
+
+            private FrameCallResult afterRecover(SnapshotInfo si) {
+                if (corruptCheckpoint) {
+                    // fallback to the snapshot
+                    assertEquals(5, si.lastIncludedIndex);
+                    assertEquals("value2", new String(kv.get(new ByteArray("key2".getBytes())).getNode().data));
+                    assertEquals("value3", new String(kv.get(new ByteArray("key3".getBytes())).getNode().data));
+                    assertEquals(KvCodes.NOT_FOUND, kv.get(new ByteArray("key6".getBytes())).getBizCode());
+                } else {
+                    assertEquals(10, si.lastIncludedIndex);
+                    assertEquals(KvCodes.NOT_FOUND, kv.get(new ByteArray("key2".getBytes())).getBizCode());
+                    assertEquals("newValue", new String(kv.get(new ByteArray("key3".getBytes())).getNode().data));
+                    for (int i = 6; i <= 8; i++) {
+                        KvResult r = kv.get(new ByteArray(("key" + i).getBytes()));
+                        assertEquals("value" + i, new String(r.getNode().data));
+                    }
+                }
+                assertEquals("value1", new String(kv.get(new ByteArray("key1".getBytes())).getNode().data));
+                return Fiber.frameReturn();
+            }
+        });
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.sm;
+
+import com.github.dtprj.dongting.fiber.BaseFiberTest;
+import com.github.dtprj.dongting.fiber.Fiber;
+import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FiberFuture;
+import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
+import com.github.dtprj.dongting.raft.test.MockExecutors;
+import com.github.dtprj.dongting.test.TestDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author huangli
+ */
+public class FileSnapshotTest extends BaseFiberTest {
+
+    @ParameterizedTest
+    @CsvSource({"0, 64, 4", "1000, 64, 1", "1000, 64, 4", "1000, 100, 4", "100000, 64, 4"})
+    void testRead(int readAheadSize, int readBufferSize, int concurrency) throws Exception {
+        File dir = TestDir.createTestDir(FileSnapshotTest.class.getSimpleName());
+        File dataFile = new File(dir, "test.data");
+        byte[] data = new byte[10000 + new Random().nextInt(100)];
+        new Random().nextBytes(data);
+        Files.write(dataFile.toPath(), data);
+
+        RaftGroupConfigEx groupConfig = new RaftGroupConfigEx(0, "1", "");
+        groupConfig.fiberGroup = fiberGroup;
+        groupConfig.blockIoExecutor = MockExecutors.ioExecutor();
+        groupConfig.diskSnapshotReadAheadSize = readAheadSize;
+        groupConfig.diskSnapshotConcurrency = 2;
+        SnapshotInfo si = new SnapshotInfo(1, 1, Set.of(1), Set.of(), Set.of(), Set.of(), 0);
+
+        byte[] readData = new byte[data.length];
+        doInFiber(new FiberFrame<>() {
+            private FileSnapshot s;
+            private final LinkedList<ByteBuffer> buffers = new LinkedList<>();
+            private final LinkedList<FiberFuture<Integer>> futures = new LinkedList<>();
+            private int pos;
+            private boolean eof;
+
+            @Override
+            public FrameCallResult execute(Void input) throws Exception {
+                s = new FileSnapshot(groupConfig, si, dataFile, 64);
+                return read(null);
+            }
+
+            private FrameCallResult read(Void v) {
+                while (!eof && futures.size() < concurrency) {
+                    ByteBuffer buf = ByteBuffer.allocateDirect(readBufferSize);
+                    buffers.add(buf);
+                    futures.add(s.readNext(buf));
+                }
+                if (futures.isEmpty()) {
+                    assertEquals(data.length, pos);
+                    return Fiber.frameReturn();
+                }
+                return futures.getFirst().await(this::afterRead);
+            }
+
+            private FrameCallResult afterRead(Integer bytes) {
+                futures.removeFirst();
+                ByteBuffer buf = buffers.removeFirst();
+                if (bytes == 0) {
+                    eof = true;
+                } else {
+                    buf.flip();
+                    assertEquals(bytes, buf.remaining());
+                    buf.get(readData, pos, bytes);
+                    pos += bytes;
+                }
+                return Fiber.resume(null, this::read);
+            }
+
+            @Override
+            protected FrameCallResult doFinally() {
+                if (s != null) {
+                    s.close();
+                }
+                return Fiber.frameReturn();
+            }
+        });
+        assertArrayEquals(data, readData);
+    }
+}
@@ -15,6 +15,11 @@
  */
 package com.github.dtprj.dongting.raft.store;
 
+import com.github.dtprj.dongting.codec.DecodeContext;
+import com.github.dtprj.dongting.codec.DecoderCallback;
+import com.github.dtprj.dongting.codec.Encodable;
+import com.github.dtprj.dongting.codec.EncodeContext;
+import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.common.Pair;
 import com.github.dtprj.dongting.fiber.BaseFiberTest;
 import com.github.dtprj.dongting.fiber.Fiber;
@@ -23,6 +28,7 @@ import com.github.dtprj.dongting.fiber.FiberFuture;
 import com.github.dtprj.dongting.fiber.FrameCallResult;
 import com.github.dtprj.dongting.log.BugLog;
 import com.github.dtprj.dongting.raft.impl.InitFiberFrame;
+import com.github.dtprj.dongting.raft.impl.LogCompressor;
 import com.github.dtprj.dongting.raft.impl.RaftCancelException;
 import com.github.dtprj.dongting.raft.impl.RaftStatusImpl;
 import com.github.dtprj.dongting.raft.impl.RaftTask;
@@ -32,6 +38,7 @@ import com.github.dtprj.dongting.raft.server.LogItem;
 import com.github.dtprj.dongting.raft.server.RaftGroupConfigEx;
 import com.github.dtprj.dongting.raft.server.RaftInput;
 import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.raft.sm.RaftCodecFactory;
 import com.github.dtprj.dongting.raft.test.MockExecutors;
 import com.github.dtprj.dongting.raft.test.TestUtil;
 import com.github.dtprj.dongting.test.TestDir;
@@ -53,6 +60,7 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class DefaultRaftLogTest extends BaseFiberTest {
     private String dataDir;
+    private String archiveDir;
     private RaftStatusImpl raftStatus;
     private RaftGroupConfigEx config;
     private StatusManager statusManager;
@@ -70,6 +78,7 @@ public class DefaultRaftLogTest extends BaseFiberTest {
         config = new RaftGroupConfigEx(1, "1", "1");
         config.fiberGroup = fiberGroup;
         config.dataDir = dataDir;
+        config.archiveDir = archiveDir;
         config.blockIoExecutor = MockExecutors.ioExecutor();
         config.ts = raftStatus.ts;
         config.raftStatus = raftStatus;
@@ -213,6 +222,95 @@ public class DefaultRaftLogTest extends BaseFiberTest {
         }
     }
 
+    @Test
+    void testArchive() throws Exception {
+        try {
+            archiveDir = new File(dataDir, "archive").getPath();
+            tearDown();
+            init();
+            int[] totalSizes = new int[]{400, 400, 512, 200, 400};
+            int[] bizHeaderLen = new int[]{1, 0, 400, 100, 1};
+            // 10 items in 5 log files, the first index of files: 1, 3, 5, 7, 9
+            append(1, totalSizes, bizHeaderLen);
+            append(6, totalSizes, bizHeaderLen);
+            raftStatus.commitIndex = 10;
+            raftStatus.setLastApplied(10);
+            raftStatus.lastLogIndex = 10;
+
+            doInFiber(new FiberFrame<>() {
+                @Override
+                public FrameCallResult execute(Void input) {
+                    // to fire idx flush
+                    return raftLog.close().await(this::resume);
+                }
+
+                private FrameCallResult resume(Void unused) {
+                    return statusManager.close().await(this::justReturn);
+                }
+            });
+            init();
+            raftStatus.commitIndex = 10;
+            raftStatus.setLastApplied(10);
+            raftStatus.lastLogIndex = 10;
+            raftStatus.lastForceLogIndex = 10;
+            raftStatus.lastSavedSnapshotIndex = 10;
+
+            File logDir = new File(dataDir, "log");
+            File archiveLogDir = new File(archiveDir, "log");
+            File archiveIdxDir = new File(archiveDir, "idx");
+            doInFiber(() -> raftLog.markTruncateByIndex(10, 0));
+            plus1Hour();
+            WaitUtil.waitUtil(() -> new File(archiveLogDir, String.format("%020d", 3072)).exists());
+            WaitUtil.waitUtil(() -> new File(archiveIdxDir, String.format("%020d", 0)).exists());
+            assertTrue(fileDeleted(logDir, 0).get());
+            assertTrue(fileDeleted(logDir, 3072).get());
+            assertFalse(fileDeleted(logDir, 4096).get());
+
+            // the archived logs are still readable, after restart too
+            checkReadAll(10);
+            tearDown();
+            init();
+            assertEquals(4, raftLog.logFiles.archivedFiles);
+            assertEquals(1, raftLog.idxFiles.archivedFiles);
+            assertEquals(1, raftLog.logFiles.getFirstIndex());
+            checkReadAll(10);
+
+            // delete archived files by archiveRetentionSeconds
+            config.archiveRetentionSeconds = 1;
+            plus1Hour();
+            WaitUtil.waitUtil(() -> fileDeleted(archiveLogDir, 3072).get());
+            WaitUtil.waitUtil(() -> fileDeleted(archiveIdxDir, 0).get());
+            assertFalse(fileDeleted(logDir, 4096).get());
+            assertEquals(9, raftLog.logFiles.getFirstIndex());
+        } finally {
+            archiveDir = null;
+            doInFiber(() -> {
+                TestUtil.updateTimestamp(raftStatus.ts, System.nanoTime(), System.currentTimeMillis());
+                BugLog.reset();
+            });
+        }
+    }
+
+    private void checkReadAll(int total) throws Exception {
+        doInFiber(new FiberFrame<>() {
+            final RaftLog.LogIterator it = raftLog.openIterator(() -> false);
+
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(it.next(1, total, 500000), this::afterNext);
+            }
+
+            private FrameCallResult afterNext(List<LogItem> logItems) throws Exception {
+                assertEquals(total, logItems.size());
+                for (int i = 0; i < total; i++) {
+                    assertEquals(i + 1, logItems.get(i).index);
+                }
+                it.close();
+                return Fiber.frameReturn();
+            }
+        });
+    }
+
     private static Supplier<Boolean> fileDeleted(File dir, long startPos) {
         return () -> {
             String[] names = dir.list();
@@ -356,6 +454,64 @@ public class DefaultRaftLogTest extends BaseFiberTest {
         });
     }
 
+    @Test
+    void testFileLogLoaderWithCompressedBody() throws Exception {
+        ArrayList<LogItem> list = new ArrayList<>();
+        EncodeContext encodeContext = new EncodeContext(null);
+        for (int i = 1; i <= 6; i++) {
+            LogItem li = createItem(config, 1, 1, i, 300, 10);
+            li.type = LogItem.TYPE_NORMAL;
+            byte[] body = new byte[200];
+            for (int j = 0; j < body.length; j++) {
+                body[j] = (byte) (j % 10);
+            }
+            li.setBody(new ByteArray(body));
+            // item 6 is not compressed
+            LogCompressor.compressIfNecessary(li, i == 6 ? LogCompressor.COMPRESS_NONE
+                    : LogCompressor.COMPRESS_DEFLATE, 100, encodeContext);
+            list.add(li);
+        }
+        assertNotNull(list.get(0).getCompressedBody());
+        assertNull(list.get(5).getCompressedBody());
+        append(list);
+
+        RaftCodecFactory codecFactory = new RaftCodecFactory() {
+            @Override
+            public DecoderCallback<? extends Encodable> createHeaderCallback(int bizType, DecodeContext context) {
+                return new ByteArray.Callback();
+            }
+
+            @Override
+            public DecoderCallback<? extends Encodable> createBodyCallback(int bizType, DecodeContext context) {
+                return new ByteArray.Callback();
+            }
+        };
+        doInFiber(new FiberFrame<>() {
+            final RaftLog.LogIterator it = new FileLogLoader(raftLog.idxFiles, raftLog.logFiles, config,
+                    codecFactory, () -> false, 99);
+
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(it.next(1, 6, 500000), this::afterNext);
+            }
+
+            private FrameCallResult afterNext(List<LogItem> logItems) throws Exception {
+                assertEquals(6, logItems.size());
+                for (int i = 0; i < 6; i++) {
+                    LogItem expect = list.get(i);
+                    LogItem li = logItems.get(i);
+                    assertEquals(LogItem.TYPE_NORMAL, li.type);
+                    assertEquals(expect.getActualBodySize(), li.getActualBodySize());
+                    assertEquals(expect.getBody(), li.getBody());
+                    assertEquals(expect.getHeader(), li.getHeader());
+                    assertEquals(expect.getCompressedBody(), li.getCompressedBody());
+                }
+                it.close();
+                return Fiber.frameReturn();
+            }
+        });
+    }
+
     private void testLoader(Supplier<RaftLog.LogIterator> creator) throws Exception {
         final int total = 12;
         doInFiber(new FiberFrame<>() {
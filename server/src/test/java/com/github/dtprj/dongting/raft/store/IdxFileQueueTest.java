@@ -33,6 +33,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -58,11 +59,18 @@ public class IdxFileQueueTest extends BaseFiberTest {
     }
 
     private IdxFileQueue createFileQueue(boolean init) throws Exception {
+        return createFileQueue(init, null);
+    }
+
+    private IdxFileQueue createFileQueue(boolean init, Consumer<RaftGroupConfigEx> configUpdater) throws Exception {
 
         RaftGroupConfigEx c = new RaftGroupConfigEx(1, "1", "1");
         c.idxCacheSize = 4;
         c.idxFlushThreshold = 2;
         c.idxItemsPerFile = 8;
+        if (configUpdater != null) {
+            configUpdater.accept(c);
+        }
         c.blockIoExecutor = MockExecutors.ioExecutor();
         raftStatus = new RaftStatusImpl(0, dispatcher.ts);
         raftStatus.tailCache = new TailCache(c, raftStatus);
@@ -397,4 +405,57 @@ public class IdxFileQueueTest extends BaseFiberTest {
         });
     }
 
+    @Test
+    public void testFlushPageAligned() throws Exception {
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return idxFileQueue.close().await(this::afterIdxClose);
+            }
+
+            private FrameCallResult afterIdxClose(Void unused) {
+                return statusManager.close().await(this::justReturn);
+            }
+        });
+        dir = TestDir.createTestDir(IdxFileQueueTest.class.getSimpleName());
+        idxFileQueue = createFileQueue(true, c -> {
+            c.idxCacheSize = 1024;
+            c.idxFlushThreshold = 600;
+            c.idxItemsPerFile = 2048;
+        });
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                // the first flush is forced
+                idxFileQueue.put(1, 100);
+                raftStatus.commitIndex = 1;
+                raftStatus.lastForceLogIndex = 1;
+                idxFileQueue.put(2, 200);
+                return waitFirstFlush(null);
+            }
+
+            private FrameCallResult waitFirstFlush(Void unused) {
+                if (idxFileQueue.getNextPersistIndex() == 1) {
+                    return Fiber.sleep(1, this::waitFirstFlush);
+                }
+                for (int i = 3; i <= 1000; i++) {
+                    raftStatus.commitIndex = i - 1;
+                    raftStatus.lastForceLogIndex = i - 1;
+                    idxFileQueue.put(i, i * 100);
+                }
+                raftStatus.commitIndex = 1000;
+                raftStatus.lastForceLogIndex = 1000;
+                return waitFlush(null);
+            }
+
+            private FrameCallResult waitFlush(Void unused) {
+                if (idxFileQueue.getNextPersistIndex() == 2) {
+                    return Fiber.sleep(1, this::waitFlush);
+                }
+                // the first page (4KB) contains index 0 to 511, the rest is not written before force
+                assertEquals(512, idxFileQueue.getNextPersistIndex());
+                return Fiber.frameReturn();
+            }
+        });
+    }
 }
@@ -63,6 +63,8 @@ public class LogFileQueueTest extends BaseFiberTest {
 
     private final HashMap<Long, Long> idxMap = new HashMap<>();
     private RuntimeException mockLoadEx;
+    private boolean logDirectIo;
+    private SharedWal sharedWal;
 
     private final IdxOps idxOps = new IdxOps() {
         @Override
@@ -109,6 +111,8 @@ public class LogFileQueueTest extends BaseFiberTest {
         config.ts = raftStatus.ts;
         config.raftStatus = raftStatus;
         config.logFileSize = fileSize;
+        config.logDirectIo = logDirectIo;
+        config.sharedWal = sharedWal;
 
         logFileQueue = new LogFileQueue(dir, config, idxOps);
         logFileQueue.maxWriteBufferSize = maxWriteBufferSize;
@@ -424,6 +428,23 @@ public class LogFileQueueTest extends BaseFiberTest {
         closeThenRestore(256, 4, 2048);
     }
 
+    @Test
+    public void testRestoreReadAhead() throws Exception {
+        setup(64 * 1024, 1024);
+        append(false, 0L, 200, 333, 251, 4000, 217, 999);
+        // the buffer is smaller than items, many incomplete headers and crc are moved to the read ahead buffer
+        closeThenRestore(64, 7, 6000);
+        closeThenRestore(61, 7, 6000);
+    }
+
+    @Test
+    public void testRestoreNoReadAhead() throws Exception {
+        setup(1024, 256);
+        config.restoreReadAhead = false;
+        append(false, 0L, 257, 257, 1024);
+        closeThenRestore(256, 4, 2048);
+    }
+
     @Test
     public void testRestore7() throws Exception {
         setup(1024, 1024);
@@ -622,4 +643,109 @@ public class LogFileQueueTest extends BaseFiberTest {
         closeThenRestore(1024, 2, 1024, 1, 0, 0, null);
     }
 
+    private void ensureWritePosReady(long pos) throws Exception {
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(logFileQueue.ensureWritePosReady(pos), this::justReturn);
+            }
+        });
+    }
+
+    private void startFibers() throws Exception {
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                logFileQueue.startFibers();
+                return Fiber.frameReturn();
+            }
+        });
+    }
+
+    @Test
+    public void testRecycleFile() throws Exception {
+        setup(1024, 1024);
+        config.maxRecycleFiles = 1;
+        append(false, 0L, 1024, 1024, 200);
+        ensureWritePosReady(3072);
+
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(logFileQueue.deleteFirstFile(), this::justReturn);
+            }
+        });
+        File recycleFile = new File(dir, String.format("%020d", 0) + ".recycle");
+        assertFalse(new File(dir, String.format("%020d", 0)).exists());
+        assertTrue(recycleFile.exists());
+
+        // the next file is allocated from the recycled file, which has stale items
+        append(false, 2248L, 824, 200);
+        ensureWritePosReady(4096);
+        assertFalse(recycleFile.exists());
+        assertEquals(1024, new File(dir, String.format("%020d", 4096)).length());
+
+        closeThenRestore(1024, 6, 3272, 2, 1024, 1024, null);
+        assertEquals(0, logFileQueue.getLogFile(4096).firstIndex);
+        assertEquals(5, logFileQueue.getLogFile(3072).firstIndex);
+
+        // the pool is loaded on restart
+        startFibers();
+        append(false, 3272L, 824);
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return Fiber.call(logFileQueue.deleteFirstFile(), this::justReturn);
+            }
+        });
+        assertTrue(new File(dir, String.format("%020d", 1024) + ".recycle").exists());
+        closeThenRestore(1024, 7, 4096, 3, 2048, 2048, null);
+        startFibers();
+        ensureWritePosReady(5120);
+        assertFalse(new File(dir, String.format("%020d", 1024) + ".recycle").exists());
+    }
+
+    @Test
+    public void testDirectIo() throws Exception {
+        // resolved by reflection
+        assertNotNull(StoreUtil.directOpenOption());
+        logDirectIo = true;
+        setup(64 * 1024, 5000);
+        assertTrue(logFileQueue.directIoBlockSize > 0);
+        // unaligned start and end, multi buffers in one write
+        append(true, 0L, 300, 5000, 8192, 200);
+        // less than one block
+        append(false, 13692L, 200);
+        // start in the middle of a block
+        append(false, 13892L, 12000, 4096);
+        closeThenRestore(5000, 8, 29988);
+        assertEquals(29988, idxMap.get(7L) + 4096);
+    }
+
+    @Test
+    public void testSharedWal() throws Exception {
+        RaftServerConfig serverConfig = new RaftServerConfig();
+        serverConfig.sharedWalDir = TestDir.createTestDir(LogFileQueueTest.class.getSimpleName()).getPath();
+        serverConfig.sharedWalCheckpointMillis = 1;
+        sharedWal = new SharedWal(serverConfig);
+        sharedWal.start();
+        try {
+            setup(1024, 1024);
+            append(false, 0L, 200, 200, 1024);
+            closeThenRestore(1024, 4, 2048, 1, 0, 0, () -> {
+                sharedWal.stop();
+                // simulate the writes of log files are lost
+                write(0, new byte[1024]);
+                write(1024, new byte[1024]);
+                sharedWal = new SharedWal(serverConfig);
+                sharedWal.start();
+                sharedWal.replay(1, dir, 1024);
+                sharedWal.finishReplay();
+                config.sharedWal = sharedWal;
+            });
+        } finally {
+            sharedWal.stop();
+            sharedWal = null;
+        }
+    }
 }
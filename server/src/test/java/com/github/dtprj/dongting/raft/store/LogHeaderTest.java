@@ -15,6 +15,7 @@
  */
 package com.github.dtprj.dongting.raft.store;
 
+import com.github.dtprj.dongting.common.ByteArray;
 import com.github.dtprj.dongting.raft.server.LogItem;
 import org.junit.jupiter.api.Test;
 
@@ -22,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.util.zip.CRC32C;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author huangli
@@ -58,6 +60,28 @@ public class LogHeaderTest {
         assertEquals(header.expectCrc, header.headerCrc);
     }
 
+    @Test
+    public void testCompressedFlag() {
+        LogItem item = new LogItem();
+        item.type = LogItem.TYPE_NORMAL;
+        item.bizType = 2;
+        item.setActualHeaderSize(20);
+        item.setActualBodySize(300);
+        item.setCompressedBody(new ByteArray(new byte[100]));
+        ByteBuffer buf = ByteBuffer.allocate(LogHeader.ITEM_HEADER_SIZE);
+        int len = LogHeader.writeHeader(new CRC32C(), buf, item);
+        assertEquals(LogHeader.computeTotalLen(20, 100), len);
+
+        buf.clear();
+        LogHeader header = new LogHeader();
+        header.read(buf);
+        assertEquals(LogItem.TYPE_NORMAL, header.type);
+        assertTrue(header.compressed);
+        assertEquals(100, header.bodyLen);
+        assertTrue(header.crcMatch());
+        assertTrue(header.checkHeader(0, 1024));
+    }
+
     @Test
     public void testWriteEnd() {
         ByteBuffer buf = ByteBuffer.allocate(LogHeader.ITEM_HEADER_SIZE);
@@ -0,0 +1,167 @@
+/*
+ * Copyright The Dongting Project
+ *
+ * The Dongting Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.dtprj.dongting.raft.store;
+
+import com.github.dtprj.dongting.fiber.BaseFiberTest;
+import com.github.dtprj.dongting.fiber.FiberFrame;
+import com.github.dtprj.dongting.fiber.FrameCallResult;
+import com.github.dtprj.dongting.raft.server.RaftServerConfig;
+import com.github.dtprj.dongting.test.TestDir;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author huangli
+ */
+public class SharedWalTest extends BaseFiberTest {
+
+    private RaftServerConfig serverConfig;
+    private File logDir1;
+    private File logDir2;
+
+    @BeforeEach
+    public void setup() {
+        serverConfig = new RaftServerConfig();
+        serverConfig.sharedWalDir = TestDir.createTestDir(SharedWalTest.class.getSimpleName()).getPath();
+        serverConfig.sharedWalFileSize = 1024;
+        logDir1 = TestDir.createTestDir(SharedWalTest.class.getSimpleName());
+        logDir2 = TestDir.createTestDir(SharedWalTest.class.getSimpleName());
+    }
+
+    private static ByteBuffer buf(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File logDir, long fileStart, int pos, int len) throws Exception {
+        File f = new File(logDir, String.format("%020d", fileStart));
+        try (FileInputStream fis = new FileInputStream(f)) {
+            byte[] bs = fis.readAllBytes();
+            return new String(bs, pos, len, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int walFileCount(String dir) {
+        String[] names = new File(dir).list();
+        return names == null ? 0 : names.length;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        SharedWal wal = new SharedWal(serverConfig);
+        wal.start();
+        ByteBuffer b = buf("abc");
+        wal.append(1, 0, b);
+        assertEquals(0, b.position());
+        wal.append(2, 1024 + 100, buf("xyz"));
+        long pos = wal.append(1, 3, buf("def"));
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return wal.waitSync(pos, fiberGroup).await(this::justReturn);
+            }
+        });
+        wal.stop();
+
+        SharedWal wal2 = new SharedWal(serverConfig);
+        wal2.start();
+        wal2.replay(1, logDir1, 1024);
+        wal2.replay(2, logDir2, 1024);
+        assertEquals("abcdef", read(logDir1, 0, 0, 6));
+        assertEquals("xyz", read(logDir2, 1024, 100, 3));
+        wal2.finishReplay();
+        long pos2 = wal2.append(1, 6, buf("g"));
+        assertTrue(pos2 >= 1024);
+        wal2.stop();
+        assertEquals(1, walFileCount(serverConfig.sharedWalDir));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        SharedWal wal = new SharedWal(serverConfig);
+        wal.start();
+        wal.append(1, 0, buf("abc"));
+        wal.appendReset(1);
+        wal.append(1, 10, buf("def"));
+        wal.stop();
+
+        SharedWal wal2 = new SharedWal(serverConfig);
+        wal2.start();
+        wal2.replay(1, logDir1, 1024);
+        assertEquals("\0\0\0", read(logDir1, 0, 0, 3));
+        assertEquals("def", read(logDir1, 0, 10, 3));
+        wal2.stop();
+    }
+
+    @Test
+    public void testSkipDeletedLogFile() throws Exception {
+        SharedWal wal = new SharedWal(serverConfig);
+        wal.start();
+        wal.append(1, 0, buf("abc"));
+        wal.append(1, 1024, buf("def"));
+        wal.stop();
+
+        // the first log file is deleted
+        assertTrue(new File(logDir1, String.format("%020d", 1024)).createNewFile());
+        SharedWal wal2 = new SharedWal(serverConfig);
+        wal2.start();
+        wal2.replay(1, logDir1, 1024);
+        assertEquals(1, walFileCount(logDir1.getPath()));
+        assertEquals("def", read(logDir1, 1024, 0, 3));
+        wal2.stop();
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        SharedWal wal = new SharedWal(serverConfig);
+        wal.start();
+        byte[] data = new byte[400];
+        long pos = 0;
+        for (int i = 0; i < 10; i++) {
+            pos = wal.append(1, i * 400L, ByteBuffer.wrap(data));
+            wal.append(2, i * 400L, ByteBuffer.wrap(data));
+        }
+        wal.checkpoint(2, Long.MAX_VALUE);
+        long finalPos = pos;
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return wal.waitSync(finalPos, fiberGroup).await(this::justReturn);
+            }
+        });
+        // group 1 not checkpoint
+        assertTrue(walFileCount(serverConfig.sharedWalDir) > 5);
+
+        wal.checkpoint(1, pos);
+        pos = wal.append(2, 0, buf("abc"));
+        long finalPos2 = pos;
+        doInFiber(new FiberFrame<>() {
+            @Override
+            public FrameCallResult execute(Void input) {
+                return wal.waitSync(finalPos2, fiberGroup).await(this::justReturn);
+            }
+        });
+        wal.stop();
+        assertTrue(walFileCount(serverConfig.sharedWalDir) <= 2);
+    }
+}